@@ -0,0 +1,39 @@
+package bio.singa.simulation.runner.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Runs the benchmarks of the runner. Accepts all options of the JMH command line, if no result format is given, the
+ * results are written as JSON to jmh-result-[timestamp].json, such that results of different commits can be compared,
+ * e.g.:
+ * <pre>
+ *     java -jar runner-benchmarks-jar-with-dependencies.jar TicketClaim -rff claims-$(git rev-parse --short HEAD).json
+ * </pre>
+ *
+ * @author cl
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLineOptions);
+        if (!commandLineOptions.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if (!commandLineOptions.getResult().hasValue()) {
+            String timeStamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"));
+            options.result("jmh-result-" + timeStamp + ".json");
+        }
+        new Runner(options.build()).run();
+    }
+
+}
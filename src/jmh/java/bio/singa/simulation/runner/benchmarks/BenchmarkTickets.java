@@ -0,0 +1,62 @@
+package bio.singa.simulation.runner.benchmarks;
+
+import bio.singa.exchange.ProcessingTicket;
+import tech.units.indriya.quantity.Quantities;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static bio.singa.features.units.UnitProvider.NANO_MOLE_PER_LITRE;
+import static tech.units.indriya.unit.MetricPrefix.MILLI;
+import static tech.units.indriya.unit.Units.SECOND;
+
+/**
+ * Tickets and directories used by benchmarks.
+ *
+ * @author cl
+ */
+final class BenchmarkTickets {
+
+    private BenchmarkTickets() {
+        // prevent instantiation
+    }
+
+    static ProcessingTicket createTicket() {
+        ProcessingTicket ticket = new ProcessingTicket();
+        ticket.setIdentifier(UUID.randomUUID().toString());
+        ticket.setSimulation("simulation.json");
+        ticket.setTotalTime(Quantities.getQuantity(10, SECOND));
+        ticket.setObservationTime(Quantities.getQuantity(100, MILLI(SECOND)));
+        ticket.setObservedConcentrationUnit(NANO_MOLE_PER_LITRE);
+        ticket.setObservedTimeUnit(MILLI(SECOND));
+        return ticket;
+    }
+
+    static byte[] createPayload(String identifier) {
+        ProcessingTicket ticket = createTicket();
+        ticket.setIdentifier(identifier);
+        try {
+            return ticket.toJson().getBytes(StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to serialize ticket " + identifier + ".", e);
+        }
+    }
+
+    static void delete(Path directory) {
+        if (directory == null || !Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to delete " + directory + ".", e);
+        }
+    }
+
+}
@@ -0,0 +1,51 @@
+package bio.singa.simulation.runner.benchmarks;
+
+import bio.singa.features.quantities.MolarConcentration;
+import bio.singa.simulation.runner.converters.ConcentrationUnitConverter;
+import bio.singa.simulation.runner.converters.TimeQuantityConverter;
+import org.openjdk.jmh.annotations.*;
+
+import javax.measure.Quantity;
+import javax.measure.Unit;
+import javax.measure.quantity.Time;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing of command line quantities and units.
+ *
+ * @author cl
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConverterBenchmark {
+
+    @Param({"10s", "0.5min", "1.5e3ms"})
+    private String time;
+
+    @Param({"nmol/L", "mol/L"})
+    private String concentrationUnit;
+
+    private TimeQuantityConverter timeQuantityConverter;
+    private ConcentrationUnitConverter concentrationUnitConverter;
+
+    @Setup
+    public void createConverters() {
+        timeQuantityConverter = new TimeQuantityConverter();
+        concentrationUnitConverter = new ConcentrationUnitConverter();
+    }
+
+    @Benchmark
+    public Quantity<Time> parseTime() {
+        return timeQuantityConverter.convert(time);
+    }
+
+    @Benchmark
+    public Unit<MolarConcentration> parseConcentrationUnit() {
+        return concentrationUnitConverter.convert(concentrationUnit);
+    }
+
+}
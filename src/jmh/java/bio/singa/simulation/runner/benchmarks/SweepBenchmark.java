@@ -0,0 +1,471 @@
+package bio.singa.simulation.runner.benchmarks;
+
+import bio.singa.simulation.runner.cli.SimulationRunner;
+import bio.singa.simulation.runner.cli.TicketGenerator;
+import bio.singa.simulation.runner.metrics.TicketMetrics;
+import bio.singa.simulation.runner.tickets.TicketSchedule;
+import bio.singa.simulation.runner.tickets.TicketState;
+import bio.singa.simulation.runner.tickets.TicketStore;
+import picocli.CommandLine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import static picocli.CommandLine.*;
+
+/**
+ * Measures the throughput of a whole sweep on a single machine. A copy of the given setup is placed in a temporary
+ * directory. Without a setup, one of the bundled templates is used, a small (5 x 5 nodes) or a large (30 x 30 nodes)
+ * grid with a conversion and a diffusion module, whose rate constant and diffusivity are varied. Tickets are
+ * generated with the {@link TicketGenerator} and processed by independently started {@link SimulationRunner}
+ * processes. Afterwards tickets per second, percentiles of the ticket durations (taken from the metrics.json of every ticket), the peak resident set size and the bytes
+ * written are reported and written as JSON. The time from starting the runners until each of them claimed its first
+ * ticket is taken from the metrics as well, running the benchmark with and without a class data sharing archive (see
+ * --jvm-option) compares the startup of the runners. If tickets are scheduled longest first, the predicted run times of the
+ * schedule are compared to the measured run times and the comparison is written to sweep-predictions.csv.
+ *
+ * @author cl
+ */
+@Command(description = "Measure the throughput of a sweep.",
+        name = "sweep-benchmark",
+        mixinStandardHelpOptions = true)
+public class SweepBenchmark implements Callable<Void> {
+
+    private static final Pattern totalPattern = Pattern.compile("\"total\"\\s*:\\s*([0-9.eE+-]+)");
+    private static final Pattern runPattern = Pattern.compile("\"run\"\\s*:\\s*([0-9.eE+-]+)");
+    private static final Pattern runnerPattern = Pattern.compile("\"runner\"\\s*:\\s*\"([^\"]*)\"");
+    private static final Pattern claimTimePattern = Pattern.compile("\"claimed-at\"\\s*:\\s*(\\d+)");
+    private static final Pattern residentSetPattern = Pattern.compile("^(VmHWM|VmRSS):\\s+(\\d+) kB$");
+
+    @Parameters(index = "0",
+            arity = "0..1",
+            description = "The json file with the simulation, that is used as template for the sweep (default: the setup given by --template).")
+    private Path simulationSetupPath;
+
+    @Option(names = {"--template"},
+            description = {"The bundled setup used if no setup is given",
+                    "valid values: small, large; default: ${DEFAULT-VALUE}"})
+    private String template = "small";
+
+    @Option(names = {"-n", "--tickets"},
+            description = {"The maximal number of variations tickets are generated for",
+                    "default: ${DEFAULT-VALUE}"})
+    private int tickets = 100;
+
+    @Option(names = {"-s", "--samples"},
+            description = {"The number of samples per variation",
+                    "default: ${DEFAULT-VALUE}"})
+    private int samples = 1;
+
+    @Option(names = {"-t", "--termination-time"},
+            description = {"The simulated time per ticket",
+                    "default: ${DEFAULT-VALUE}"})
+    private String terminationTime = "1s";
+
+    @Option(names = {"-w", "--workers"},
+            description = {"The number of runner processes",
+                    "default: ${DEFAULT-VALUE}"})
+    private int workers = 1;
+
+    @Option(names = {"--runner-option"},
+            description = {"Additional options passed to every runner, e.g. --runner-option=--output-format=binary"})
+    private List<String> runnerOptions = new ArrayList<>();
+
+    @Option(names = {"--jvm-option"},
+            description = {"Additional options for the runner processes, e.g. --jvm-option=-XX:SharedArchiveFile=runner-benchmarks.jsa with an archive recorded from the benchmark jar"})
+    private List<String> jvmOptions = new ArrayList<>();
+
+    @Option(names = {"--schedule"},
+            description = {"The order in which tickets are claimed, passed to the ticket generator",
+                    "valid values: arbitrary, longest-first; default: ${DEFAULT-VALUE}"})
+    private String schedule = "arbitrary";
+
+    @Option(names = {"--history"},
+            description = {"A result folder of earlier sweeps, passed to the ticket generator"})
+    private Path historyDirectory;
+
+    @Option(names = {"-r", "--result"},
+            description = {"The file the results are written to",
+                    "default: ${DEFAULT-VALUE}"})
+    private Path resultFile = Paths.get("sweep-result.json");
+
+    @Option(names = {"--keep"},
+            description = {"Keep the temporary sweep directory."})
+    private boolean keep = false;
+
+    private String setupName;
+    private long peakResidentSet;
+    private long peakWorkerResidentSet;
+    private final Map<String, Object> predictionResult = new LinkedHashMap<>();
+    private final List<Long> firstTicketTimes = new ArrayList<>();
+    // wall clock time the runner processes were started at
+    private long launchTime;
+
+    public static void main(String[] args) {
+        CommandLine.call(new SweepBenchmark(), args);
+    }
+
+    @Override
+    public Void call() throws Exception {
+        Path sweepDirectory = Files.createTempDirectory("sweep-benchmark");
+        try {
+            runSweep(sweepDirectory);
+        } finally {
+            if (keep) {
+                System.out.println("kept sweep in " + sweepDirectory);
+            } else {
+                BenchmarkTickets.delete(sweepDirectory);
+            }
+        }
+        return null;
+    }
+
+    private void runSweep(Path sweepDirectory) throws IOException, InterruptedException {
+        Path setupPath;
+        if (simulationSetupPath != null) {
+            setupPath = sweepDirectory.resolve(simulationSetupPath.getFileName());
+            Files.copy(simulationSetupPath, setupPath, StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            setupPath = copyTemplate(sweepDirectory);
+        }
+        setupName = setupPath.getFileName().toString();
+        Path ticketDirectory = sweepDirectory.resolve("tickets");
+        Path resultDirectory = sweepDirectory.resolve("results");
+
+        // generate tickets
+        long generationStart = System.nanoTime();
+        List<String> generatorArguments = new ArrayList<>(Arrays.asList(setupPath.toString(), ticketDirectory.toString(),
+                "-t", terminationTime, "-l", String.valueOf(tickets), "-s", String.valueOf(samples), "--schedule", schedule));
+        if (historyDirectory != null) {
+            generatorArguments.add("--history");
+            generatorArguments.add(historyDirectory.toString());
+        }
+        CommandLine.call(new TicketGenerator(), generatorArguments.toArray(new String[0]));
+        double generationTime = (System.nanoTime() - generationStart) / 1e9;
+        long generatedTickets;
+        try (TicketStore ticketStore = TicketStore.open(ticketDirectory)) {
+            generatedTickets = ticketStore.count(TicketState.OPEN);
+        }
+        System.out.println("generated " + generatedTickets + " tickets in " + String.format(Locale.US, "%.2f", generationTime) + " s");
+
+        // process tickets
+        List<String> runnerArguments = new ArrayList<>();
+        runnerArguments.add(ticketDirectory.toString());
+        runnerArguments.add("-t");
+        runnerArguments.add(resultDirectory.toString());
+        runnerArguments.addAll(runnerOptions);
+        long processingStart = System.nanoTime();
+        runProcesses(runnerArguments);
+        double processingTime = (System.nanoTime() - processingStart) / 1e9;
+
+        long processedTickets;
+        try (TicketStore ticketStore = TicketStore.open(ticketDirectory)) {
+            processedTickets = ticketStore.count(TicketState.DONE);
+        }
+        double[] durations = readTicketDurations(resultDirectory);
+        readFirstTicketTimes(resultDirectory);
+        long bytesWritten = sizeOf(resultDirectory);
+        comparePredictions(ticketDirectory, resultDirectory);
+        writeResult(generatedTickets, generationTime, processedTickets, processingTime, durations, bytesWritten);
+    }
+
+    private Path copyTemplate(Path sweepDirectory) throws IOException {
+        String templateFile = template + "-setup.json";
+        Path setupPath = sweepDirectory.resolve(templateFile);
+        try (InputStream templateStream = SweepBenchmark.class.getResourceAsStream(templateFile)) {
+            if (templateStream == null) {
+                throw new IllegalArgumentException("unknown template " + template + ", valid templates are small and large");
+            }
+            Files.copy(templateStream, setupPath, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return setupPath;
+    }
+
+    private void runProcesses(List<String> runnerArguments) throws IOException, InterruptedException {
+        String javaExecutable = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        List<Process> processes = new ArrayList<>();
+        launchTime = System.currentTimeMillis();
+        for (int worker = 0; worker < workers; worker++) {
+            List<String> command = new ArrayList<>();
+            command.add(javaExecutable);
+            command.addAll(jvmOptions);
+            command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"), SimulationRunner.class.getName()));
+            command.addAll(runnerArguments);
+            File logFile = new File(System.getProperty("java.io.tmpdir"), "sweep-worker-" + worker + ".log");
+            processes.add(new ProcessBuilder(command)
+                    .redirectErrorStream(true)
+                    .redirectOutput(logFile)
+                    .start());
+        }
+        sampleResidentSets(() -> processes.stream().anyMatch(Process::isAlive));
+        for (Process process : processes) {
+            if (process.waitFor() != 0) {
+                System.out.println("runner exited with " + process.exitValue());
+            }
+        }
+    }
+
+    /**
+     * Determines the time from the start of the runner processes to the first ticket claimed by every runner, from the
+     * runner and the claim time in the metrics of every ticket.
+     */
+    private void readFirstTicketTimes(Path resultDirectory) throws IOException {
+        if (!Files.exists(resultDirectory)) {
+            return;
+        }
+        Map<String, Long> firstClaimTimes = new HashMap<>();
+        try (Stream<Path> paths = Files.walk(resultDirectory)) {
+            for (Path metricsFile : (Iterable<Path>) paths.filter(path -> path.getFileName().toString().equals(TicketMetrics.METRICS_FILE))::iterator) {
+                String metrics = new String(Files.readAllBytes(metricsFile), StandardCharsets.UTF_8);
+                Matcher runnerMatcher = runnerPattern.matcher(metrics);
+                Matcher claimTimeMatcher = claimTimePattern.matcher(metrics);
+                if (runnerMatcher.find() && claimTimeMatcher.find()) {
+                    firstClaimTimes.merge(runnerMatcher.group(1), Long.parseLong(claimTimeMatcher.group(1)), Math::min);
+                }
+            }
+        }
+        for (long firstClaimTime : firstClaimTimes.values()) {
+            firstTicketTimes.add(firstClaimTime - launchTime);
+        }
+    }
+
+    /**
+     * Samples the resident set of all runner processes started by this process, until they are finished.
+     *
+     * @param running True, while runners are running.
+     */
+    private void sampleResidentSets(BooleanSupplier running) throws InterruptedException {
+        String pid = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+        while (running.getAsBoolean()) {
+            long residentSet = 0;
+            for (String childPid : childProcesses(pid)) {
+                residentSet += readResidentSet(childPid, "VmRSS");
+                peakWorkerResidentSet = Math.max(peakWorkerResidentSet, readResidentSet(childPid, "VmHWM"));
+            }
+            peakResidentSet = Math.max(peakResidentSet, residentSet);
+            Thread.sleep(500);
+        }
+    }
+
+    private static List<String> childProcesses(String parentPid) {
+        List<String> children = new ArrayList<>();
+        try (DirectoryStream<Path> processes = Files.newDirectoryStream(Paths.get("/proc"), "[0-9]*")) {
+            for (Path process : processes) {
+                try {
+                    String stat = new String(Files.readAllBytes(process.resolve("stat")), StandardCharsets.UTF_8);
+                    // the parent pid is the second field after the command, that is enclosed in parentheses
+                    String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+                    if (fields[1].equals(parentPid)) {
+                        children.add(process.getFileName().toString());
+                    }
+                } catch (IOException e) {
+                    // process is gone
+                }
+            }
+        } catch (IOException e) {
+            // no proc file system
+        }
+        return children;
+    }
+
+    private static long readResidentSet(String pid, String field) {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc", pid, "status"), StandardCharsets.UTF_8)) {
+                Matcher matcher = residentSetPattern.matcher(line);
+                if (matcher.matches() && matcher.group(1).equals(field)) {
+                    return Long.parseLong(matcher.group(2)) * 1024;
+                }
+            }
+        } catch (IOException e) {
+            // process is gone or no proc file system
+        }
+        return 0;
+    }
+
+    private static double[] readTicketDurations(Path resultDirectory) throws IOException {
+        if (!Files.exists(resultDirectory)) {
+            return new double[0];
+        }
+        try (Stream<Path> paths = Files.walk(resultDirectory)) {
+            return paths.filter(path -> path.getFileName().toString().equals(TicketMetrics.METRICS_FILE))
+                    .mapToDouble(metricsFile -> readValue(totalPattern, metricsFile))
+                    .filter(total -> total >= 0)
+                    .sorted()
+                    .toArray();
+        }
+    }
+
+    private static double readValue(Pattern pattern, Path metricsFile) {
+        try {
+            Matcher matcher = pattern.matcher(new String(Files.readAllBytes(metricsFile), StandardCharsets.UTF_8));
+            return matcher.find() ? Double.parseDouble(matcher.group(1)) : -1;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Compares the predicted run times of the schedule to the run phase of the processed tickets, by the rank
+     * correlation (the quantity that matters for scheduling) and the mean absolute error of the logarithms.
+     */
+    private void comparePredictions(Path ticketDirectory, Path resultDirectory) throws IOException {
+        List<Path> scheduleFiles = TicketSchedule.scheduleFiles(ticketDirectory);
+        if (scheduleFiles.isEmpty() || !Files.exists(resultDirectory)) {
+            return;
+        }
+        Map<String, Double> predictions = new HashMap<>();
+        for (Path scheduleFile : scheduleFiles) {
+            for (String line : Files.readAllLines(scheduleFile, StandardCharsets.UTF_8)) {
+                String[] fields = line.split("\t");
+                if (fields.length == 2) {
+                    predictions.put(fields[0], Double.parseDouble(fields[1]));
+                }
+            }
+        }
+        // result folders are named by ticket
+        List<String> ticketIds = new ArrayList<>();
+        List<double[]> pairs = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(resultDirectory)) {
+            for (Path metricsFile : (Iterable<Path>) paths.filter(path -> path.getFileName().toString().equals(TicketMetrics.METRICS_FILE))::iterator) {
+                String ticketId = metricsFile.getParent().getFileName().toString();
+                Double predicted = predictions.get(ticketId);
+                double actual = readValue(runPattern, metricsFile);
+                if (predicted != null && actual > 0) {
+                    ticketIds.add(ticketId);
+                    pairs.add(new double[]{predicted, actual});
+                }
+            }
+        }
+        if (pairs.isEmpty()) {
+            return;
+        }
+        double[] predicted = pairs.stream().mapToDouble(pair -> pair[0]).toArray();
+        double[] actual = pairs.stream().mapToDouble(pair -> pair[1]).toArray();
+        double logError = 0;
+        StringBuilder csv = new StringBuilder("ticket,predicted-seconds,actual-seconds\n");
+        for (int i = 0; i < pairs.size(); i++) {
+            logError += Math.abs(Math.log(Math.max(predicted[i], Double.MIN_NORMAL)) - Math.log(actual[i]));
+            csv.append(ticketIds.get(i)).append(',').append(predicted[i]).append(',').append(actual[i]).append('\n');
+        }
+        Path predictionFile = resultFile.toAbsolutePath().resolveSibling("sweep-predictions.csv");
+        Files.write(predictionFile, csv.toString().getBytes(StandardCharsets.UTF_8));
+        predictionResult.put("predicted-tickets", pairs.size());
+        predictionResult.put("prediction-rank-correlation", pearson(ranks(predicted), ranks(actual)));
+        predictionResult.put("prediction-mean-absolute-log-error", logError / pairs.size());
+        System.out.println("wrote predictions to " + predictionFile);
+    }
+
+    private static double[] ranks(double[] values) {
+        Integer[] order = new Integer[values.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingDouble(i -> values[i]));
+        double[] ranks = new double[values.length];
+        int start = 0;
+        while (start < order.length) {
+            // ties share their average rank
+            int end = start;
+            while (end + 1 < order.length && values[order[end + 1]] == values[order[start]]) {
+                end++;
+            }
+            for (int i = start; i <= end; i++) {
+                ranks[order[i]] = (start + end) / 2.0;
+            }
+            start = end + 1;
+        }
+        return ranks;
+    }
+
+    private static double pearson(double[] first, double[] second) {
+        double firstMean = Arrays.stream(first).average().orElse(0);
+        double secondMean = Arrays.stream(second).average().orElse(0);
+        double covariance = 0;
+        double firstVariance = 0;
+        double secondVariance = 0;
+        for (int i = 0; i < first.length; i++) {
+            covariance += (first[i] - firstMean) * (second[i] - secondMean);
+            firstVariance += (first[i] - firstMean) * (first[i] - firstMean);
+            secondVariance += (second[i] - secondMean) * (second[i] - secondMean);
+        }
+        if (firstVariance == 0 || secondVariance == 0) {
+            return 0;
+        }
+        return covariance / Math.sqrt(firstVariance * secondVariance);
+    }
+
+    private static long sizeOf(Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return 0;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            return paths.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).sum();
+        }
+    }
+
+    private static double percentile(double[] sortedValues, double percentile) {
+        if (sortedValues.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile * sortedValues.length) - 1;
+        return sortedValues[Math.max(0, Math.min(rank, sortedValues.length - 1))];
+    }
+
+    private void writeResult(long generatedTickets, double generationTime, long processedTickets, double processingTime, double[] durations, long bytesWritten) throws IOException {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("setup", setupName);
+        result.put("workers", workers);
+        result.put("runner-options", String.join(" ", runnerOptions));
+        result.put("generated-tickets", generatedTickets);
+        result.put("generation-seconds", generationTime);
+        result.put("processed-tickets", processedTickets);
+        result.put("processing-seconds", processingTime);
+        result.put("tickets-per-second", processingTime == 0 ? 0 : processedTickets / processingTime);
+        result.put("ticket-seconds-p50", percentile(durations, 0.5));
+        result.put("ticket-seconds-p90", percentile(durations, 0.9));
+        result.put("ticket-seconds-p99", percentile(durations, 0.99));
+        result.put("ticket-seconds-max", percentile(durations, 1.0));
+        result.put("peak-resident-set-bytes", peakResidentSet);
+        result.put("peak-worker-resident-set-bytes", peakWorkerResidentSet);
+        result.put("bytes-written", bytesWritten);
+        result.put("schedule", schedule);
+        if (!firstTicketTimes.isEmpty()) {
+            double[] sortedTimes = firstTicketTimes.stream().mapToDouble(Long::doubleValue).sorted().toArray();
+            result.put("jvm-options", String.join(" ", jvmOptions));
+            result.put("first-ticket-ms-p50", percentile(sortedTimes, 0.5));
+            result.put("first-ticket-ms-max", percentile(sortedTimes, 1.0));
+        }
+        result.putAll(predictionResult);
+
+        StringBuilder json = new StringBuilder("{");
+        String separator = "\n";
+        for (Map.Entry<String, Object> entry : result.entrySet()) {
+            json.append(separator).append("  \"").append(entry.getKey()).append("\": ");
+            if (entry.getValue() instanceof String) {
+                json.append('"').append(((String) entry.getValue()).replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+            } else {
+                json.append(entry.getValue());
+            }
+            separator = ",\n";
+        }
+        json.append("\n}\n");
+        Files.write(resultFile, json.toString().getBytes(StandardCharsets.UTF_8));
+        System.out.print(json);
+        System.out.println("wrote results to " + resultFile);
+    }
+
+}
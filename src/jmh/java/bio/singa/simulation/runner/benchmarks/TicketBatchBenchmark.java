@@ -0,0 +1,67 @@
+package bio.singa.simulation.runner.benchmarks;
+
+import bio.singa.simulation.runner.tickets.StoredTicket;
+import bio.singa.simulation.runner.tickets.TicketStore;
+import bio.singa.simulation.runner.tickets.TicketStoreType;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time to drain a ticket store with {@link TicketStore#claim(int)} for different batch sizes. Every
+ * iteration starts with a fresh ticket store and claims all of its tickets.
+ *
+ * @author cl
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TicketBatchBenchmark {
+
+    private static final int TICKETS = 1024;
+
+    @Param({"DIRECTORY", "LEDGER"})
+    private TicketStoreType storeType;
+
+    @Param({"1", "8", "64"})
+    private int batchSize;
+
+    private Path ticketDirectory;
+    private TicketStore ticketStore;
+
+    @Setup(Level.Iteration)
+    public void publishTickets() throws IOException {
+        ticketDirectory = Files.createTempDirectory("batch-benchmark");
+        ticketStore = TicketStore.create(storeType, ticketDirectory);
+        for (int ticket = 0; ticket < TICKETS; ticket++) {
+            String identifier = UUID.randomUUID().toString();
+            ticketStore.publish(identifier, BenchmarkTickets.createPayload(identifier));
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void removeTickets() throws IOException {
+        ticketStore.close();
+        BenchmarkTickets.delete(ticketDirectory);
+    }
+
+    @Benchmark
+    public int drain() throws IOException {
+        int claimedTickets = 0;
+        List<StoredTicket> batch = ticketStore.claim(batchSize);
+        while (!batch.isEmpty()) {
+            claimedTickets += batch.size();
+            batch = ticketStore.claim(batchSize);
+        }
+        return claimedTickets;
+    }
+
+}
@@ -0,0 +1,102 @@
+package bio.singa.simulation.runner.benchmarks;
+
+import bio.singa.exchange.ProcessingTicket;
+import bio.singa.simulation.runner.managers.TicketManager;
+import bio.singa.simulation.runner.tickets.TicketStore;
+import bio.singa.simulation.runner.tickets.TicketStoreType;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link TicketManager#pullTicket()} with concurrent claimers. Every iteration starts with a fresh ticket
+ * store in a temporary directory that holds exactly as many tickets as are claimed during the iteration, such that
+ * every invocation claims (and parses) a ticket.
+ * <p>
+ * Every benchmark thread is a claimer with its own {@link TicketManager} and {@link TicketStore} on the shared ticket
+ * directory, like runners that claim from the same directory. Ledgers are opened only once per process, therefore
+ * the claimers share the ledger, but not the ticket manager.
+ *
+ * @author cl
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, batchSize = TicketClaimBenchmark.CLAIMS_PER_THREAD)
+@Measurement(iterations = 5, batchSize = TicketClaimBenchmark.CLAIMS_PER_THREAD)
+@Fork(1)
+public class TicketClaimBenchmark {
+
+    static final int CLAIMS_PER_THREAD = 200;
+
+    @State(Scope.Benchmark)
+    public static class TicketDirectory {
+
+        @Param({"DIRECTORY", "LEDGER"})
+        private TicketStoreType storeType;
+
+        private Path ticketDirectory;
+        private TicketStore ticketStore;
+
+        @Setup(Level.Iteration)
+        public void publishTickets(BenchmarkParams benchmarkParams) throws IOException {
+            ticketDirectory = Files.createTempDirectory("claim-benchmark");
+            ticketStore = TicketStore.create(storeType, ticketDirectory);
+            int tickets = benchmarkParams.getThreads() * CLAIMS_PER_THREAD;
+            for (int ticket = 0; ticket < tickets; ticket++) {
+                String identifier = UUID.randomUUID().toString();
+                ticketStore.publish(identifier, BenchmarkTickets.createPayload(identifier));
+            }
+        }
+
+        @TearDown(Level.Iteration)
+        public void removeTickets() throws IOException {
+            ticketStore.close();
+            BenchmarkTickets.delete(ticketDirectory);
+        }
+
+    }
+
+    @State(Scope.Thread)
+    public static class Claimer {
+
+        private TicketStore ticketStore;
+        private TicketManager ticketManager;
+
+        @Setup(Level.Iteration)
+        public void openStore(TicketDirectory ticketDirectory) {
+            ticketStore = TicketStore.open(ticketDirectory.ticketDirectory);
+            ticketManager = new TicketManager(ticketStore);
+        }
+
+        @TearDown(Level.Iteration)
+        public void closeStore() throws IOException {
+            ticketStore.close();
+        }
+
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Optional<ProcessingTicket> claimSingle(Claimer claimer) {
+        return claimer.ticketManager.pullTicket();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Optional<ProcessingTicket> claimEight(Claimer claimer) {
+        return claimer.ticketManager.pullTicket();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public Optional<ProcessingTicket> claimSixtyFour(Claimer claimer) {
+        return claimer.ticketManager.pullTicket();
+    }
+
+}
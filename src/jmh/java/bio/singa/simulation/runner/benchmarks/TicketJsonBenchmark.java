@@ -0,0 +1,65 @@
+package bio.singa.simulation.runner.benchmarks;
+
+import bio.singa.exchange.ProcessingTicket;
+import bio.singa.simulation.runner.managers.CompactTicket;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures serializing and parsing of {@link ProcessingTicket}s, compared to {@link CompactTicket}s selecting the
+ * alternatives of the same number of features.
+ *
+ * @author cl
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TicketJsonBenchmark {
+
+    private ProcessingTicket ticket;
+    private String json;
+    private int[] alternatives;
+    private byte[] compactTicket;
+
+    @Setup
+    public void createTicket() throws IOException {
+        ticket = BenchmarkTickets.createTicket();
+        json = ticket.toJson();
+        alternatives = new int[ticket.getFeatures().size()];
+        for (int featureIndex = 0; featureIndex < alternatives.length; featureIndex++) {
+            alternatives[featureIndex] = featureIndex % 10;
+        }
+        compactTicket = CompactTicket.encode(ticket.getIdentifier(), 0, alternatives);
+    }
+
+    @Benchmark
+    public String write() throws IOException {
+        return ticket.toJson();
+    }
+
+    @Benchmark
+    public ProcessingTicket read() throws IOException {
+        return ProcessingTicket.fromJson(json);
+    }
+
+    @Benchmark
+    public ProcessingTicket roundTrip() throws IOException {
+        return ProcessingTicket.fromJson(ticket.toJson());
+    }
+
+    @Benchmark
+    public byte[] writeCompact() {
+        return CompactTicket.encode(ticket.getIdentifier(), 0, alternatives);
+    }
+
+    @Benchmark
+    public CompactTicket readCompact() throws IOException {
+        return CompactTicket.decode(compactTicket);
+    }
+
+}
@@ -0,0 +1,100 @@
+package bio.singa.simulation.runner.benchmarks;
+
+import bio.singa.simulation.runner.managers.VariationIndex;
+import bio.singa.simulation.runner.managers.VariationKey;
+import bio.singa.simulation.runner.managers.VariationSpace;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the enumeration of variations and the lookup of processed variations, that back
+ * {@code VariationManager.nextVariationSet()} and {@code VariationManager.wasAlreadyProcessedIn()}, for different
+ * numbers of processed variations. Features are represented by their alternative indices, because features can only
+ * be created from a simulation setup.
+ *
+ * @author cl
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VariationBenchmark {
+
+    private static final int FEATURES = 7;
+    private static final int ALTERNATIVES = 10;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    private int processedVariations;
+
+    private Path resultDirectory;
+    private VariationSpace variationSpace;
+    private VariationIndex variationIndex;
+    private int[] alternatives;
+    private long variation;
+
+    @Setup(Level.Trial)
+    public void indexVariations() throws IOException {
+        int[] featureIdentifiers = new int[FEATURES];
+        int[] radices = new int[FEATURES];
+        for (int feature = 0; feature < FEATURES; feature++) {
+            featureIdentifiers[feature] = feature + 1;
+            radices[feature] = ALTERNATIVES;
+        }
+        variationSpace = new VariationSpace(featureIdentifiers, radices);
+        alternatives = new int[FEATURES];
+        resultDirectory = Files.createTempDirectory("variation-benchmark");
+        variationIndex = VariationIndex.open(resultDirectory);
+        for (long processed = 0; processed < processedVariations; processed++) {
+            variationIndex.record(keyOf(processed), UUID.randomUUID().toString());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void removeIndex() {
+        BenchmarkTickets.delete(resultDirectory);
+    }
+
+    private String keyOf(long variation) {
+        variationSpace.decode(variation, alternatives);
+        Map<Integer, Object> featureValues = new HashMap<>();
+        for (int feature = 0; feature < FEATURES; feature++) {
+            featureValues.put(variationSpace.getFeatureIdentifier(feature), alternatives[feature]);
+        }
+        return VariationKey.of(featureValues);
+    }
+
+    @Benchmark
+    public void enumerate(Blackhole blackhole) {
+        blackhole.consume(variationSpace.decode(variation, alternatives));
+        variation = (variation + 1) % variationSpace.size();
+    }
+
+    @Benchmark
+    public Optional<String> lookupProcessed() {
+        variation = (variation + 1) % processedVariations;
+        return variationIndex.lookup(keyOf(variation));
+    }
+
+    @Benchmark
+    public Optional<String> lookupUnprocessed() {
+        variation = processedVariations + (variation + 1) % (variationSpace.size() - processedVariations);
+        return variationIndex.lookup(keyOf(variation));
+    }
+
+    @Benchmark
+    public void reopenIndex(Blackhole blackhole) {
+        blackhole.consume(VariationIndex.open(resultDirectory).size());
+    }
+
+}
@@ -0,0 +1,121 @@
+package bio.singa.simulation.runner.checkpoints;
+
+import bio.singa.simulation.events.GraphUpdatedEvent;
+import bio.singa.simulation.model.simulation.Simulation;
+import bio.singa.simulation.runner.trajectories.OutputFormat;
+import bio.singa.simulation.runner.trajectories.TrajectorySink;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tech.units.indriya.quantity.Quantities;
+
+import javax.measure.Quantity;
+import javax.measure.quantity.Time;
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static tech.units.indriya.unit.Units.SECOND;
+
+/**
+ * Passes observations to a trajectory sink and writes a {@link SimulationCheckpoint} to the result folder, whenever
+ * the checkpoint interval of simulated time passed since the last checkpoint. Checkpoints are taken after the
+ * observation has been passed to the sink, such that the state of the sink includes the observation.
+ *
+ * @author cl
+ */
+public class CheckpointingTrajectorySink implements TrajectorySink {
+
+    private static final Logger logger = LoggerFactory.getLogger(CheckpointingTrajectorySink.class);
+
+    private final TrajectorySink sink;
+    private final Simulation simulation;
+    private final String ticketId;
+    private final OutputFormat outputFormat;
+    private final Path resultFolder;
+    private final double intervalSeconds;
+    private final double offsetSeconds;
+
+    private double lastCheckpointSeconds;
+    private int checkpoints;
+    private long checkpointTime;
+
+    /**
+     * Creates a new checkpointing sink.
+     *
+     * @param sink The sink observations are passed to.
+     * @param simulation The simulation.
+     * @param ticketId The ticket that is processed.
+     * @param outputFormat The format of the trajectory.
+     * @param resultFolder The result folder of the ticket.
+     * @param interval The simulated time between checkpoints.
+     * @param timeOffset The elapsed time of the checkpoint the simulation was resumed from.
+     */
+    public CheckpointingTrajectorySink(TrajectorySink sink, Simulation simulation, String ticketId, OutputFormat outputFormat, Path resultFolder, Quantity<Time> interval, Quantity<Time> timeOffset) {
+        this.sink = sink;
+        this.simulation = simulation;
+        this.ticketId = ticketId;
+        this.outputFormat = outputFormat;
+        this.resultFolder = resultFolder;
+        intervalSeconds = interval.to(SECOND).getValue().doubleValue();
+        offsetSeconds = timeOffset.to(SECOND).getValue().doubleValue();
+        lastCheckpointSeconds = offsetSeconds;
+    }
+
+    @Override
+    public void onEventReceived(GraphUpdatedEvent event) {
+        sink.onEventReceived(event);
+        double elapsedSeconds = offsetSeconds + event.getElapsedTime().to(SECOND).getValue().doubleValue();
+        if (elapsedSeconds - lastCheckpointSeconds < intervalSeconds) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            byte[] sinkState = sink.checkpoint();
+            SimulationCheckpoint.capture(ticketId, simulation, Quantities.getQuantity(elapsedSeconds, SECOND), outputFormat, sinkState)
+                    .write(resultFolder);
+            checkpoints++;
+        } catch (IOException e) {
+            logger.warn("unable to write checkpoint to {}", resultFolder, e);
+        }
+        lastCheckpointSeconds = elapsedSeconds;
+        checkpointTime += System.nanoTime() - start;
+    }
+
+    @Override
+    public void close() throws IOException {
+        sink.close();
+    }
+
+    @Override
+    public Path getTrajectoryFile() {
+        return sink.getTrajectoryFile();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return sink.getBytesWritten();
+    }
+
+    @Override
+    public long getWriteTime() {
+        return sink.getWriteTime();
+    }
+
+    /**
+     * Returns the number of checkpoints written so far.
+     *
+     * @return The number of checkpoints.
+     */
+    public int getCheckpoints() {
+        return checkpoints;
+    }
+
+    /**
+     * Returns the time spent on writing checkpoints so far.
+     *
+     * @return The time in milliseconds.
+     */
+    public long getCheckpointTime() {
+        return checkpointTime / 1_000_000;
+    }
+
+}
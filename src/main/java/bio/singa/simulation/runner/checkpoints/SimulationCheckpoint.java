@@ -0,0 +1,315 @@
+package bio.singa.simulation.runner.checkpoints;
+
+import bio.singa.chemistry.entities.ChemicalEntity;
+import bio.singa.features.model.FeatureRegistry;
+import bio.singa.features.units.UnitRegistry;
+import bio.singa.simulation.model.sections.CellSubsection;
+import bio.singa.simulation.model.simulation.Simulation;
+import bio.singa.simulation.model.simulation.Updatable;
+import bio.singa.simulation.runner.trajectories.OutputFormat;
+import bio.singa.simulation.trajectories.nested.TrajactoryDataPoint;
+import bio.singa.simulation.trajectories.nested.TrajectoryData;
+import tech.units.indriya.quantity.Quantities;
+
+import javax.measure.Quantity;
+import javax.measure.Unit;
+import javax.measure.quantity.Time;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static bio.singa.features.units.UnitProvider.NANO_MOLE_PER_LITRE;
+import static tech.units.indriya.unit.Units.SECOND;
+
+/**
+ * The state of a running simulation, that allows to resume a ticket instead of restarting it, if the runner
+ * processing it died. A checkpoint holds the elapsed time and epoch of the simulation, the current time step, the
+ * concentration of every entity in every subsection of every updatable and the state of the trajectory sink (see
+ * {@link bio.singa.simulation.runner.trajectories.TrajectorySink#checkpoint()}).
+ * <p>
+ * singa does not allow to set the elapsed time, the epoch or the state of modules and events of a simulation. A
+ * resumed simulation therefore starts its clock at zero and modules that depend on the elapsed time or keep their own
+ * state start over, such that its trajectory may differ from an uninterrupted run. Tickets are therefore only resumed
+ * if the runner is asked to, and resumed tickets are marked by a {@value #RESUMED_FILE} in their result folder and in
+ * their metrics. Their results are not recorded as processed variations, nor used to fit cost models or to refine
+ * adaptive sweeps.
+ * <p>
+ * Checkpoints are written to the result folder of the ticket. The file starts with a magic number and the format
+ * version, followed by the deflated content. Concentrations are stored in the internal units of the simulation and
+ * are grouped by updatable and subsection, such that every identifier is only written once. Checkpoints are written to
+ * a temporary file that replaces the previous checkpoint, so there always is one complete checkpoint.
+ *
+ * @author cl
+ */
+public class SimulationCheckpoint {
+
+    public static final String CHECKPOINT_FILE = "checkpoint.bin";
+    public static final String RESUMED_FILE = "resumed.json";
+
+    static final int MAGIC = 0x5347434b;
+    static final short VERSION = 1;
+
+    private final String ticketId;
+    private final double elapsedSeconds;
+    private final long epoch;
+    private final double timeStepSeconds;
+    private final OutputFormat outputFormat;
+    private final byte[] sinkState;
+    // concentrations by updatable, subsection and entity
+    private final Map<String, Map<String, Map<String, Double>>> concentrations;
+
+    private SimulationCheckpoint(String ticketId, double elapsedSeconds, long epoch, double timeStepSeconds, OutputFormat outputFormat, byte[] sinkState, Map<String, Map<String, Map<String, Double>>> concentrations) {
+        this.ticketId = ticketId;
+        this.elapsedSeconds = elapsedSeconds;
+        this.epoch = epoch;
+        this.timeStepSeconds = timeStepSeconds;
+        this.outputFormat = outputFormat;
+        this.sinkState = sinkState;
+        this.concentrations = concentrations;
+    }
+
+    /**
+     * Captures the current state of the simulation. Has to be called from the thread running the simulation, between
+     * two epochs.
+     *
+     * @param ticketId The ticket that is processed.
+     * @param simulation The simulation.
+     * @param elapsedTime The elapsed time since the start of the ticket.
+     * @param outputFormat The format of the trajectory.
+     * @param sinkState The state of the trajectory sink.
+     * @return The checkpoint.
+     */
+    public static SimulationCheckpoint capture(String ticketId, Simulation simulation, Quantity<Time> elapsedTime, OutputFormat outputFormat, byte[] sinkState) {
+        Map<String, Map<String, Map<String, Double>>> concentrations = new LinkedHashMap<>();
+        forEachConcentration(simulation, (updatable, subsection, entity) -> concentrations
+                .computeIfAbsent(updatable.getStringIdentifier(), key -> new LinkedHashMap<>())
+                .computeIfAbsent(subsection.getIdentifier(), key -> new LinkedHashMap<>())
+                .put(String.valueOf(entity.getIdentifier()), updatable.getConcentrationContainer().get(subsection, entity)));
+        double timeStepSeconds = UnitRegistry.getTime().to(SECOND).getValue().doubleValue();
+        return new SimulationCheckpoint(ticketId, elapsedTime.to(SECOND).getValue().doubleValue(), simulation.getEpoch(), timeStepSeconds, outputFormat, sinkState, concentrations);
+    }
+
+    private static void forEachConcentration(Simulation simulation, ConcentrationConsumer consumer) {
+        // the concentrations are only used to determine the subsections and entities of every updatable
+        Map<Updatable, TrajactoryDataPoint> concentrationData = TrajectoryData.of(simulation.getUpdatables(), NANO_MOLE_PER_LITRE).getConcentrationData();
+        concentrationData.forEach((updatable, dataPoint) -> dataPoint.getConcentrations().forEach((subsection, entities) -> {
+            for (ChemicalEntity entity : entities.keySet()) {
+                consumer.accept(updatable, subsection, entity);
+            }
+        }));
+    }
+
+    /**
+     * Sets the concentrations and the time step of the checkpoint in a freshly built simulation of the same setup and
+     * variation. Features are rescaled to the restored time step.
+     *
+     * @param simulation The simulation.
+     * @return The number of concentrations that were set.
+     */
+    public int restore(Simulation simulation) {
+        int[] restored = new int[1];
+        forEachConcentration(simulation, (updatable, subsection, entity) -> {
+            Map<String, Map<String, Double>> subsections = concentrations.get(updatable.getStringIdentifier());
+            if (subsections == null) {
+                return;
+            }
+            Map<String, Double> entities = subsections.get(subsection.getIdentifier());
+            if (entities == null) {
+                return;
+            }
+            Double concentration = entities.get(String.valueOf(entity.getIdentifier()));
+            if (concentration != null) {
+                updatable.getConcentrationContainer().set(subsection, entity, concentration);
+                restored[0]++;
+            }
+        });
+        Unit<Time> timeUnit = UnitRegistry.getTime().getUnit();
+        UnitRegistry.setTime(Quantities.getQuantity(timeStepSeconds, SECOND).to(timeUnit));
+        FeatureRegistry.scale();
+        return restored[0];
+    }
+
+    /**
+     * Reads the checkpoint from the result folder of a ticket.
+     *
+     * @param resultFolder The result folder.
+     * @return The checkpoint or an empty optional if there is no checkpoint.
+     * @throws IOException if the checkpoint could not be read or has an unknown format.
+     */
+    public static Optional<SimulationCheckpoint> read(Path resultFolder) throws IOException {
+        Path checkpointFile = resultFolder.resolve(CHECKPOINT_FILE);
+        InputStream fileStream;
+        try {
+            fileStream = Files.newInputStream(checkpointFile);
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        }
+        try (DataInputStream header = new DataInputStream(new BufferedInputStream(fileStream))) {
+            if (header.readInt() != MAGIC) {
+                throw new IOException("The file " + checkpointFile + " is no checkpoint.");
+            }
+            short version = header.readShort();
+            if (version != VERSION) {
+                throw new IOException("The checkpoint " + checkpointFile + " has the unsupported version " + version + ".");
+            }
+            DataInputStream input = new DataInputStream(new InflaterInputStream(header));
+            String ticketId = input.readUTF();
+            double elapsedSeconds = input.readDouble();
+            long epoch = input.readLong();
+            double timeStepSeconds = input.readDouble();
+            OutputFormat outputFormat = OutputFormat.valueOf(input.readUTF());
+            byte[] sinkState = new byte[input.readInt()];
+            input.readFully(sinkState);
+            Map<String, Map<String, Map<String, Double>>> concentrations = new LinkedHashMap<>();
+            int updatableCount = input.readInt();
+            for (int updatable = 0; updatable < updatableCount; updatable++) {
+                Map<String, Map<String, Double>> subsections = new LinkedHashMap<>();
+                concentrations.put(input.readUTF(), subsections);
+                int subsectionCount = input.readInt();
+                for (int subsection = 0; subsection < subsectionCount; subsection++) {
+                    Map<String, Double> entities = new LinkedHashMap<>();
+                    subsections.put(input.readUTF(), entities);
+                    int entityCount = input.readInt();
+                    for (int entity = 0; entity < entityCount; entity++) {
+                        entities.put(input.readUTF(), input.readDouble());
+                    }
+                }
+            }
+            return Optional.of(new SimulationCheckpoint(ticketId, elapsedSeconds, epoch, timeStepSeconds, outputFormat, sinkState, concentrations));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("The checkpoint " + checkpointFile + " references an unknown output format.", e);
+        }
+    }
+
+    /**
+     * Writes the checkpoint to the result folder of the ticket, replacing the previous checkpoint.
+     *
+     * @param resultFolder The result folder.
+     * @throws IOException if the checkpoint could not be written.
+     */
+    public void write(Path resultFolder) throws IOException {
+        Path checkpointFile = resultFolder.resolve(CHECKPOINT_FILE);
+        Path temporaryFile = resultFolder.resolve("." + CHECKPOINT_FILE);
+        try (DataOutputStream header = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile)))) {
+            header.writeInt(MAGIC);
+            header.writeShort(VERSION);
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                DeflaterOutputStream deflaterStream = new DeflaterOutputStream(header, deflater);
+                DataOutputStream output = new DataOutputStream(deflaterStream);
+                output.writeUTF(ticketId);
+                output.writeDouble(elapsedSeconds);
+                output.writeLong(epoch);
+                output.writeDouble(timeStepSeconds);
+                output.writeUTF(outputFormat.name());
+                output.writeInt(sinkState.length);
+                output.write(sinkState);
+                output.writeInt(concentrations.size());
+                for (Map.Entry<String, Map<String, Map<String, Double>>> updatable : concentrations.entrySet()) {
+                    output.writeUTF(updatable.getKey());
+                    output.writeInt(updatable.getValue().size());
+                    for (Map.Entry<String, Map<String, Double>> subsection : updatable.getValue().entrySet()) {
+                        output.writeUTF(subsection.getKey());
+                        output.writeInt(subsection.getValue().size());
+                        for (Map.Entry<String, Double> entity : subsection.getValue().entrySet()) {
+                            output.writeUTF(entity.getKey());
+                            output.writeDouble(entity.getValue());
+                        }
+                    }
+                }
+                output.flush();
+                deflaterStream.finish();
+            } finally {
+                deflater.end();
+            }
+        }
+        Files.move(temporaryFile, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Removes the checkpoint of a ticket, once its results are complete.
+     *
+     * @param resultFolder The result folder.
+     * @throws IOException if the checkpoint could not be removed.
+     */
+    public static void delete(Path resultFolder) throws IOException {
+        Files.deleteIfExists(resultFolder.resolve(CHECKPOINT_FILE));
+    }
+
+    /**
+     * Marks the result folder of a ticket as resumed from this checkpoint.
+     *
+     * @param resultFolder The result folder.
+     * @throws IOException if the marker could not be written.
+     */
+    public void writeResumedMarker(Path resultFolder) throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"ticket\": \"").append(ticketId).append('"');
+        json.append(",\n  \"resumed-from-seconds\": ").append(elapsedSeconds);
+        json.append(",\n  \"epoch\": ").append(epoch);
+        json.append(",\n  \"time-step-seconds\": ").append(timeStepSeconds).append("\n}\n");
+        Files.write(resultFolder.resolve(RESUMED_FILE), json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Removes the resumed marker left by an earlier attempt, if a ticket is started from the beginning.
+     *
+     * @param resultFolder The result folder.
+     * @throws IOException if the marker could not be removed.
+     */
+    public static void deleteResumedMarker(Path resultFolder) throws IOException {
+        Files.deleteIfExists(resultFolder.resolve(RESUMED_FILE));
+    }
+
+    public String getTicketId() {
+        return ticketId;
+    }
+
+    public Quantity<Time> getElapsedTime() {
+        return Quantities.getQuantity(elapsedSeconds, SECOND);
+    }
+
+    public long getEpoch() {
+        return epoch;
+    }
+
+    public OutputFormat getOutputFormat() {
+        return outputFormat;
+    }
+
+    public byte[] getSinkState() {
+        return sinkState;
+    }
+
+    /**
+     * Returns the number of stored concentrations.
+     *
+     * @return The number of concentrations.
+     */
+    public int size() {
+        int size = 0;
+        for (Map<String, Map<String, Double>> subsections : concentrations.values()) {
+            for (Map<String, Double> entities : subsections.values()) {
+                size += entities.size();
+            }
+        }
+        return size;
+    }
+
+    @FunctionalInterface
+    private interface ConcentrationConsumer {
+
+        void accept(Updatable updatable, CellSubsection subsection, ChemicalEntity entity);
+
+    }
+
+}
@@ -1,5 +1,11 @@
 package bio.singa.simulation.runner.cli;
 
+import bio.singa.simulation.runner.heartbeats.HeartbeatChannel;
+import bio.singa.simulation.runner.heartbeats.HeartbeatMonitor;
+import bio.singa.simulation.runner.managers.RecoveryManager;
+import bio.singa.simulation.runner.tickets.TicketMonitor;
+import bio.singa.simulation.runner.tickets.TicketState;
+import bio.singa.simulation.runner.tickets.TicketStore;
 import me.tongfei.progressbar.BitOfInformation;
 import me.tongfei.progressbar.ProgressBar;
 import me.tongfei.progressbar.ProgressBarBuilder;
@@ -8,18 +14,13 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import picocli.CommandLine;
 
-import java.io.IOException;
-import java.nio.file.DirectoryStream;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.EnumSet;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Stream;
 
 import static picocli.CommandLine.Parameters;
 
@@ -42,11 +43,36 @@ public class SimulationOverseer implements Callable<Void> {
             description = "The folder, where simulation results are written")
     private Path targetDirectory = Paths.get("");
 
+    @CommandLine.Option(names = {"--poll"},
+            description = {"Poll the ticket directories for changes instead of waiting for file system events,",
+                    "network file systems are always polled"},
+            order = 1)
+    private boolean poll = false;
+
+    @CommandLine.Option(names = {"--lease-timeout"},
+            description = {"The minutes without sign of life, after which a simulation is considered dead",
+                    "default: ${DEFAULT-VALUE}"},
+            order = 2)
+    private long leaseTimeout = 5;
+
+    @CommandLine.Option(names = {"--reconcile-interval"},
+            description = {"The minutes between checks of all result folders",
+                    "default: ${DEFAULT-VALUE}"},
+            order = 3)
+    private long reconcileInterval = 15;
+
+    @CommandLine.Option(names = {"--io-threads"},
+            description = {"The number of threads checking result folders in parallel",
+                    "default: ${DEFAULT-VALUE}"},
+            order = 4)
+    private int ioThreads = 8;
+
     private ProgressBar progressBar;
 
-    private Path openTicketPath;
-    private Path processingPath;
-    private Path donePath;
+    private TicketStore ticketStore;
+    private TicketMonitor ticketMonitor;
+    private RecoveryManager recoveryManager;
+    private HeartbeatMonitor heartbeatMonitor;
 
     public static void main(String[] args) {
         CommandLine.call(new SimulationOverseer(), args);
@@ -55,12 +81,14 @@ public class SimulationOverseer implements Callable<Void> {
     @Override
     public Void call() throws Exception {
 
-        openTicketPath = ticketDirectory.resolve("open");
-        processingPath = ticketDirectory.resolve("processing");
-        donePath = ticketDirectory.resolve("done");
+        ticketStore = TicketStore.open(ticketDirectory);
+        ticketMonitor = TicketMonitor.of(ticketStore, EnumSet.allOf(TicketState.class), poll, 10, TimeUnit.SECONDS);
+        heartbeatMonitor = new HeartbeatMonitor(ticketDirectory.resolve(HeartbeatChannel.HEARTBEAT_DIRECTORY), leaseTimeout, TimeUnit.MINUTES);
+        heartbeatMonitor.refresh();
+        recoveryManager = new RecoveryManager(ticketStore, targetDirectory, heartbeatMonitor, leaseTimeout, TimeUnit.MINUTES, ioThreads);
 
         progressBar = new ProgressBarBuilder()
-                .setInitialMax(countFiles(openTicketPath) + countFiles(processingPath) + countFiles(donePath))
+                .setInitialMax(ticketMonitor.count(TicketState.OPEN) + ticketMonitor.count(TicketState.PROCESSING) + ticketMonitor.count(TicketState.DONE) + ticketMonitor.count(TicketState.FAILED))
                 .setUpdateIntervalMillis(10000)
                 .setStyle(ProgressBarStyle.COLORFUL_UNICODE_BLOCK)
                 .setTaskName("progress")
@@ -68,123 +96,39 @@ public class SimulationOverseer implements Callable<Void> {
 
         progressBar.bind(this::getNumberOfClosedTickets);
         progressBar.addBitOfInformation(new BitOfInformation("currently processing", this::currentlyProcessingTickets));
+        progressBar.addBitOfInformation(new BitOfInformation("recovered", () -> String.valueOf(recoveryManager.getRecoveredTickets())));
+        progressBar.addBitOfInformation(new BitOfInformation("failed", () -> String.valueOf(ticketMonitor.count(TicketState.FAILED))));
+        progressBar.addBitOfInformation(new BitOfInformation("workers", heartbeatMonitor::getWorkerSummary));
+        progressBar.addBitOfInformation(new BitOfInformation("speed", heartbeatMonitor::getSpeedSummary));
+        progressBar.addBitOfInformation(new BitOfInformation("heap", heartbeatMonitor::getHeapSummary));
 
         ScheduledExecutorService ses = Executors.newScheduledThreadPool(1);
-
-        Callable<Void> callableTask = () -> {
-            checkForDeadSimulations();
-            return null;
-        };
-
-        ses.schedule(callableTask, 5, TimeUnit.MINUTES);
+        // exceptions would cancel further executions
+        ses.scheduleWithFixedDelay(() -> {
+            try {
+                heartbeatMonitor.refresh();
+                recoveryManager.checkLeases();
+            } catch (RuntimeException e) {
+                logger.warn("unable to check leases", e);
+            }
+        }, 0, 10, TimeUnit.SECONDS);
+        ses.scheduleWithFixedDelay(() -> {
+            try {
+                recoveryManager.reconcile();
+            } catch (RuntimeException e) {
+                logger.warn("unable to reconcile result folders", e);
+            }
+        }, leaseTimeout, reconcileInterval, TimeUnit.MINUTES);
 
         return null;
     }
 
     private String currentlyProcessingTickets() {
-        return String.valueOf(countFiles(processingPath));
+        return String.valueOf(ticketMonitor.count(TicketState.PROCESSING));
     }
 
     private long getNumberOfClosedTickets() {
-        return countFiles(donePath);
-    }
-
-    private void checkForDeadSimulations() {
-        // traverse all observation directories
-        if (!Files.exists(targetDirectory)) {
-            return;
-        }
-        List<String> deathList = new ArrayList<>();
-        // cross check processing tickets
-        try (DirectoryStream<Path> processingDirectoryStream = Files.newDirectoryStream(processingPath)) {
-            for (Path processingDirectoryPath : processingDirectoryStream) {
-                if (!Files.isDirectory(processingDirectoryPath)) {
-                    String ticketIdentifier = processingDirectoryPath.getFileName().toString();
-                    // get alive file
-                    Path aliveFile = targetDirectory.resolve(ticketIdentifier).resolve("alive");
-                    if (simulationFailed(aliveFile)) {
-                        deathList.add(ticketIdentifier);
-                    }
-                }
-            }
-        } catch (IOException e) {
-            logger.warn("Unable to retrieve processing tickets from " + processingPath + ".", e);
-        }
-
-        // check observations
-        try (DirectoryStream<Path> observationDirectoryStream = Files.newDirectoryStream(targetDirectory)) {
-            for (Path observationDirectoryPath : observationDirectoryStream) {
-                if (Files.isDirectory(observationDirectoryPath)) {
-                    String ticketIdentifier = observationDirectoryPath.getFileName().toString();
-                    // get alive file
-                    Path aliveFile = observationDirectoryPath.resolve("alive");
-                    if (simulationFailed(aliveFile)) {
-                        deathList.add(ticketIdentifier);
-                    }
-                }
-            }
-        } catch (IOException e) {
-            logger.warn("Unable to retrieve simulation paths from " + targetDirectory + ".", e);
-        }
-
-        for (String ticketIdentifier : deathList) {
-            System.out.println("Simulation " + ticketIdentifier + " seems to be dead, removing it. ");
-            Path deadFolder = targetDirectory.resolve(ticketIdentifier);
-            // reopen ticket
-            try {
-                Path processing = processingPath.resolve(ticketIdentifier);
-                if (Files.exists(processing)) {
-                    Files.move(processing, openTicketPath.resolve(ticketIdentifier));
-                }
-                Path done = donePath.resolve(ticketIdentifier);
-                if (Files.exists(done)) {
-                    Files.move(done, openTicketPath.resolve(ticketIdentifier));
-                }
-            } catch (IOException e) {
-                logger.warn("Unable to reopen ticket " + ticketIdentifier + ".");
-                continue;
-            }
-            // remove dead simulation
-            deadFolder.resolve("variations.json").toFile().delete();
-            deadFolder.resolve("alive").toFile().delete();
-            deadFolder.toFile().delete();
-        }
+        return ticketMonitor.count(TicketState.DONE) + ticketMonitor.count(TicketState.FAILED);
     }
 
-    private boolean simulationFailed(Path aliveFile) {
-        // no file exists
-        if (!Files.exists(aliveFile)) {
-            return true;
-        }
-        // read file
-        String aliveTime;
-        try {
-            aliveTime = String.join("", Files.readAllLines(aliveFile));
-        } catch (IOException e) {
-            // unale to read file
-            logger.warn("unable to read alive file {}", aliveFile);
-            return true;
-        }
-        // simulation is done
-        if (aliveTime.equals("done")) {
-            return false;
-        }
-        // check timestamp
-        long lastLifeSign = Long.parseLong(aliveTime);
-        long currentTime = System.currentTimeMillis();
-        // 5 minutes no sign
-        long deathThreshold = 5 * 60 * 1000;
-        return currentTime - lastLifeSign > deathThreshold;
-    }
-
-    private long countFiles(Path directoryPath) {
-        try (Stream<Path> files = Files.list(directoryPath)) {
-            return files.count();
-        } catch (IOException e) {
-            logger.warn("unable to count files in {}", directoryPath);
-            return 0;
-        }
-    }
-
-
 }
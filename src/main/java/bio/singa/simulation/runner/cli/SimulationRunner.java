@@ -1,28 +1,54 @@
 package bio.singa.simulation.runner.cli;
 
-import bio.singa.exchange.Converter;
 import bio.singa.exchange.ProcessingTicket;
 import bio.singa.exchange.SimulationRepresentation;
-import bio.singa.exchange.trajectories.TrajectoryDataset;
 import bio.singa.simulation.model.simulation.Simulation;
 import bio.singa.simulation.model.simulation.SimulationManager;
+import bio.singa.simulation.runner.checkpoints.CheckpointingTrajectorySink;
+import bio.singa.simulation.runner.checkpoints.SimulationCheckpoint;
+import bio.singa.simulation.runner.converters.OutputFormatConverter;
+import bio.singa.simulation.runner.converters.TimeQuantityConverter;
+import bio.singa.simulation.runner.heartbeats.HeartbeatChannel;
+import bio.singa.simulation.runner.heartbeats.HeartbeatReporter;
 import bio.singa.simulation.runner.managers.ProgressBarManager;
+import bio.singa.simulation.runner.managers.SimulationSetupCache;
+import bio.singa.simulation.runner.managers.SteadyStateDetector;
 import bio.singa.simulation.runner.managers.TicketManager;
+import bio.singa.simulation.runner.managers.VariationIndex;
+import bio.singa.simulation.runner.managers.VariationKey;
+import bio.singa.simulation.runner.metrics.Phase;
+import bio.singa.simulation.runner.metrics.PrometheusFileExporter;
+import bio.singa.simulation.runner.metrics.RunnerMetrics;
+import bio.singa.simulation.runner.metrics.TicketMetrics;
+import bio.singa.simulation.runner.tickets.LedgerTicketStore;
+import bio.singa.simulation.runner.tickets.TicketMonitor;
+import bio.singa.simulation.runner.tickets.TicketState;
+import bio.singa.simulation.runner.tickets.TicketStore;
+import bio.singa.simulation.runner.tickets.TicketStoreType;
+import bio.singa.simulation.runner.trajectories.BinaryTrajectorySink;
+import bio.singa.simulation.runner.trajectories.BufferedTrajectorySink;
+import bio.singa.simulation.runner.trajectories.OutputFormat;
+import bio.singa.simulation.runner.trajectories.StreamingTrajectorySink;
+import bio.singa.simulation.runner.trajectories.TrajectorySink;
 import bio.singa.simulation.trajectories.Recorders;
-import bio.singa.simulation.trajectories.nested.NestedUpdateRecorder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import picocli.CommandLine;
 import tech.units.indriya.quantity.Quantities;
 
-import java.io.File;
+import javax.measure.Quantity;
+import javax.measure.quantity.Time;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static bio.singa.features.units.UnitProvider.NANO_MOLE_PER_LITRE;
 import static picocli.CommandLine.*;
@@ -41,6 +67,9 @@ public class SimulationRunner implements Callable<Void> {
 
     private static final Logger logger = LoggerFactory.getLogger(SimulationRunner.class);
 
+    // a runner processes one ticket at a time and reports it in a single heartbeat slot
+    private static final int HEARTBEAT_SLOT = 0;
+
     @Parameters(index = "0",
             description = "The folder, where ticket are pulled from.")
     private Path ticketDirectory = Paths.get("tickets");
@@ -55,6 +84,119 @@ public class SimulationRunner implements Callable<Void> {
             order = 2)
     private boolean showProgress = false;
 
+    @Option(names = {"--setup-cache-size"},
+            description = {"The number of parsed simulation setups that are kept in memory",
+                    "default: ${DEFAULT-VALUE}"},
+            order = 3)
+    private int setupCacheSize = 4;
+
+    @Option(names = {"-o", "--output-format"},
+            description = {"The format trajectories are written in, json keeps all observations in memory until the simulation is finished, stream writes them as they are observed, binary writes them in chunks of columns",
+                    "valid values: ${COMPLETION-CANDIDATES}; default: ${DEFAULT-VALUE}"},
+            converter = OutputFormatConverter.class,
+            order = 4)
+    private OutputFormat outputFormat = OutputFormat.JSON;
+
+    @Option(names = {"--compress"},
+            description = {"Deflate the columns of binary trajectories."},
+            order = 5)
+    private boolean compress = false;
+
+    @Option(names = {"--heartbeat-log"},
+            description = {"Append heartbeats to a log instead of memory mapped slots, required if the overseer runs on another node",
+                    "(chosen automatically if the ticket folder is located on a network file system)"},
+            order = 6)
+    private boolean heartbeatLog = false;
+
+    @Option(names = {"--no-alive-file"},
+            description = {"Do not regularly rewrite alive files, liveness is only reported by heartbeats"},
+            order = 7)
+    private boolean noAliveFile = false;
+
+    @Option(names = {"--metrics-file"},
+            description = {"The file phase timings are periodically written to in the Prometheus text format"},
+            order = 8)
+    private Path metricsFile;
+
+    @Option(names = {"--metrics-interval"},
+            description = {"The seconds between updates of the metrics file",
+                    "default: ${DEFAULT-VALUE}"},
+            order = 9)
+    private long metricsInterval = 30;
+
+    @Option(names = {"--batch-size"},
+            description = {"The maximal number of tickets claimed at once, the batch size adapts to the ticket durations",
+                    "default: ${DEFAULT-VALUE}"},
+            order = 10)
+    private int maximalBatchSize = 16;
+
+    @Option(names = {"--batch-window"},
+            description = {"The seconds the runner should be busy with one batch of tickets",
+                    "default: ${DEFAULT-VALUE}"},
+            order = 11)
+    private long batchWindow = 10;
+
+    @Option(names = {"--lease-timeout"},
+            description = {"The minutes after which the overseer considers a claimed ticket as dead, claimed tickets that were not started within half of this time are released",
+                    "default: ${DEFAULT-VALUE}"},
+            order = 12)
+    private long leaseTimeout = 5;
+
+    @Option(names = {"--daemon"},
+            description = {"Keep running and wait for new tickets instead of exiting if all tickets are processed, the runner is drained on SIGTERM"},
+            order = 13)
+    private boolean daemon = false;
+
+    @Option(names = {"--drain-timeout"},
+            description = {"The seconds the running ticket may take to finish after SIGTERM, claimed tickets that were not started are released and an unfinished ticket is left to the overseer",
+                    "default: ${DEFAULT-VALUE}"},
+            order = 14)
+    private long drainTimeout = 300;
+
+    @Option(names = {"--checkpoint-interval"},
+            description = {"The simulated time between checkpoints, that allow to resume tickets of dead runners (see --resume), requires the stream or binary output format",
+                    "(e.g.: 10s, 0.5min, 1.5h; default: no checkpoints)"},
+            converter = TimeQuantityConverter.class,
+            order = 15)
+    private Quantity<Time> checkpointInterval;
+
+    @Option(names = {"--resume"},
+            description = {"Resume tickets of dead runners from their last checkpoint instead of restarting them. Resumed simulations restart their clock and modules, their results are marked by a resumed.json and are neither recorded as processed variations nor used for cost models or adaptive sweeps"},
+            order = 16)
+    private boolean resume = false;
+
+    @Option(names = {"--steady-state-threshold"},
+            description = {"Terminate simulations early, once the relative change of every concentration within the steady state window is below this threshold",
+                    "(e.g.: 1e-4; default: run until the termination time)"},
+            order = 17)
+    private double steadyStateThreshold = 0;
+
+    @Option(names = {"--steady-state-window"},
+            description = {"The simulated time over which the change of concentrations is determined",
+                    "(e.g.: 10s, 0.5min, 1.5h; default: a tenth of the termination time)"},
+            converter = TimeQuantityConverter.class,
+            order = 18)
+    private Quantity<Time> steadyStateWindow;
+
+    @Option(names = {"--steady-state-absolute-tolerance"},
+            description = {"Changes of concentrations (in nM) up to this tolerance are considered steady regardless of their relative change, such that fluctuations of concentrations close to zero do not prevent the detection",
+                    "default: ${DEFAULT-VALUE}"},
+            order = 19)
+    private double steadyStateAbsoluteTolerance = 1e-6;
+
+    private SimulationSetupCache setupCache;
+    private HeartbeatReporter heartbeatReporter;
+    private RunnerMetrics runnerMetrics;
+    private PrometheusFileExporter metricsExporter;
+    private TicketMonitor ticketMonitor;
+
+    // set if the runner should stop claiming tickets
+    private volatile boolean draining;
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    // indices of processed variations by result directory
+    private final Map<Path, VariationIndex> variationIndices = new HashMap<>();
+
     public static void main(String[] args) {
         CommandLine.call(new SimulationRunner(), args);
     }
@@ -68,80 +210,352 @@ public class SimulationRunner implements Callable<Void> {
 
         // generate observation directory
         Recorders.createDirectories(targetDirectory);
+        if (checkpointInterval != null && outputFormat == OutputFormat.JSON) {
+            logger.warn("checkpoints require the stream or binary output format, continuing without checkpoints");
+            checkpointInterval = null;
+        }
 
         // initialize ticket manager
-        TicketManager ticketManager = new TicketManager(ticketDirectory);
+        TicketManager ticketManager;
+        if (daemon) {
+            ticketManager = new TicketManager(openDaemonTicketStore());
+            ticketMonitor = TicketMonitor.of(ticketManager.getTicketStore(), EnumSet.of(TicketState.OPEN), false, 1, TimeUnit.SECONDS);
+            System.out.println("running as daemon, waiting for tickets in " + ticketDirectory);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> drain(ticketManager), "drain"));
+        } else {
+            ticketManager = new TicketManager(ticketDirectory);
+        }
+        ticketManager.configureBatches(maximalBatchSize, TimeUnit.SECONDS.toMillis(batchWindow), TimeUnit.MINUTES.toMillis(leaseTimeout), TimeUnit.MILLISECONDS);
+        setupCache = new SimulationSetupCache(setupCacheSize);
+        startHeartbeats();
+        runnerMetrics = new RunnerMetrics();
+        // the platform MBean server takes long to start, it is not required to process the first ticket
+        Thread registration = new Thread(runnerMetrics::registerMBeans, "metrics-registration");
+        registration.setDaemon(true);
+        registration.start();
+        if (metricsFile != null) {
+            metricsExporter = PrometheusFileExporter.start(runnerMetrics, metricsFile, metricsInterval, TimeUnit.SECONDS);
+        }
+
+        processTickets(ticketManager);
+        finish(ticketManager);
+        return null;
+    }
+
+    /**
+     * Opens the ticket store for the daemon. If there is no store yet, a directory store is created, such that it can
+     * be watched for tickets of future sweeps.
+     *
+     * @return The ticket store.
+     */
+    private TicketStore openDaemonTicketStore() {
+        if (determineStoreType() == TicketStoreType.LEDGER) {
+            return TicketStore.open(ticketDirectory);
+        }
+        return TicketStore.create(TicketStoreType.DIRECTORY, ticketDirectory);
+    }
+
+    private TicketStoreType determineStoreType() {
+        return Files.exists(ticketDirectory.resolve(LedgerTicketStore.LEDGER_FILE)) ? TicketStoreType.LEDGER : TicketStoreType.DIRECTORY;
+    }
 
-        while (ticketManager.ticketsAvailable()) {
+    /**
+     * Opens the ticket store again, if a generator created a store of another type in the ticket directory since the
+     * daemon started waiting, e.g. a ledger next to the directory store. Otherwise the daemon would never see the
+     * tickets of the new sweep.
+     *
+     * @param ticketManager The ticket manager.
+     * @return True, if the store was replaced.
+     */
+    private boolean redetectTicketStore(TicketManager ticketManager) {
+        TicketStoreType currentType = ticketManager.getTicketStore() instanceof LedgerTicketStore ? TicketStoreType.LEDGER : TicketStoreType.DIRECTORY;
+        if (determineStoreType() == currentType) {
+            return false;
+        }
+        System.out.println("ticket directory " + ticketDirectory + " changed to a " + determineStoreType().name().toLowerCase() + " store, reopening it");
+        ticketMonitor.close();
+        ticketManager.replaceTicketStore(openDaemonTicketStore());
+        ticketMonitor = TicketMonitor.of(ticketManager.getTicketStore(), EnumSet.of(TicketState.OPEN), false, 1, TimeUnit.SECONDS);
+        return true;
+    }
+
+    /**
+     * Stops claiming new tickets and waits until the running ticket is finished, called on SIGTERM in daemon mode. Queued
+     * tickets are released right away, since they would not be started anyway.
+     *
+     * @param ticketManager The ticket manager.
+     */
+    private void drain(TicketManager ticketManager) {
+        if (finished.getCount() == 0) {
+            return;
+        }
+        System.out.println("draining runner");
+        draining = true;
+        int releasedTickets = ticketManager.releaseQueuedTickets();
+        if (releasedTickets > 0) {
+            System.out.println("released " + releasedTickets + " unstarted tickets");
+        }
+        try {
+            if (!finished.await(drainTimeout, TimeUnit.SECONDS)) {
+                logger.warn("running ticket did not finish within {} s, leaving it to the overseer", drainTimeout);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void startHeartbeats() {
+        try {
+            HeartbeatChannel channel = HeartbeatChannel.open(ticketDirectory.resolve(HeartbeatChannel.HEARTBEAT_DIRECTORY), 1, heartbeatLog);
+            heartbeatReporter = HeartbeatReporter.start(channel, 1, 5, TimeUnit.SECONDS);
+        } catch (IOException e) {
+            logger.warn("unable to open heartbeat channel, continuing without heartbeats", e);
+        }
+    }
+
+    private void finish(TicketManager ticketManager) {
+        int releasedTickets = ticketManager.releaseQueuedTickets();
+        if (releasedTickets > 0) {
+            System.out.println("released " + releasedTickets + " unstarted tickets");
+        }
+        if (ticketMonitor != null) {
+            ticketMonitor.close();
+        }
+        if (heartbeatReporter != null) {
+            heartbeatReporter.shutdown();
+        }
+        if (metricsExporter != null) {
+            metricsExporter.shutdown();
+        }
+        System.out.println(runnerMetrics);
+        System.out.println(setupCache);
+        finished.countDown();
+    }
+
+    private void processTickets(TicketManager ticketManager) {
+        while (!draining) {
+            if (!ticketManager.ticketsAvailable()) {
+                if (daemon && awaitTickets(ticketManager)) {
+                    continue;
+                }
+                return;
+            }
             // pull ticket
+            TicketMetrics ticketMetrics = new TicketMetrics();
+            ticketMetrics.start(Phase.CLAIM);
             Optional<ProcessingTicket> optionalTicket = ticketManager.pullTicket();
             if (!optionalTicket.isPresent()) {
                 continue;
             }
-            ProcessingTicket ticket = optionalTicket.get();
+            ticketMetrics.stop(Phase.CLAIM);
+            ticketMetrics.setClaimTime(System.currentTimeMillis());
+            processTicket(ticketManager, optionalTicket.get(), ticketMetrics);
+        }
+    }
 
-            // initialize simulation
-            Path simulationSetupPath = ticketDirectory.getParent().resolve(ticket.getSimulation());
-            // get simulation file
-            String simulationDocument;
-            try {
-                simulationDocument = String.join("", Files.readAllLines(simulationSetupPath));
-            } catch (IOException e) {
-                logger.error("unable to read simulation file {}", simulationSetupPath, e);
-                return null;
+    /**
+     * Waits for new tickets in daemon mode. The type of the ticket store is checked again every second.
+     *
+     * @param ticketManager The ticket manager.
+     * @return False, if the runner should stop.
+     */
+    private boolean awaitTickets(TicketManager ticketManager) {
+        long idleStart = System.nanoTime();
+        try {
+            while (!draining) {
+                if (redetectTicketStore(ticketManager) || ticketMonitor.awaitOpenTickets(1, TimeUnit.SECONDS)) {
+                    logger.info("found new tickets after {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - idleStart));
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * Processes a claimed ticket. Tickets whose simulation setup cannot be read or built are moved to the failed
+     * tickets, and the runner continues with the next ticket.
+     */
+    private void processTicket(TicketManager ticketManager, ProcessingTicket ticket, TicketMetrics ticketMetrics) {
+        ticketMetrics.setTicketId(ticket.getIdentifier());
+        ticketMetrics.setSimulatedSeconds(ticket.getTotalTime().to(SECOND).getValue().doubleValue());
+        // initialize simulation
+        Path simulationSetupPath = ticketDirectory.getParent().resolve(ticket.getSimulation());
+        // get parsed simulation file
+        SimulationRepresentation representation;
+        ticketMetrics.start(Phase.SETUP);
+        try {
+            representation = setupCache.get(simulationSetupPath);
+        } catch (IOException e) {
+            logger.error("unable to read or encountered invalid or incomplete simulation setup file {}", simulationSetupPath, e);
+            ticketManager.failTicket(ticket.getIdentifier(), e);
+            return;
+        }
+        ticketMetrics.stop(Phase.SETUP);
+        // create simulation
+        ticketMetrics.start(Phase.BUILD);
+        Simulation simulation;
+        try {
+            simulation = SimulationRepresentation.to(representation);
+        } catch (RuntimeException e) {
+            logger.error("unable to build simulation from setup file {}", simulationSetupPath, e);
+            ticketManager.failTicket(ticket.getIdentifier(), e);
+            return;
+        }
+        // set cutoff
+        simulation.getScheduler().getErrorManager().setLocalNumericalTolerance(0.05);
+        simulation.setMaximalTimeStep(Quantities.getQuantity(500, MICRO(SECOND)));
+        ticketMetrics.stop(Phase.BUILD);
+
+        // get variations from ticket
+        System.out.println("applying variation for ticket " + ticket.getIdentifier());
+        ticketMetrics.start(Phase.REDEEM);
+        ticketManager.redeemTicket(ticket);
+        ticketMetrics.stop(Phase.REDEEM);
+        // create time stamped folder for this simulation
+        Path timestampedFolder = targetDirectory.resolve(ticket.getSimulation().replaceFirst("[.][^.]+$", "")).resolve(ticket.getIdentifier());
+        Recorders.createDirectories(timestampedFolder);
+        System.out.println("writing to path " + timestampedFolder);
+        // create variation log
+        try {
+            ticket.writeFeatureSet(timestampedFolder.resolve("variations.json"));
+        } catch (IOException e) {
+            logger.error("unable to write variations to file {}", timestampedFolder, e);
+        }
+        System.out.println("wrote variations.log");
+        // resume from checkpoint of a previous attempt
+        SimulationCheckpoint checkpoint = resume ? readCheckpoint(ticket, timestampedFolder) : null;
+        // run simulation, tickets without trajectory are neither recorded nor completed
+        try {
+            runSingleSimulation(simulation, ticket, checkpoint, timestampedFolder, ticketMetrics);
+        } catch (IOException e) {
+            ticketManager.failTicket(ticket.getIdentifier(), e);
+            return;
+        } catch (InterruptedException e) {
+            logger.warn("interrupted while processing ticket {}, releasing it", ticket.getIdentifier());
+            ticketManager.releaseTicket(ticket.getIdentifier());
+            Thread.currentThread().interrupt();
+            return;
+        }
+        ticketMetrics.start(Phase.CLOSE);
+        if (!ticketManager.closeTicket(ticket)) {
+            // the ticket has been reopened and is recorded by the runner that completes it
+            return;
+        }
+        // resumed simulations may differ from uninterrupted runs, their variations are processed again by later sweeps
+        if (!ticketMetrics.isResumed()) {
+            getVariationIndex(timestampedFolder.getParent()).record(VariationKey.ofRepresentations(ticket.getFeatures()), ticket.getIdentifier());
+        }
+        ticketMetrics.stop(Phase.CLOSE);
+        runnerMetrics.record(ticketMetrics);
+        try {
+            ticketMetrics.write(timestampedFolder.resolve(TicketMetrics.METRICS_FILE));
+        } catch (IOException e) {
+            logger.warn("unable to write metrics to {}", timestampedFolder, e);
+        }
+        System.out.println("finished ticket " + ticket.getIdentifier());
+    }
+
+    private VariationIndex getVariationIndex(Path simulationFolder) {
+        return variationIndices.computeIfAbsent(simulationFolder, VariationIndex::open);
+    }
+
+    /**
+     * Reads the checkpoint left in the result folder by a previous attempt to process the ticket. Checkpoints that can
+     * not be resumed with the current output format are discarded.
+     *
+     * @param ticket The ticket.
+     * @param timestampedFolder The result folder of the ticket.
+     * @return The checkpoint or null if the ticket has to be started from the beginning.
+     */
+    private SimulationCheckpoint readCheckpoint(ProcessingTicket ticket, Path timestampedFolder) {
+        Optional<SimulationCheckpoint> checkpoint;
+        try {
+            checkpoint = SimulationCheckpoint.read(timestampedFolder);
+        } catch (IOException e) {
+            logger.warn("unable to read checkpoint in {}, restarting ticket", timestampedFolder, e);
+            return null;
+        }
+        if (!checkpoint.isPresent()) {
+            return null;
+        }
+        if (!checkpoint.get().getTicketId().equals(ticket.getIdentifier()) || checkpoint.get().getOutputFormat() != outputFormat) {
+            logger.warn("checkpoint in {} was written for another ticket or output format, restarting ticket", timestampedFolder);
+            return null;
+        }
+        return checkpoint.get();
+    }
+
+    /**
+     * Runs the simulation of a ticket and writes its trajectory.
+     *
+     * @throws IOException if the trajectory could not be created or written.
+     * @throws InterruptedException if the runner was interrupted while the simulation was running.
+     */
+    private void runSingleSimulation(Simulation simulation, ProcessingTicket ticket, SimulationCheckpoint checkpoint, Path timestampedFolder, TicketMetrics ticketMetrics) throws IOException, InterruptedException {
+        System.out.println("running simulation");
+        // setup logger
+        TrajectorySink trajectorySink = null;
+        if (checkpoint != null) {
+            trajectorySink = resumeTrajectorySink(simulation, checkpoint, timestampedFolder);
+            if (trajectorySink == null) {
+                checkpoint = null;
+            }
+        }
+        if (trajectorySink == null) {
+            trajectorySink = createTrajectorySink(simulation, ticket, timestampedFolder);
+        }
+        if (checkpointInterval != null) {
+            Quantity<Time> timeOffset = checkpoint != null ? checkpoint.getElapsedTime() : Quantities.getQuantity(0, SECOND);
+            trajectorySink = new CheckpointingTrajectorySink(trajectorySink, simulation, ticket.getIdentifier(), outputFormat, timestampedFolder, checkpointInterval, timeOffset);
+        }
+
+        Quantity<Time> terminationTime = ticket.getTotalTime();
+        if (checkpoint != null) {
+            int restoredConcentrations = checkpoint.restore(simulation);
+            if (restoredConcentrations < checkpoint.size()) {
+                logger.warn("restored only {} of {} concentrations from checkpoint in {}", restoredConcentrations, checkpoint.size(), timestampedFolder);
             }
-            // convert json to simulation
-            SimulationRepresentation representation;
+            // the simulation starts at zero, only the remaining time is simulated
+            terminationTime = terminationTime.subtract(checkpoint.getElapsedTime());
+            ticketMetrics.setSimulatedSeconds(terminationTime.to(SECOND).getValue().doubleValue());
+            ticketMetrics.setResumedSeconds(checkpoint.getElapsedTime().to(SECOND).getValue().doubleValue());
             try {
-                representation = Converter.getRepresentationFrom(simulationDocument);
+                checkpoint.writeResumedMarker(timestampedFolder);
             } catch (IOException e) {
-                logger.error("encountered invalid or incomplete simulation setup file {}", simulationSetupPath, e);
-                return null;
+                logger.warn("unable to mark {} as resumed", timestampedFolder, e);
             }
-            // create simulation
-            Simulation simulation = SimulationRepresentation.to(representation);
-            // set cutoff
-            simulation.getScheduler().getErrorManager().setLocalNumericalTolerance(0.05);
-            simulation.setMaximalTimeStep(Quantities.getQuantity(500, MICRO(SECOND)));
-
-            // get variations from ticket
-            System.out.println("applying variation for ticket " + ticket.getIdentifier());
-            ticketManager.redeemTicket(ticket);
-            // create time stamped folder for this simulation
-            Path timestampedFolder = targetDirectory.resolve(ticket.getSimulation().replaceFirst("[.][^.]+$", "")).resolve(ticket.getIdentifier());
-            Recorders.createDirectories(timestampedFolder);
-            System.out.println("writing to path " + timestampedFolder);
-            // create variation log
+            System.out.println("resuming from checkpoint at " + checkpoint.getElapsedTime() + " (epoch " + checkpoint.getEpoch() + ")");
+        } else {
             try {
-                ticket.writeFeatureSet(timestampedFolder.resolve("variations.json"));
+                SimulationCheckpoint.deleteResumedMarker(timestampedFolder);
             } catch (IOException e) {
-                logger.error("unable to write variations to file {}", timestampedFolder, e);
+                logger.warn("unable to remove resumed marker in {}", timestampedFolder, e);
             }
-            System.out.println("wrote variations.log");
-            // run simulation
-            runSingleSimulation(simulation, ticket, timestampedFolder);
-            ticketManager.closeTicket(ticket);
-            System.out.println("finished ticket " + ticket.getIdentifier());
         }
-        return null;
-    }
-
-    private void runSingleSimulation(Simulation simulation, ProcessingTicket ticket, Path timestampedFolder) {
-        System.out.println("running simulation");
         // setup manager
         SimulationManager manager = new SimulationManager(simulation);
-        manager.setSimulationTerminationToTime(ticket.getTotalTime());
+        manager.setSimulationTerminationToTime(terminationTime);
         manager.setUpdateEmissionToTimePassed(ticket.getObservationTime());
-        manager.setWriteAliveFile(true);
+        manager.setWriteAliveFile(!noAliveFile);
         manager.setTargetPath(timestampedFolder);
 
         // setup termination latch
         CountDownLatch terminationLatch = new CountDownLatch(1);
         manager.setTerminationLatch(terminationLatch);
+        manager.addGraphUpdateListener(trajectorySink);
 
-        // setup logger
-        NestedUpdateRecorder trajectoryObserver = new NestedUpdateRecorder(simulation, MILLI(SECOND), NANO_MOLE_PER_LITRE);
-        manager.addGraphUpdateListener(trajectoryObserver);
+        // setup steady state detection
+        SteadyStateDetector steadyStateDetector = null;
+        if (steadyStateThreshold > 0) {
+            Quantity<Time> window = steadyStateWindow != null ? steadyStateWindow : ticket.getTotalTime().divide(10);
+            steadyStateDetector = new SteadyStateDetector(simulation, NANO_MOLE_PER_LITRE, steadyStateThreshold, steadyStateAbsoluteTolerance, window);
+            manager.addGraphUpdateListener(steadyStateDetector);
+            // replaces the termination condition of the termination time
+            manager.setTerminationCondition(steadyStateDetector.steadyOrTimeReached(terminationTime));
+        }
 
         // add progress bar
         ProgressBarManager progressBarHandler = null;
@@ -149,34 +563,106 @@ public class SimulationRunner implements Callable<Void> {
             progressBarHandler = new ProgressBarManager(manager.getSimulationStatus());
         }
 
+        if (heartbeatReporter != null) {
+            heartbeatReporter.startTicket(HEARTBEAT_SLOT, ticket.getIdentifier(), manager.getSimulationStatus());
+        }
+
         // start simulation
+        ticketMetrics.start(Phase.RUN);
         Thread thread = new Thread(manager);
         thread.setDaemon(true);
         thread.start();
 
+        boolean sinkClosed = false;
         try {
             terminationLatch.await();
             thread.join();
+            ticketMetrics.stop(Phase.RUN);
             if (progressBarHandler != null) {
                 progressBarHandler.tearDown();
             }
             finishAliveFile(timestampedFolder);
-            TrajectoryDataset trajectoryDataset = TrajectoryDataset.of(trajectoryObserver.getTrajectories());
-            if (Files.exists(timestampedFolder)) {
-                File trajectoryFile = timestampedFolder.resolve("trajectory.json").toFile();
-                trajectoryDataset.write(trajectoryFile);
-            } else {
-                // try to write to backup
-                Path path = Paths.get(System.getProperty("java.io.tmpdir")).resolve("singa_backup_results");
-                Path tempFolder = path.resolve(ticket.getSimulation().replaceFirst("[.][^.]+$", "")).resolve(ticket.getIdentifier());;
-                Recorders.createDirectories(tempFolder);
-                System.out.println("unable to write file, trying to backup results in " + tempFolder);
-                ticket.writeFeatureSet(timestampedFolder.resolve("variations.json"));
-                File trajectoryFile = tempFolder.resolve("trajectory.json").toFile();
-                trajectoryDataset.write(trajectoryFile);
+            if (steadyStateDetector != null) {
+                finishTermination(steadyStateDetector, ticket, checkpoint, simulation, timestampedFolder, ticketMetrics);
+            }
+            ticketMetrics.start(Phase.WRITE);
+            sinkClosed = true;
+            trajectorySink.close();
+            SimulationCheckpoint.delete(timestampedFolder);
+            ticketMetrics.stop(Phase.WRITE);
+            ticketMetrics.setBytesWritten(trajectorySink.getBytesWritten());
+            Path trajectoryFile = trajectorySink.getTrajectoryFile();
+            if (!trajectoryFile.getParent().equals(timestampedFolder)) {
+                // results were written to backup
+                ticket.writeFeatureSet(trajectoryFile.resolveSibling("variations.json"));
+            }
+            System.out.println("wrote " + trajectorySink.getBytesWritten() + " bytes to " + trajectoryFile + " in " + trajectorySink.getWriteTime() + " ms");
+            if (trajectorySink instanceof CheckpointingTrajectorySink) {
+                CheckpointingTrajectorySink checkpointingSink = (CheckpointingTrajectorySink) trajectorySink;
+                System.out.println("wrote " + checkpointingSink.getCheckpoints() + " checkpoints in " + checkpointingSink.getCheckpointTime() + " ms");
+            }
+        } finally {
+            if (!sinkClosed) {
+                closeQuietly(trajectorySink);
+            }
+            if (heartbeatReporter != null) {
+                heartbeatReporter.finishTicket(HEARTBEAT_SLOT);
+            }
+        }
+    }
+
+    private static void closeQuietly(TrajectorySink trajectorySink) {
+        try {
+            trajectorySink.close();
+        } catch (IOException e) {
+            logger.warn("unable to close trajectory {}", trajectorySink.getTrajectoryFile(), e);
+        }
+    }
+
+    /**
+     * Continues the trajectory written up to the checkpoint.
+     *
+     * @return The resumed sink or null if the trajectory could not be resumed.
+     */
+    private TrajectorySink resumeTrajectorySink(Simulation simulation, SimulationCheckpoint checkpoint, Path timestampedFolder) {
+        Path trajectoryFile = timestampedFolder.resolve(outputFormat.getFileName());
+        try {
+            if (outputFormat == OutputFormat.BINARY) {
+                return BinaryTrajectorySink.resume(simulation, MILLI(SECOND), NANO_MOLE_PER_LITRE, trajectoryFile, checkpoint.getSinkState(), checkpoint.getElapsedTime());
             }
-        } catch (InterruptedException | IOException e) {
-            logger.error("unable to read process simulation for {}", timestampedFolder, e);
+            return StreamingTrajectorySink.resume(simulation, MILLI(SECOND), NANO_MOLE_PER_LITRE, trajectoryFile, checkpoint.getSinkState(), checkpoint.getElapsedTime());
+        } catch (IOException e) {
+            logger.warn("unable to resume trajectory {}, restarting ticket", trajectoryFile, e);
+            return null;
+        }
+    }
+
+    private TrajectorySink createTrajectorySink(Simulation simulation, ProcessingTicket ticket, Path timestampedFolder) throws IOException {
+        switch (outputFormat) {
+            case BINARY:
+                return new BinaryTrajectorySink(simulation, MILLI(SECOND), NANO_MOLE_PER_LITRE, timestampedFolder.resolve(outputFormat.getFileName()), compress);
+            case STREAM:
+                return new StreamingTrajectorySink(simulation, MILLI(SECOND), NANO_MOLE_PER_LITRE, timestampedFolder.resolve(outputFormat.getFileName()));
+            case JSON:
+            default:
+                Path backupPath = Paths.get(System.getProperty("java.io.tmpdir")).resolve("singa_backup_results");
+                Path backupFolder = backupPath.resolve(ticket.getSimulation().replaceFirst("[.][^.]+$", "")).resolve(ticket.getIdentifier());
+                return new BufferedTrajectorySink(simulation, MILLI(SECOND), NANO_MOLE_PER_LITRE, timestampedFolder, backupFolder);
+        }
+    }
+
+    private void finishTermination(SteadyStateDetector steadyStateDetector, ProcessingTicket ticket, SimulationCheckpoint checkpoint, Simulation simulation, Path timestampedFolder, TicketMetrics ticketMetrics) {
+        double runSeconds = simulation.getElapsedTime().to(SECOND).getValue().doubleValue();
+        double offsetSeconds = checkpoint != null ? checkpoint.getElapsedTime().to(SECOND).getValue().doubleValue() : 0;
+        ticketMetrics.setSimulatedSeconds(runSeconds);
+        if (steadyStateDetector.isSteady()) {
+            System.out.println("reached steady state after " + (offsetSeconds + runSeconds) + " s");
+        }
+        Path terminationFile = timestampedFolder.resolve(SteadyStateDetector.TERMINATION_FILE);
+        try {
+            steadyStateDetector.writeTermination(terminationFile, ticket.getTotalTime().to(SECOND).getValue().doubleValue(), offsetSeconds + runSeconds);
+        } catch (IOException e) {
+            logger.warn("unable to write termination to {}", terminationFile, e);
         }
     }
 
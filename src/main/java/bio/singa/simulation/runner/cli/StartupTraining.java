@@ -0,0 +1,86 @@
+package bio.singa.simulation.runner.cli;
+
+import bio.singa.simulation.runner.tickets.TicketState;
+import bio.singa.simulation.runner.tickets.TicketStore;
+import picocli.CommandLine;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.Callable;
+
+import static picocli.CommandLine.*;
+
+/**
+ * A short sweep, that loads the classes required by the {@link TicketGenerator} and the {@link SimulationRunner}. The
+ * training is run by the fast-startup build profile to record a class data sharing archive, that is used to start
+ * both commands faster.
+ *
+ * @author cl
+ */
+@Command(description = "Run a short sweep to record the classes used by generator and runner",
+        name = "startup-training",
+        version = "v0.0.1",
+        mixinStandardHelpOptions = true)
+public class StartupTraining implements Callable<Void> {
+
+    @Parameters(index = "0",
+            description = "The json file with the simulation.")
+    private Path simulationSetupPath;
+
+    @Option(names = {"-n", "--tickets"},
+            description = {"The number of tickets that are processed",
+                    "default: ${DEFAULT-VALUE}"})
+    private int tickets = 2;
+
+    @Option(names = {"-t", "--termination-time"},
+            description = {"The simulated time per ticket",
+                    "default: ${DEFAULT-VALUE}"})
+    private String terminationTime = "10ms";
+
+    public static void main(String[] args) {
+        CommandLine.call(new StartupTraining(), args);
+    }
+
+    @Override
+    public Void call() throws IOException {
+        Path trainingDirectory = Files.createTempDirectory("startup-training");
+        try {
+            Path setupPath = trainingDirectory.resolve(simulationSetupPath.getFileName());
+            Files.copy(simulationSetupPath, setupPath, StandardCopyOption.REPLACE_EXISTING);
+            Path ticketDirectory = trainingDirectory.resolve("tickets");
+            // use the converters of all unit options
+            CommandLine.call(new TicketGenerator(), setupPath.toString(), ticketDirectory.toString(),
+                    "-t", terminationTime, "-l", String.valueOf(tickets), "-i", "ms", "-c", "mol/L");
+            CommandLine.call(new SimulationRunner(), ticketDirectory.toString(),
+                    "-t", trainingDirectory.resolve("results").toString(), "-o", "binary");
+            try (TicketStore ticketStore = TicketStore.open(ticketDirectory)) {
+                System.out.println("training processed " + ticketStore.count(TicketState.DONE) + " tickets");
+            }
+        } finally {
+            delete(trainingDirectory);
+        }
+        return null;
+    }
+
+    private static void delete(Path directory) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+}
@@ -3,12 +3,35 @@ package bio.singa.simulation.runner.cli;
 import bio.singa.exchange.Converter;
 import bio.singa.exchange.ProcessingTicket;
 import bio.singa.exchange.SimulationRepresentation;
+import bio.singa.exchange.features.FeatureRepresentation;
 import bio.singa.features.quantities.MolarConcentration;
 import bio.singa.simulation.model.simulation.Simulation;
+import bio.singa.simulation.runner.checkpoints.SimulationCheckpoint;
 import bio.singa.simulation.runner.converters.ConcentrationUnitConverter;
+import bio.singa.simulation.runner.converters.SamplingDesignConverter;
+import bio.singa.simulation.runner.converters.TicketOrderConverter;
 import bio.singa.simulation.runner.converters.TimeQuantityConverter;
 import bio.singa.simulation.runner.converters.TimeUnitConverter;
+import bio.singa.simulation.runner.converters.VariationShardConverter;
+import bio.singa.simulation.runner.managers.AdaptiveRefinement;
+import bio.singa.simulation.runner.managers.CompactTicket;
+import bio.singa.simulation.runner.managers.FeatureRepresentationTable;
+import bio.singa.simulation.runner.managers.SamplingDesign;
+import bio.singa.simulation.runner.managers.TicketCostModel;
 import bio.singa.simulation.runner.managers.VariationManager;
+import bio.singa.simulation.runner.managers.SweepManifest;
+import bio.singa.simulation.runner.managers.VariationRange;
+import bio.singa.simulation.runner.managers.VariationSampler;
+import bio.singa.simulation.runner.managers.VariationSpace;
+import bio.singa.simulation.runner.managers.VariationShard;
+import bio.singa.simulation.runner.tickets.StoredTicket;
+import bio.singa.simulation.runner.tickets.TicketOrder;
+import bio.singa.simulation.runner.tickets.TicketSchedule;
+import bio.singa.simulation.runner.tickets.TicketState;
+import bio.singa.simulation.runner.tickets.TicketStore;
+import bio.singa.simulation.runner.tickets.TicketStoreType;
+import bio.singa.simulation.runner.trajectories.FinalObservation;
+import bio.singa.simulation.runner.trajectories.TrajectorySeries;
 import bio.singa.simulation.trajectories.Recorders;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,11 +42,20 @@ import javax.measure.Quantity;
 import javax.measure.Unit;
 import javax.measure.quantity.Time;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.UUID;
+import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongUnaryOperator;
 
 import static bio.singa.features.units.UnitProvider.NANO_MOLE_PER_LITRE;
 import static picocli.CommandLine.*;
@@ -40,6 +72,9 @@ public class TicketGenerator implements Callable<Void> {
 
     private static final Logger logger = LoggerFactory.getLogger(TicketGenerator.class);
 
+    // the number of tickets that are published at once
+    private static final int PUBLISH_BATCH_SIZE = 256;
+
     @Parameters(index = "0",
             description = "The json file with the simulation.")
     private Path simulationSetupPath;
@@ -80,12 +115,101 @@ public class TicketGenerator implements Callable<Void> {
             description = {"Limits the number of tickets generated (for tests)."})
     private int maxTickets = -1;
 
+    @Option(names = {"--shard"},
+            description = {"Only generates tickets for one of multiple equally sized parts of all variations",
+                    "e.g.: 0/4 for the first of four parts"},
+            converter = VariationShardConverter.class)
+    private VariationShard shard;
+
+    @Option(names = {"--ticket-store"},
+            description = {"The way tickets are stored, one file per ticket or a single ticket ledger",
+                    "valid values: ${COMPLETION-CANDIDATES}; default: ${DEFAULT-VALUE}"})
+    private TicketStoreType ticketStoreType = TicketStoreType.DIRECTORY;
+
+    @Option(names = {"--schedule"},
+            description = {"The order in which tickets are claimed, longest-first claims tickets with the longest predicted run time first",
+                    "valid values: arbitrary, longest-first; default: arbitrary"},
+            converter = TicketOrderConverter.class)
+    private TicketOrder ticketOrder = TicketOrder.ARBITRARY;
+
+    @Option(names = {"--history"},
+            description = {"A result folder of earlier sweeps, that is used to predict the run times of tickets",
+                    "default: heuristic predictions"})
+    private Path historyDirectory;
+
+    @Option(names = {"--threads"},
+            description = {"The number of threads tickets are generated with",
+                    "default: ${DEFAULT-VALUE}"})
+    private int threads = 1;
+
+    @Option(names = {"--compact-tickets"},
+            description = {"Write compact tickets, that reference a sweep manifest, instead of self-contained json tickets (requires runners that read sweep manifests)"})
+    private boolean compactTickets = false;
+
+    @Option(names = {"--design"},
+            description = {"The design variations are selected with, full generates every combination of alternatives, the other designs select the given number of runs",
+                    "valid values: full, latin-hypercube, sobol, halton, random; default: full"},
+            converter = SamplingDesignConverter.class)
+    private SamplingDesign design = SamplingDesign.FULL;
+
+    @Option(names = {"--runs"},
+            description = {"The number of variations selected by the design (required for all designs except full)"})
+    private int runs = -1;
+
+    @Option(names = {"--seed"},
+            description = {"The seed of the latin-hypercube and random designs, shards of a sweep have to use the same seed",
+                    "default: ${DEFAULT-VALUE}"})
+    private long seed = 1;
+
+    @Option(names = {"--adaptive"},
+            description = {"Issue tickets in rounds, starting with a coarse grid and refining between neighbouring variations whose results differ most, requires the stream or binary output format of the runners"})
+    private boolean adaptive = false;
+
+    @Option(names = {"--results"},
+            description = {"The folder the runners write the results of this simulation to (the target directory of the runners followed by the name of the simulation setup), required for adaptive sweeps"})
+    private Path resultDirectory;
+
+    @Option(names = {"--budget"},
+            description = {"The maximal number of tickets issued by an adaptive sweep",
+                    "default: ${DEFAULT-VALUE}"})
+    private int budget = 1000;
+
+    @Option(names = {"--tolerance"},
+            description = {"The relative difference between the final concentrations of neighbouring variations, that requires no further refinement",
+                    "default: ${DEFAULT-VALUE}"})
+    private double tolerance = 0.05;
+
+    @Option(names = {"--coarse-levels"},
+            description = {"The number of evenly spaced alternatives per feature in the coarse grid of an adaptive sweep",
+                    "default: ${DEFAULT-VALUE}"})
+    private int coarseLevels = 3;
+
+    @Option(names = {"--poll-interval"},
+            description = {"The seconds between checks whether the tickets of a round of an adaptive sweep are processed",
+                    "default: ${DEFAULT-VALUE}"})
+    private long pollInterval = 30;
+
+    @Option(names = {"--round-timeout"},
+            description = {"The minutes to wait for the tickets of a round of an adaptive sweep, the next round is refined from the results available by then, 0 waits until all tickets are processed",
+                    "default: ${DEFAULT-VALUE}"})
+    private long roundTimeout = 720;
+
     public static void main(String[] args) {
         CommandLine.call(new TicketGenerator(), args);
     }
 
     @Override
     public Void call() {
+        // check options before anything is created
+        if (adaptive && (design != SamplingDesign.FULL || shard != null || resultDirectory == null)) {
+            logger.error("adaptive sweeps require the results folder and can not be combined with sampling designs or shards");
+            return null;
+        }
+        if (design != SamplingDesign.FULL && runs < 1) {
+            logger.error("the {} design requires the number of runs", design);
+            return null;
+        }
+
         // get simulation file
         String simulationDocument;
         try {
@@ -104,41 +228,289 @@ public class TicketGenerator implements Callable<Void> {
             return null;
         }
 
-        // generate observation directory
+        // create simulation (to cache entities etc)
+        Simulation simulation = SimulationRepresentation.to(representation);
+        VariationManager variationManager = new VariationManager();
+        VariationRange variationRange;
+        LongUnaryOperator variationOf = LongUnaryOperator.identity();
+        if (design == SamplingDesign.FULL) {
+            if (shard != null) {
+                variationManager.setVariationRange(shard.rangeOf(variationManager.getVariationSpace()));
+            }
+            variationRange = variationManager.getVariationRange();
+            if (!adaptive) {
+                System.out.println("generating tickets for variations " + variationRange + " of " + variationManager.getPossibleVariations());
+            }
+        } else {
+            long[] sampledVariations;
+            try {
+                sampledVariations = new VariationSampler(variationManager.getVariationSpace(), seed).sample(design, runs);
+            } catch (IllegalArgumentException e) {
+                logger.error("unable to sample variations", e);
+                return null;
+            }
+            if (sampledVariations.length < Math.min(runs, variationManager.getPossibleVariations())) {
+                logger.warn("the {} design selected only {} distinct variations instead of {} runs", design, sampledVariations.length, runs);
+            }
+            // shards split the selected variations
+            variationRange = new VariationRange(0, sampledVariations.length);
+            if (shard != null) {
+                variationRange = variationRange.split(shard.getCount()).get(shard.getIndex());
+            }
+            variationOf = position -> sampledVariations[(int) position];
+            System.out.println("selected " + sampledVariations.length + " of " + variationManager.getPossibleVariations() + " variations with the " + design.name().toLowerCase().replace('_', '-') + " design, generating tickets for runs " + variationRange);
+        }
+
+        // generate ticket store, once the variations are known to be valid
         Path ticketPath = targetDirectory;
         Recorders.createDirectories(ticketPath);
+        TicketStore ticketStore = TicketStore.create(ticketStoreType, ticketPath);
 
-        // generate status paths
-        Path openPath = ticketPath.resolve("open");
-        Recorders.createDirectories(openPath);
-        Recorders.createDirectories(ticketPath.resolve("processing"));
-        Recorders.createDirectories(ticketPath.resolve("done"));
+        // predict costs for scheduling
+        TicketCostModel costModel = null;
+        List<TicketSchedule.ScheduledTicket> scheduledTickets = new ArrayList<>();
+        if (ticketOrder == TicketOrder.LONGEST_FIRST) {
+            costModel = historyDirectory == null ? TicketCostModel.prior() : TicketCostModel.fit(historyDirectory);
+        }
+        double simulatedSeconds = terminationTime.to(SECOND).getValue().doubleValue();
 
-        // create simulation (to cache entities etc)
-        Simulation simulation = SimulationRepresentation.to(representation);
-        VariationManager variationManager = new VariationManager();
+        // restrict to the first variations (for tests)
+        if (maxTickets != -1) {
+            variationRange = new VariationRange(variationRange.getStart(), Math.min(variationRange.getEnd(), variationRange.getStart() + maxTickets));
+        }
 
-        int i = 1;
-        while (variationManager.hasVariationsLeft()) {
-            // get next variation set
-            variationManager.nextVariationSet();
-            for (int sample = 0; sample < samples; sample++) {
-                // create id
-                String ticketId = UUID.randomUUID().toString();
-                // create ticket
-                ProcessingTicket ticket = variationManager.generateTicket(ticketId, simulationSetupPath.getFileName().toString(), terminationTime, terminationTime.divide(observations), observedConcentrationUnit, observedTimeUnit);
-                variationManager.writeTicket(ticket, openPath);
-                // write ticket
-                variationManager.writeTicket(ticket, openPath);
+        // generate tickets in parallel, every thread handles a contiguous part of the variations
+        FeatureRepresentationTable representationTable = variationManager.createRepresentationTable();
+        SweepManifest manifest = null;
+        if (compactTickets) {
+            ProcessingTicket template = createTicket();
+            template.setFeatures(representationTable.getFeatureRepresentations());
+            manifest = SweepManifest.create(template);
+            manifest.write(ticketPath);
+            System.out.println("wrote sweep manifest " + manifest.getIdentifier());
+        }
+        if (adaptive) {
+            try {
+                generateAdaptively(ticketPath, ticketStore, variationManager, representationTable, manifest, costModel, simulatedSeconds);
+            } catch (IOException | IllegalArgumentException e) {
+                logger.error("unable to continue adaptive sweep in {}", ticketPath, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
-            if (maxTickets == -1) {
-                continue;
-            } else if (i >= maxTickets) {
-                break;
+            closeTicketStore(ticketStore, ticketPath);
+            return null;
+        }
+
+        long generationStart = System.nanoTime();
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> new Thread(runnable, "generator-" + threadCount.incrementAndGet()));
+        List<Future<List<TicketSchedule.ScheduledTicket>>> parts = new ArrayList<>();
+        for (VariationRange part : variationRange.split(threads)) {
+            TicketCostModel partCostModel = costModel;
+            SweepManifest partManifest = manifest;
+            LongUnaryOperator partVariationOf = variationOf;
+            parts.add(executor.submit(() -> generateTickets(part, partVariationOf, representationTable, partManifest, ticketStore, partCostModel, simulatedSeconds, null)));
+        }
+        executor.shutdown();
+        long generatedTickets = variationRange.size() * samples;
+        for (Future<List<TicketSchedule.ScheduledTicket>> part : parts) {
+            try {
+                scheduledTickets.addAll(part.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                executor.shutdownNow();
+                closeTicketStore(ticketStore, ticketPath);
+                return null;
+            } catch (ExecutionException e) {
+                logger.error("unable to write tickets to {}", ticketPath, e.getCause());
+                executor.shutdownNow();
+                closeTicketStore(ticketStore, ticketPath);
+                return null;
             }
-            i++;
         }
+        double generationTime = (System.nanoTime() - generationStart) / 1e9;
+        System.out.println("generated " + generatedTickets + " tickets in " + String.format(Locale.US, "%.2f", generationTime) + " s (" +
+                String.format(Locale.US, "%.0f", generatedTickets / Math.max(generationTime, 1e-9)) + " tickets/s)");
+
+        if (costModel != null) {
+            TicketSchedule.write(ticketPath, scheduleName(), scheduledTickets);
+            System.out.println("scheduled " + scheduledTickets.size() + " tickets longest first");
+        }
+        closeTicketStore(ticketStore, ticketPath);
         return null;
     }
+
+    /**
+     * Returns the name of the schedule file of this generator. Shards write separate schedules, that are merged by
+     * the ticket stores, a generator of the same shard replaces the schedule of an earlier sweep.
+     *
+     * @return The name of the schedule.
+     */
+    private String scheduleName() {
+        return shard == null ? "all" : shard.getIndex() + "-of-" + shard.getCount();
+    }
+
+    private static void closeTicketStore(TicketStore ticketStore, Path ticketPath) {
+        try {
+            ticketStore.close();
+        } catch (IOException e) {
+            logger.warn("unable to close ticket store {}", ticketPath, e);
+        }
+    }
+
+    /**
+     * Issues tickets in rounds, starting with a coarse grid (see {@link AdaptiveRefinement}). After all tickets of a
+     * round are processed, the final observations of the processed variations are read from the result folder and
+     * the next round refines between the neighbours whose results differ most. The sweep ends, once the budget is
+     * spent or no neighbours require refinement.
+     */
+    private void generateAdaptively(Path ticketPath, TicketStore ticketStore, VariationManager variationManager, FeatureRepresentationTable representationTable, SweepManifest manifest, TicketCostModel costModel, double simulatedSeconds) throws IOException, InterruptedException {
+        AdaptiveRefinement refinement = new AdaptiveRefinement(variationManager.getVariationSpace());
+        int variationBudget = budget / samples;
+        long[] variations = refinement.coarseGrid(coarseLevels, variationBudget);
+        Map<Long, Map<TrajectorySeries, Double>> outcomes = new HashMap<>();
+        int issuedVariations = 0;
+        for (int round = 1; variations.length > 0; round++) {
+            long[] roundVariations = variations;
+            List<String> roundTickets = new ArrayList<>();
+            List<TicketSchedule.ScheduledTicket> scheduledTickets = generateTickets(new VariationRange(0, roundVariations.length), run -> roundVariations[(int) run],
+                    representationTable, manifest, ticketStore, costModel, simulatedSeconds, roundTickets);
+            if (costModel != null) {
+                TicketSchedule.write(ticketPath, scheduleName(), scheduledTickets);
+            }
+            issuedVariations += roundVariations.length;
+            System.out.println("round " + round + ": issued " + roundVariations.length * samples + " tickets, " + issuedVariations * samples + " of " + budget + " in total");
+            if (issuedVariations >= variationBudget) {
+                System.out.println("spent ticket budget");
+                return;
+            }
+            awaitProcessedTickets(ticketStore, roundTickets);
+            readOutcomes(variationManager, refinement, outcomes);
+            AdaptiveRefinement.Refinement nextRound = refinement.refine(outcomes, tolerance, variationBudget - issuedVariations);
+            System.out.println("read " + outcomes.size() + " results, the largest difference between neighbours is " + String.format(Locale.US, "%.4f", nextRound.getMaximalDifference()) +
+                    ", " + nextRound.getCandidates() + " variations require refinement");
+            variations = nextRound.getVariations();
+        }
+        System.out.println("all neighbours are within the tolerance of " + tolerance);
+    }
+
+    /**
+     * Waits until the tickets of a round are done or failed. Tickets of other sweeps in the same store are not awaited.
+     * If no ticket of the store is open or processing, the round is finished without checking its tickets. Otherwise
+     * the state of the tickets, that were not finished at the previous check, is determined. After the round timeout,
+     * tickets that are still pending (e.g. held by a runner that died) are given up.
+     *
+     * @param ticketStore The ticket store.
+     * @param roundTickets The identifiers of the tickets of the round.
+     */
+    private void awaitProcessedTickets(TicketStore ticketStore, List<String> roundTickets) throws InterruptedException {
+        long start = System.nanoTime();
+        Set<String> pendingTickets = new HashSet<>(roundTickets);
+        while (ticketStore.count(TicketState.OPEN) > 0 || ticketStore.count(TicketState.PROCESSING) > 0) {
+            pendingTickets.removeIf(identifier -> isFinished(ticketStore, identifier));
+            if (pendingTickets.isEmpty()) {
+                return;
+            }
+            if (roundTimeout > 0 && System.nanoTime() - start >= TimeUnit.MINUTES.toNanos(roundTimeout)) {
+                logger.warn("{} of {} tickets of the round were not processed within {} minutes, continuing with the available results",
+                        pendingTickets.size(), roundTickets.size(), roundTimeout);
+                return;
+            }
+            TimeUnit.SECONDS.sleep(pollInterval);
+        }
+    }
+
+    private static boolean isFinished(TicketStore ticketStore, String identifier) {
+        Optional<TicketState> state = ticketStore.getState(identifier);
+        return state.isPresent() && (state.get() == TicketState.DONE || state.get() == TicketState.FAILED);
+    }
+
+    /**
+     * Reads the final observations of all issued variations, that are processed and not read yet. Result folders are
+     * determined from the variations of the processed tickets, results of resumed tickets are not used.
+     */
+    private void readOutcomes(VariationManager variationManager, AdaptiveRefinement refinement, Map<Long, Map<TrajectorySeries, Double>> outcomes) {
+        try {
+            variationManager.determineProcessedVariations(resultDirectory);
+        } catch (UncheckedIOException e) {
+            logger.warn("unable to determine processed variations in {}", resultDirectory, e.getCause());
+            return;
+        }
+        for (long variation : refinement.getIssuedVariations()) {
+            if (outcomes.containsKey(variation)) {
+                continue;
+            }
+            variationManager.applyVariation(variation);
+            String resultFolder = variationManager.wasAlreadyProcessedIn();
+            if (resultFolder.isEmpty() || Files.exists(resultDirectory.resolve(resultFolder).resolve(SimulationCheckpoint.RESUMED_FILE))) {
+                continue;
+            }
+            try {
+                FinalObservation.read(resultDirectory.resolve(resultFolder)).ifPresent(outcome -> outcomes.put(variation, outcome));
+            } catch (IOException e) {
+                logger.warn("unable to read results of {}", resultFolder, e);
+            }
+        }
+    }
+
+    private ProcessingTicket createTicket() {
+        ProcessingTicket ticket = new ProcessingTicket();
+        ticket.setSimulation(simulationSetupPath.getFileName().toString());
+        ticket.setTotalTime(terminationTime);
+        ticket.setObservationTime(terminationTime.divide(observations));
+        ticket.setObservedConcentrationUnit(observedConcentrationUnit);
+        ticket.setObservedTimeUnit(observedTimeUnit);
+        return ticket;
+    }
+
+    /**
+     * Generates and publishes the tickets for a range of runs, that are mapped to the variations of the design.
+     * Tickets are serialized once and published in
+     * batches. If a manifest is given, compact tickets are generated, otherwise json tickets, where the ticket object
+     * itself is reused for all tickets of the range.
+     *
+     * @param issuedTickets Collects the identifiers of the generated tickets, if given.
+     * @return The tickets and their predicted costs, if a cost model is given.
+     */
+    private List<TicketSchedule.ScheduledTicket> generateTickets(VariationRange runRange, LongUnaryOperator variationOf, FeatureRepresentationTable representationTable, SweepManifest manifest, TicketStore ticketStore, TicketCostModel costModel, double simulatedSeconds, List<String> issuedTickets) throws IOException {
+        List<TicketSchedule.ScheduledTicket> scheduledTickets = new ArrayList<>();
+        List<StoredTicket> batch = new ArrayList<>(PUBLISH_BATCH_SIZE);
+        VariationSpace variationSpace = representationTable.getVariationSpace();
+        int[] alternatives = new int[variationSpace.getNumberOfFeatures()];
+        ProcessingTicket ticket = createTicket();
+        for (long run = runRange.getStart(); run < runRange.getEnd(); run++) {
+            long variation = variationOf.applyAsLong(run);
+            List<FeatureRepresentation<?>> features = null;
+            if (manifest == null || costModel != null) {
+                features = representationTable.representationsOf(variation, alternatives);
+                ticket.setFeatures(features);
+            } else {
+                variationSpace.decode(variation, alternatives);
+            }
+            double predictedCost = costModel == null ? 0.0 : costModel.predict(features, simulatedSeconds);
+            for (int sample = 0; sample < samples; sample++) {
+                String ticketId = UUID.randomUUID().toString();
+                if (manifest == null) {
+                    ticket.setIdentifier(ticketId);
+                    batch.add(new StoredTicket(ticketId, ticket.toJson().getBytes(StandardCharsets.UTF_8)));
+                } else {
+                    batch.add(new StoredTicket(ticketId, CompactTicket.encode(manifest.getIdentifier(), sample, alternatives)));
+                }
+                if (issuedTickets != null) {
+                    issuedTickets.add(ticketId);
+                }
+                if (costModel != null) {
+                    scheduledTickets.add(new TicketSchedule.ScheduledTicket(ticketId, predictedCost));
+                }
+                if (batch.size() == PUBLISH_BATCH_SIZE) {
+                    ticketStore.publish(batch);
+                    batch.clear();
+                }
+            }
+        }
+        ticketStore.publish(batch);
+        return scheduledTickets;
+    }
+
 }
 
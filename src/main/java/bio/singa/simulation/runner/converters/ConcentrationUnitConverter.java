@@ -6,8 +6,6 @@ import org.slf4j.LoggerFactory;
 import picocli.CommandLine;
 
 import javax.measure.Unit;
-import javax.measure.format.UnitFormat;
-import javax.measure.spi.ServiceProvider;
 
 import static bio.singa.features.units.UnitProvider.MOLE_PER_LITRE;
 
@@ -20,8 +18,7 @@ public class ConcentrationUnitConverter implements CommandLine.ITypeConverter<Un
 
     @Override
     public Unit<MolarConcentration> convert(String unitString) {
-        UnitFormat unitFormatService = ServiceProvider.current().getUnitFormatService().getUnitFormat("ASCII");
-        Unit<?> unit = unitFormatService.parse(unitString);
+        Unit<?> unit = UnitFormats.ascii().parse(unitString);
         if (unit.isCompatible(MOLE_PER_LITRE)) {
             return unit.asType(MolarConcentration.class);
         }
@@ -0,0 +1,26 @@
+package bio.singa.simulation.runner.converters;
+
+import bio.singa.simulation.runner.trajectories.OutputFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import picocli.CommandLine;
+
+/**
+ * @author cl
+ */
+public class OutputFormatConverter implements CommandLine.ITypeConverter<OutputFormat> {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutputFormatConverter.class);
+
+    @Override
+    public OutputFormat convert(String formatString) {
+        for (OutputFormat outputFormat : OutputFormat.values()) {
+            if (outputFormat.name().equalsIgnoreCase(formatString)) {
+                return outputFormat;
+            }
+        }
+        logger.error("unable to convert output format {}", formatString);
+        throw new IllegalArgumentException(formatString);
+    }
+
+}
@@ -0,0 +1,27 @@
+package bio.singa.simulation.runner.converters;
+
+import bio.singa.simulation.runner.managers.SamplingDesign;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import picocli.CommandLine;
+
+/**
+ * @author cl
+ */
+public class SamplingDesignConverter implements CommandLine.ITypeConverter<SamplingDesign> {
+
+    private static final Logger logger = LoggerFactory.getLogger(SamplingDesignConverter.class);
+
+    @Override
+    public SamplingDesign convert(String designString) {
+        String normalizedDesign = designString.replace('-', '_');
+        for (SamplingDesign design : SamplingDesign.values()) {
+            if (design.name().equalsIgnoreCase(normalizedDesign)) {
+                return design;
+            }
+        }
+        logger.error("unable to convert sampling design {}", designString);
+        throw new IllegalArgumentException(designString);
+    }
+
+}
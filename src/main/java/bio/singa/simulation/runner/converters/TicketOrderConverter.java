@@ -0,0 +1,27 @@
+package bio.singa.simulation.runner.converters;
+
+import bio.singa.simulation.runner.tickets.TicketOrder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import picocli.CommandLine;
+
+/**
+ * @author cl
+ */
+public class TicketOrderConverter implements CommandLine.ITypeConverter<TicketOrder> {
+
+    private static final Logger logger = LoggerFactory.getLogger(TicketOrderConverter.class);
+
+    @Override
+    public TicketOrder convert(String orderString) {
+        String normalizedOrder = orderString.replace('-', '_');
+        for (TicketOrder ticketOrder : TicketOrder.values()) {
+            if (ticketOrder.name().equalsIgnoreCase(normalizedOrder)) {
+                return ticketOrder;
+            }
+        }
+        logger.error("unable to convert ticket order {}", orderString);
+        throw new IllegalArgumentException(orderString);
+    }
+
+}
@@ -3,13 +3,11 @@ package bio.singa.simulation.runner.converters;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import picocli.CommandLine;
-import systems.uom.ucum.format.UCUMFormat;
 import tech.units.indriya.quantity.Quantities;
 import tech.units.indriya.quantity.QuantityDimension;
 
 import javax.measure.Quantity;
 import javax.measure.Unit;
-import javax.measure.format.UnitFormat;
 import javax.measure.quantity.Time;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -22,7 +20,6 @@ public class TimeQuantityConverter implements CommandLine.ITypeConverter<Quantit
     private static final Logger logger = LoggerFactory.getLogger(TimeQuantityConverter.class);
 
     private static Pattern timePattern = Pattern.compile("([0-9]*\\.?[0-9]+([eE][-+]?[0-9]+)?)(\\w+)");
-    private static UnitFormat unitFormatService = UCUMFormat.getInstance(UCUMFormat.Variant.CASE_SENSITIVE);
 
     @Override
     public Quantity<Time> convert(String timeString) {
@@ -30,7 +27,7 @@ public class TimeQuantityConverter implements CommandLine.ITypeConverter<Quantit
         if (matcher.matches()) {
             double quantity = Double.valueOf(matcher.group(1));
             String unitString = matcher.group(3);
-            Unit<?> unit = unitFormatService.parse(unitString);
+            Unit<?> unit = UnitFormats.ucum().parse(unitString);
             if (unit.getDimension().equals(QuantityDimension.TIME)) {
                 return Quantities.getQuantity(quantity, unit).asType(Time.class);
             }
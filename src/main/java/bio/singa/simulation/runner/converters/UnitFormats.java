@@ -0,0 +1,37 @@
+package bio.singa.simulation.runner.converters;
+
+import systems.uom.ucum.format.UCUMFormat;
+
+import javax.measure.format.UnitFormat;
+import javax.measure.spi.ServiceProvider;
+
+/**
+ * The unit formats used by the converters. Unit formats are expensive to initialize, so every format is kept in its
+ * own holder class, that is only loaded when the format is first used. Commands that are called without units do
+ * not pay for them.
+ *
+ * @author cl
+ */
+final class UnitFormats {
+
+    private UnitFormats() {
+        // prevent instantiation
+    }
+
+    static UnitFormat ucum() {
+        return UcumHolder.FORMAT;
+    }
+
+    static UnitFormat ascii() {
+        return AsciiHolder.FORMAT;
+    }
+
+    private static final class UcumHolder {
+        private static final UnitFormat FORMAT = UCUMFormat.getInstance(UCUMFormat.Variant.CASE_SENSITIVE);
+    }
+
+    private static final class AsciiHolder {
+        private static final UnitFormat FORMAT = ServiceProvider.current().getUnitFormatService().getUnitFormat("ASCII");
+    }
+
+}
@@ -0,0 +1,34 @@
+package bio.singa.simulation.runner.converters;
+
+import bio.singa.simulation.runner.managers.VariationShard;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import picocli.CommandLine;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * @author cl
+ */
+public class VariationShardConverter implements CommandLine.ITypeConverter<VariationShard> {
+
+    private static final Logger logger = LoggerFactory.getLogger(VariationShardConverter.class);
+
+    private static Pattern shardPattern = Pattern.compile("(\\d+)/(\\d+)");
+
+    @Override
+    public VariationShard convert(String shardString) {
+        Matcher matcher = shardPattern.matcher(shardString);
+        if (matcher.matches()) {
+            int index = Integer.parseInt(matcher.group(1));
+            int count = Integer.parseInt(matcher.group(2));
+            if (count > 0 && index < count) {
+                return new VariationShard(index, count);
+            }
+        }
+        logger.error("unable to convert shard {}", shardString);
+        throw new IllegalArgumentException(shardString);
+    }
+
+}
@@ -0,0 +1,106 @@
+package bio.singa.simulation.runner.heartbeats;
+
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * The last reported status of a single worker.
+ *
+ * @author cl
+ */
+public class Heartbeat {
+
+    private final String runner;
+    private final int slot;
+    private final long wallTime;
+    private final String ticketId;
+    private final double simulatedTime;
+    private final double speed;
+    private final long heapUsage;
+
+    Heartbeat(String runner, int slot, long wallTime, long ticketMost, long ticketLeast, boolean running, double simulatedTime, double speed, long heapUsage) {
+        this.runner = runner;
+        this.slot = slot;
+        this.wallTime = wallTime;
+        ticketId = running ? new UUID(ticketMost, ticketLeast).toString() : null;
+        this.simulatedTime = simulatedTime;
+        this.speed = speed;
+        this.heapUsage = heapUsage;
+    }
+
+    /**
+     * Returns the runner (pid@host) the worker belongs to.
+     *
+     * @return The runner.
+     */
+    public String getRunner() {
+        return runner;
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    /**
+     * Returns the time the heartbeat was sent.
+     *
+     * @return The time in milliseconds since the epoch.
+     */
+    public long getWallTime() {
+        return wallTime;
+    }
+
+    /**
+     * Returns the ticket that is processed by the worker.
+     *
+     * @return The ticket identifier or an empty optional if the worker is idle.
+     */
+    public Optional<String> getTicketId() {
+        return Optional.ofNullable(ticketId);
+    }
+
+    public boolean isRunning() {
+        return ticketId != null;
+    }
+
+    /**
+     * Returns the simulated time of the current simulation.
+     *
+     * @return The simulated time in milliseconds.
+     */
+    public double getSimulatedTime() {
+        return simulatedTime;
+    }
+
+    /**
+     * Returns the speed of the current simulation.
+     *
+     * @return The simulated milliseconds per second.
+     */
+    public double getSpeed() {
+        return speed;
+    }
+
+    /**
+     * Returns the heap used by the runner.
+     *
+     * @return The heap usage in bytes.
+     */
+    public long getHeapUsage() {
+        return heapUsage;
+    }
+
+    @Override
+    public String toString() {
+        return "Heartbeat{" +
+                "runner='" + runner + '\'' +
+                ", slot=" + slot +
+                ", wallTime=" + wallTime +
+                ", ticketId='" + ticketId + '\'' +
+                ", simulatedTime=" + simulatedTime +
+                ", speed=" + speed +
+                ", heapUsage=" + heapUsage +
+                '}';
+    }
+
+}
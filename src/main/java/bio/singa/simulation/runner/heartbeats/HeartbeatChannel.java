@@ -0,0 +1,56 @@
+package bio.singa.simulation.runner.heartbeats;
+
+import bio.singa.simulation.runner.tickets.DirectoryTicketMonitor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A channel heartbeats of the workers of a runner are sent to. Sending a heartbeat does not allocate.
+ *
+ * @author cl
+ */
+public interface HeartbeatChannel extends Closeable {
+
+    String HEARTBEAT_DIRECTORY = "heartbeats";
+
+    /**
+     * Opens the heartbeat channel of this runner in the given directory. Workers write to memory mapped slots, that
+     * can be read by an overseer on the same node. If the overseer runs on another node (or the directory is located
+     * on a network file system, where mapped memory is not shared between nodes), heartbeats are appended to a log.
+     *
+     * @param heartbeatDirectory The heartbeat directory.
+     * @param slots The number of workers.
+     * @param log True, if heartbeats should always be appended to a log.
+     * @return The channel.
+     * @throws IOException if the heartbeat file could not be created.
+     */
+    static HeartbeatChannel open(Path heartbeatDirectory, int slots, boolean log) throws IOException {
+        Files.createDirectories(heartbeatDirectory);
+        String runner = ManagementFactory.getRuntimeMXBean().getName();
+        if (log || DirectoryTicketMonitor.isOnNetworkFileSystem(heartbeatDirectory)) {
+            return new HeartbeatLog(heartbeatDirectory.resolve(runner + HeartbeatFormat.LOG_FILE_EXTENSION), slots);
+        }
+        return new HeartbeatSlots(heartbeatDirectory.resolve(runner + HeartbeatFormat.SLOT_FILE_EXTENSION), slots);
+    }
+
+    /**
+     * Sends a heartbeat.
+     *
+     * @param slot The slot of the worker.
+     * @param running True, if the worker processes a ticket.
+     * @param ticketMost The most significant bits of the ticket identifier.
+     * @param ticketLeast The least significant bits of the ticket identifier.
+     * @param simulatedTime The simulated time in milliseconds.
+     * @param speed The simulated milliseconds per second.
+     * @param heapUsage The used heap in bytes.
+     */
+    void beat(int slot, boolean running, long ticketMost, long ticketLeast, double simulatedTime, double speed, long heapUsage);
+
+    @Override
+    void close();
+
+}
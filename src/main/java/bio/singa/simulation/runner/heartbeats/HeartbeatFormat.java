@@ -0,0 +1,46 @@
+package bio.singa.simulation.runner.heartbeats;
+
+/**
+ * Constants of heartbeat files. Every heartbeat file starts with a header, followed by fixed size heartbeat records.
+ * <pre>
+ * header   magic (int), version (short), kind (short), slots (int), padding up to 64 bytes
+ * record   sequence (long), wall time (long), ticket (two longs), simulated time in ms (double),
+ *          speed in simulated ms per s (double), used heap (long), slot (int), state (int)
+ * </pre>
+ * Slot files hold one record per worker that is overwritten in place, log files append records. In slot files the
+ * sequence is odd while a record is written.
+ *
+ * @author cl
+ */
+final class HeartbeatFormat {
+
+    static final int MAGIC = 0x53474842;
+    static final short VERSION = 1;
+
+    static final short KIND_SLOTS = 1;
+    static final short KIND_LOG = 2;
+
+    static final String SLOT_FILE_EXTENSION = ".slots";
+    static final String LOG_FILE_EXTENSION = ".log";
+
+    static final int HEADER_SIZE = 64;
+    static final int RECORD_SIZE = 64;
+
+    static final int SEQUENCE = 0;
+    static final int WALL_TIME = 8;
+    static final int TICKET_MOST = 16;
+    static final int TICKET_LEAST = 24;
+    static final int SIMULATED_TIME = 32;
+    static final int SPEED = 40;
+    static final int HEAP = 48;
+    static final int SLOT = 56;
+    static final int STATE = 60;
+
+    static final int STATE_IDLE = 0;
+    static final int STATE_RUNNING = 1;
+
+    private HeartbeatFormat() {
+        // constants
+    }
+
+}
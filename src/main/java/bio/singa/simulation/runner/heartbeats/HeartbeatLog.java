@@ -0,0 +1,88 @@
+package bio.singa.simulation.runner.heartbeats;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static bio.singa.simulation.runner.heartbeats.HeartbeatFormat.*;
+
+/**
+ * Heartbeats appended to a log of fixed size records, readable from other nodes. Readers only read the tail of the
+ * log. Once the log reaches its maximal size it is truncated and starts over, such that the log stays small. The file
+ * is removed when the channel is closed.
+ *
+ * @author cl
+ */
+class HeartbeatLog implements HeartbeatChannel {
+
+    private static final Logger logger = LoggerFactory.getLogger(HeartbeatLog.class);
+
+    private static final int MAXIMAL_RECORDS = 16 * 1024;
+
+    private final Path logFile;
+    private final FileChannel channel;
+    private final ByteBuffer record;
+    private long position;
+    private boolean failed;
+
+    HeartbeatLog(Path logFile, int numberOfSlots) throws IOException {
+        this.logFile = logFile;
+        channel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(0, MAGIC);
+        header.putShort(4, VERSION);
+        header.putShort(6, KIND_LOG);
+        header.putInt(8, numberOfSlots);
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+        position = HEADER_SIZE;
+        record = ByteBuffer.allocateDirect(RECORD_SIZE);
+    }
+
+    @Override
+    public synchronized void beat(int slot, boolean running, long ticketMost, long ticketLeast, double simulatedTime, double speed, long heapUsage) {
+        if (failed) {
+            return;
+        }
+        record.clear();
+        record.putLong(SEQUENCE, 0);
+        record.putLong(WALL_TIME, System.currentTimeMillis());
+        record.putLong(TICKET_MOST, ticketMost);
+        record.putLong(TICKET_LEAST, ticketLeast);
+        record.putDouble(SIMULATED_TIME, simulatedTime);
+        record.putDouble(SPEED, speed);
+        record.putLong(HEAP, heapUsage);
+        record.putInt(SLOT, slot);
+        record.putInt(STATE, running ? STATE_RUNNING : STATE_IDLE);
+        try {
+            if (position >= HEADER_SIZE + (long) MAXIMAL_RECORDS * RECORD_SIZE) {
+                channel.truncate(HEADER_SIZE);
+                position = HEADER_SIZE;
+            }
+            while (record.hasRemaining()) {
+                position += channel.write(record, position);
+            }
+        } catch (IOException e) {
+            logger.warn("unable to write heartbeat to {}, no further heartbeats are sent", logFile, e);
+            failed = true;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            channel.close();
+            Files.deleteIfExists(logFile);
+        } catch (IOException e) {
+            logger.warn("unable to remove heartbeat log {}", logFile, e);
+        }
+    }
+
+}
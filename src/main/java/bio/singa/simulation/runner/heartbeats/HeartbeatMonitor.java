@@ -0,0 +1,215 @@
+package bio.singa.simulation.runner.heartbeats;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static bio.singa.simulation.runner.heartbeats.HeartbeatFormat.*;
+
+/**
+ * Aggregates the heartbeats of all runners that report to a heartbeat directory. Slot files are memory mapped once,
+ * of log files only the tail is read, so refreshing costs one listing of the heartbeat directory and a few reads per
+ * runner, independent of the number of tickets.
+ *
+ * @author cl
+ */
+public class HeartbeatMonitor {
+
+    private static final Logger logger = LoggerFactory.getLogger(HeartbeatMonitor.class);
+
+    private static final int READ_ATTEMPTS = 8;
+
+    private final Path heartbeatDirectory;
+    private final long timeout;
+    private final Map<Path, MappedByteBuffer> mappedSlots;
+
+    private volatile List<Heartbeat> liveHeartbeats;
+    private volatile Map<String, Long> ticketHeartbeats;
+
+    public HeartbeatMonitor(Path heartbeatDirectory, long timeout, TimeUnit unit) {
+        this.heartbeatDirectory = heartbeatDirectory;
+        this.timeout = unit.toMillis(timeout);
+        mappedSlots = new HashMap<>();
+        liveHeartbeats = Collections.emptyList();
+        ticketHeartbeats = Collections.emptyMap();
+    }
+
+    /**
+     * Reads the latest heartbeats of all runners. Heartbeats older than the timeout are ignored.
+     */
+    public synchronized void refresh() {
+        if (!Files.isDirectory(heartbeatDirectory)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        List<Heartbeat> heartbeats = new ArrayList<>();
+        Set<Path> slotFiles = new HashSet<>();
+        try (DirectoryStream<Path> heartbeatFiles = Files.newDirectoryStream(heartbeatDirectory)) {
+            for (Path heartbeatFile : heartbeatFiles) {
+                String fileName = heartbeatFile.getFileName().toString();
+                try {
+                    if (fileName.endsWith(SLOT_FILE_EXTENSION)) {
+                        slotFiles.add(heartbeatFile);
+                        readSlots(heartbeatFile, runnerOf(fileName, SLOT_FILE_EXTENSION), heartbeats);
+                    } else if (fileName.endsWith(LOG_FILE_EXTENSION)) {
+                        readLog(heartbeatFile, runnerOf(fileName, LOG_FILE_EXTENSION), heartbeats);
+                    }
+                } catch (IOException e) {
+                    logger.debug("unable to read heartbeats from {}", heartbeatFile, e);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("unable to retrieve heartbeats from {}", heartbeatDirectory, e);
+            return;
+        }
+        // forget runners that are gone
+        mappedSlots.keySet().retainAll(slotFiles);
+        List<Heartbeat> live = new ArrayList<>();
+        Map<String, Long> tickets = new HashMap<>();
+        for (Heartbeat heartbeat : heartbeats) {
+            if (now - heartbeat.getWallTime() > timeout) {
+                continue;
+            }
+            live.add(heartbeat);
+            heartbeat.getTicketId().ifPresent(ticketId -> tickets.merge(ticketId, heartbeat.getWallTime(), Math::max));
+        }
+        liveHeartbeats = Collections.unmodifiableList(live);
+        ticketHeartbeats = tickets;
+    }
+
+    private static String runnerOf(String fileName, String extension) {
+        return fileName.substring(0, fileName.length() - extension.length());
+    }
+
+    private void readSlots(Path slotFile, String runner, List<Heartbeat> heartbeats) throws IOException {
+        MappedByteBuffer slots = mappedSlots.get(slotFile);
+        if (slots == null) {
+            try (FileChannel channel = FileChannel.open(slotFile, StandardOpenOption.READ)) {
+                if (channel.size() < HEADER_SIZE) {
+                    return;
+                }
+                slots = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            if (slots.getInt(0) != MAGIC || slots.getShort(6) != KIND_SLOTS) {
+                return;
+            }
+            mappedSlots.put(slotFile, slots);
+        }
+        int numberOfSlots = Math.min(slots.getInt(8), (slots.capacity() - HEADER_SIZE) / RECORD_SIZE);
+        for (int slot = 0; slot < numberOfSlots; slot++) {
+            Heartbeat heartbeat = readSlot(slots, runner, HEADER_SIZE + slot * RECORD_SIZE);
+            if (heartbeat != null) {
+                heartbeats.add(heartbeat);
+            }
+        }
+    }
+
+    private Heartbeat readSlot(ByteBuffer slots, String runner, int offset) {
+        for (int attempt = 0; attempt < READ_ATTEMPTS; attempt++) {
+            long sequence = slots.getLong(offset + SEQUENCE);
+            if (sequence == 0) {
+                // never written
+                return null;
+            }
+            if ((sequence & 1) != 0) {
+                // currently written
+                continue;
+            }
+            Heartbeat heartbeat = readRecord(slots, runner, offset);
+            if (slots.getLong(offset + SEQUENCE) == sequence) {
+                return heartbeat;
+            }
+        }
+        return null;
+    }
+
+    private void readLog(Path logFile, String runner, List<Heartbeat> heartbeats) throws IOException {
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (channel.read(header, 0) < HEADER_SIZE || header.getInt(0) != MAGIC || header.getShort(6) != KIND_LOG) {
+                return;
+            }
+            int numberOfSlots = header.getInt(8);
+            long records = (channel.size() - HEADER_SIZE) / RECORD_SIZE;
+            // every worker beats in every interval, so the latest heartbeats are contained in the tail
+            long tailRecords = Math.min(records, 2L * numberOfSlots);
+            ByteBuffer tail = ByteBuffer.allocate((int) tailRecords * RECORD_SIZE);
+            long tailStart = HEADER_SIZE + (records - tailRecords) * RECORD_SIZE;
+            while (tail.hasRemaining()) {
+                if (channel.read(tail, tailStart + tail.position()) < 0) {
+                    // truncated in the meantime
+                    break;
+                }
+            }
+            Map<Integer, Heartbeat> latest = new HashMap<>();
+            for (int offset = 0; offset + RECORD_SIZE <= tail.position(); offset += RECORD_SIZE) {
+                Heartbeat heartbeat = readRecord(tail, runner, offset);
+                latest.put(heartbeat.getSlot(), heartbeat);
+            }
+            heartbeats.addAll(latest.values());
+        }
+    }
+
+    private static Heartbeat readRecord(ByteBuffer buffer, String runner, int offset) {
+        return new Heartbeat(runner,
+                buffer.getInt(offset + SLOT),
+                buffer.getLong(offset + WALL_TIME),
+                buffer.getLong(offset + TICKET_MOST),
+                buffer.getLong(offset + TICKET_LEAST),
+                buffer.getInt(offset + STATE) == STATE_RUNNING,
+                buffer.getDouble(offset + SIMULATED_TIME),
+                buffer.getDouble(offset + SPEED),
+                buffer.getLong(offset + HEAP));
+    }
+
+    /**
+     * Returns the latest heartbeats of all live workers.
+     *
+     * @return The heartbeats.
+     */
+    public List<Heartbeat> getLiveHeartbeats() {
+        return liveHeartbeats;
+    }
+
+    /**
+     * Returns the time of the latest heartbeat for the given ticket.
+     *
+     * @param ticketId The ticket identifier.
+     * @return The time in milliseconds since the epoch or 0 if there is no live heartbeat for the ticket.
+     */
+    public long getLastHeartbeat(String ticketId) {
+        return ticketHeartbeats.getOrDefault(ticketId, 0L);
+    }
+
+    public String getWorkerSummary() {
+        List<Heartbeat> heartbeats = liveHeartbeats;
+        long running = heartbeats.stream().filter(Heartbeat::isRunning).count();
+        return running + "/" + heartbeats.size();
+    }
+
+    public String getSpeedSummary() {
+        double speed = liveHeartbeats.stream().mapToDouble(Heartbeat::getSpeed).sum();
+        return String.format("%.1f ms/s", speed);
+    }
+
+    public String getHeapSummary() {
+        // every worker of a runner reports the heap of the runner
+        Map<String, Long> heapUsages = new HashMap<>();
+        for (Heartbeat heartbeat : liveHeartbeats) {
+            heapUsages.merge(heartbeat.getRunner(), heartbeat.getHeapUsage(), Math::max);
+        }
+        long heapUsage = heapUsages.values().stream().mapToLong(Long::longValue).sum();
+        return (heapUsage / (1024 * 1024)) + " MB";
+    }
+
+}
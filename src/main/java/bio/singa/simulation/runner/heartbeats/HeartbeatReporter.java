@@ -0,0 +1,123 @@
+package bio.singa.simulation.runner.heartbeats;
+
+import bio.singa.simulation.model.simulation.SimulationStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Regularly sends a heartbeat for every worker of a runner. Each heartbeat holds the ticket the worker processes,
+ * the simulated time, the speed of the simulation determined from the progress since the last heartbeat, and the
+ * heap usage of the runner.
+ *
+ * @author cl
+ */
+public class HeartbeatReporter {
+
+    private static final Logger logger = LoggerFactory.getLogger(HeartbeatReporter.class);
+
+    private final HeartbeatChannel channel;
+    private final AtomicReferenceArray<Assignment> assignments;
+    private final ScheduledExecutorService scheduler;
+
+    // only accessed by the reporting thread
+    private final Assignment[] reportedAssignments;
+    private final long[] lastProgress;
+    private final long[] lastReport;
+    private final double[] speeds;
+
+    private HeartbeatReporter(HeartbeatChannel channel, int workers) {
+        this.channel = channel;
+        assignments = new AtomicReferenceArray<>(workers);
+        reportedAssignments = new Assignment[workers];
+        lastProgress = new long[workers];
+        lastReport = new long[workers];
+        speeds = new double[workers];
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static HeartbeatReporter start(HeartbeatChannel channel, int workers, long interval, TimeUnit unit) {
+        HeartbeatReporter reporter = new HeartbeatReporter(channel, workers);
+        reporter.scheduler.scheduleAtFixedRate(reporter::report, 0, interval, unit);
+        return reporter;
+    }
+
+    /**
+     * Reports that the worker started processing a ticket.
+     *
+     * @param slot The slot of the worker.
+     * @param ticketId The identifier of the ticket.
+     * @param status The status of the simulation.
+     */
+    public void startTicket(int slot, String ticketId, SimulationStatus status) {
+        assignments.set(slot, new Assignment(UUID.fromString(ticketId), status));
+    }
+
+    /**
+     * Reports that the worker finished processing its ticket.
+     *
+     * @param slot The slot of the worker.
+     */
+    public void finishTicket(int slot) {
+        assignments.set(slot, null);
+    }
+
+    private void report() {
+        try {
+            Runtime runtime = Runtime.getRuntime();
+            long heapUsage = runtime.totalMemory() - runtime.freeMemory();
+            long now = System.nanoTime();
+            for (int slot = 0; slot < assignments.length(); slot++) {
+                Assignment assignment = assignments.get(slot);
+                if (assignment == null) {
+                    reportedAssignments[slot] = null;
+                    channel.beat(slot, false, 0, 0, 0, 0, heapUsage);
+                    continue;
+                }
+                long progress = assignment.status.getProgressInMilliSeconds();
+                if (reportedAssignments[slot] != assignment) {
+                    reportedAssignments[slot] = assignment;
+                    speeds[slot] = 0;
+                } else if (now > lastReport[slot]) {
+                    speeds[slot] = (progress - lastProgress[slot]) / ((now - lastReport[slot]) / 1e9);
+                }
+                lastProgress[slot] = progress;
+                lastReport[slot] = now;
+                channel.beat(slot, true, assignment.ticketId.getMostSignificantBits(), assignment.ticketId.getLeastSignificantBits(), progress, speeds[slot], heapUsage);
+            }
+        } catch (RuntimeException e) {
+            // exceptions would cancel further heartbeats
+            logger.warn("unable to send heartbeat", e);
+        }
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+        channel.close();
+    }
+
+    /**
+     * The ticket a worker processes.
+     */
+    private static class Assignment {
+
+        private final UUID ticketId;
+        private final SimulationStatus status;
+
+        Assignment(UUID ticketId, SimulationStatus status) {
+            this.ticketId = ticketId;
+            this.status = status;
+        }
+
+    }
+
+}
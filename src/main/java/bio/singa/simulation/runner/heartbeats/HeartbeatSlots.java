@@ -0,0 +1,72 @@
+package bio.singa.simulation.runner.heartbeats;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static bio.singa.simulation.runner.heartbeats.HeartbeatFormat.*;
+
+/**
+ * Heartbeats written to memory mapped slots, one slot per worker. Every heartbeat overwrites the slot of the worker in
+ * place, readers on the same node see the update without any file system operation. The file is removed when the
+ * channel is closed.
+ *
+ * @author cl
+ */
+class HeartbeatSlots implements HeartbeatChannel {
+
+    private static final Logger logger = LoggerFactory.getLogger(HeartbeatSlots.class);
+
+    private final Path slotFile;
+    private final MappedByteBuffer slots;
+    private final int numberOfSlots;
+
+    HeartbeatSlots(Path slotFile, int numberOfSlots) throws IOException {
+        this.slotFile = slotFile;
+        this.numberOfSlots = numberOfSlots;
+        try (FileChannel channel = FileChannel.open(slotFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            // the mapping stays valid after the channel is closed
+            slots = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) numberOfSlots * RECORD_SIZE);
+        }
+        slots.putInt(0, MAGIC);
+        slots.putShort(4, VERSION);
+        slots.putShort(6, KIND_SLOTS);
+        slots.putInt(8, numberOfSlots);
+    }
+
+    @Override
+    public void beat(int slot, boolean running, long ticketMost, long ticketLeast, double simulatedTime, double speed, long heapUsage) {
+        if (slot < 0 || slot >= numberOfSlots) {
+            throw new IndexOutOfBoundsException("There is no heartbeat slot " + slot + ".");
+        }
+        int offset = HEADER_SIZE + slot * RECORD_SIZE;
+        long sequence = slots.getLong(offset + SEQUENCE);
+        // odd sequence marks the record as being written
+        slots.putLong(offset + SEQUENCE, sequence + 1);
+        slots.putLong(offset + WALL_TIME, System.currentTimeMillis());
+        slots.putLong(offset + TICKET_MOST, ticketMost);
+        slots.putLong(offset + TICKET_LEAST, ticketLeast);
+        slots.putDouble(offset + SIMULATED_TIME, simulatedTime);
+        slots.putDouble(offset + SPEED, speed);
+        slots.putLong(offset + HEAP, heapUsage);
+        slots.putInt(offset + SLOT, slot);
+        slots.putInt(offset + STATE, running ? STATE_RUNNING : STATE_IDLE);
+        slots.putLong(offset + SEQUENCE, sequence + 2);
+    }
+
+    @Override
+    public void close() {
+        try {
+            Files.deleteIfExists(slotFile);
+        } catch (IOException e) {
+            logger.warn("unable to remove heartbeat slots {}", slotFile, e);
+        }
+    }
+
+}
@@ -0,0 +1,198 @@
+package bio.singa.simulation.runner.managers;
+
+import bio.singa.simulation.runner.trajectories.TrajectorySeries;
+
+import java.util.*;
+
+/**
+ * Selects the variations of an adaptive sweep. The sweep starts with a coarse grid, that covers every feature with a
+ * few evenly spaced alternatives. Afterwards, the outcomes of neighbouring variations are compared, that are
+ * variations differing in the alternative of a single feature, without any issued variation in between. Neighbours
+ * whose outcomes differ by more than the tolerance are refined by the variation halfway between them, the largest
+ * differences first. The refinement ends, once all neighbours are either adjacent alternatives or differ by less than
+ * the tolerance.
+ * <p>
+ * The difference between two outcomes is the largest relative difference of any concentration, that is the absolute
+ * difference divided by the larger of both values.
+ *
+ * @author cl
+ */
+public class AdaptiveRefinement {
+
+    private final VariationSpace variationSpace;
+    // the amount a variation number changes, if the alternative of the feature is incremented
+    private final long[] featureStrides;
+    private final Set<Long> issuedVariations;
+
+    public AdaptiveRefinement(VariationSpace variationSpace) {
+        this.variationSpace = variationSpace;
+        int features = variationSpace.getNumberOfFeatures();
+        featureStrides = new long[features];
+        long stride = 1;
+        for (int featureIndex = features - 1; featureIndex >= 0; featureIndex--) {
+            featureStrides[featureIndex] = stride;
+            stride *= variationSpace.getNumberOfAlternatives(featureIndex);
+        }
+        issuedVariations = new LinkedHashSet<>();
+    }
+
+    /**
+     * Issues the coarse grid, that is the cartesian product of the given number of evenly spaced alternatives of
+     * every feature, including the first and the last alternative.
+     *
+     * @param levels The number of alternatives per feature.
+     * @param budget The maximal number of variations.
+     * @return The variations of the coarse grid.
+     * @throws IllegalArgumentException if the coarse grid exceeds the budget.
+     */
+    public long[] coarseGrid(int levels, int budget) {
+        if (levels < 2) {
+            throw new IllegalArgumentException("The coarse grid requires at least two alternatives per feature.");
+        }
+        int features = variationSpace.getNumberOfFeatures();
+        int[][] featureLevels = new int[features][];
+        long size = 1;
+        for (int featureIndex = 0; featureIndex < features; featureIndex++) {
+            int alternatives = variationSpace.getNumberOfAlternatives(featureIndex);
+            SortedSet<Integer> distinctLevels = new TreeSet<>();
+            for (int level = 0; level < levels; level++) {
+                distinctLevels.add((int) Math.round(level * (alternatives - 1) / (double) (levels - 1)));
+            }
+            featureLevels[featureIndex] = distinctLevels.stream().mapToInt(Integer::intValue).toArray();
+            size *= featureLevels[featureIndex].length;
+            if (size > budget) {
+                throw new IllegalArgumentException("The coarse grid with " + levels + " alternatives per feature exceeds the budget of " + budget + " variations.");
+            }
+        }
+        long[] variations = new long[(int) size];
+        int[] levelIndices = new int[features];
+        int[] alternatives = new int[features];
+        for (int gridPoint = 0; gridPoint < size; gridPoint++) {
+            for (int featureIndex = 0; featureIndex < features; featureIndex++) {
+                alternatives[featureIndex] = featureLevels[featureIndex][levelIndices[featureIndex]];
+            }
+            variations[gridPoint] = variationSpace.encode(alternatives);
+            issuedVariations.add(variations[gridPoint]);
+            // increment the mixed radix grid index
+            for (int featureIndex = features - 1; featureIndex >= 0; featureIndex--) {
+                if (++levelIndices[featureIndex] < featureLevels[featureIndex].length) {
+                    break;
+                }
+                levelIndices[featureIndex] = 0;
+            }
+        }
+        return variations;
+    }
+
+    /**
+     * Determines the next variations from the outcomes of the issued variations. Selected variations are issued.
+     *
+     * @param outcomes The outcomes of the processed variations.
+     * @param tolerance The difference between neighbours that does not require refinement.
+     * @param budget The maximal number of variations.
+     * @return The refinement.
+     */
+    public Refinement refine(Map<Long, Map<TrajectorySeries, Double>> outcomes, double tolerance, int budget) {
+        // the largest difference of the neighbours around every candidate
+        Map<Long, Double> candidates = new HashMap<>();
+        double maximalDifference = 0;
+        int[] alternatives = new int[variationSpace.getNumberOfFeatures()];
+        for (int featureIndex = 0; featureIndex < variationSpace.getNumberOfFeatures(); featureIndex++) {
+            // issued variations by the alternatives of all other features
+            Map<Long, SortedMap<Integer, Long>> lines = new HashMap<>();
+            for (long variation : issuedVariations) {
+                variationSpace.decode(variation, alternatives);
+                int alternative = alternatives[featureIndex];
+                lines.computeIfAbsent(variation - alternative * featureStrides[featureIndex], key -> new TreeMap<>())
+                        .put(alternative, variation);
+            }
+            for (SortedMap<Integer, Long> line : lines.values()) {
+                Map.Entry<Integer, Long> previous = null;
+                for (Map.Entry<Integer, Long> current : line.entrySet()) {
+                    if (previous != null) {
+                        Map<TrajectorySeries, Double> previousOutcome = outcomes.get(previous.getValue());
+                        Map<TrajectorySeries, Double> currentOutcome = outcomes.get(current.getValue());
+                        if (previousOutcome != null && currentOutcome != null) {
+                            double difference = determineDifference(previousOutcome, currentOutcome);
+                            maximalDifference = Math.max(maximalDifference, difference);
+                            if (difference > tolerance && current.getKey() - previous.getKey() > 1) {
+                                int midpoint = (previous.getKey() + current.getKey()) / 2;
+                                long candidate = previous.getValue() + (midpoint - previous.getKey()) * featureStrides[featureIndex];
+                                candidates.merge(candidate, difference, Math::max);
+                            }
+                        }
+                    }
+                    previous = current;
+                }
+            }
+        }
+        List<Map.Entry<Long, Double>> rankedCandidates = new ArrayList<>(candidates.entrySet());
+        rankedCandidates.sort(Map.Entry.<Long, Double>comparingByValue().reversed());
+        int count = Math.min(rankedCandidates.size(), Math.max(budget, 0));
+        long[] variations = new long[count];
+        for (int index = 0; index < count; index++) {
+            variations[index] = rankedCandidates.get(index).getKey();
+            issuedVariations.add(variations[index]);
+        }
+        return new Refinement(variations, maximalDifference, rankedCandidates.size());
+    }
+
+    private static double determineDifference(Map<TrajectorySeries, Double> first, Map<TrajectorySeries, Double> second) {
+        double maximalDifference = 0;
+        for (Map.Entry<TrajectorySeries, Double> entry : first.entrySet()) {
+            Double other = second.get(entry.getKey());
+            if (other == null) {
+                continue;
+            }
+            double scale = Math.max(Math.abs(entry.getValue()), Math.abs(other));
+            if (scale > 0) {
+                maximalDifference = Math.max(maximalDifference, Math.abs(entry.getValue() - other) / scale);
+            }
+        }
+        return maximalDifference;
+    }
+
+    public Set<Long> getIssuedVariations() {
+        return Collections.unmodifiableSet(issuedVariations);
+    }
+
+    /**
+     * The variations selected by one refinement.
+     */
+    public static class Refinement {
+
+        private final long[] variations;
+        private final double maximalDifference;
+        private final int candidates;
+
+        Refinement(long[] variations, double maximalDifference, int candidates) {
+            this.variations = variations;
+            this.maximalDifference = maximalDifference;
+            this.candidates = candidates;
+        }
+
+        public long[] getVariations() {
+            return variations;
+        }
+
+        /**
+         * Returns the largest difference between the outcomes of any neighbours.
+         *
+         * @return The difference.
+         */
+        public double getMaximalDifference() {
+            return maximalDifference;
+        }
+
+        /**
+         * Returns the number of variations that require refinement, including those exceeding the budget.
+         *
+         * @return The number of candidates.
+         */
+        public int getCandidates() {
+            return candidates;
+        }
+
+    }
+
+}
@@ -0,0 +1,89 @@
+package bio.singa.simulation.runner.managers;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A ticket that only stores the difference to the {@link SweepManifest} of its sweep: the identifier of the
+ * manifest, the sample number and the index of the selected alternative for every feature of the manifest. Compact
+ * tickets are serialized as a single line, e.g. {@code sweep;<manifest>;0;3,0,12}.
+ *
+ * @author cl
+ */
+public class CompactTicket {
+
+    private static final String PREFIX = "sweep;";
+    private static final byte[] PREFIX_BYTES = PREFIX.getBytes(StandardCharsets.US_ASCII);
+
+    private final String manifestIdentifier;
+    private final int[] alternatives;
+
+    public CompactTicket(String manifestIdentifier, int[] alternatives) {
+        this.manifestIdentifier = manifestIdentifier;
+        this.alternatives = alternatives;
+    }
+
+    /**
+     * Determines whether the given payload is a compact ticket, in contrast to a ticket in json format.
+     *
+     * @param payload The payload.
+     * @return True if the payload is a compact ticket.
+     */
+    public static boolean isCompact(byte[] payload) {
+        if (payload.length < PREFIX_BYTES.length) {
+            return false;
+        }
+        for (int i = 0; i < PREFIX_BYTES.length; i++) {
+            if (payload[i] != PREFIX_BYTES[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static byte[] encode(String manifestIdentifier, int sample, int[] alternatives) {
+        StringBuilder builder = new StringBuilder(PREFIX.length() + manifestIdentifier.length() + 8 + alternatives.length * 3);
+        builder.append(PREFIX).append(manifestIdentifier).append(';').append(sample).append(';');
+        for (int featureIndex = 0; featureIndex < alternatives.length; featureIndex++) {
+            if (featureIndex > 0) {
+                builder.append(',');
+            }
+            builder.append(alternatives[featureIndex]);
+        }
+        return builder.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public static CompactTicket decode(byte[] payload) throws IOException {
+        String line = new String(payload, StandardCharsets.US_ASCII).trim();
+        String[] fields = line.split(";", -1);
+        if (fields.length != 4 || !line.startsWith(PREFIX)) {
+            throw new IOException("Invalid compact ticket " + line + ".");
+        }
+        try {
+            // the sample number only tells repeated samples of the same variation apart
+            Integer.parseInt(fields[2]);
+            int[] alternatives;
+            if (fields[3].isEmpty()) {
+                alternatives = new int[0];
+            } else {
+                String[] indices = fields[3].split(",");
+                alternatives = new int[indices.length];
+                for (int featureIndex = 0; featureIndex < indices.length; featureIndex++) {
+                    alternatives[featureIndex] = Integer.parseInt(indices[featureIndex]);
+                }
+            }
+            return new CompactTicket(fields[1], alternatives);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid compact ticket " + line + ".", e);
+        }
+    }
+
+    public String getManifestIdentifier() {
+        return manifestIdentifier;
+    }
+
+    public int[] getAlternatives() {
+        return alternatives;
+    }
+
+}
@@ -0,0 +1,65 @@
+package bio.singa.simulation.runner.managers;
+
+import bio.singa.exchange.features.FeatureRepresentation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The representations of all alternative contents of the variable features. Representations are created once per
+ * feature and alternative, such that the features of any variation can be assembled without modifying the features
+ * themselves. The table can therefore be shared by multiple threads.
+ *
+ * @author cl
+ */
+public class FeatureRepresentationTable {
+
+    private final VariationSpace variationSpace;
+    // the position of each feature (in the order of the variation space) in the assembled list
+    private final int[] positions;
+    // representations by feature index and alternative
+    private final FeatureRepresentation<?>[][] representations;
+
+    FeatureRepresentationTable(VariationSpace variationSpace, int[] positions, FeatureRepresentation<?>[][] representations) {
+        this.variationSpace = variationSpace;
+        this.positions = positions;
+        this.representations = representations;
+    }
+
+    public VariationSpace getVariationSpace() {
+        return variationSpace;
+    }
+
+    /**
+     * Returns one representation (including all alternative values) for every feature, in the order of the variation
+     * space, such that alternative indices decoded from the variation space refer to the returned features.
+     *
+     * @return The representations.
+     */
+    public List<FeatureRepresentation<?>> getFeatureRepresentations() {
+        List<FeatureRepresentation<?>> featureRepresentations = new ArrayList<>(representations.length);
+        for (FeatureRepresentation<?>[] alternativeRepresentations : representations) {
+            featureRepresentations.add(alternativeRepresentations[0]);
+        }
+        return featureRepresentations;
+    }
+
+    /**
+     * Assembles the feature representations of the given variation, in the same order as
+     * {@link VariationManager#generateTicket} would list them.
+     *
+     * @param variation The variation number.
+     * @param alternatives An array for the alternative indices, that is reused.
+     * @return The representations.
+     */
+    public List<FeatureRepresentation<?>> representationsOf(long variation, int[] alternatives) {
+        variationSpace.decode(variation, alternatives);
+        FeatureRepresentation<?>[] variationRepresentations = new FeatureRepresentation<?>[positions.length];
+        for (int featureIndex = 0; featureIndex < positions.length; featureIndex++) {
+            variationRepresentations[positions[featureIndex]] = representations[featureIndex][alternatives[featureIndex]];
+        }
+        return Arrays.asList(variationRepresentations);
+    }
+
+}
@@ -0,0 +1,293 @@
+package bio.singa.simulation.runner.managers;
+
+import bio.singa.simulation.runner.checkpoints.SimulationCheckpoint;
+import bio.singa.simulation.runner.heartbeats.HeartbeatMonitor;
+import bio.singa.simulation.runner.tickets.TicketLease;
+import bio.singa.simulation.runner.tickets.TicketState;
+import bio.singa.simulation.runner.tickets.TicketStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Recovers tickets of simulations that died. Every processing ticket is tracked with the deadline of its lease, that
+ * is the last sign of life plus the lease timeout. The last sign of life is determined from the modification times of
+ * the alive file and the result folder (that are updated regularly by running simulations) and the claim time of the
+ * ticket, so liveness checks only require file metadata. Heartbeats of the worker processing a ticket count as sign of
+ * life as well. Processing tickets are counted first and only listed if there are any, both are served by the index of
+ * processing tickets the ticket stores keep. Leases are kept in a priority queue, such that only leases that lapsed
+ * are checked again. Tickets whose lease expired are reopened. Their result folder is renamed to a tombstone before,
+ * that is not a ticket identifier and therefore ignored by the reconcile, and deleted with all its contents
+ * afterwards. If the result folder contains a {@link SimulationCheckpoint}, it is kept with the checkpoint, such that
+ * the runner claiming the reopened ticket resumes the simulation from the checkpoint.
+ * <p>
+ * Additionally, a reconcile checks all result folders in parallel with a bounded number of threads to find dead
+ * simulations, whose tickets are no longer processing.
+ *
+ * @author cl
+ */
+public class RecoveryManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(RecoveryManager.class);
+
+    private static final Pattern uuidPattern = Pattern.compile("^[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}$");
+
+    // finished simulations write "done" to the alive file
+    private static final long FINISHED_ALIVE_FILE_SIZE = "done".length();
+
+    private final TicketStore ticketStore;
+    private final Path targetDirectory;
+    private final HeartbeatMonitor heartbeatMonitor;
+    private final long leaseTimeout;
+
+    private final PriorityQueue<LeaseDeadline> deadlines;
+    private final Map<String, LeaseDeadline> trackedLeases;
+    private final ThreadPoolExecutor ioExecutor;
+    private final AtomicLong recoveredTickets;
+
+    public RecoveryManager(TicketStore ticketStore, Path targetDirectory, HeartbeatMonitor heartbeatMonitor, long leaseTimeout, TimeUnit unit, int ioThreads) {
+        this.ticketStore = ticketStore;
+        this.targetDirectory = targetDirectory;
+        this.heartbeatMonitor = heartbeatMonitor;
+        this.leaseTimeout = unit.toMillis(leaseTimeout);
+        deadlines = new PriorityQueue<>(Comparator.comparingLong(LeaseDeadline::getDeadline));
+        trackedLeases = new HashMap<>();
+        // bounded queue, if it is full the reconcile submits tasks at the rate they are processed
+        ioExecutor = new ThreadPoolExecutor(ioThreads, ioThreads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(ioThreads * 16),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "recovery-io");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        recoveredTickets = new AtomicLong();
+    }
+
+    public long getRecoveredTickets() {
+        return recoveredTickets.get();
+    }
+
+    public synchronized int getTrackedLeases() {
+        return trackedLeases.size();
+    }
+
+    /**
+     * Tracks newly processing tickets and recovers the tickets whose lease expired.
+     */
+    public synchronized void checkLeases() {
+        long now = System.currentTimeMillis();
+        List<String> processingTickets;
+        try {
+            processingTickets = ticketStore.count(TicketState.PROCESSING) == 0 ? Collections.emptyList() : ticketStore.list(TicketState.PROCESSING);
+        } catch (IOException e) {
+            logger.warn("unable to retrieve processing tickets", e);
+            return;
+        }
+        // forget tickets that are no longer processing, their queue entries are skipped
+        trackedLeases.keySet().retainAll(new HashSet<>(processingTickets));
+        for (String ticketId : processingTickets) {
+            if (!trackedLeases.containsKey(ticketId)) {
+                long claimTime = ticketStore.getLease(ticketId).map(TicketLease::getClaimTime).orElse(now);
+                track(new LeaseDeadline(ticketId, claimTime, determineLastLifeSign(ticketId, claimTime) + leaseTimeout));
+            }
+        }
+        // check lapsed leases again
+        while (!deadlines.isEmpty() && deadlines.peek().getDeadline() <= now) {
+            LeaseDeadline lapsed = deadlines.poll();
+            if (trackedLeases.get(lapsed.getTicketId()) != lapsed) {
+                continue;
+            }
+            long deadline = determineLastLifeSign(lapsed.getTicketId(), lapsed.getClaimTime()) + leaseTimeout;
+            if (deadline > now) {
+                // renewed
+                track(new LeaseDeadline(lapsed.getTicketId(), lapsed.getClaimTime(), deadline));
+            } else {
+                trackedLeases.remove(lapsed.getTicketId());
+                recover(lapsed.getTicketId());
+            }
+        }
+    }
+
+    private void track(LeaseDeadline leaseDeadline) {
+        trackedLeases.put(leaseDeadline.getTicketId(), leaseDeadline);
+        deadlines.add(leaseDeadline);
+    }
+
+    private long determineLastLifeSign(String ticketId, long claimTime) {
+        long lastHeartbeat = heartbeatMonitor.getLastHeartbeat(ticketId);
+        Path resultFolder = targetDirectory.resolve(ticketId);
+        return Math.max(Math.max(claimTime, lastHeartbeat), Math.max(lastModified(resultFolder), lastModified(resultFolder.resolve("alive"))));
+    }
+
+    private long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Checks all result folders for dead simulations, whose tickets are not tracked as processing. A simulation is
+     * dead, if its alive file was neither finished nor modified within the lease timeout.
+     *
+     * @return The number of recovered tickets.
+     */
+    public synchronized int reconcile() {
+        if (!Files.exists(targetDirectory)) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        List<Future<Optional<String>>> checks = new ArrayList<>();
+        try (DirectoryStream<Path> observationDirectoryStream = Files.newDirectoryStream(targetDirectory)) {
+            for (Path observationDirectoryPath : observationDirectoryStream) {
+                String ticketId = observationDirectoryPath.getFileName().toString();
+                if (!uuidPattern.matcher(ticketId).matches() || trackedLeases.containsKey(ticketId)) {
+                    continue;
+                }
+                checks.add(ioExecutor.submit(() -> isDead(observationDirectoryPath, now) ? Optional.of(ticketId) : Optional.<String>empty()));
+            }
+        } catch (IOException e) {
+            logger.warn("Unable to retrieve simulation paths from " + targetDirectory + ".", e);
+        }
+        int recovered = 0;
+        for (Future<Optional<String>> check : checks) {
+            try {
+                Optional<String> deadTicket = check.get();
+                if (deadTicket.isPresent()) {
+                    recover(deadTicket.get());
+                    recovered++;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                logger.warn("unable to check simulation", e.getCause());
+            }
+        }
+        return recovered;
+    }
+
+    private boolean isDead(Path observationDirectoryPath, long now) throws IOException {
+        BasicFileAttributes folderAttributes = Files.readAttributes(observationDirectoryPath, BasicFileAttributes.class);
+        if (!folderAttributes.isDirectory()) {
+            return false;
+        }
+        long lastLifeSign = folderAttributes.lastModifiedTime().toMillis();
+        try {
+            BasicFileAttributes aliveAttributes = Files.readAttributes(observationDirectoryPath.resolve("alive"), BasicFileAttributes.class);
+            if (aliveAttributes.size() == FINISHED_ALIVE_FILE_SIZE) {
+                return false;
+            }
+            lastLifeSign = Math.max(lastLifeSign, aliveAttributes.lastModifiedTime().toMillis());
+        } catch (NoSuchFileException e) {
+            if (Files.exists(observationDirectoryPath.resolve(SimulationCheckpoint.CHECKPOINT_FILE))) {
+                // recovered ticket, that waits to be resumed from its checkpoint
+                return false;
+            }
+            // no sign of life except the folder
+        }
+        return now - lastLifeSign > leaseTimeout;
+    }
+
+    private void recover(String ticketId) {
+        Path deadFolder = targetDirectory.resolve(ticketId);
+        boolean resumable = Files.exists(deadFolder.resolve(SimulationCheckpoint.CHECKPOINT_FILE));
+        if (resumable) {
+            System.out.println("Simulation " + ticketId + " seems to be dead, reopening it with its checkpoint. ");
+        } else {
+            System.out.println("Simulation " + ticketId + " seems to be dead, removing it. ");
+        }
+        // clear the folder before the ticket is reopened, such that the next runner does not lose its files
+        Path tombstone = null;
+        if (resumable) {
+            deadFolder.resolve("alive").toFile().delete();
+        } else if (Files.exists(deadFolder)) {
+            tombstone = targetDirectory.resolve("." + ticketId + ".dead-" + System.currentTimeMillis());
+            try {
+                Files.move(deadFolder, tombstone, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                logger.warn("Unable to remove dead simulation " + ticketId + ", the ticket is not reopened.", e);
+                return;
+            }
+        }
+        // reopen ticket
+        try {
+            ticketStore.reopen(ticketId);
+        } catch (IOException e) {
+            logger.warn("Unable to reopen ticket " + ticketId + ".");
+            return;
+        }
+        recoveredTickets.incrementAndGet();
+        if (tombstone != null) {
+            // remove dead simulation
+            try {
+                deleteRecursively(tombstone);
+            } catch (IOException e) {
+                logger.warn("Unable to delete dead simulation " + tombstone + ".", e);
+            }
+        }
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    public void shutdown() {
+        ioExecutor.shutdownNow();
+    }
+
+    /**
+     * The time at which the lease of a processing ticket lapses.
+     */
+    private static class LeaseDeadline {
+
+        private final String ticketId;
+        private final long claimTime;
+        private final long deadline;
+
+        LeaseDeadline(String ticketId, long claimTime, long deadline) {
+            this.ticketId = ticketId;
+            this.claimTime = claimTime;
+            this.deadline = deadline;
+        }
+
+        String getTicketId() {
+            return ticketId;
+        }
+
+        long getClaimTime() {
+            return claimTime;
+        }
+
+        long getDeadline() {
+            return deadline;
+        }
+
+    }
+
+}
@@ -0,0 +1,36 @@
+package bio.singa.simulation.runner.managers;
+
+/**
+ * The designs the variations of a sweep are selected with (see {@link VariationSampler}).
+ *
+ * @author cl
+ */
+public enum SamplingDesign {
+
+    /**
+     * Every variation of the variation space, the full factorial design.
+     */
+    FULL,
+
+    /**
+     * A Latin hypercube, every alternative of every feature is covered as evenly as the number of runs allows.
+     */
+    LATIN_HYPERCUBE,
+
+    /**
+     * The points of a Sobol sequence, a low-discrepancy sequence for up to
+     * {@link VariationSampler#MAXIMAL_SOBOL_DIMENSIONS} features.
+     */
+    SOBOL,
+
+    /**
+     * The points of a Halton sequence, a low-discrepancy sequence using one prime base per feature.
+     */
+    HALTON,
+
+    /**
+     * A random subset of all variations.
+     */
+    RANDOM
+
+}
@@ -0,0 +1,118 @@
+package bio.singa.simulation.runner.managers;
+
+import bio.singa.exchange.Converter;
+import bio.singa.exchange.SimulationRepresentation;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches parsed simulation setups, such that every distinct setup file is only read and parsed once per process. Entries
+ * are keyed by the path of the setup file, its size, and its last modification time, so changed files are parsed again.
+ * The cache keeps at most the given number of setups and evicts the least recently used setup if it is full.
+ *
+ * @author cl
+ */
+public class SimulationSetupCache {
+
+    private final int maximalSize;
+    private final Map<SetupKey, SimulationRepresentation> representations;
+
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+
+    public SimulationSetupCache(int maximalSize) {
+        this.maximalSize = maximalSize;
+        representations = new LinkedHashMap<SetupKey, SimulationRepresentation>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<SetupKey, SimulationRepresentation> eldest) {
+                if (size() > SimulationSetupCache.this.maximalSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+        hits = new AtomicLong();
+        misses = new AtomicLong();
+        evictions = new AtomicLong();
+    }
+
+    /**
+     * Returns the parsed setup from the given file, parsing it if it is not cached.
+     *
+     * @param setupPath The setup file.
+     * @return The simulation representation.
+     * @throws IOException if the file could not be read or is no valid simulation setup.
+     */
+    public synchronized SimulationRepresentation get(Path setupPath) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(setupPath, BasicFileAttributes.class);
+        SetupKey key = new SetupKey(setupPath.toAbsolutePath().normalize(), attributes.size(), attributes.lastModifiedTime().toMillis());
+        SimulationRepresentation representation = representations.get(key);
+        if (representation != null) {
+            hits.incrementAndGet();
+            return representation;
+        }
+        misses.incrementAndGet();
+        String simulationDocument = String.join("", Files.readAllLines(setupPath));
+        representation = Converter.getRepresentationFrom(simulationDocument);
+        if (maximalSize > 0) {
+            representations.put(key, representation);
+        }
+        return representation;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return "setup cache: " + hits.get() + " hits, " + misses.get() + " misses, " + evictions.get() + " evictions";
+    }
+
+    private static class SetupKey {
+
+        private final Path path;
+        private final long size;
+        private final long lastModified;
+
+        private SetupKey(Path path, long size, long lastModified) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            SetupKey setupKey = (SetupKey) o;
+            return size == setupKey.size &&
+                    lastModified == setupKey.lastModified &&
+                    Objects.equals(path, setupKey.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, size, lastModified);
+        }
+
+    }
+
+}
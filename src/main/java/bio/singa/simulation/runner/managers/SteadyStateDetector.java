@@ -0,0 +1,218 @@
+package bio.singa.simulation.runner.managers;
+
+import bio.singa.core.events.UpdateEventListener;
+import bio.singa.features.quantities.MolarConcentration;
+import bio.singa.simulation.events.GraphUpdatedEvent;
+import bio.singa.simulation.model.simulation.Simulation;
+import bio.singa.simulation.runner.trajectories.TrajectorySeries;
+import bio.singa.simulation.trajectories.nested.TrajectoryData;
+
+import javax.measure.Quantity;
+import javax.measure.Unit;
+import javax.measure.quantity.Time;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import static tech.units.indriya.unit.Units.SECOND;
+
+/**
+ * Detects simulations that reached a steady state from the observations emitted during the simulation. A simulation
+ * is steady, if the relative change of every observed concentration between the observation one window earlier and
+ * every observation since then is below the threshold. Comparing all observations of the window, instead of only its
+ * first and last observation, prevents oscillations, whose period divides the window, from being considered steady.
+ * The relative change of a concentration is the absolute change divided by the larger of both values. Changes up to
+ * the absolute tolerance are no changes, such that concentrations fluctuating close to zero are steady.
+ * <p>
+ * The detector keeps the observations of one window, such that its memory is bounded by the number of observations
+ * per window.
+ *
+ * @author cl
+ */
+public class SteadyStateDetector implements UpdateEventListener<GraphUpdatedEvent> {
+
+    public static final String TERMINATION_FILE = "termination.json";
+
+    private final Simulation simulation;
+    private final Unit<MolarConcentration> concentrationUnit;
+    private final double threshold;
+    private final double absoluteTolerance;
+    private final double windowSeconds;
+
+    private final Map<TrajectorySeries, Integer> seriesIndices;
+    private final ArrayDeque<Observation> observations;
+
+    private volatile boolean steady;
+    private double relativeChange;
+
+    /**
+     * Creates a new detector.
+     *
+     * @param simulation The observed simulation.
+     * @param concentrationUnit The unit concentrations are observed in.
+     * @param threshold The relative change below which concentrations are considered steady.
+     * @param absoluteTolerance The absolute change (in the concentration unit) up to which concentrations did not change.
+     * @param window The simulated time over which the change is determined.
+     */
+    public SteadyStateDetector(Simulation simulation, Unit<MolarConcentration> concentrationUnit, double threshold, double absoluteTolerance, Quantity<Time> window) {
+        if (threshold <= 0) {
+            throw new IllegalArgumentException("The steady state threshold has to be positive.");
+        }
+        if (absoluteTolerance < 0) {
+            throw new IllegalArgumentException("The steady state absolute tolerance must not be negative.");
+        }
+        this.simulation = simulation;
+        this.concentrationUnit = concentrationUnit;
+        this.threshold = threshold;
+        this.absoluteTolerance = absoluteTolerance;
+        windowSeconds = window.to(SECOND).getValue().doubleValue();
+        seriesIndices = new HashMap<>();
+        observations = new ArrayDeque<>();
+        relativeChange = Double.NaN;
+    }
+
+    @Override
+    public void onEventReceived(GraphUpdatedEvent event) {
+        if (steady) {
+            return;
+        }
+        double time = event.getElapsedTime().to(SECOND).getValue().doubleValue();
+        double[] values = observeConcentrations();
+        // keep the latest observation that is at least one window old as reference
+        while (!observations.isEmpty()) {
+            Observation oldest = observations.removeFirst();
+            if (observations.isEmpty() || time - observations.peekFirst().getTime() < windowSeconds) {
+                observations.addFirst(oldest);
+                break;
+            }
+        }
+        observations.addLast(new Observation(time, values));
+        Observation reference = observations.peekFirst();
+        if (time - reference.getTime() < windowSeconds) {
+            return;
+        }
+        // the largest change of any observation of the window, the reference itself did not change
+        double maximalChange = 0;
+        Iterator<Observation> iterator = observations.iterator();
+        iterator.next();
+        while (iterator.hasNext() && maximalChange < threshold) {
+            double change = determineRelativeChange(reference.getValues(), iterator.next().getValues());
+            if (!(change < maximalChange)) {
+                maximalChange = change;
+            }
+        }
+        relativeChange = maximalChange;
+        if (relativeChange < threshold) {
+            steady = true;
+        }
+    }
+
+    private double[] observeConcentrations() {
+        double[][] values = {new double[seriesIndices.size()]};
+        Arrays.fill(values[0], Double.NaN);
+        TrajectoryData.of(simulation.getUpdatables(), concentrationUnit).getConcentrationData().forEach((updatable, dataPoint) -> {
+            String node = updatable.getStringIdentifier();
+            dataPoint.getConcentrations().forEach((subsection, concentrations) -> {
+                String subsectionIdentifier = subsection.getIdentifier();
+                concentrations.forEach((entity, concentration) -> {
+                    TrajectorySeries series = new TrajectorySeries(node, subsectionIdentifier, String.valueOf(entity.getIdentifier()));
+                    int seriesIndex = seriesIndices.computeIfAbsent(series, key -> seriesIndices.size());
+                    if (seriesIndex >= values[0].length) {
+                        // series that appear later on, observations with less series are never steady
+                        int length = values[0].length;
+                        values[0] = Arrays.copyOf(values[0], seriesIndices.size());
+                        Arrays.fill(values[0], length, values[0].length, Double.NaN);
+                    }
+                    values[0][seriesIndex] = concentration;
+                });
+            });
+        });
+        return values[0];
+    }
+
+    private double determineRelativeChange(double[] reference, double[] current) {
+        if (reference.length != current.length) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double maximalChange = 0;
+        for (int seriesIndex = 0; seriesIndex < current.length; seriesIndex++) {
+            double absoluteChange = Math.abs(current[seriesIndex] - reference[seriesIndex]);
+            if (absoluteChange <= absoluteTolerance) {
+                continue;
+            }
+            double change = absoluteChange / Math.max(Math.abs(reference[seriesIndex]), Math.abs(current[seriesIndex]));
+            if (!(change < maximalChange)) {
+                // also propagates missing values
+                maximalChange = change;
+            }
+        }
+        return maximalChange;
+    }
+
+    /**
+     * Returns a termination condition for the simulation, that is satisfied once the simulation is steady or the
+     * termination time is reached.
+     *
+     * @param terminationTime The termination time.
+     * @return The termination condition.
+     */
+    public Predicate<Simulation> steadyOrTimeReached(Quantity<Time> terminationTime) {
+        double terminationSeconds = terminationTime.to(SECOND).getValue().doubleValue();
+        return simulation -> steady || simulation.getElapsedTime().to(SECOND).getValue().doubleValue() >= terminationSeconds;
+    }
+
+    public boolean isSteady() {
+        return steady;
+    }
+
+    /**
+     * Writes why and when the simulation was terminated as JSON.
+     *
+     * @param terminationFile The file.
+     * @param terminationSeconds The simulated seconds the ticket would have run without detection.
+     * @param simulatedSeconds The simulated seconds until termination.
+     * @throws IOException if the file could not be written.
+     */
+    public void writeTermination(Path terminationFile, double terminationSeconds, double simulatedSeconds) throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"reason\": \"").append(steady ? "steady-state" : "time").append('"');
+        json.append(",\n  \"simulated-seconds\": ").append(simulatedSeconds);
+        json.append(",\n  \"termination-seconds\": ").append(terminationSeconds);
+        json.append(",\n  \"threshold\": ").append(threshold);
+        json.append(",\n  \"absolute-tolerance\": ").append(absoluteTolerance);
+        json.append(",\n  \"window-seconds\": ").append(windowSeconds);
+        json.append(",\n  \"relative-change\": ").append(Double.isFinite(relativeChange) ? String.valueOf(relativeChange) : "null").append("\n}\n");
+        Files.write(terminationFile, json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The concentrations of all series at one point in time.
+     */
+    private static class Observation {
+
+        private final double time;
+        private final double[] values;
+
+        Observation(double time, double[] values) {
+            this.time = time;
+            this.values = values;
+        }
+
+        double getTime() {
+            return time;
+        }
+
+        double[] getValues() {
+            return values;
+        }
+
+    }
+
+}
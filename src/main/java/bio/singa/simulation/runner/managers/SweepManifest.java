@@ -0,0 +1,154 @@
+package bio.singa.simulation.runner.managers;
+
+import bio.singa.exchange.ProcessingTicket;
+import bio.singa.exchange.features.FeatureRepresentation;
+import bio.singa.features.model.Feature;
+import bio.singa.features.model.FeatureRegistry;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The settings shared by all tickets of a sweep. The manifest is written once to the ticket directory, in the form of
+ * a ticket whose identifier identifies the manifest, with the run settings of the sweep and one feature
+ * representation for every variable feature (with all alternative values). Tickets of the sweep are
+ * {@link CompactTicket}s, that only reference the manifest and select one alternative per feature by its index.
+ *
+ * @author cl
+ */
+public class SweepManifest {
+
+    private static final String MANIFEST_PREFIX = "manifest-";
+    private static final String MANIFEST_SUFFIX = ".json";
+
+    private final ProcessingTicket template;
+    private final int[] featureIdentifiers;
+    private final int[] alternativeCounts;
+
+    private SweepManifest(ProcessingTicket template) {
+        this.template = template;
+        List<FeatureRepresentation<?>> features = template.getFeatures();
+        featureIdentifiers = new int[features.size()];
+        alternativeCounts = new int[features.size()];
+        for (int featureIndex = 0; featureIndex < featureIdentifiers.length; featureIndex++) {
+            featureIdentifiers[featureIndex] = features.get(featureIndex).getIdentifier();
+            alternativeCounts[featureIndex] = features.get(featureIndex).getAlternativeValues().size();
+        }
+    }
+
+    /**
+     * Creates a new manifest from the given ticket, that is used as template for all tickets of the sweep. The
+     * features of the template determine the order of the alternative indices of compact tickets.
+     *
+     * @param template The template with run settings and the representations of all variable features.
+     * @return The manifest.
+     */
+    public static SweepManifest create(ProcessingTicket template) {
+        template.setIdentifier(UUID.randomUUID().toString());
+        return new SweepManifest(template);
+    }
+
+    /**
+     * Reads the manifest with the given identifier from the ticket directory.
+     *
+     * @param ticketPath The ticket directory.
+     * @param identifier The identifier of the manifest.
+     * @return The manifest.
+     */
+    public static SweepManifest read(Path ticketPath, String identifier) {
+        Path manifestFile = ticketPath.resolve(MANIFEST_PREFIX + identifier + MANIFEST_SUFFIX);
+        try {
+            String json = new String(Files.readAllBytes(manifestFile), StandardCharsets.UTF_8);
+            return new SweepManifest(ProcessingTicket.fromJson(json));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read sweep manifest " + manifestFile + ".", e);
+        }
+    }
+
+    /**
+     * Writes the manifest to the ticket directory.
+     *
+     * @param ticketPath The ticket directory.
+     */
+    public void write(Path ticketPath) {
+        Path manifestFile = ticketPath.resolve(MANIFEST_PREFIX + getIdentifier() + MANIFEST_SUFFIX);
+        Path temporaryFile = ticketPath.resolve("." + manifestFile.getFileName());
+        try {
+            Files.write(temporaryFile, template.toJson().getBytes(StandardCharsets.UTF_8));
+            Files.move(temporaryFile, manifestFile, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write sweep manifest to " + ticketPath + ".", e);
+        }
+    }
+
+    public String getIdentifier() {
+        return template.getIdentifier();
+    }
+
+    public int getNumberOfFeatures() {
+        return featureIdentifiers.length;
+    }
+
+    /**
+     * Creates the ticket for a compact ticket of this sweep, with the run settings of the manifest. The features of
+     * the ticket are only known after it was redeemed.
+     *
+     * @param ticketId The identifier of the ticket.
+     * @return The ticket.
+     */
+    public ProcessingTicket createTicket(String ticketId) {
+        ProcessingTicket ticket = new ProcessingTicket();
+        ticket.setIdentifier(ticketId);
+        ticket.setSimulation(template.getSimulation());
+        ticket.setTotalTime(template.getTotalTime());
+        ticket.setObservationTime(template.getObservationTime());
+        ticket.setObservedConcentrationUnit(template.getObservedConcentrationUnit());
+        ticket.setObservedTimeUnit(template.getObservedTimeUnit());
+        return ticket;
+    }
+
+    /**
+     * Verifies that the given alternatives select one of the alternatives of every feature of the manifest.
+     *
+     * @param ticketId The identifier of the ticket.
+     * @param alternatives The alternative index for every feature of the manifest.
+     * @throws IllegalArgumentException If the number of alternatives does not match the number of features, or an
+     * index is out of range.
+     */
+    public void verify(String ticketId, int[] alternatives) {
+        if (alternatives.length != featureIdentifiers.length) {
+            throw new IllegalArgumentException("The ticket " + ticketId + " selects " + alternatives.length + " alternatives, but the manifest " + getIdentifier() + " defines " + featureIdentifiers.length + " features.");
+        }
+        for (int featureIndex = 0; featureIndex < featureIdentifiers.length; featureIndex++) {
+            if (alternatives[featureIndex] < 0 || alternatives[featureIndex] >= alternativeCounts[featureIndex]) {
+                throw new IllegalArgumentException("The ticket " + ticketId + " selects alternative " + alternatives[featureIndex] + " of feature " + featureIdentifiers[featureIndex] + ", but the manifest " + getIdentifier() + " defines " + alternativeCounts[featureIndex] + " alternatives.");
+            }
+        }
+    }
+
+    /**
+     * Applies the selected alternatives to the features and sets the resulting feature representations to the ticket.
+     *
+     * @param ticket The ticket.
+     * @param alternatives The alternative index for every feature of the manifest.
+     * @throws IllegalArgumentException If the alternatives do not match the features of the manifest.
+     */
+    public void redeem(ProcessingTicket ticket, int[] alternatives) {
+        verify(ticket.getIdentifier(), alternatives);
+        List<FeatureRepresentation<?>> features = new ArrayList<>(featureIdentifiers.length);
+        for (int featureIndex = 0; featureIndex < featureIdentifiers.length; featureIndex++) {
+            Feature<?> feature = FeatureRegistry.get(featureIdentifiers[featureIndex]);
+            feature.setAlternativeContent(alternatives[featureIndex]);
+            features.add(FeatureRepresentation.of(feature));
+        }
+        ticket.setFeatures(features);
+    }
+
+}
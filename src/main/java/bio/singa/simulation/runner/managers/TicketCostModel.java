@@ -0,0 +1,232 @@
+package bio.singa.simulation.runner.managers;
+
+import bio.singa.exchange.features.FeatureDataset;
+import bio.singa.exchange.features.FeatureRepresentation;
+import bio.singa.simulation.runner.metrics.TicketMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.measure.Quantity;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Predicts the run time of tickets from their feature values. The model is log-linear, the logarithm of the run time
+ * per simulated second is the sum of an intercept and the weighted logarithms of all (positive, numerical) feature
+ * values. Without history every feature has a weight of one and the intercept is zero, which assumes that larger
+ * rates and concentrations lead to smaller time steps and thereby longer runs. The predictions of this prior are only
+ * meaningful as a ranking. If there are results of earlier sweeps (result folders with a {@value TicketMetrics#METRICS_FILE}
+ * and a variations.json), the model is fitted to them by ridge regression towards the prior. Tickets resumed from a
+ * checkpoint only simulated the remaining time and are not used.
+ *
+ * @author cl
+ */
+public class TicketCostModel {
+
+    private static final Logger logger = LoggerFactory.getLogger(TicketCostModel.class);
+
+    private static final Pattern runPattern = Pattern.compile("\"run\"\\s*:\\s*([0-9.eE+-]+)");
+    private static final Pattern simulatedPattern = Pattern.compile("\"simulated-seconds\"\\s*:\\s*([0-9.eE+-]+)");
+    private static final Pattern resumedPattern = Pattern.compile("\"resumed\"\\s*:\\s*true");
+
+    private static final double PRIOR_WEIGHT = 1.0;
+    // penalty for deviations from the prior weights
+    private static final double REGULARIZATION = 1.0;
+
+    private final Map<Integer, Double> weights;
+    private final double intercept;
+    private final int observations;
+
+    private TicketCostModel(Map<Integer, Double> weights, double intercept, int observations) {
+        this.weights = weights;
+        this.intercept = intercept;
+        this.observations = observations;
+    }
+
+    /**
+     * Returns the heuristic model, that is used if there is no history.
+     *
+     * @return The prior model.
+     */
+    public static TicketCostModel prior() {
+        return new TicketCostModel(Collections.emptyMap(), 0.0, 0);
+    }
+
+    /**
+     * Fits the model to the results in the given directory. The directory is searched for result folders (up to two
+     * levels deep) containing the metrics and the variations of a processed ticket.
+     *
+     * @param resultDirectory The directory containing result folders.
+     * @return The fitted model or the prior if there are no usable results.
+     */
+    public static TicketCostModel fit(Path resultDirectory) {
+        List<Map<Integer, Double>> featureValues = new ArrayList<>();
+        List<Double> costs = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(resultDirectory, 3)) {
+            List<Path> metricsFiles = paths.filter(path -> path.getFileName().toString().equals(TicketMetrics.METRICS_FILE))
+                    .collect(Collectors.toList());
+            for (Path metricsFile : metricsFiles) {
+                Path variationFile = metricsFile.resolveSibling("variations.json");
+                if (!Files.exists(variationFile)) {
+                    continue;
+                }
+                String metrics = new String(Files.readAllBytes(metricsFile), StandardCharsets.UTF_8);
+                if (resumedPattern.matcher(metrics).find()) {
+                    continue;
+                }
+                double runSeconds = readValue(runPattern, metrics);
+                double simulatedSeconds = readValue(simulatedPattern, metrics);
+                if (runSeconds <= 0 || simulatedSeconds <= 0) {
+                    continue;
+                }
+                String json = new String(Files.readAllBytes(variationFile), StandardCharsets.UTF_8);
+                featureValues.add(logValues(FeatureDataset.fromDatasetRepresentation(json)));
+                costs.add(Math.log(runSeconds / simulatedSeconds));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read ticket history from " + resultDirectory + ".", e);
+        }
+        if (costs.isEmpty()) {
+            logger.info("no ticket history in {}, using heuristic cost model", resultDirectory);
+            return prior();
+        }
+        return fit(featureValues, costs);
+    }
+
+    private static TicketCostModel fit(List<Map<Integer, Double>> featureValues, List<Double> costs) {
+        SortedSet<Integer> identifiers = new TreeSet<>();
+        featureValues.forEach(values -> identifiers.addAll(values.keySet()));
+        List<Integer> features = new ArrayList<>(identifiers);
+        // solve for the deviations from the prior, the intercept comes last and is not penalized
+        int dimension = features.size() + 1;
+        double[][] system = new double[dimension][dimension + 1];
+        double[] row = new double[dimension];
+        for (int observation = 0; observation < costs.size(); observation++) {
+            Map<Integer, Double> values = featureValues.get(observation);
+            double target = costs.get(observation);
+            for (int featureIndex = 0; featureIndex < features.size(); featureIndex++) {
+                row[featureIndex] = values.getOrDefault(features.get(featureIndex), 0.0);
+                target -= PRIOR_WEIGHT * row[featureIndex];
+            }
+            row[dimension - 1] = 1.0;
+            for (int i = 0; i < dimension; i++) {
+                for (int j = 0; j < dimension; j++) {
+                    system[i][j] += row[i] * row[j];
+                }
+                system[i][dimension] += row[i] * target;
+            }
+        }
+        for (int featureIndex = 0; featureIndex < features.size(); featureIndex++) {
+            system[featureIndex][featureIndex] += REGULARIZATION;
+        }
+        double[] solution = solve(system);
+        Map<Integer, Double> weights = new HashMap<>();
+        for (int featureIndex = 0; featureIndex < features.size(); featureIndex++) {
+            weights.put(features.get(featureIndex), PRIOR_WEIGHT + solution[featureIndex]);
+        }
+        logger.info("fitted ticket cost model to {} results", costs.size());
+        return new TicketCostModel(weights, solution[dimension - 1], costs.size());
+    }
+
+    /**
+     * Solves the linear system given as augmented matrix by Gaussian elimination with partial pivoting.
+     *
+     * @param system The augmented matrix, that is modified.
+     * @return The solution.
+     */
+    private static double[] solve(double[][] system) {
+        int dimension = system.length;
+        for (int pivot = 0; pivot < dimension; pivot++) {
+            int maximalRow = pivot;
+            for (int i = pivot + 1; i < dimension; i++) {
+                if (Math.abs(system[i][pivot]) > Math.abs(system[maximalRow][pivot])) {
+                    maximalRow = i;
+                }
+            }
+            double[] swap = system[pivot];
+            system[pivot] = system[maximalRow];
+            system[maximalRow] = swap;
+            if (system[pivot][pivot] == 0.0) {
+                continue;
+            }
+            for (int i = pivot + 1; i < dimension; i++) {
+                double factor = system[i][pivot] / system[pivot][pivot];
+                for (int j = pivot; j <= dimension; j++) {
+                    system[i][j] -= factor * system[pivot][j];
+                }
+            }
+        }
+        double[] solution = new double[dimension];
+        for (int i = dimension - 1; i >= 0; i--) {
+            double sum = system[i][dimension];
+            for (int j = i + 1; j < dimension; j++) {
+                sum -= system[i][j] * solution[j];
+            }
+            solution[i] = system[i][i] == 0.0 ? 0.0 : sum / system[i][i];
+        }
+        return solution;
+    }
+
+    private static double readValue(Pattern pattern, String json) {
+        Matcher matcher = pattern.matcher(json);
+        return matcher.find() ? Double.parseDouble(matcher.group(1)) : -1;
+    }
+
+    private static Map<Integer, Double> logValues(Collection<FeatureRepresentation<?>> features) {
+        Map<Integer, Double> logValues = new HashMap<>();
+        for (FeatureRepresentation<?> feature : features) {
+            double value = numericalValue(feature.fetchContent());
+            if (value > 0 && !Double.isInfinite(value)) {
+                logValues.put(feature.getIdentifier(), Math.log(value));
+            }
+        }
+        return logValues;
+    }
+
+    private static double numericalValue(Object value) {
+        if (value instanceof Quantity) {
+            return ((Quantity<?>) value).getValue().doubleValue();
+        }
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Predicts the run time of a ticket.
+     *
+     * @param features The features of the ticket.
+     * @param simulatedSeconds The time that is simulated in seconds.
+     * @return The predicted run time in seconds.
+     */
+    public double predict(Collection<FeatureRepresentation<?>> features, double simulatedSeconds) {
+        double logCost = intercept;
+        for (Map.Entry<Integer, Double> entry : logValues(features).entrySet()) {
+            logCost += weights.getOrDefault(entry.getKey(), PRIOR_WEIGHT) * entry.getValue();
+        }
+        return simulatedSeconds * Math.exp(logCost);
+    }
+
+    public int getObservations() {
+        return observations;
+    }
+
+    @Override
+    public String toString() {
+        return "TicketCostModel{" +
+                "weights=" + weights +
+                ", intercept=" + intercept +
+                ", observations=" + observations +
+                '}';
+    }
+
+}
@@ -4,80 +4,353 @@ import bio.singa.exchange.ProcessingTicket;
 import bio.singa.exchange.features.FeatureRepresentation;
 import bio.singa.features.model.Feature;
 import bio.singa.features.model.FeatureRegistry;
+import bio.singa.simulation.runner.tickets.StoredTicket;
+import bio.singa.simulation.runner.tickets.TicketLease;
+import bio.singa.simulation.runner.tickets.TicketStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.File;
 import java.io.IOException;
-import java.nio.channels.FileLock;
-import java.nio.file.DirectoryStream;
-import java.nio.file.Files;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Optional;
-import java.util.regex.Pattern;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * Hands out tickets to a runner. Tickets are claimed from the ticket store in batches and kept in a local queue,
+ * such that the cost of accessing the (possibly shared) store is shared between multiple tickets. The batch size
+ * adapts to the observed ticket durations: Every batch should keep the runner busy for about the batch window, so
+ * short tickets are claimed in large batches and long tickets one by one. Queued tickets, that were not started before
+ * half of their lease timeout passed, are released, such that they are not recovered as dead while waiting. Queued
+ * tickets whose lease lapsed anyway, because they were recovered and possibly claimed by another runner, are dropped
+ * before they are started. By default tickets are claimed one by one.
+ * <p>
+ * Tickets are either self-contained json tickets or {@link CompactTicket}s referencing a {@link SweepManifest} in the
+ * ticket directory. Manifests are read once and cached. Tickets that cannot be decoded are failed. If a manifest could
+ * not be read, e.g. because the network file system is temporarily unavailable, the ticket is released and claiming
+ * pauses with exponentially increasing delays. Tickets are only failed once {@value #MANIFEST_ATTEMPTS} attempts to
+ * read their manifest failed in a row.
+ *
  * @author cl
  */
 public class TicketManager {
 
     private static final Logger logger = LoggerFactory.getLogger(TicketManager.class);
 
-    private static Pattern uuidPattern = Pattern.compile("^[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}$");
+    // weight of the latest duration in the moving average
+    private static final double DURATION_SMOOTHING = 0.2;
 
-    private Path ticketPath;
+    private static final int MANIFEST_ATTEMPTS = 8;
+    // bounds of the pause after a manifest could not be read
+    private static final long MINIMAL_MANIFEST_BACKOFF = TimeUnit.SECONDS.toNanos(1);
+    private static final long MAXIMAL_MANIFEST_BACKOFF = TimeUnit.MINUTES.toNanos(1);
 
-    private Path openTicketPath;
-    private Path processingPath;
-    private Path donePath;
+    private TicketStore ticketStore;
 
+    private final Deque<QueuedTicket> queuedTickets;
+    private final Map<String, Long> startTimes;
+    private final Map<String, SweepManifest> manifests;
+    // alternatives of compact tickets, that were handed out but not redeemed
+    private final Map<String, int[]> pendingAlternatives;
+    private final Map<String, SweepManifest> pendingManifests;
+    // failed attempts in a row by manifest identifier
+    private final Map<String, Integer> manifestAttempts;
+    private long manifestBackoff;
+    private long manifestRetryTime;
+    private int maximalBatchSize;
+    private long batchWindow;
+    private long leaseTimeout;
+    // moving average of ticket durations in nanoseconds, negative until the first ticket finished
+    private double averageDuration;
 
     public TicketManager(Path ticketPath) {
-        this.ticketPath = ticketPath;
-        openTicketPath = ticketPath.resolve("open");
-        processingPath = ticketPath.resolve("processing");
-        donePath = ticketPath.resolve("done");
+        this(TicketStore.open(ticketPath));
     }
 
+    public TicketManager(TicketStore ticketStore) {
+        this.ticketStore = ticketStore;
+        queuedTickets = new ArrayDeque<>();
+        startTimes = new HashMap<>();
+        manifests = new HashMap<>();
+        pendingAlternatives = new HashMap<>();
+        pendingManifests = new HashMap<>();
+        manifestAttempts = new HashMap<>();
+        manifestRetryTime = System.nanoTime();
+        maximalBatchSize = 1;
+        batchWindow = TimeUnit.SECONDS.toNanos(10);
+        leaseTimeout = Long.MAX_VALUE;
+        averageDuration = -1;
+    }
+
+    /**
+     * Enables claiming tickets in batches.
+     *
+     * @param maximalBatchSize The maximal number of tickets claimed at once.
+     * @param batchWindow The time the runner should be busy with one batch.
+     * @param leaseTimeout The time after which the lease of an unstarted ticket expires.
+     * @param unit The unit of the batch window and the lease timeout.
+     */
+    public synchronized void configureBatches(int maximalBatchSize, long batchWindow, long leaseTimeout, TimeUnit unit) {
+        this.maximalBatchSize = Math.max(maximalBatchSize, 1);
+        this.batchWindow = unit.toNanos(batchWindow);
+        this.leaseTimeout = unit.toNanos(leaseTimeout);
+    }
+
+    public TicketStore getTicketStore() {
+        return ticketStore;
+    }
+
+    /**
+     * Replaces the ticket store, e.g. if a daemon finds that the ticket directory now holds a store of another type.
+     * Queued tickets are released to the previous store, that is closed afterwards.
+     *
+     * @param ticketStore The new ticket store.
+     */
+    public synchronized void replaceTicketStore(TicketStore ticketStore) {
+        releaseQueuedTickets();
+        TicketStore previousStore = this.ticketStore;
+        this.ticketStore = ticketStore;
+        try {
+            previousStore.close();
+        } catch (IOException e) {
+            logger.warn("unable to close ticket store in {}", previousStore.getTicketPath(), e);
+        }
+    }
+
+    /**
+     * Claims the next open ticket from the ticket store. Every ticket is claimed exactly once, even if multiple runners
+     * (possibly on different nodes) share the same ticket store.
+     *
+     * @return The claimed ticket or an empty optional if no ticket could be claimed.
+     */
     public synchronized Optional<ProcessingTicket> pullTicket() {
-        try (DirectoryStream<Path> ticketFileStream = Files.newDirectoryStream(openTicketPath)) {
-            Iterator<Path> iterator = ticketFileStream.iterator();
-            if (iterator.hasNext()) {
-                boolean validTicket = false;
-                ProcessingTicket ticket = null;
-                String ticketId;
-                do {
-                    Path currentTicket = iterator.next();
-                    ticketId = currentTicket.getFileName().toString();
-                    if (!isUUID(ticketId)) {
-                        continue;
-                    }
-                    try {
-                        String json = String.join("\n", Files.readAllLines(currentTicket));
-                        ticket = ProcessingTicket.fromJson(json);
-                        // copy to processing folder
-                        Files.copy(currentTicket, processingPath.resolve(ticketId));
-                        validTicket = true;
-                    } catch (IOException e) {
-                        logger.warn("currently unable to process " + ticketId);
-                        validTicket = false;
-                    }
-                } while (!validTicket);
-                // remove ticket
-                if (ticket != null) {
-                    Files.deleteIfExists(openTicketPath.resolve(ticketId));
-                    return Optional.of(ticket);
+        awaitManifestRetry();
+        long pullTime = System.nanoTime();
+        releaseExpiringTickets();
+        try {
+            if (queuedTickets.isEmpty()) {
+                long claimTime = System.nanoTime();
+                for (StoredTicket storedTicket : ticketStore.claim(determineBatchSize())) {
+                    queuedTickets.add(new QueuedTicket(storedTicket, claimTime));
                 }
             }
         } catch (IOException e) {
             logger.warn("unable to retrieve any ticket", e);
         }
+        while (!queuedTickets.isEmpty()) {
+            QueuedTicket queuedTicket = queuedTickets.poll();
+            StoredTicket storedTicket = queuedTicket.storedTicket;
+            String ticketId = storedTicket.getIdentifier();
+            // tickets queued by an earlier pull may have been recovered while they were waiting
+            if (queuedTicket.claimTime < pullTime && !isLeasedByCurrentProcess(ticketId)) {
+                logger.info("dropping queued ticket {}, whose lease has lapsed", ticketId);
+                continue;
+            }
+            ProcessingTicket ticket;
+            try {
+                ticket = decodeTicket(storedTicket);
+            } catch (IOException | IllegalArgumentException e) {
+                // every runner would fail to decode the ticket, releasing it would return it forever
+                failTicket(ticketId, e);
+                continue;
+            } catch (UncheckedIOException e) {
+                pauseClaims(ticketId, e);
+                // the manifest of the queued tickets is most likely not readable either
+                releaseQueuedTickets();
+                return Optional.empty();
+            }
+            startTimes.put(ticketId, System.nanoTime());
+            return Optional.of(ticket);
+        }
         return Optional.empty();
     }
 
+    /**
+     * Releases a ticket whose manifest could not be read and pauses claiming, such that the runner does not claim and
+     * release the tickets of the sweep over and over.
+     *
+     * @param ticketId The identifier of the ticket.
+     * @param cause The reason the manifest could not be read.
+     */
+    private void pauseClaims(String ticketId, UncheckedIOException cause) {
+        manifestBackoff = Math.min(Math.max(2 * manifestBackoff, MINIMAL_MANIFEST_BACKOFF), MAXIMAL_MANIFEST_BACKOFF);
+        manifestRetryTime = System.nanoTime() + manifestBackoff;
+        logger.warn("unable to read the manifest of ticket {}, releasing it and pausing for {} ms", ticketId, TimeUnit.NANOSECONDS.toMillis(manifestBackoff), cause);
+        releaseTicket(ticketId);
+    }
+
+    /**
+     * Waits until claiming is no longer paused after a manifest could not be read. The manager is not locked while
+     * waiting.
+     */
+    private void awaitManifestRetry() {
+        long remaining;
+        while ((remaining = manifestRetryTime - System.nanoTime()) > 0) {
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private ProcessingTicket decodeTicket(StoredTicket storedTicket) throws IOException {
+        if (!CompactTicket.isCompact(storedTicket.getPayload())) {
+            return ProcessingTicket.fromJson(new String(storedTicket.getPayload(), StandardCharsets.UTF_8));
+        }
+        CompactTicket compactTicket = CompactTicket.decode(storedTicket.getPayload());
+        SweepManifest manifest = readManifest(compactTicket.getManifestIdentifier());
+        manifest.verify(storedTicket.getIdentifier(), compactTicket.getAlternatives());
+        pendingAlternatives.put(storedTicket.getIdentifier(), compactTicket.getAlternatives());
+        pendingManifests.put(storedTicket.getIdentifier(), manifest);
+        return manifest.createTicket(storedTicket.getIdentifier());
+    }
+
+    /**
+     * Returns the cached manifest or reads it from the ticket directory.
+     *
+     * @param identifier The identifier of the manifest.
+     * @return The manifest.
+     * @throws IOException If the manifest could not be read {@value #MANIFEST_ATTEMPTS} times in a row.
+     * @throws UncheckedIOException If the manifest could not be read, but may be readable later.
+     */
+    private SweepManifest readManifest(String identifier) throws IOException {
+        SweepManifest manifest = manifests.get(identifier);
+        if (manifest != null) {
+            return manifest;
+        }
+        try {
+            manifest = SweepManifest.read(ticketStore.getTicketPath(), identifier);
+        } catch (UncheckedIOException e) {
+            if (manifestAttempts.merge(identifier, 1, Integer::sum) >= MANIFEST_ATTEMPTS) {
+                throw new IOException("Unable to read sweep manifest " + identifier + " in " + MANIFEST_ATTEMPTS + " attempts.", e.getCause());
+            }
+            throw e;
+        }
+        manifestAttempts.remove(identifier);
+        manifestBackoff = 0;
+        manifests.put(identifier, manifest);
+        return manifest;
+    }
+
+    /**
+     * Determines the number of tickets that keep the runner busy for the batch window, based on the moving average
+     * of the ticket durations. Until the first ticket finished a single ticket is claimed.
+     *
+     * @return The batch size.
+     */
+    private int determineBatchSize() {
+        if (maximalBatchSize == 1 || averageDuration < 0) {
+            return 1;
+        }
+        double batchSize = batchWindow / Math.max(averageDuration, 1.0);
+        return (int) Math.max(1, Math.min(maximalBatchSize, Math.floor(batchSize)));
+    }
+
+    /**
+     * Releases queued tickets whose lease would expire before they are started.
+     */
+    private void releaseExpiringTickets() {
+        long now = System.nanoTime();
+        Iterator<QueuedTicket> iterator = queuedTickets.iterator();
+        while (iterator.hasNext()) {
+            QueuedTicket queuedTicket = iterator.next();
+            if (now - queuedTicket.claimTime > leaseTimeout / 2) {
+                iterator.remove();
+                logger.info("releasing ticket {}, that was not started within half of its lease", queuedTicket.storedTicket.getIdentifier());
+                releaseTicket(queuedTicket.storedTicket.getIdentifier());
+            }
+        }
+    }
+
+    /**
+     * Releases all queued tickets, that were not started, e.g. if the runner is shut down.
+     *
+     * @return The number of released tickets.
+     */
+    public synchronized int releaseQueuedTickets() {
+        int releasedTickets = queuedTickets.size();
+        while (!queuedTickets.isEmpty()) {
+            releaseTicket(queuedTickets.poll().storedTicket.getIdentifier());
+        }
+        return releasedTickets;
+    }
+
+    public synchronized int getQueuedTickets() {
+        return queuedTickets.size();
+    }
+
+    /**
+     * Returns the lease of a claimed ticket, if there is any.
+     *
+     * @param ticketId The identifier of the ticket.
+     * @return The lease.
+     */
+    public Optional<TicketLease> getLease(String ticketId) {
+        return ticketStore.getLease(ticketId);
+    }
+
+    private boolean isLeasedByCurrentProcess(String ticketId) {
+        Optional<TicketLease> lease = ticketStore.getLease(ticketId);
+        return lease.isPresent() && lease.get().isOwnedByCurrentProcess();
+    }
+
+    /**
+     * Moves a claimed ticket back to the open tickets and removes its lease.
+     *
+     * @param ticketId The identifier of the ticket.
+     */
+    public void releaseTicket(String ticketId) {
+        synchronized (this) {
+            pendingAlternatives.remove(ticketId);
+            pendingManifests.remove(ticketId);
+        }
+        try {
+            ticketStore.release(ticketId);
+        } catch (IOException e) {
+            logger.warn("unable to release ticket " + ticketId, e);
+        }
+    }
+
+    /**
+     * Moves a claimed ticket to the failed tickets, such that it is not claimed again.
+     *
+     * @param ticketId The identifier of the ticket.
+     * @param cause The reason the ticket cannot be processed.
+     */
+    public void failTicket(String ticketId, Exception cause) {
+        logger.error("unable to process ticket {}, moving it to the failed tickets", ticketId, cause);
+        synchronized (this) {
+            pendingAlternatives.remove(ticketId);
+            pendingManifests.remove(ticketId);
+            startTimes.remove(ticketId);
+        }
+        try {
+            ticketStore.fail(ticketId);
+        } catch (IOException e) {
+            logger.warn("unable to mark ticket " + ticketId + " as failed", e);
+        }
+    }
+
+    /**
+     * Applies the variation of the ticket to the features. Compact tickets select the alternatives by index and receive
+     * their feature representations, json tickets are matched by the values of their features.
+     *
+     * @param ticketData The ticket.
+     */
     public void redeemTicket(ProcessingTicket ticketData) {
+        int[] alternatives;
+        SweepManifest manifest;
+        synchronized (this) {
+            alternatives = pendingAlternatives.remove(ticketData.getIdentifier());
+            manifest = pendingManifests.remove(ticketData.getIdentifier());
+        }
+        if (alternatives != null) {
+            manifest.redeem(ticketData, alternatives);
+            return;
+        }
         for (FeatureRepresentation<?> featureRepresentation : ticketData.getFeatures()) {
             Feature<?> feature = FeatureRegistry.get(featureRepresentation.getIdentifier());
             Object content = featureRepresentation.fetchContent();
@@ -88,37 +361,51 @@ public class TicketManager {
     }
 
     public boolean ticketsAvailable() {
-        try (DirectoryStream<Path> ticketFileStream = Files.newDirectoryStream(openTicketPath)) {
-            for (Path ticketFile : ticketFileStream) {
-                if (isAvailable(ticketFile)) {
-                    return true;
-                }
+        synchronized (this) {
+            if (!queuedTickets.isEmpty()) {
+                return true;
             }
-        } catch (IOException e) {
-            logger.warn("unable to retrieve any ticket", e);
         }
-        return false;
+        return ticketStore.hasOpenTickets();
     }
 
-    public void closeTicket(ProcessingTicket ticketData) {
+    /**
+     * Moves a processed ticket to the done tickets. If the ticket could not be completed, e.g. because its lease lapsed
+     * and it has been claimed by another runner, its result must not be recorded and its duration is not taken into
+     * account for the claim batches.
+     *
+     * @param ticketData The ticket.
+     * @return True, if the ticket has been completed.
+     */
+    public boolean closeTicket(ProcessingTicket ticketData) {
+        boolean completed;
         try {
-            Files.move(processingPath.resolve(ticketData.getIdentifier()), donePath.resolve(ticketData.getIdentifier()));
+            ticketStore.complete(ticketData.getIdentifier());
+            completed = true;
         } catch (IOException e) {
-            e.printStackTrace();
+            logger.error("unable to complete ticket {}, discarding its result", ticketData.getIdentifier(), e);
+            completed = false;
+        }
+        synchronized (this) {
+            Long startTime = startTimes.remove(ticketData.getIdentifier());
+            if (completed && startTime != null) {
+                double duration = System.nanoTime() - startTime;
+                averageDuration = averageDuration < 0 ? duration : DURATION_SMOOTHING * duration + (1 - DURATION_SMOOTHING) * averageDuration;
+            }
         }
+        return completed;
     }
 
-    private boolean lockAcquired(FileLock fileLock) {
-        return fileLock != null;
-    }
+    private static class QueuedTicket {
 
-    private boolean isUUID(String uuid) {
-        return uuidPattern.matcher(uuid).matches();
-    }
+        private final StoredTicket storedTicket;
+        private final long claimTime;
+
+        private QueuedTicket(StoredTicket storedTicket, long claimTime) {
+            this.storedTicket = storedTicket;
+            this.claimTime = claimTime;
+        }
 
-    private boolean isAvailable(Path filePath) {
-        File file = filePath.toFile();
-        return file.isFile() && file.exists() && file.length() > 0;
     }
 
 }
@@ -0,0 +1,132 @@
+package bio.singa.simulation.runner.managers;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * A persistent index of processed variations. The index maps {@link VariationKey variation keys} to the folder the
+ * results of the variation were written to. It is kept next to the result folders, one tab separated entry per line,
+ * and new entries are appended as soon as results are finished. Appends of different nodes to a shared file may
+ * interleave on network file systems, therefore every process appends to its own segment
+ * (variations.&lt;pid@host&gt;.index). Opening the index merges all segments.
+ *
+ * @author cl
+ */
+public class VariationIndex {
+
+    private static final String SEGMENT_PATTERN = "variations.*.index";
+
+    private static final Logger logger = LoggerFactory.getLogger(VariationIndex.class);
+
+    private final Path directory;
+    // the segment of the current process
+    private final Path indexFile;
+    // result folder by variation key
+    private final Map<String, String> folders;
+    private final Set<String> indexedFolders;
+
+    private VariationIndex(Path directory) {
+        this.directory = directory;
+        indexFile = directory.resolve("variations." + ManagementFactory.getRuntimeMXBean().getName() + ".index");
+        folders = new HashMap<>();
+        indexedFolders = new HashSet<>();
+    }
+
+    /**
+     * Opens the index in the given directory, loading the existing entries of all segments.
+     *
+     * @param directory The directory containing the result folders.
+     * @return The index.
+     */
+    public static VariationIndex open(Path directory) {
+        VariationIndex index = new VariationIndex(directory);
+        index.load();
+        return index;
+    }
+
+    private void load() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> segmentStream = Files.newDirectoryStream(directory, SEGMENT_PATTERN)) {
+            segmentStream.forEach(segments::add);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to list variation index segments in " + directory + ".", e);
+        }
+        // in a stable order, such that variations recorded by multiple processes always resolve to the same folder
+        Collections.sort(segments);
+        for (Path segment : segments) {
+            load(segment);
+        }
+    }
+
+    private void load(Path segment) {
+        try (BufferedReader reader = Files.newBufferedReader(segment, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.indexOf('\t');
+                if (separator < 1 || separator == line.length() - 1) {
+                    // skip incomplete entries
+                    continue;
+                }
+                String folder = line.substring(separator + 1);
+                folders.put(line.substring(0, separator), folder);
+                indexedFolders.add(folder);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read variation index " + segment + ".", e);
+        }
+    }
+
+    public synchronized Optional<String> lookup(String variationKey) {
+        return Optional.ofNullable(folders.get(variationKey));
+    }
+
+    public synchronized boolean containsFolder(String folder) {
+        return indexedFolders.contains(folder);
+    }
+
+    public synchronized int size() {
+        return folders.size();
+    }
+
+    /**
+     * Records the result folder of a variation and appends it to the segment of the current process.
+     *
+     * @param variationKey The key of the variation.
+     * @param folder The name of the result folder.
+     */
+    public synchronized void record(String variationKey, String folder) {
+        if (folder.equals(folders.get(variationKey))) {
+            return;
+        }
+        folders.put(variationKey, folder);
+        indexedFolders.add(folder);
+        String entry = variationKey + "\t" + folder + "\n";
+        try {
+            Files.write(indexFile, entry.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            logger.warn("unable to append to variation index {}", indexFile, e);
+        }
+    }
+
+}
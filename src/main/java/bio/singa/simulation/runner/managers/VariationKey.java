@@ -0,0 +1,65 @@
+package bio.singa.simulation.runner.managers;
+
+import bio.singa.exchange.features.FeatureRepresentation;
+import bio.singa.features.model.Feature;
+
+import javax.measure.Quantity;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Canonical keys for variations. A key is a stable hash of the feature identifiers and the normalized feature values
+ * of a variation, where quantities are reduced to their numerical value. Two variations have the same key if and only
+ * if all features have the same values (barring hash collisions), independent of the order of the features.
+ *
+ * @author cl
+ */
+public class VariationKey {
+
+    private VariationKey() {
+        // prevent instantiation
+    }
+
+    public static String of(Map<Integer, Object> featureValues) {
+        // sort by identifier
+        TreeMap<Integer, Object> sortedValues = new TreeMap<>(featureValues);
+        StringBuilder canonical = new StringBuilder();
+        for (Map.Entry<Integer, Object> entry : sortedValues.entrySet()) {
+            canonical.append(entry.getKey())
+                    .append('=')
+                    .append(normalize(entry.getValue()))
+                    .append(';');
+        }
+        return UUID.nameUUIDFromBytes(canonical.toString().getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    public static String ofFeatures(Collection<Feature<?>> features) {
+        Map<Integer, Object> featureValues = new TreeMap<>();
+        for (Feature<?> feature : features) {
+            featureValues.put(feature.getIdentifier(), feature.getContent());
+        }
+        return of(featureValues);
+    }
+
+    public static String ofRepresentations(Collection<FeatureRepresentation<?>> featureRepresentations) {
+        Map<Integer, Object> featureValues = new TreeMap<>();
+        for (FeatureRepresentation<?> featureRepresentation : featureRepresentations) {
+            featureValues.put(featureRepresentation.getIdentifier(), featureRepresentation.fetchContent());
+        }
+        return of(featureValues);
+    }
+
+    private static String normalize(Object value) {
+        if (value instanceof Quantity) {
+            return String.valueOf(((Quantity<?>) value).getValue().doubleValue());
+        }
+        if (value instanceof Number) {
+            return String.valueOf(((Number) value).doubleValue());
+        }
+        return String.valueOf(value);
+    }
+
+}
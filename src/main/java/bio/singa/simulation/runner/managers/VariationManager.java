@@ -1,12 +1,11 @@
 package bio.singa.simulation.runner.managers;
 
-import bio.singa.core.utility.Pair;
 import bio.singa.exchange.ProcessingTicket;
 import bio.singa.exchange.features.FeatureDataset;
 import bio.singa.exchange.features.FeatureRepresentation;
 import bio.singa.features.model.*;
 import bio.singa.features.quantities.MolarConcentration;
-import bio.singa.mathematics.combinatorics.StreamPermutations;
+import bio.singa.simulation.runner.checkpoints.SimulationCheckpoint;
 
 import javax.measure.Quantity;
 import javax.measure.Unit;
@@ -18,96 +17,118 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 /**
  * @author cl
  */
 public class VariationManager {
 
-    // map that stores the feature identifier mapping to the min and max index of the features variations
-    private Map<Integer, Pair<Integer>> featureState;
-    // map that stores a mapping of the index (numbered in order of occurrence) to the feature identifier
-    private Map<Integer, Integer> indexIdentifierMap;
-    // all possible permutations, outer list represents a set of variation for a run, inner list contains
-    // the possible indices of the feature values, whose indices correspond to the index identifier mapping
-    private List<List<Integer>> permutations;
-    // the current permutation that is applied
-    private Iterator<List<Integer>> permutationIterator;
+    // the space of all variations, each variation is addressed by its number
+    private VariationSpace variationSpace;
+    // the range of variations that is enumerated
+    private VariationRange variationRange;
+    // the number of the next variation that is applied
+    private long nextVariation;
     // a count for the current variation
-    private int currentVariationIndex;
-    // map for time stamped folder to feature set
-    private Map<String, Map<Integer, Object>> variationMap;
+    private long currentVariationIndex;
+    // the alternative indices of the current variation
+    private int[] currentAlternatives;
+    // index of processed variations
+    private VariationIndex variationIndex;
     private List<Feature<?>> currentVariationSet;
 
     public VariationManager() {
-        featureState = new HashMap<>();
-        variationMap = new HashMap<>();
         currentVariationIndex = 0;
-        determineVariableFeatures();
         determinePossibleVariations();
     }
 
-    public int getCurrentVariationIndex() {
+    public long getCurrentVariationIndex() {
         return currentVariationIndex;
     }
 
-    public int getPossibleVariations() {
-        return permutations.size();
+    public long getPossibleVariations() {
+        return variationSpace.size();
     }
 
-    private void determineVariableFeatures() {
-        // collect all features that have variations associated to them
-        for (QualitativeFeature<?> qualitativeFeature : FeatureRegistry.getQualitativeFeatures()) {
-            if (!qualitativeFeature.getAlternativeContents().isEmpty()) {
-                featureState.put(qualitativeFeature.getIdentifier(), new Pair<>(0, qualitativeFeature.getAlternativeContents().size()));
-            }
-        }
-        for (QuantitativeFeature<?> quantitativeFeature : FeatureRegistry.getQuantitativeFeatures()) {
-            if (!quantitativeFeature.getAlternativeContents().isEmpty()) {
-                featureState.put(quantitativeFeature.getIdentifier(), new Pair<>(0, quantitativeFeature.getAlternativeContents().size()));
-            }
-        }
-        for (AbstractScalableQuantitativeFeature<?> scalableQuantitativeFeature : FeatureRegistry.getScalableQuantitativeFeatures()) {
-            if (!scalableQuantitativeFeature.getAlternativeContents().isEmpty()) {
-                featureState.put(scalableQuantitativeFeature.getIdentifier(), new Pair<>(0, scalableQuantitativeFeature.getAlternativeContents().size()));
-            }
+    public VariationSpace getVariationSpace() {
+        return variationSpace;
+    }
+
+    public VariationRange getVariationRange() {
+        return variationRange;
+    }
+
+    /**
+     * Restricts the enumeration to the given range of variations and restarts the enumeration at its start.
+     *
+     * @param variationRange The range of variations.
+     */
+    public void setVariationRange(VariationRange variationRange) {
+        if (variationRange.getStart() < 0 || variationRange.getEnd() > variationSpace.size()) {
+            throw new IllegalArgumentException("The range " + variationRange + " exceeds the " + variationSpace.size() + " possible variations.");
         }
+        this.variationRange = variationRange;
+        nextVariation = variationRange.getStart();
+    }
+
+    /**
+     * Collects all features that have variations associated to them (in order scalable, quantitative, qualitative).
+     *
+     * @return The variable features.
+     */
+    private List<Feature<?>> determineVariableFeatures() {
+        List<Feature<?>> variableFeatures = new ArrayList<>();
+        FeatureRegistry.getScalableQuantitativeFeatures().stream()
+                .filter(feature -> !feature.getAlternativeContents().isEmpty())
+                .forEach(variableFeatures::add);
+        FeatureRegistry.getQuantitativeFeatures().stream()
+                .filter(feature -> !feature.getAlternativeContents().isEmpty())
+                .forEach(variableFeatures::add);
+        FeatureRegistry.getQualitativeFeatures().stream()
+                .filter(feature -> !feature.getAlternativeContents().isEmpty())
+                .forEach(variableFeatures::add);
+        return variableFeatures;
     }
 
     private void determinePossibleVariations() {
-        indexIdentifierMap = new HashMap<>();
-        int featureIndex = 0;
-        // generate base indices
-        List<List<Integer>> indices = new ArrayList<>();
-        for (Map.Entry<Integer, Pair<Integer>> entry : featureState.entrySet()) {
-            Pair<Integer> range = entry.getValue();
-            Integer featureIdentifier = entry.getKey();
-            indexIdentifierMap.put(featureIndex, featureIdentifier);
-            featureIndex++;
-            indices.add(IntStream.range(range.getFirst(), range.getSecond())
-                    .boxed()
-                    .collect(Collectors.toList()));
+        // collect all features that have variations associated to them, ordered by identifier, such that variation
+        // numbers refer to the same variation on every machine
+        List<Feature<?>> variableFeatures = determineVariableFeatures();
+        variableFeatures.sort(Comparator.comparingInt(Feature::getIdentifier));
+        int[] featureIdentifiers = new int[variableFeatures.size()];
+        int[] alternatives = new int[variableFeatures.size()];
+        for (int featureIndex = 0; featureIndex < variableFeatures.size(); featureIndex++) {
+            Feature<?> feature = variableFeatures.get(featureIndex);
+            featureIdentifiers[featureIndex] = feature.getIdentifier();
+            alternatives[featureIndex] = feature.getAlternativeContents().size();
         }
-        // permute
-        permutations = StreamPermutations.permutations(indices);
-        permutationIterator = permutations.iterator();
+        variationSpace = new VariationSpace(featureIdentifiers, alternatives);
+        currentAlternatives = new int[featureIdentifiers.length];
+        setVariationRange(variationSpace.getRange());
     }
 
     public void nextVariationSet() {
+        applyVariation(nextVariation++);
+        currentVariationIndex++;
+    }
+
+    /**
+     * Applies the alternative contents of the given variation to the features.
+     *
+     * @param variation The variation number.
+     */
+    public void applyVariation(long variation) {
+        variationSpace.decode(variation, currentAlternatives);
         currentVariationSet = new ArrayList<>();
-        List<Integer> permuation = permutationIterator.next();
-        for (int index = 0; index < permuation.size(); index++) {
-            int featureIdentifier = indexIdentifierMap.get(index);
-            Feature<?> feature = FeatureRegistry.get(featureIdentifier);
-            feature.setAlternativeContent(permuation.get(index));
+        for (int featureIndex = 0; featureIndex < currentAlternatives.length; featureIndex++) {
+            Feature<?> feature = FeatureRegistry.get(variationSpace.getFeatureIdentifier(featureIndex));
+            feature.setAlternativeContent(currentAlternatives[featureIndex]);
             currentVariationSet.add(feature);
         }
-        currentVariationIndex++;
     }
 
     public boolean hasVariationsLeft() {
-        return permutationIterator.hasNext();
+        return nextVariation < variationRange.getEnd();
     }
 
     public Path generateJsonLog(Path directory) {
@@ -134,51 +155,60 @@ public class VariationManager {
         ticket.setObservedConcentrationUnit(concentrationUnit);
         ticket.setObservedTimeUnit(timeUnit);
 
-        List<FeatureRepresentation<?>> features = new ArrayList<>();
-        FeatureRegistry.getScalableQuantitativeFeatures().stream()
-                .filter(feature -> !feature.getAlternativeContents().isEmpty())
-                .map(FeatureRepresentation::of)
-                .forEach(features::add);
-        FeatureRegistry.getQuantitativeFeatures().stream()
-                .filter(feature -> !feature.getAlternativeContents().isEmpty())
-                .map(FeatureRepresentation::of)
-                .forEach(features::add);
-        FeatureRegistry.getQualitativeFeatures().stream()
-                .filter(feature -> !feature.getAlternativeContents().isEmpty())
+        List<FeatureRepresentation<?>> features = determineVariableFeatures().stream()
                 .map(FeatureRepresentation::of)
-                .forEach(features::add);
+                .collect(Collectors.toList());
         ticket.setFeatures(features);
 
         return ticket;
     }
 
-    public void writeTicket(ProcessingTicket ticket, Path openTicketPath) {
-        try {
-            String json = ticket.toJson();
-            Path logPath = openTicketPath.resolve(ticket.getIdentifier());
-            Files.write(logPath, json.getBytes());
-        } catch (IOException e) {
-            throw new UncheckedIOException("Unable to write variation log to " + openTicketPath + ".", e);
+    /**
+     * Creates the representations of all alternative contents of the variable features. Afterwards every feature is
+     * set to its last alternative content.
+     *
+     * @return The representation table.
+     */
+    public FeatureRepresentationTable createRepresentationTable() {
+        List<Feature<?>> variableFeatures = determineVariableFeatures();
+        int[] positions = new int[variationSpace.getNumberOfFeatures()];
+        FeatureRepresentation<?>[][] representations = new FeatureRepresentation<?>[variationSpace.getNumberOfFeatures()][];
+        for (int featureIndex = 0; featureIndex < variationSpace.getNumberOfFeatures(); featureIndex++) {
+            Feature<?> feature = FeatureRegistry.get(variationSpace.getFeatureIdentifier(featureIndex));
+            positions[featureIndex] = variableFeatures.indexOf(feature);
+            representations[featureIndex] = new FeatureRepresentation<?>[variationSpace.getNumberOfAlternatives(featureIndex)];
+            for (int alternative = 0; alternative < representations[featureIndex].length; alternative++) {
+                feature.setAlternativeContent(alternative);
+                representations[featureIndex][alternative] = FeatureRepresentation.of(feature);
+            }
         }
+        return new FeatureRepresentationTable(variationSpace, positions, representations);
     }
 
+    /**
+     * Determines the variations that were already processed in the target directory. Processed variations are looked
+     * up in the persistent {@link VariationIndex}, and only result folders that are not yet indexed are parsed and
+     * added to the index.
+     *
+     * @param targetDirectory The directory containing the result folders.
+     */
     public void determineProcessedVariations(Path targetDirectory) {
-        variationMap.clear();
+        variationIndex = VariationIndex.open(targetDirectory);
         // traverse all observation directories
         try (DirectoryStream<Path> observationDirectoryStream = Files.newDirectoryStream(targetDirectory)) {
             for (Path observationDirectoryPath : observationDirectoryStream) {
+                String timeStamp = observationDirectoryPath.getFileName().toString();
+                // indexed folders are skipped without touching their metadata
+                if (variationIndex.containsFolder(timeStamp)) {
+                    continue;
+                }
                 if (Files.isDirectory(observationDirectoryPath)) {
-                    String timeStamp = observationDirectoryPath.getFileName().toString();
                     Path variationFilePath = observationDirectoryPath.resolve("variations.json");
-                    // check if there is a variation log
-                    if (Files.exists(variationFilePath)) {
+                    // check if there is a variation log, resumed simulations may differ from uninterrupted runs
+                    if (Files.exists(variationFilePath) && !Files.exists(observationDirectoryPath.resolve(SimulationCheckpoint.RESUMED_FILE))) {
                         String json = String.join("", Files.readAllLines(variationFilePath));
                         List<FeatureRepresentation<?>> features = FeatureDataset.fromDatasetRepresentation(json);
-                        HashMap<Integer, Object> featureValues = new HashMap<>();
-                        variationMap.put(timeStamp, featureValues);
-                        for (FeatureRepresentation<?> feature : features) {
-                            featureValues.put(feature.getIdentifier(), feature.fetchContent());
-                        }
+                        variationIndex.record(VariationKey.ofRepresentations(features), timeStamp);
                     }
                 }
             }
@@ -187,39 +217,21 @@ public class VariationManager {
         }
     }
 
+    /**
+     * Returns the result folder of the current variation, if it was already processed.
+     *
+     * @return The result folder or an empty string if the current variation was not processed.
+     */
     public String wasAlreadyProcessedIn() {
-        if (variationMap.isEmpty()) {
+        if (variationIndex == null || variationIndex.size() == 0) {
             return "";
         }
-        // for all processed variations
-        for (Map.Entry<String, Map<Integer, Object>> processedEntry : variationMap.entrySet()) {
-            boolean allValuesAreTheSame = true;
-            // for each current feature
-            for (Feature<?> currentFeature : currentVariationSet) {
-                int currentIdentifier = currentFeature.getIdentifier();
-                // get corresponding feature in processed variation
-                Object processedVariant = processedEntry.getValue().get(currentIdentifier);
-                // and their values are not the same, skip the current processed variation
-                Object currentContent = currentFeature.getContent();
-                if (currentContent instanceof Quantity) {
-                    currentContent = ((Quantity) currentContent).getValue().doubleValue();
-                }
-                if (!currentContent.equals(processedVariant)) {
-                    allValuesAreTheSame = false;
-                    break;
-                }
-            }
-            if (allValuesAreTheSame) {
-                return processedEntry.getKey();
-            }
-        }
-        return "";
+        return variationIndex.lookup(VariationKey.ofFeatures(currentVariationSet)).orElse("");
     }
 
     public void consoleLogVariations() {
-        for (Map.Entry<Integer, Pair<Integer>> entry : featureState.entrySet()) {
-            int featureIdentifier = entry.getKey();
-            System.out.println("  " + FeatureRegistry.get(featureIdentifier));
+        for (int featureIndex = 0; featureIndex < variationSpace.getNumberOfFeatures(); featureIndex++) {
+            System.out.println("  " + FeatureRegistry.get(variationSpace.getFeatureIdentifier(featureIndex)));
         }
     }
 
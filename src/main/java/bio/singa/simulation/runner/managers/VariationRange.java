@@ -0,0 +1,67 @@
+package bio.singa.simulation.runner.managers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A contiguous range of variation numbers of a {@link VariationSpace}, from start (inclusive) to end (exclusive).
+ *
+ * @author cl
+ */
+public class VariationRange {
+
+    private final long start;
+    private final long end;
+
+    public VariationRange(long start, long end) {
+        if (start < 0 || end < start) {
+            throw new IllegalArgumentException("Invalid variation range from " + start + " to " + end + ".");
+        }
+        this.start = start;
+        this.end = end;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public long size() {
+        return end - start;
+    }
+
+    public boolean contains(long variation) {
+        return variation >= start && variation < end;
+    }
+
+    /**
+     * Splits the range into the given number of disjoint, contiguous ranges of (almost) equal size.
+     *
+     * @param parts The number of parts.
+     * @return The ranges.
+     */
+    public List<VariationRange> split(int parts) {
+        if (parts < 1) {
+            throw new IllegalArgumentException("A range can only be split into a positive number of parts.");
+        }
+        List<VariationRange> ranges = new ArrayList<>(parts);
+        long partSize = size() / parts;
+        long remainder = size() % parts;
+        long partStart = start;
+        for (int part = 0; part < parts; part++) {
+            long partEnd = partStart + partSize + (part < remainder ? 1 : 0);
+            ranges.add(new VariationRange(partStart, partEnd));
+            partStart = partEnd;
+        }
+        return ranges;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + start + ", " + end + ")";
+    }
+
+}
@@ -0,0 +1,325 @@
+package bio.singa.simulation.runner.managers;
+
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Selects variations of a {@link VariationSpace} according to a {@link SamplingDesign}, instead of enumerating the
+ * complete cartesian product of all alternatives. The Latin hypercube and the low-discrepancy designs generate points
+ * in the unit hypercube, with one dimension per variable feature. Every coordinate is mapped to the alternative in
+ * the respective interval of the alternatives of the feature, such that the design is spread over the ordered list of
+ * alternatives. Points that are mapped to the same variation are only selected once, low-discrepancy sequences are
+ * continued until the requested number of distinct variations is selected. If features have fewer alternatives than
+ * runs, multiple strata of the Latin hypercube map to the same variation, the design is topped up with random
+ * variations in this case.
+ * <p>
+ * Designs are deterministic for the same space, number of runs and seed, such that shards of a sweep that are
+ * generated independently select the same variations.
+ *
+ * @author cl
+ */
+public class VariationSampler {
+
+    /**
+     * The number of features, Sobol sequences are available for.
+     */
+    public static final int MAXIMAL_SOBOL_DIMENSIONS = 21;
+
+    // low-discrepancy sequences are continued for at most this factor of the requested runs
+    private static final int MAXIMAL_OVERSAMPLING = 16;
+
+    // degree s, coefficients a and initial direction numbers m of the primitive polynomials for the dimensions 2 to 21
+    // (Joe and Kuo, 2008)
+    private static final int[][] SOBOL_POLYNOMIALS = {
+            {1, 0, 1},
+            {2, 1, 1, 3},
+            {3, 1, 1, 3, 1},
+            {3, 2, 1, 1, 1},
+            {4, 1, 1, 1, 3, 3},
+            {4, 4, 1, 3, 5, 13},
+            {5, 2, 1, 1, 5, 5, 17},
+            {5, 4, 1, 1, 5, 5, 5},
+            {5, 7, 1, 1, 7, 11, 19},
+            {5, 11, 1, 1, 5, 1, 1},
+            {5, 13, 1, 1, 1, 3, 11},
+            {5, 14, 1, 3, 5, 5, 31},
+            {6, 1, 1, 3, 3, 9, 7, 49},
+            {6, 13, 1, 1, 1, 15, 21, 21},
+            {6, 16, 1, 3, 1, 13, 27, 49},
+            {6, 19, 1, 1, 1, 15, 7, 5},
+            {6, 22, 1, 3, 1, 15, 13, 25},
+            {6, 25, 1, 1, 5, 5, 19, 61},
+            {7, 1, 1, 3, 7, 11, 23, 15, 103},
+            {7, 4, 1, 3, 7, 13, 13, 15, 69}
+    };
+
+    private static final int SOBOL_BITS = 32;
+
+    private final VariationSpace variationSpace;
+    private final long seed;
+
+    /**
+     * Creates a new sampler.
+     *
+     * @param variationSpace The variation space.
+     * @param seed The seed of the random designs.
+     */
+    public VariationSampler(VariationSpace variationSpace, long seed) {
+        this.variationSpace = variationSpace;
+        this.seed = seed;
+    }
+
+    /**
+     * Selects the given number of distinct variations. If the number of runs is not smaller than the size of the
+     * variation space, all variations are selected.
+     *
+     * @param design The design.
+     * @param runs The number of runs.
+     * @return The selected variations in the order of the design.
+     */
+    public long[] sample(SamplingDesign design, int runs) {
+        if (runs < 1) {
+            throw new IllegalArgumentException("The number of runs has to be positive.");
+        }
+        if (design == SamplingDesign.FULL || runs >= variationSpace.size()) {
+            return enumerate();
+        }
+        switch (design) {
+            case LATIN_HYPERCUBE:
+                return latinHypercube(runs);
+            case SOBOL:
+                return lowDiscrepancy(new SobolSequence(variationSpace.getNumberOfFeatures()), runs);
+            case HALTON:
+                return lowDiscrepancy(new HaltonSequence(variationSpace.getNumberOfFeatures()), runs);
+            case RANDOM:
+            default:
+                return randomSubset(runs);
+        }
+    }
+
+    private long[] enumerate() {
+        if (variationSpace.size() > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("The variation space of " + variationSpace.size() + " variations is too large to be sampled completely.");
+        }
+        long[] variations = new long[(int) variationSpace.size()];
+        for (int variation = 0; variation < variations.length; variation++) {
+            variations[variation] = variation;
+        }
+        return variations;
+    }
+
+    private long[] latinHypercube(int runs) {
+        Random random = new Random(seed);
+        int features = variationSpace.getNumberOfFeatures();
+        // the stratum of every run in every dimension
+        int[][] strata = new int[features][];
+        for (int featureIndex = 0; featureIndex < features; featureIndex++) {
+            strata[featureIndex] = permutation(runs, random);
+        }
+        Set<Long> variations = new LinkedHashSet<>();
+        int[] alternatives = new int[features];
+        for (int run = 0; run < runs; run++) {
+            for (int featureIndex = 0; featureIndex < features; featureIndex++) {
+                double coordinate = (strata[featureIndex][run] + random.nextDouble()) / runs;
+                alternatives[featureIndex] = alternativeOf(featureIndex, coordinate);
+            }
+            variations.add(variationSpace.encode(alternatives));
+        }
+        if (variations.size() < runs) {
+            // a random subset contains enough distinct variations to fill the design
+            for (long variation : randomSubset(runs)) {
+                if (variations.size() == runs) {
+                    break;
+                }
+                variations.add(variation);
+            }
+        }
+        return toArray(variations);
+    }
+
+    private static int[] permutation(int size, Random random) {
+        int[] permutation = new int[size];
+        for (int index = 0; index < size; index++) {
+            permutation[index] = index;
+        }
+        for (int index = size - 1; index > 0; index--) {
+            int other = random.nextInt(index + 1);
+            int value = permutation[index];
+            permutation[index] = permutation[other];
+            permutation[other] = value;
+        }
+        return permutation;
+    }
+
+    private long[] lowDiscrepancy(PointSequence sequence, int runs) {
+        int features = variationSpace.getNumberOfFeatures();
+        Set<Long> variations = new LinkedHashSet<>();
+        double[] point = new double[features];
+        int[] alternatives = new int[features];
+        long maximalPoints = (long) runs * MAXIMAL_OVERSAMPLING;
+        for (long drawnPoints = 0; variations.size() < runs && drawnPoints < maximalPoints; drawnPoints++) {
+            sequence.next(point);
+            for (int featureIndex = 0; featureIndex < features; featureIndex++) {
+                alternatives[featureIndex] = alternativeOf(featureIndex, point[featureIndex]);
+            }
+            variations.add(variationSpace.encode(alternatives));
+        }
+        return toArray(variations);
+    }
+
+    private long[] randomSubset(int runs) {
+        // Floyd's algorithm, draws distinct variations without enumerating the space
+        Random random = new Random(seed);
+        long size = variationSpace.size();
+        Set<Long> selected = new HashSet<>();
+        long[] variations = new long[runs];
+        int count = 0;
+        for (long candidate = size - runs; candidate < size; candidate++) {
+            long variation = nextLong(random, candidate + 1);
+            if (!selected.add(variation)) {
+                variation = candidate;
+                selected.add(variation);
+            }
+            variations[count++] = variation;
+        }
+        return variations;
+    }
+
+    private static long nextLong(Random random, long bound) {
+        // uniform in [0, bound) by rejecting the incomplete last interval
+        long bits;
+        long value;
+        do {
+            bits = random.nextLong() >>> 1;
+            value = bits % bound;
+        } while (bits - value + (bound - 1) < 0);
+        return value;
+    }
+
+    private int alternativeOf(int featureIndex, double coordinate) {
+        int alternatives = variationSpace.getNumberOfAlternatives(featureIndex);
+        return Math.min((int) (coordinate * alternatives), alternatives - 1);
+    }
+
+    private static long[] toArray(Set<Long> variations) {
+        long[] array = new long[variations.size()];
+        int index = 0;
+        for (long variation : variations) {
+            array[index++] = variation;
+        }
+        return array;
+    }
+
+    /**
+     * A sequence of points in the unit hypercube.
+     */
+    private interface PointSequence {
+
+        void next(double[] point);
+
+    }
+
+    /**
+     * The Sobol sequence in gray code order, starting after the origin.
+     */
+    private static class SobolSequence implements PointSequence {
+
+        private final long[][] directions;
+        private final long[] current;
+        private long index;
+
+        SobolSequence(int dimensions) {
+            if (dimensions > MAXIMAL_SOBOL_DIMENSIONS) {
+                throw new IllegalArgumentException("Sobol sequences are available for up to " + MAXIMAL_SOBOL_DIMENSIONS + " features, but " + dimensions + " features are varied.");
+            }
+            directions = new long[dimensions][SOBOL_BITS + 1];
+            for (int bit = 1; bit <= SOBOL_BITS; bit++) {
+                directions[0][bit] = 1L << (SOBOL_BITS - bit);
+            }
+            for (int dimension = 1; dimension < dimensions; dimension++) {
+                int[] polynomial = SOBOL_POLYNOMIALS[dimension - 1];
+                int degree = polynomial[0];
+                int coefficients = polynomial[1];
+                long[] direction = directions[dimension];
+                for (int bit = 1; bit <= Math.min(degree, SOBOL_BITS); bit++) {
+                    direction[bit] = (long) polynomial[1 + bit] << (SOBOL_BITS - bit);
+                }
+                for (int bit = degree + 1; bit <= SOBOL_BITS; bit++) {
+                    direction[bit] = direction[bit - degree] ^ (direction[bit - degree] >> degree);
+                    for (int term = 1; term < degree; term++) {
+                        if (((coefficients >> (degree - 1 - term)) & 1) == 1) {
+                            direction[bit] ^= direction[bit - term];
+                        }
+                    }
+                }
+            }
+            current = new long[dimensions];
+        }
+
+        @Override
+        public void next(double[] point) {
+            // the position of the lowest zero bit of the index selects the direction numbers
+            int bit = Long.numberOfTrailingZeros(~index) + 1;
+            if (bit > SOBOL_BITS) {
+                throw new IllegalStateException("The Sobol sequence is exhausted.");
+            }
+            index++;
+            for (int dimension = 0; dimension < current.length; dimension++) {
+                current[dimension] ^= directions[dimension][bit];
+                point[dimension] = current[dimension] / (double) (1L << SOBOL_BITS);
+            }
+        }
+
+    }
+
+    /**
+     * The Halton sequence with the first primes as bases, starting after the origin.
+     */
+    private static class HaltonSequence implements PointSequence {
+
+        private final int[] bases;
+        private long index;
+
+        HaltonSequence(int dimensions) {
+            bases = new int[dimensions];
+            int candidate = 2;
+            for (int dimension = 0; dimension < dimensions; candidate++) {
+                if (isPrime(candidate)) {
+                    bases[dimension++] = candidate;
+                }
+            }
+        }
+
+        private static boolean isPrime(int candidate) {
+            for (int divisor = 2; divisor * divisor <= candidate; divisor++) {
+                if (candidate % divisor == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void next(double[] point) {
+            index++;
+            for (int dimension = 0; dimension < bases.length; dimension++) {
+                point[dimension] = radicalInverse(index, bases[dimension]);
+            }
+        }
+
+        private static double radicalInverse(long index, int base) {
+            double inverse = 0;
+            double factor = 1.0 / base;
+            while (index > 0) {
+                inverse += (index % base) * factor;
+                index /= base;
+                factor /= base;
+            }
+            return inverse;
+        }
+
+    }
+
+}
@@ -0,0 +1,38 @@
+package bio.singa.simulation.runner.managers;
+
+/**
+ * One of several shards, the variation space is split into, in order to distribute ticket generation.
+ *
+ * @author cl
+ */
+public class VariationShard {
+
+    private final int index;
+    private final int count;
+
+    public VariationShard(int index, int count) {
+        if (count < 1 || index < 0 || index >= count) {
+            throw new IllegalArgumentException("Invalid shard " + index + " of " + count + ".");
+        }
+        this.index = index;
+        this.count = count;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public VariationRange rangeOf(VariationSpace variationSpace) {
+        return variationSpace.split(count).get(index);
+    }
+
+    @Override
+    public String toString() {
+        return index + "/" + count;
+    }
+
+}
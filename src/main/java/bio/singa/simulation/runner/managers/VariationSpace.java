@@ -0,0 +1,121 @@
+package bio.singa.simulation.runner.managers;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The space of all variations of a simulation. Every variable feature is a digit of a mixed radix number, where the
+ * radix of a digit is the number of alternative contents of the feature. Each variation is therefore identified by a
+ * single number between zero and the {@link #size() size} of the space, that can be decoded into the alternative
+ * indices of all features without enumerating any other variation. The first feature is the most significant digit.
+ *
+ * @author cl
+ */
+public class VariationSpace {
+
+    private final int[] featureIdentifiers;
+    private final int[] radices;
+    private final long size;
+
+    /**
+     * Creates a new variation space.
+     *
+     * @param featureIdentifiers The identifiers of the variable features.
+     * @param radices The number of alternative contents of each feature.
+     * @throws ArithmeticException if the number of variations exceeds the range of long.
+     */
+    public VariationSpace(int[] featureIdentifiers, int[] radices) {
+        if (featureIdentifiers.length != radices.length) {
+            throw new IllegalArgumentException("Every feature requires exactly one radix.");
+        }
+        this.featureIdentifiers = featureIdentifiers.clone();
+        this.radices = radices.clone();
+        long size = 1;
+        for (int radix : radices) {
+            if (radix < 1) {
+                throw new IllegalArgumentException("Every feature requires at least one alternative.");
+            }
+            size = Math.multiplyExact(size, radix);
+        }
+        this.size = size;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public int getNumberOfFeatures() {
+        return featureIdentifiers.length;
+    }
+
+    public int getFeatureIdentifier(int featureIndex) {
+        return featureIdentifiers[featureIndex];
+    }
+
+    public int getNumberOfAlternatives(int featureIndex) {
+        return radices[featureIndex];
+    }
+
+    /**
+     * Decodes the alternative index of every feature for the given variation.
+     *
+     * @param variation The variation number.
+     * @param alternatives The array the alternative indices are written to (one entry per feature).
+     * @return The alternatives array.
+     */
+    public int[] decode(long variation, int[] alternatives) {
+        if (variation < 0 || variation >= size) {
+            throw new IndexOutOfBoundsException("Variation " + variation + " is not part of a space of " + size + " variations.");
+        }
+        for (int featureIndex = radices.length - 1; featureIndex >= 0; featureIndex--) {
+            alternatives[featureIndex] = (int) (variation % radices[featureIndex]);
+            variation /= radices[featureIndex];
+        }
+        return alternatives;
+    }
+
+    public int[] decode(long variation) {
+        return decode(variation, new int[radices.length]);
+    }
+
+    /**
+     * Encodes the alternative indices of all features into the variation number.
+     *
+     * @param alternatives The alternative index of every feature.
+     * @return The variation number.
+     */
+    public long encode(int[] alternatives) {
+        long variation = 0;
+        for (int featureIndex = 0; featureIndex < radices.length; featureIndex++) {
+            if (alternatives[featureIndex] < 0 || alternatives[featureIndex] >= radices[featureIndex]) {
+                throw new IndexOutOfBoundsException("Alternative " + alternatives[featureIndex] + " is not available for feature " + featureIdentifiers[featureIndex] + ".");
+            }
+            variation = variation * radices[featureIndex] + alternatives[featureIndex];
+        }
+        return variation;
+    }
+
+    public VariationRange getRange() {
+        return new VariationRange(0, size);
+    }
+
+    /**
+     * Splits the space into the given number of disjoint, contiguous ranges of (almost) equal size.
+     *
+     * @param parts The number of parts.
+     * @return The ranges.
+     */
+    public List<VariationRange> split(int parts) {
+        return getRange().split(parts);
+    }
+
+    @Override
+    public String toString() {
+        return "VariationSpace{" +
+                "featureIdentifiers=" + Arrays.toString(featureIdentifiers) +
+                ", radices=" + Arrays.toString(radices) +
+                ", size=" + size +
+                '}';
+    }
+
+}
@@ -0,0 +1,116 @@
+package bio.singa.simulation.runner.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations with fixed buckets, ranging from a millisecond to four hours. Recording is thread safe and
+ * does not allocate.
+ *
+ * @author cl
+ */
+public class Histogram {
+
+    /**
+     * The upper bounds of the buckets in seconds, the last bucket is unbounded.
+     */
+    static final double[] BUCKET_BOUNDS = {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30,
+            60, 120, 300, 600, 1800, 3600, 7200, 14400};
+
+    private static final long[] BUCKET_BOUNDS_NANOS = new long[BUCKET_BOUNDS.length];
+
+    static {
+        for (int bucket = 0; bucket < BUCKET_BOUNDS.length; bucket++) {
+            BUCKET_BOUNDS_NANOS[bucket] = (long) (BUCKET_BOUNDS[bucket] * 1e9);
+        }
+    }
+
+    private final AtomicLongArray buckets;
+    private final LongAdder count;
+    private final LongAdder sum;
+    private final AtomicLong maximum;
+
+    public Histogram() {
+        buckets = new AtomicLongArray(BUCKET_BOUNDS.length + 1);
+        count = new LongAdder();
+        sum = new LongAdder();
+        maximum = new AtomicLong();
+    }
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos The duration in nanoseconds.
+     */
+    public void record(long nanos) {
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS_NANOS.length && nanos > BUCKET_BOUNDS_NANOS[bucket]) {
+            bucket++;
+        }
+        buckets.incrementAndGet(bucket);
+        count.increment();
+        sum.add(nanos);
+        maximum.accumulateAndGet(nanos, Math::max);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Returns the sum of all recorded durations.
+     *
+     * @return The sum in seconds.
+     */
+    public double getSum() {
+        return sum.sum() / 1e9;
+    }
+
+    /**
+     * Returns the longest recorded duration.
+     *
+     * @return The maximum in seconds.
+     */
+    public double getMaximum() {
+        return maximum.get() / 1e9;
+    }
+
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : getSum() / count;
+    }
+
+    /**
+     * Returns the number of durations in the given bucket (not cumulative).
+     *
+     * @param bucket The bucket, {@link #BUCKET_BOUNDS} plus one unbounded bucket.
+     * @return The number of durations.
+     */
+    long getBucketCount(int bucket) {
+        return buckets.get(bucket);
+    }
+
+    /**
+     * Estimates the given quantile by the upper bound of the bucket containing it.
+     *
+     * @param quantile The quantile between 0 and 1.
+     * @return The estimate in seconds.
+     */
+    public double getQuantile(double quantile) {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * count);
+        long cumulative = 0;
+        for (int bucket = 0; bucket < BUCKET_BOUNDS.length; bucket++) {
+            cumulative += buckets.get(bucket);
+            if (cumulative >= rank) {
+                return Math.min(BUCKET_BOUNDS[bucket], getMaximum());
+            }
+        }
+        return getMaximum();
+    }
+
+}
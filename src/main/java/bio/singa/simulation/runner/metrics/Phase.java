@@ -0,0 +1,55 @@
+package bio.singa.simulation.runner.metrics;
+
+/**
+ * The phases a ticket passes while it is processed by a runner.
+ *
+ * @author cl
+ */
+public enum Phase {
+
+    /**
+     * Claiming and parsing the ticket.
+     */
+    CLAIM("claim"),
+
+    /**
+     * Reading and parsing the simulation setup.
+     */
+    SETUP("setup"),
+
+    /**
+     * Building the simulation from the setup.
+     */
+    BUILD("build"),
+
+    /**
+     * Applying the variations of the ticket.
+     */
+    REDEEM("redeem"),
+
+    /**
+     * Running the simulation, including writing observations for streaming formats.
+     */
+    RUN("run"),
+
+    /**
+     * Completing the trajectory file.
+     */
+    WRITE("write"),
+
+    /**
+     * Closing the ticket.
+     */
+    CLOSE("close");
+
+    private final String name;
+
+    Phase(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+}
@@ -0,0 +1,24 @@
+package bio.singa.simulation.runner.metrics;
+
+/**
+ * The durations recorded for a single phase, all durations in seconds.
+ *
+ * @author cl
+ */
+public interface PhaseMetricsMXBean {
+
+    long getCount();
+
+    double getTotalSeconds();
+
+    double getMeanSeconds();
+
+    double getMaximumSeconds();
+
+    double getMedianSeconds();
+
+    double get95thPercentileSeconds();
+
+    double get99thPercentileSeconds();
+
+}
@@ -0,0 +1,63 @@
+package bio.singa.simulation.runner.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically rewrites a file with the metrics of a runner in the Prometheus text format, e.g. to be picked up by the
+ * textfile collector of the node exporter. The file is replaced atomically, such that it is never read partially.
+ *
+ * @author cl
+ */
+public class PrometheusFileExporter {
+
+    private static final Logger logger = LoggerFactory.getLogger(PrometheusFileExporter.class);
+
+    private final RunnerMetrics metrics;
+    private final Path metricsFile;
+    private final ScheduledExecutorService scheduler;
+
+    private PrometheusFileExporter(RunnerMetrics metrics, Path metricsFile) {
+        this.metrics = metrics;
+        this.metricsFile = metricsFile;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-exporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static PrometheusFileExporter start(RunnerMetrics metrics, Path metricsFile, long interval, TimeUnit unit) {
+        PrometheusFileExporter exporter = new PrometheusFileExporter(metrics, metricsFile);
+        exporter.scheduler.scheduleWithFixedDelay(exporter::export, 0, interval, unit);
+        return exporter;
+    }
+
+    public void export() {
+        Path temporaryFile = metricsFile.resolveSibling("." + metricsFile.getFileName());
+        try {
+            Files.write(temporaryFile, metrics.toPrometheus().getBytes(StandardCharsets.UTF_8));
+            Files.move(temporaryFile, metricsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("unable to write metrics to {}", metricsFile, e);
+        }
+    }
+
+    /**
+     * Stops the periodic export and writes the final metrics.
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+        export();
+    }
+
+}
@@ -0,0 +1,188 @@
+package bio.singa.simulation.runner.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the metrics of all tickets processed by a runner. For every {@link Phase} a {@link Histogram} of durations
+ * is kept. The metrics are available as JMX MBeans (in the domain bio.singa.simulation.runner) and in the Prometheus
+ * text format.
+ *
+ * @author cl
+ */
+public class RunnerMetrics implements RunnerMetricsMXBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(RunnerMetrics.class);
+
+    private static final String DOMAIN = "bio.singa.simulation.runner";
+
+    private final Map<Phase, Histogram> histograms;
+    private final LongAdder ticketsProcessed;
+    private final LongAdder bytesWritten;
+    private final long startTime;
+
+    public RunnerMetrics() {
+        histograms = new EnumMap<>(Phase.class);
+        for (Phase phase : Phase.values()) {
+            histograms.put(phase, new Histogram());
+        }
+        ticketsProcessed = new LongAdder();
+        bytesWritten = new LongAdder();
+        startTime = System.nanoTime();
+    }
+
+    /**
+     * Adds the metrics of a processed ticket.
+     *
+     * @param ticketMetrics The metrics of the ticket.
+     */
+    public void record(TicketMetrics ticketMetrics) {
+        for (Phase phase : Phase.values()) {
+            long duration = ticketMetrics.getDuration(phase);
+            if (duration >= 0) {
+                histograms.get(phase).record(duration);
+            }
+        }
+        ticketsProcessed.increment();
+        bytesWritten.add(ticketMetrics.getBytesWritten());
+    }
+
+    public Histogram getHistogram(Phase phase) {
+        return histograms.get(phase);
+    }
+
+    @Override
+    public long getTicketsProcessed() {
+        return ticketsProcessed.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public double getTicketsPerHour() {
+        double hours = (System.nanoTime() - startTime) / 3.6e12;
+        return hours == 0 ? 0 : getTicketsProcessed() / hours;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server.
+     */
+    public void registerMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(this, new ObjectName(DOMAIN + ":type=Runner"));
+            for (Phase phase : Phase.values()) {
+                server.registerMBean(new PhaseMetrics(histograms.get(phase)), new ObjectName(DOMAIN + ":type=Phase,name=" + phase.getName()));
+            }
+        } catch (JMException e) {
+            logger.warn("unable to register metrics MBeans", e);
+        }
+    }
+
+    /**
+     * Renders the metrics in the Prometheus text format.
+     *
+     * @return The metrics.
+     */
+    public String toPrometheus() {
+        StringBuilder text = new StringBuilder();
+        text.append("# HELP singa_runner_phase_seconds Time spent in each phase of a ticket.\n");
+        text.append("# TYPE singa_runner_phase_seconds histogram\n");
+        for (Phase phase : Phase.values()) {
+            Histogram histogram = histograms.get(phase);
+            long cumulative = 0;
+            for (int bucket = 0; bucket < Histogram.BUCKET_BOUNDS.length; bucket++) {
+                cumulative += histogram.getBucketCount(bucket);
+                appendBucket(text, phase, String.valueOf(Histogram.BUCKET_BOUNDS[bucket]), cumulative);
+            }
+            cumulative += histogram.getBucketCount(Histogram.BUCKET_BOUNDS.length);
+            appendBucket(text, phase, "+Inf", cumulative);
+            text.append("singa_runner_phase_seconds_sum{phase=\"").append(phase.getName()).append("\"} ")
+                    .append(String.format(Locale.US, "%.6f", histogram.getSum())).append('\n');
+            text.append("singa_runner_phase_seconds_count{phase=\"").append(phase.getName()).append("\"} ")
+                    .append(cumulative).append('\n');
+        }
+        text.append("# HELP singa_runner_tickets_total Tickets processed by the runner.\n");
+        text.append("# TYPE singa_runner_tickets_total counter\n");
+        text.append("singa_runner_tickets_total ").append(getTicketsProcessed()).append('\n');
+        text.append("# HELP singa_runner_trajectory_bytes_total Bytes of trajectories written by the runner.\n");
+        text.append("# TYPE singa_runner_trajectory_bytes_total counter\n");
+        text.append("singa_runner_trajectory_bytes_total ").append(getBytesWritten()).append('\n');
+        return text.toString();
+    }
+
+    private static void appendBucket(StringBuilder text, Phase phase, String bound, long count) {
+        text.append("singa_runner_phase_seconds_bucket{phase=\"").append(phase.getName()).append("\",le=\"")
+                .append(bound).append("\"} ").append(count).append('\n');
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder summary = new StringBuilder("processed ").append(getTicketsProcessed()).append(" tickets, mean phase durations:");
+        for (Phase phase : Phase.values()) {
+            summary.append(String.format(Locale.US, " %s %.3f s", phase.getName(), histograms.get(phase).getMean()));
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Exposes the histogram of a single phase.
+     */
+    private static class PhaseMetrics implements PhaseMetricsMXBean {
+
+        private final Histogram histogram;
+
+        PhaseMetrics(Histogram histogram) {
+            this.histogram = histogram;
+        }
+
+        @Override
+        public long getCount() {
+            return histogram.getCount();
+        }
+
+        @Override
+        public double getTotalSeconds() {
+            return histogram.getSum();
+        }
+
+        @Override
+        public double getMeanSeconds() {
+            return histogram.getMean();
+        }
+
+        @Override
+        public double getMaximumSeconds() {
+            return histogram.getMaximum();
+        }
+
+        @Override
+        public double getMedianSeconds() {
+            return histogram.getQuantile(0.5);
+        }
+
+        @Override
+        public double get95thPercentileSeconds() {
+            return histogram.getQuantile(0.95);
+        }
+
+        @Override
+        public double get99thPercentileSeconds() {
+            return histogram.getQuantile(0.99);
+        }
+
+    }
+
+}
@@ -0,0 +1,16 @@
+package bio.singa.simulation.runner.metrics;
+
+/**
+ * The throughput of a runner.
+ *
+ * @author cl
+ */
+public interface RunnerMetricsMXBean {
+
+    long getTicketsProcessed();
+
+    long getBytesWritten();
+
+    double getTicketsPerHour();
+
+}
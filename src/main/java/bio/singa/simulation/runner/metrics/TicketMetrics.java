@@ -0,0 +1,141 @@
+package bio.singa.simulation.runner.metrics;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * The durations of the phases of a single ticket and the bytes written for it. Phases are timed between
+ * {@link #start(Phase)} and {@link #stop(Phase)}. The runner and the time the ticket was claimed are recorded as well,
+ * such that the time until runners claimed their first ticket can be determined from the metrics of a sweep.
+ *
+ * @author cl
+ */
+public class TicketMetrics {
+
+    public static final String METRICS_FILE = "metrics.json";
+
+    private static final String RUNNER = ManagementFactory.getRuntimeMXBean().getName();
+
+    private String ticketId;
+    private final Map<Phase, Long> durations;
+    private final Map<Phase, Long> starts;
+    private long bytesWritten;
+    private double simulatedSeconds;
+    // the elapsed time of the checkpoint the ticket was resumed from, negative if it was not resumed
+    private double resumedSeconds = -1;
+    // the wall clock time the ticket was claimed at in milliseconds, negative if it is unknown
+    private long claimTime = -1;
+
+    public TicketMetrics() {
+        durations = new EnumMap<>(Phase.class);
+        starts = new EnumMap<>(Phase.class);
+    }
+
+    public String getTicketId() {
+        return ticketId;
+    }
+
+    public void setTicketId(String ticketId) {
+        this.ticketId = ticketId;
+    }
+
+    public void start(Phase phase) {
+        starts.put(phase, System.nanoTime());
+    }
+
+    public void stop(Phase phase) {
+        Long start = starts.remove(phase);
+        if (start != null) {
+            durations.merge(phase, System.nanoTime() - start, Long::sum);
+        }
+    }
+
+    /**
+     * Returns the duration of the given phase.
+     *
+     * @param phase The phase.
+     * @return The duration in nanoseconds or -1 if the phase was not timed.
+     */
+    public long getDuration(Phase phase) {
+        return durations.getOrDefault(phase, -1L);
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public void setBytesWritten(long bytesWritten) {
+        this.bytesWritten = bytesWritten;
+    }
+
+    public double getSimulatedSeconds() {
+        return simulatedSeconds;
+    }
+
+    /**
+     * Sets the time that is simulated for the ticket, used to normalize run times of tickets with different
+     * termination times.
+     *
+     * @param simulatedSeconds The simulated time in seconds.
+     */
+    public void setSimulatedSeconds(double simulatedSeconds) {
+        this.simulatedSeconds = simulatedSeconds;
+    }
+
+    public long getClaimTime() {
+        return claimTime;
+    }
+
+    public void setClaimTime(long claimTime) {
+        this.claimTime = claimTime;
+    }
+
+    public boolean isResumed() {
+        return resumedSeconds >= 0;
+    }
+
+    /**
+     * Marks the ticket as resumed from a checkpoint.
+     *
+     * @param resumedSeconds The elapsed time of the checkpoint in seconds.
+     */
+    public void setResumedSeconds(double resumedSeconds) {
+        this.resumedSeconds = resumedSeconds;
+    }
+
+    /**
+     * Writes the metrics as JSON, phase durations are given in seconds.
+     *
+     * @param metricsFile The file.
+     * @throws IOException if the file could not be written.
+     */
+    public void write(Path metricsFile) throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"ticket\": \"").append(ticketId).append("\",\n  \"runner\": \"").append(RUNNER).append("\",\n  \"phases\": {");
+        long total = 0;
+        String separator = "\n";
+        for (Map.Entry<Phase, Long> entry : durations.entrySet()) {
+            json.append(separator).append("    \"").append(entry.getKey().getName()).append("\": ").append(entry.getValue() / 1e9);
+            total += entry.getValue();
+            separator = ",\n";
+        }
+        json.append("\n  },\n  \"total\": ").append(total / 1e9);
+        json.append(",\n  \"bytes-written\": ").append(bytesWritten);
+        json.append(",\n  \"simulated-seconds\": ").append(simulatedSeconds);
+        if (claimTime >= 0) {
+            json.append(",\n  \"claimed-at\": ").append(claimTime);
+        }
+        json.append(",\n  \"resumed\": ").append(isResumed());
+        if (isResumed()) {
+            json.append(",\n  \"resumed-from-seconds\": ").append(resumedSeconds);
+        }
+        json.append("\n}\n");
+        Files.write(metricsFile, json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,330 @@
+package bio.singa.simulation.runner.tickets;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Monitors the state directories of a {@link DirectoryTicketStore}. Only the requested states are monitored, runners
+ * that wait for work only monitor the open tickets. The tickets of every monitored state are collected by a single
+ * scan, afterwards they are updated from the create and delete events of the file system, such that counting costs
+ * nothing and updates cost in the order of changes. If events got lost, the affected directory is scanned again.
+ * States that are not monitored are counted by the store.
+ * <p>
+ * Network file systems usually do not report changes made by other nodes. On these file systems (or if requested)
+ * the {@link TicketTransitionLog transition logs} of all processes are polled instead, and the tickets are updated
+ * from the transitions appended since the last poll, such that polls cost in the order of changes as well. The state
+ * directories are only scanned again every {@value #RECONCILIATION_POLLS} polls (and only if their modification time
+ * changed), to reconcile transitions that have not been logged, e.g. by processes that could not write their log. The
+ * done directory is the largest one, therefore it is only reconciled once no tickets are open or processing.
+ *
+ * @author cl
+ */
+public class DirectoryTicketMonitor implements TicketMonitor {
+
+    private static final Logger logger = LoggerFactory.getLogger(DirectoryTicketMonitor.class);
+
+    private static final int RECONCILIATION_POLLS = 30;
+
+    private static final List<String> REMOTE_FILE_SYSTEMS = Arrays.asList("nfs", "nfs4", "cifs", "smbfs", "smb2", "lustre", "gpfs", "fuse.sshfs", "9p");
+
+    private final DirectoryTicketStore ticketStore;
+    private final Set<TicketState> monitoredStates;
+    private final Map<TicketState, Path> statePaths;
+    private final Map<TicketState, Set<String>> tickets;
+    private final Map<TicketState, FileTime> modificationTimes;
+    // time of the latest transition applied to a ticket, older transitions that are read later are skipped
+    private final Map<String, Long> transitionTimes;
+
+    private WatchService watchService;
+    private Map<WatchKey, TicketState> watchedStates;
+    private Thread watchThread;
+    private ScheduledExecutorService poller;
+    private TicketTransitionLog.Reader transitionReader;
+    private int polls;
+    // notified if open tickets were added
+    private final Object openTicketsAdded = new Object();
+
+    private DirectoryTicketMonitor(DirectoryTicketStore ticketStore, Set<TicketState> monitoredStates) {
+        this.ticketStore = ticketStore;
+        this.monitoredStates = EnumSet.copyOf(monitoredStates);
+        statePaths = new EnumMap<>(TicketState.class);
+        tickets = new EnumMap<>(TicketState.class);
+        modificationTimes = new ConcurrentHashMap<>();
+        transitionTimes = new HashMap<>();
+        for (TicketState state : TicketState.values()) {
+            statePaths.put(state, ticketStore.getStatePath(state));
+            tickets.put(state, ConcurrentHashMap.newKeySet());
+        }
+    }
+
+    public static DirectoryTicketMonitor start(DirectoryTicketStore ticketStore, Set<TicketState> monitoredStates, boolean polling, long pollingInterval, TimeUnit unit) {
+        DirectoryTicketMonitor monitor = new DirectoryTicketMonitor(ticketStore, monitoredStates);
+        if (polling || monitor.isRemote()) {
+            monitor.startPolling(pollingInterval, unit);
+            return monitor;
+        }
+        try {
+            monitor.startWatching();
+        } catch (IOException | UnsupportedOperationException e) {
+            logger.warn("file system events are not available for {}, polling instead", ticketStore.getTicketPath(), e);
+            monitor.startPolling(pollingInterval, unit);
+        }
+        return monitor;
+    }
+
+    private boolean isRemote() {
+        if (isOnNetworkFileSystem(statePaths.get(TicketState.OPEN))) {
+            logger.info("ticket directory is located on a network file system, polling for changes");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Determines whether the given path is located on a network file system. Network file systems usually neither
+     * report changes nor share memory mapped files between nodes.
+     *
+     * @param path The path.
+     * @return True, if the path is located on a network file system.
+     */
+    public static boolean isOnNetworkFileSystem(Path path) {
+        try {
+            return REMOTE_FILE_SYSTEMS.contains(Files.getFileStore(path).type().toLowerCase());
+        } catch (IOException e) {
+            logger.warn("unable to determine file system of {}", path, e);
+            return false;
+        }
+    }
+
+    private void startWatching() throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+        if (watchService.getClass().getSimpleName().startsWith("Polling")) {
+            // the fallback of the jvm polls by listing whole directories
+            watchService.close();
+            throw new UnsupportedOperationException("No native file system events available.");
+        }
+        watchedStates = new ConcurrentHashMap<>();
+        // register before scanning, so no change is missed in between
+        for (TicketState state : monitoredStates) {
+            WatchKey key = statePaths.get(state).register(watchService, ENTRY_CREATE, ENTRY_DELETE);
+            watchedStates.put(key, state);
+        }
+        for (TicketState state : monitoredStates) {
+            scan(state);
+        }
+        watchThread = new Thread(this::processEvents, "ticket-monitor");
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+
+    private void processEvents() {
+        while (!Thread.currentThread().isInterrupted()) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            TicketState state = watchedStates.get(key);
+            if (state == null) {
+                key.reset();
+                continue;
+            }
+            Set<String> stateTickets = tickets.get(state);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW) {
+                    logger.debug("lost events for {} tickets, scanning again", state.getDirectoryName());
+                    scan(state);
+                    continue;
+                }
+                String ticketId = event.context().toString();
+                if (!DirectoryTicketStore.isTicketIdentifier(ticketId)) {
+                    continue;
+                }
+                if (event.kind() == ENTRY_CREATE) {
+                    stateTickets.add(ticketId);
+                    if (state == TicketState.OPEN) {
+                        signalOpenTickets();
+                    }
+                } else if (event.kind() == ENTRY_DELETE) {
+                    stateTickets.remove(ticketId);
+                }
+            }
+            if (!key.reset()) {
+                logger.warn("{} ticket directory is no longer accessible", state.getDirectoryName());
+                watchedStates.remove(key);
+            }
+        }
+    }
+
+    private void startPolling(long pollingInterval, TimeUnit unit) {
+        transitionReader = new TicketTransitionLog.Reader(ticketStore.getTicketPath());
+        try {
+            // the scan covers all transitions logged so far
+            transitionReader.skip();
+        } catch (IOException e) {
+            logger.warn("unable to read ticket transitions in {}", ticketStore.getTicketPath(), e);
+        }
+        for (TicketState state : monitoredStates) {
+            scan(state);
+        }
+        poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ticket-monitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        poller.scheduleWithFixedDelay(this::poll, pollingInterval, pollingInterval, unit);
+    }
+
+    private synchronized void poll() {
+        try {
+            applyTransitions(transitionReader.read());
+        } catch (IOException e) {
+            logger.warn("unable to read ticket transitions in {}", ticketStore.getTicketPath(), e);
+        }
+        if (++polls % RECONCILIATION_POLLS == 0) {
+            reconcile();
+        }
+    }
+
+    private void applyTransitions(List<TicketTransitionLog.Transition> transitions) {
+        boolean opened = false;
+        for (TicketTransitionLog.Transition transition : transitions) {
+            String ticketId = transition.getIdentifier();
+            Long latestTime = transitionTimes.get(ticketId);
+            if (latestTime != null && latestTime > transition.getTime()) {
+                continue;
+            }
+            transitionTimes.put(ticketId, transition.getTime());
+            for (Set<String> stateTickets : tickets.values()) {
+                stateTickets.remove(ticketId);
+            }
+            if (monitoredStates.contains(transition.getState())) {
+                tickets.get(transition.getState()).add(ticketId);
+                opened |= transition.getState() == TicketState.OPEN;
+            }
+        }
+        if (opened) {
+            signalOpenTickets();
+        }
+    }
+
+    private void reconcile() {
+        for (TicketState state : monitoredStates) {
+            if (state == TicketState.DONE && (count(TicketState.OPEN) > 0 || count(TicketState.PROCESSING) > 0)) {
+                continue;
+            }
+            try {
+                if (isModified(state)) {
+                    scan(state);
+                }
+            } catch (IOException e) {
+                logger.warn("unable to poll {} tickets", state.getDirectoryName(), e);
+            }
+        }
+    }
+
+    private boolean isModified(TicketState state) throws IOException {
+        FileTime modificationTime = Files.getLastModifiedTime(statePaths.get(state));
+        return !modificationTime.equals(modificationTimes.get(state));
+    }
+
+    private void scan(TicketState state) {
+        Path statePath = statePaths.get(state);
+        try {
+            // remember the modification time before listing, such that changes during the scan are picked up by the
+            // next poll
+            modificationTimes.put(state, Files.getLastModifiedTime(statePath));
+            Set<String> scannedTickets = new HashSet<>();
+            try (DirectoryStream<Path> ticketFileStream = Files.newDirectoryStream(statePath)) {
+                for (Path ticketFile : ticketFileStream) {
+                    String ticketId = ticketFile.getFileName().toString();
+                    if (DirectoryTicketStore.isTicketIdentifier(ticketId)) {
+                        scannedTickets.add(ticketId);
+                    }
+                }
+            }
+            Set<String> stateTickets = tickets.get(state);
+            stateTickets.retainAll(scannedTickets);
+            stateTickets.addAll(scannedTickets);
+            if (state == TicketState.OPEN && !scannedTickets.isEmpty()) {
+                signalOpenTickets();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to scan tickets in " + statePath + ".", e);
+        }
+    }
+
+    @Override
+    public long count(TicketState state) {
+        if (!monitoredStates.contains(state)) {
+            return ticketStore.count(state);
+        }
+        return tickets.get(state).size();
+    }
+
+    private void signalOpenTickets() {
+        synchronized (openTicketsAdded) {
+            openTicketsAdded.notifyAll();
+        }
+    }
+
+    /**
+     * Blocks until there are open tickets or the timeout elapsed. The waiting thread is woken by file system events or
+     * polls that found open tickets.
+     *
+     * @param timeout The maximal time to wait.
+     * @param unit The unit of the timeout.
+     * @return True, if there are open tickets.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    @Override
+    public boolean awaitOpenTickets(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (openTicketsAdded) {
+            while (count(TicketState.OPEN) == 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(openTicketsAdded, remaining);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        if (poller != null) {
+            poller.shutdownNow();
+        }
+        if (watchService != null) {
+            watchThread.interrupt();
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                logger.warn("unable to close ticket monitor", e);
+            }
+        }
+    }
+
+}
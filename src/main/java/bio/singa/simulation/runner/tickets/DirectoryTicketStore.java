@@ -0,0 +1,449 @@
+package bio.singa.simulation.runner.tickets;
+
+import bio.singa.simulation.trajectories.Recorders;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * A ticket store that keeps every ticket in a separate file named by the ticket identifier. Depending on the state,
+ * tickets are located in the open, processing, done or failed folder. Leases are kept in the leases folder. A lease is
+ * created before its ticket is moved to the processing folder and removed before a ticket is moved back to the open
+ * folder, such that every processing ticket has a lease and open tickets have none. Every transition is appended to the
+ * {@link TicketTransitionLog} of the process, such that monitors can follow the transitions without listing the
+ * state folders.
+ *
+ * @author cl
+ */
+public class DirectoryTicketStore implements TicketStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(DirectoryTicketStore.class);
+
+    // coarsest modification time resolution of the supported file systems, including clock skew of network file systems
+    private static final long MODIFICATION_TIME_RESOLUTION = 2000;
+    // age after which the lease of an open ticket is considered as left behind by a claimer that died before the rename
+    private static final long ABANDONED_LEASE_AGE = 60000;
+
+    private static Pattern uuidPattern = Pattern.compile("^[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}$");
+
+    private Path ticketPath;
+
+    private Path openTicketPath;
+    private Path processingPath;
+    private Path donePath;
+    private Path failedPath;
+    private Path leasePath;
+
+    private TicketSchedule schedule;
+    private final TicketTransitionLog transitionLog;
+
+    // processing tickets, listed again once the processing folder is modified
+    private List<String> processingIndex;
+    private long indexedModificationTime;
+    private long indexTime;
+
+    private DirectoryTicketStore(Path ticketPath) {
+        this.ticketPath = ticketPath;
+        openTicketPath = ticketPath.resolve(TicketState.OPEN.getDirectoryName());
+        processingPath = ticketPath.resolve(TicketState.PROCESSING.getDirectoryName());
+        donePath = ticketPath.resolve(TicketState.DONE.getDirectoryName());
+        failedPath = ticketPath.resolve(TicketState.FAILED.getDirectoryName());
+        leasePath = ticketPath.resolve("leases");
+        schedule = TicketSchedule.empty();
+        transitionLog = new TicketTransitionLog(ticketPath);
+    }
+
+    public static DirectoryTicketStore open(Path ticketPath) {
+        DirectoryTicketStore store = new DirectoryTicketStore(ticketPath);
+        Recorders.createDirectories(store.leasePath);
+        // stores created before tickets could fail
+        Recorders.createDirectories(store.failedPath);
+        store.schedule = TicketSchedule.read(ticketPath);
+        return store;
+    }
+
+    public static DirectoryTicketStore create(Path ticketPath) {
+        DirectoryTicketStore store = new DirectoryTicketStore(ticketPath);
+        Recorders.createDirectories(store.openTicketPath);
+        Recorders.createDirectories(store.processingPath);
+        Recorders.createDirectories(store.donePath);
+        Recorders.createDirectories(store.failedPath);
+        Recorders.createDirectories(store.leasePath);
+        return store;
+    }
+
+    @Override
+    public Path getTicketPath() {
+        return ticketPath;
+    }
+
+    public Path getStatePath(TicketState state) {
+        switch (state) {
+            case OPEN:
+                return openTicketPath;
+            case PROCESSING:
+                return processingPath;
+            case FAILED:
+                return failedPath;
+            case DONE:
+            default:
+                return donePath;
+        }
+    }
+
+    /**
+     * Adds an open ticket. The ticket is written next to the open folder first and linked into it afterwards, such
+     * that runners never claim partially written tickets and an existing ticket with the same identifier is never
+     * replaced.
+     *
+     * @param identifier The identifier of the ticket.
+     * @param payload The serialized ticket.
+     * @throws IOException If the ticket could not be written or a ticket with the same identifier exists.
+     */
+    @Override
+    public void publish(String identifier, byte[] payload) throws IOException {
+        if (getState(identifier).isPresent()) {
+            throw new IOException("Ticket " + identifier + " is already part of the store in " + ticketPath + ".");
+        }
+        Path temporaryFile = ticketPath.resolve("." + identifier);
+        Path openTicket = openTicketPath.resolve(identifier);
+        Files.write(temporaryFile, payload);
+        try {
+            Files.createLink(openTicket, temporaryFile);
+        } catch (UnsupportedOperationException e) {
+            // without hard links the move is not atomic, but still fails if the ticket exists
+            Files.move(temporaryFile, openTicket);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+        transitionLog.append(identifier, TicketState.OPEN);
+    }
+
+    /**
+     * Claims the next open ticket. A ticket is claimed by exclusively creating its lease and atomically renaming it
+     * from the open to the processing folder afterwards. If multiple runners (possibly on different nodes) try to claim
+     * the same ticket, exactly one runner creates the lease and all others skip the ticket, so no global lock is
+     * required and there is no moment at which a processing ticket has no lease. Tickets are claimed in the order of the {@link TicketSchedule}, if there is
+     * one, starting behind the tickets other runners already took, remaining tickets in the order of the directory
+     * listing.
+     *
+     * @return The claimed ticket or an empty optional if no ticket could be claimed.
+     */
+    @Override
+    public Optional<StoredTicket> claim() throws IOException {
+        List<StoredTicket> claimedTickets = claim(1);
+        return claimedTickets.isEmpty() ? Optional.empty() : Optional.of(claimedTickets.get(0));
+    }
+
+    /**
+     * Claims up to the given number of open tickets, the open folder is listed at most once for all of them.
+     *
+     * @param count The maximal number of tickets.
+     * @return The claimed tickets, empty if no ticket could be claimed.
+     */
+    @Override
+    public List<StoredTicket> claim(int count) throws IOException {
+        List<StoredTicket> claimedTickets = new ArrayList<>(count);
+        TicketSchedule currentSchedule = currentSchedule();
+        // scheduled tickets that other runners already took would only fail to be renamed
+        currentSchedule.skipTakenTickets();
+        Optional<String> scheduledTicket;
+        while (claimedTickets.size() < count && (scheduledTicket = currentSchedule.next()).isPresent()) {
+            tryClaim(openTicketPath.resolve(scheduledTicket.get())).ifPresent(claimedTickets::add);
+        }
+        currentSchedule.shareProgress();
+        if (claimedTickets.size() == count) {
+            return claimedTickets;
+        }
+        try (DirectoryStream<Path> ticketFileStream = Files.newDirectoryStream(openTicketPath)) {
+            for (Path openTicket : ticketFileStream) {
+                if (!isTicketIdentifier(openTicket.getFileName().toString())) {
+                    continue;
+                }
+                tryClaim(openTicket).ifPresent(claimedTickets::add);
+                if (claimedTickets.size() == count) {
+                    break;
+                }
+            }
+        }
+        return claimedTickets;
+    }
+
+    /**
+     * Returns the schedule, that is updated if schedule files were added or replaced, e.g. by another shard.
+     *
+     * @return The current schedule.
+     */
+    private synchronized TicketSchedule currentSchedule() {
+        schedule = schedule.update(ticketPath);
+        return schedule;
+    }
+
+    private Optional<StoredTicket> tryClaim(Path openTicket) throws IOException {
+        String ticketId = openTicket.getFileName().toString();
+        Path claimedTicket = processingPath.resolve(ticketId);
+        Path leaseFile = leasePath.resolve(ticketId);
+        if (!createLease(leaseFile)) {
+            return Optional.empty();
+        }
+        try {
+            Files.move(openTicket, claimedTicket, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            // claimed by another runner that already finished the ticket since the open tickets have been listed
+            Files.deleteIfExists(leaseFile);
+            return Optional.empty();
+        } catch (IOException e) {
+            logger.warn("currently unable to claim " + ticketId);
+            Files.deleteIfExists(leaseFile);
+            return Optional.empty();
+        }
+        transitionLog.append(ticketId, TicketState.PROCESSING);
+        try {
+            return Optional.of(new StoredTicket(ticketId, Files.readAllBytes(claimedTicket)));
+        } catch (IOException e) {
+            logger.error("unable to read ticket {}, moving it to the failed tickets", ticketId, e);
+            fail(ticketId);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Creates the lease of a ticket that is about to be claimed. Only one runner can create the lease, all others skip
+     * the ticket. Leases of open tickets that are older than {@value #ABANDONED_LEASE_AGE} ms were left behind by a
+     * runner that died before its rename. They are moved aside, and the lease is only created again if the lease that
+     * was moved is still the abandoned one, such that runners taking over the same lease never remove each others
+     * leases.
+     *
+     * @param leaseFile The lease file.
+     * @return True, if the lease has been created by this runner.
+     */
+    private boolean createLease(Path leaseFile) {
+        try {
+            TicketLease.claimedNow().create(leaseFile);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            // another runner is claiming or holds the ticket
+        } catch (IOException e) {
+            logger.warn("unable to create lease " + leaseFile, e);
+            return false;
+        }
+        Path abandonedFile = null;
+        try {
+            TicketLease abandonedLease = TicketLease.read(leaseFile);
+            if (System.currentTimeMillis() - abandonedLease.getClaimTime() < ABANDONED_LEASE_AGE
+                    || !Files.exists(openTicketPath.resolve(leaseFile.getFileName()))) {
+                return false;
+            }
+            abandonedFile = Files.createTempFile(leasePath, "." + leaseFile.getFileName(), ".abandoned");
+            Files.move(leaseFile, abandonedFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            TicketLease movedLease = TicketLease.read(abandonedFile);
+            if (movedLease.getClaimTime() != abandonedLease.getClaimTime() || !movedLease.getOwner().equals(abandonedLease.getOwner())) {
+                // another runner took over in the meantime, put its lease back
+                Files.move(abandonedFile, leaseFile);
+                return false;
+            }
+            logger.warn("removed abandoned lease of open ticket {}", leaseFile.getFileName());
+            TicketLease.claimedNow().create(leaseFile);
+            return true;
+        } catch (IOException e) {
+            // the lease is being written, has been removed, or has been created again by another runner
+            return false;
+        } finally {
+            if (abandonedFile != null) {
+                try {
+                    Files.deleteIfExists(abandonedFile);
+                } catch (IOException e) {
+                    logger.warn("unable to remove abandoned lease " + abandonedFile, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Verifies that the lease of a processing ticket is held by the current process, such that no runner moves a
+     * ticket that has been recovered and claimed by another runner in the meantime.
+     *
+     * @param identifier The identifier of the ticket.
+     * @throws IOException If the lease is held by another process or could not be read.
+     */
+    private void verifyLease(String identifier) throws IOException {
+        Path leaseFile = leasePath.resolve(identifier);
+        if (!Files.exists(leaseFile)) {
+            return;
+        }
+        TicketLease lease = TicketLease.read(leaseFile);
+        if (!lease.isOwnedByCurrentProcess()) {
+            throw new IOException("Ticket " + identifier + " is leased by " + lease.getOwner() + ".");
+        }
+    }
+
+    @Override
+    public void release(String identifier) throws IOException {
+        verifyLease(identifier);
+        // open tickets must not have a lease, otherwise they could not be claimed
+        Files.deleteIfExists(leasePath.resolve(identifier));
+        Files.move(processingPath.resolve(identifier), openTicketPath.resolve(identifier), StandardCopyOption.ATOMIC_MOVE);
+        transitionLog.append(identifier, TicketState.OPEN);
+    }
+
+    @Override
+    public void complete(String identifier) throws IOException {
+        verifyLease(identifier);
+        Files.move(processingPath.resolve(identifier), donePath.resolve(identifier));
+        Files.deleteIfExists(leasePath.resolve(identifier));
+        transitionLog.append(identifier, TicketState.DONE);
+    }
+
+    @Override
+    public void fail(String identifier) throws IOException {
+        verifyLease(identifier);
+        Files.move(processingPath.resolve(identifier), failedPath.resolve(identifier), StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(leasePath.resolve(identifier));
+        transitionLog.append(identifier, TicketState.FAILED);
+    }
+
+    @Override
+    public void reopen(String identifier) throws IOException {
+        // open tickets must not have a lease, otherwise they could not be claimed
+        Files.deleteIfExists(leasePath.resolve(identifier));
+        for (Path statePath : new Path[]{processingPath, donePath, failedPath}) {
+            Path ticket = statePath.resolve(identifier);
+            if (Files.exists(ticket)) {
+                Files.move(ticket, openTicketPath.resolve(identifier));
+                transitionLog.append(identifier, TicketState.OPEN);
+            }
+        }
+    }
+
+    @Override
+    public boolean hasOpenTickets() {
+        try (DirectoryStream<Path> ticketFileStream = Files.newDirectoryStream(openTicketPath)) {
+            for (Path ticketFile : ticketFileStream) {
+                if (isAvailable(ticketFile)) {
+                    return true;
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("unable to retrieve any ticket", e);
+        }
+        return false;
+    }
+
+    /**
+     * Counts the tickets in the given state. Processing tickets are counted from the index of processing tickets.
+     *
+     * @param state The state.
+     * @return The number of tickets.
+     */
+    @Override
+    public long count(TicketState state) {
+        if (state == TicketState.PROCESSING) {
+            try {
+                return listProcessing().size();
+            } catch (IOException e) {
+                logger.warn("unable to count files in {}", processingPath);
+                return 0;
+            }
+        }
+        Path directoryPath = getStatePath(state);
+        try (Stream<Path> files = Files.list(directoryPath)) {
+            return files.count();
+        } catch (IOException e) {
+            logger.warn("unable to count files in {}", directoryPath);
+            return 0;
+        }
+    }
+
+    /**
+     * Lists the tickets in the given state. Processing tickets are listed from an index, that is only rebuilt if the
+     * modification time of the processing folder changed, such that repeated requests only read the folder metadata.
+     *
+     * @param state The state.
+     * @return The identifiers of the tickets.
+     * @throws IOException If the folder could not be listed.
+     */
+    @Override
+    public List<String> list(TicketState state) throws IOException {
+        if (state == TicketState.PROCESSING) {
+            return listProcessing();
+        }
+        return listDirectory(getStatePath(state));
+    }
+
+    private synchronized List<String> listProcessing() throws IOException {
+        long modificationTime = Files.getLastModifiedTime(processingPath).toMillis();
+        // changes within the resolution of the modification time after the last listing would go unnoticed
+        if (processingIndex == null || modificationTime != indexedModificationTime
+                || modificationTime + MODIFICATION_TIME_RESOLUTION >= indexTime) {
+            indexTime = System.currentTimeMillis();
+            processingIndex = listDirectory(processingPath);
+            indexedModificationTime = modificationTime;
+        }
+        return new ArrayList<>(processingIndex);
+    }
+
+    private static List<String> listDirectory(Path directoryPath) throws IOException {
+        List<String> identifiers = new ArrayList<>();
+        try (DirectoryStream<Path> ticketFileStream = Files.newDirectoryStream(directoryPath)) {
+            for (Path ticketFile : ticketFileStream) {
+                String ticketId = ticketFile.getFileName().toString();
+                if (isTicketIdentifier(ticketId)) {
+                    identifiers.add(ticketId);
+                }
+            }
+        }
+        return identifiers;
+    }
+
+    @Override
+    public Optional<TicketLease> getLease(String identifier) {
+        Path leaseFile = leasePath.resolve(identifier);
+        if (!Files.exists(leaseFile)) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(TicketLease.read(leaseFile));
+        } catch (IOException e) {
+            logger.warn("unable to read lease for ticket " + identifier, e);
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public Optional<TicketState> getState(String identifier) {
+        for (TicketState state : TicketState.values()) {
+            if (Files.exists(getStatePath(state).resolve(identifier))) {
+                return Optional.of(state);
+            }
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public void close() {
+        transitionLog.close();
+    }
+
+    static boolean isTicketIdentifier(String fileName) {
+        return uuidPattern.matcher(fileName).matches();
+    }
+
+    private boolean isAvailable(Path filePath) {
+        File file = filePath.toFile();
+        return file.isFile() && file.exists() && file.length() > 0;
+    }
+
+}
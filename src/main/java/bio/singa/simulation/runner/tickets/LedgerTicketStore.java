@@ -0,0 +1,1010 @@
+package bio.singa.simulation.runner.tickets;
+
+import bio.singa.simulation.trajectories.Recorders;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * A ticket store that keeps all tickets in a few files. The ledger ({@value #LEDGER_FILE}) starts with a header that
+ * holds the number of records, the number of tickets in each state, the number of journal entries, a claim cursor and
+ * the capacity of the index, followed by one fixed size record per ticket (identifier and payload location). The
+ * payload segment ({@value #PAYLOAD_FILE}) contains the serialized tickets. The journal ({@value #JOURNAL_FILE})
+ * contains one checksummed entry per state transition, claims also record the lease of the ticket. The state table
+ * ({@value #STATE_FILE}) holds the current state of every ticket and the journal entry of its last transition, and the
+ * index ({@value #INDEX_FILE}) is an open addressing hash table that maps ticket identifiers to record numbers.
+ * <p>
+ * Claiming, completing and reopening tickets append journal entries while holding a file lock on the header. The
+ * entries are forced to the disk before the state table and the header are updated and the lock is released, such
+ * that a crashed node loses no transition that has been reported as successful. Entries that were forced but not
+ * counted in the header are adopted by the next store that changes the ledger, entries hold the previous state of the
+ * ticket such that adopting them again is harmless. Counting reads the header only, looking up a ticket probes the
+ * index, and claiming continues from the claim cursor, such that opening a ledger and the first claim do not depend on
+ * the number of tickets. Only listing tickets scans the state table. Tickets of the {@link TicketSchedule} are claimed
+ * first, in the order of the schedule. The file lock is an advisory operating system lock, on network file systems
+ * this requires a working lock service (e.g. NFSv4 or lockd for NFSv3).
+ * <p>
+ * File locks are held by the whole process, therefore every ledger is opened only once per process and shared by all
+ * stores that open it. The ledger is closed when the last of them is closed.
+ *
+ * @author cl
+ */
+public class LedgerTicketStore implements TicketStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(LedgerTicketStore.class);
+
+    public static final String LEDGER_FILE = "tickets.ledger";
+    public static final String PAYLOAD_FILE = "tickets.payload";
+    public static final String JOURNAL_FILE = "tickets.journal";
+    public static final String STATE_FILE = "tickets.states";
+    public static final String INDEX_FILE = "tickets.index";
+
+    private static final int MAGIC = 0x5347544C;
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 128;
+    private static final int RECORD_SIZE = 32;
+    private static final int ENTRY_SIZE = 96;
+    private static final int OWNER_OFFSET = 24;
+    private static final int OWNER_SIZE = ENTRY_SIZE - OWNER_OFFSET;
+    private static final int SLOT_SIZE = 8;
+    private static final int INDEX_SLOT_SIZE = 24;
+    private static final long MINIMAL_INDEX_CAPACITY = 1024;
+    // number of records, slots or entries that are read at once when scanning
+    private static final int CHUNK_SIZE = 256;
+
+    // open ledgers by normalized ticket directory
+    private static final Map<Path, LedgerTicketStore> openStores = new HashMap<>();
+
+    private final Path ticketPath;
+    private final FileChannel ledger;
+    private final FileChannel payloads;
+    private final FileChannel journal;
+    private final FileChannel stateTable;
+    // the index is replaced by a larger one when it fills up
+    private FileChannel index;
+    private long indexCapacity;
+    // number of stores sharing this ledger, guarded by the open stores
+    private int references;
+
+    // leases of processing tickets by record number, only built when processing tickets are listed
+    private final Map<Long, TicketLease> leases;
+    private boolean leasesReplayed;
+    private long replayedEntries;
+
+    private TicketSchedule schedule;
+
+    private LedgerTicketStore(Path ticketPath) throws IOException {
+        this.ticketPath = ticketPath;
+        ledger = FileChannel.open(ticketPath.resolve(LEDGER_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        payloads = FileChannel.open(ticketPath.resolve(PAYLOAD_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        journal = FileChannel.open(ticketPath.resolve(JOURNAL_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        stateTable = FileChannel.open(ticketPath.resolve(STATE_FILE), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        leases = new TreeMap<>();
+        schedule = TicketSchedule.empty();
+    }
+
+    public static LedgerTicketStore open(Path ticketPath) {
+        synchronized (openStores) {
+            LedgerTicketStore store = openStores.get(normalize(ticketPath));
+            if (store != null) {
+                store.references++;
+                return store;
+            }
+            try {
+                store = new LedgerTicketStore(ticketPath);
+                store.readHeader();
+                store.schedule = TicketSchedule.read(ticketPath);
+                return store.register();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to open ticket ledger in " + ticketPath + ".", e);
+            }
+        }
+    }
+
+    public static LedgerTicketStore create(Path ticketPath) {
+        Recorders.createDirectories(ticketPath);
+        synchronized (openStores) {
+            LedgerTicketStore store = openStores.get(normalize(ticketPath));
+            if (store != null) {
+                store.references++;
+                return store;
+            }
+            try {
+                store = new LedgerTicketStore(ticketPath);
+                store.initialize();
+                return store.register();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to create ticket ledger in " + ticketPath + ".", e);
+            }
+        }
+    }
+
+    private static Path normalize(Path ticketPath) {
+        return ticketPath.toAbsolutePath().normalize();
+    }
+
+    private LedgerTicketStore register() {
+        references = 1;
+        openStores.put(normalize(ticketPath), this);
+        return this;
+    }
+
+    private synchronized void initialize() throws IOException {
+        try (FileLock ignored = ledger.lock(0, HEADER_SIZE, false)) {
+            if (ledger.size() == 0) {
+                writeHeader(new Header());
+                ledger.force(true);
+            }
+        }
+    }
+
+    @Override
+    public Path getTicketPath() {
+        return ticketPath;
+    }
+
+    @Override
+    public void publish(String identifier, byte[] payload) throws IOException {
+        publish(Collections.singletonList(new StoredTicket(identifier, payload)));
+    }
+
+    /**
+     * Adds multiple open tickets while holding the ledger lock once. All payloads and all records are appended with a
+     * single write each and forced to the disk, before the header counts them. Tickets that are already part of the
+     * ledger are rejected, before anything is written.
+     *
+     * @param tickets The tickets.
+     */
+    @Override
+    public synchronized void publish(List<StoredTicket> tickets) throws IOException {
+        if (tickets.isEmpty()) {
+            return;
+        }
+        int payloadSize = 0;
+        for (StoredTicket ticket : tickets) {
+            payloadSize += ticket.getPayload().length;
+        }
+        ByteBuffer payloadBuffer = ByteBuffer.allocate(payloadSize);
+        ByteBuffer recordBuffer = ByteBuffer.allocate(tickets.size() * RECORD_SIZE);
+        try (FileLock ignored = ledger.lock(0, HEADER_SIZE, false)) {
+            Header header = readHeader();
+            adoptJournal(header);
+            long previousCapacity = header.indexCapacity;
+            Set<UUID> identifiers = new HashSet<>();
+            for (StoredTicket ticket : tickets) {
+                UUID identifier = UUID.fromString(ticket.getIdentifier());
+                if (!identifiers.add(identifier) || find(header, identifier) >= 0) {
+                    throw new IOException("Ticket " + identifier + " is already part of the ledger in " + ticketPath + ".");
+                }
+            }
+            long payloadOffset = payloads.size();
+            for (StoredTicket ticket : tickets) {
+                Record record = new Record();
+                record.payloadOffset = payloadOffset + payloadBuffer.position();
+                record.payloadLength = ticket.getPayload().length;
+                record.identifier = UUID.fromString(ticket.getIdentifier());
+                record.encode(recordBuffer);
+                payloadBuffer.put(ticket.getPayload());
+            }
+            payloadBuffer.flip();
+            recordBuffer.flip();
+            writeFully(payloads, payloadBuffer, payloadOffset);
+            writeFully(ledger, recordBuffer, recordPosition(header.recordCount));
+            payloads.force(false);
+            ledger.force(false);
+            // index the new records, entries beyond the counted records are ignored until the header is written
+            ensureIndexCapacity(header, header.recordCount + tickets.size());
+            for (int ticket = 0; ticket < tickets.size(); ticket++) {
+                insert(Record.decode(recordBuffer, ticket * RECORD_SIZE).identifier, header.recordCount + ticket);
+            }
+            index.force(false);
+            // update header
+            header.recordCount += tickets.size();
+            header.openCount += tickets.size();
+            writeHeader(header);
+            ledger.force(false);
+            if (previousCapacity > 0 && previousCapacity != header.indexCapacity) {
+                try {
+                    Files.deleteIfExists(indexPath(previousCapacity));
+                } catch (IOException e) {
+                    logger.debug("unable to delete replaced ticket index in {}", ticketPath, e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public Optional<StoredTicket> claim() throws IOException {
+        List<StoredTicket> claimedTickets = claim(1);
+        return claimedTickets.isEmpty() ? Optional.empty() : Optional.of(claimedTickets.get(0));
+    }
+
+    /**
+     * Claims up to the given number of open tickets while holding the ledger lock once, the journal entries of all
+     * claims are appended and forced at once.
+     *
+     * @param count The maximal number of tickets.
+     * @return The claimed tickets, empty if no ticket could be claimed.
+     */
+    @Override
+    public List<StoredTicket> claim(int count) throws IOException {
+        List<Record> claimed = new ArrayList<>(count);
+        synchronized (this) {
+            try (FileLock ignored = ledger.lock(0, HEADER_SIZE, false)) {
+                Header header = readHeader();
+                boolean adopted = adoptJournal(header);
+                if (header.openCount == 0) {
+                    if (adopted) {
+                        writeHeader(header);
+                    }
+                    return Collections.emptyList();
+                }
+                // schedule files may be added or replaced by other shards or a new sweep
+                schedule = schedule.update(ticketPath);
+                schedule.skipTakenTickets();
+                List<Long> recordNumbers = new ArrayList<>(count);
+                long scheduled;
+                while (recordNumbers.size() < count && (scheduled = nextScheduled(header, recordNumbers)) >= 0) {
+                    recordNumbers.add(scheduled);
+                }
+                schedule.shareProgress();
+                long recordNumber = header.claimCursor;
+                ByteBuffer slots = ByteBuffer.allocate(CHUNK_SIZE * SLOT_SIZE);
+                while (recordNumbers.size() < count && recordNumber < header.recordCount) {
+                    int chunkSlots = (int) Math.min(CHUNK_SIZE, header.recordCount - recordNumber);
+                    readSlots(slots, recordNumber, chunkSlots);
+                    for (int slot = 0; slot < chunkSlots && recordNumbers.size() < count; slot++, recordNumber++) {
+                        if (slotState(slots.getLong(slot * SLOT_SIZE)) == TicketState.OPEN && !recordNumbers.contains(recordNumber)) {
+                            recordNumbers.add(recordNumber);
+                        }
+                    }
+                }
+                header.claimCursor = recordNumber;
+                TicketLease lease = TicketLease.claimedNow();
+                ByteBuffer entries = ByteBuffer.allocate(recordNumbers.size() * ENTRY_SIZE);
+                for (long claimedRecord : recordNumbers) {
+                    encodeEntry(entries, claimedRecord, TicketState.PROCESSING, TicketState.OPEN, lease);
+                    claimed.add(readRecord(claimedRecord));
+                }
+                appendEntries(header, entries);
+                header.openCount -= recordNumbers.size();
+                header.processingCount += recordNumbers.size();
+                writeHeader(header);
+            }
+        }
+        List<StoredTicket> claimedTickets = new ArrayList<>(claimed.size());
+        for (Record record : claimed) {
+            ByteBuffer payload = ByteBuffer.allocate(record.payloadLength);
+            readFully(payloads, payload, record.payloadOffset);
+            claimedTickets.add(new StoredTicket(record.identifier.toString(), payload.array()));
+        }
+        return claimedTickets;
+    }
+
+    /**
+     * Returns the next open ticket of the schedule. Scheduled tickets that are no longer open are skipped. The claim
+     * cursor is not advanced, since scheduled tickets are claimed out of ledger order.
+     *
+     * @param header The current header.
+     * @param selected The records that are already selected for the current claim.
+     * @return The record number or -1 if all scheduled tickets have been processed.
+     */
+    private long nextScheduled(Header header, List<Long> selected) throws IOException {
+        Optional<String> scheduledTicket = schedule.next();
+        while (scheduledTicket.isPresent()) {
+            long recordNumber = find(header, UUID.fromString(scheduledTicket.get()));
+            if (recordNumber < 0) {
+                logger.warn("scheduled ticket {} is not part of the ledger", scheduledTicket.get());
+            } else if (slotState(readSlot(recordNumber)) == TicketState.OPEN && !selected.contains(recordNumber)) {
+                return recordNumber;
+            }
+            scheduledTicket = schedule.next();
+        }
+        return -1;
+    }
+
+    @Override
+    public void release(String identifier) throws IOException {
+        transition(identifier, EnumSet.of(TicketState.PROCESSING), TicketState.OPEN, true);
+    }
+
+    @Override
+    public void complete(String identifier) throws IOException {
+        transition(identifier, EnumSet.of(TicketState.PROCESSING), TicketState.DONE, true);
+    }
+
+    @Override
+    public void fail(String identifier) throws IOException {
+        transition(identifier, EnumSet.of(TicketState.PROCESSING), TicketState.FAILED, true);
+    }
+
+    @Override
+    public void reopen(String identifier) throws IOException {
+        transition(identifier, EnumSet.allOf(TicketState.class), TicketState.OPEN, false);
+    }
+
+    /**
+     * Changes the state of a ticket.
+     *
+     * @param identifier The identifier of the ticket.
+     * @param sourceStates The states the ticket may currently be in.
+     * @param targetState The new state.
+     * @param leased True if the current process has to hold the lease of the ticket.
+     */
+    private synchronized void transition(String identifier, Set<TicketState> sourceStates, TicketState targetState, boolean leased) throws IOException {
+        try (FileLock ignored = ledger.lock(0, HEADER_SIZE, false)) {
+            Header header = readHeader();
+            boolean adopted = adoptJournal(header);
+            long recordNumber = lookup(header, identifier);
+            long slot = readSlot(recordNumber);
+            TicketState sourceState = slotState(slot);
+            String rejection = null;
+            if (!sourceStates.contains(sourceState)) {
+                rejection = "Ticket " + identifier + " is " + sourceState + ", but should be one of " + sourceStates + ".";
+            } else if (leased) {
+                TicketLease lease = readLease(slotEntry(slot));
+                if (!lease.isOwnedByCurrentProcess()) {
+                    rejection = "Ticket " + identifier + " is leased by " + lease.getOwner() + ".";
+                }
+            }
+            if (rejection != null) {
+                if (adopted) {
+                    writeHeader(header);
+                }
+                throw new IOException(rejection);
+            }
+            ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+            encodeEntry(entry, recordNumber, targetState, sourceState, null);
+            appendEntries(header, entry);
+            header.decrement(sourceState);
+            header.increment(targetState);
+            if (targetState == TicketState.OPEN) {
+                header.claimCursor = Math.min(header.claimCursor, recordNumber);
+            }
+            writeHeader(header);
+        }
+    }
+
+    private long lookup(Header header, String identifier) throws IOException {
+        long recordNumber = find(header, UUID.fromString(identifier));
+        if (recordNumber < 0) {
+            throw new IOException("Ticket " + identifier + " is not part of the ledger in " + ticketPath + ".");
+        }
+        return recordNumber;
+    }
+
+    @Override
+    public boolean hasOpenTickets() {
+        return count(TicketState.OPEN) > 0;
+    }
+
+    @Override
+    public long count(TicketState state) {
+        try {
+            return readHeader().count(state);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read ticket ledger in " + ticketPath + ".", e);
+        }
+    }
+
+    /**
+     * Lists the tickets in the given state. Processing tickets are kept in an index, that is built from the state
+     * table once and afterwards only follows new journal entries, such that listing them repeatedly does not depend on
+     * the number of tickets. Other states scan the state table.
+     *
+     * @param state The state.
+     * @return The identifiers of the tickets.
+     */
+    @Override
+    public synchronized List<String> list(TicketState state) throws IOException {
+        Header header = readHeader();
+        List<String> identifiers = new ArrayList<>();
+        if (state == TicketState.PROCESSING) {
+            replayLeases(header);
+            for (long recordNumber : leases.keySet()) {
+                identifiers.add(readRecord(recordNumber).identifier.toString());
+            }
+            return identifiers;
+        }
+        ByteBuffer slots = ByteBuffer.allocate(CHUNK_SIZE * SLOT_SIZE);
+        ByteBuffer records = ByteBuffer.allocate(CHUNK_SIZE * RECORD_SIZE);
+        for (long recordNumber = 0; recordNumber < header.recordCount; recordNumber += CHUNK_SIZE) {
+            int chunkRecords = (int) Math.min(CHUNK_SIZE, header.recordCount - recordNumber);
+            readSlots(slots, recordNumber, chunkRecords);
+            read(ledger, records, chunkRecords * RECORD_SIZE, recordPosition(recordNumber));
+            for (int record = 0; record < chunkRecords; record++) {
+                if (slotState(slots.getLong(record * SLOT_SIZE)) == state) {
+                    identifiers.add(Record.decode(records, record * RECORD_SIZE).identifier.toString());
+                }
+            }
+        }
+        return identifiers;
+    }
+
+    @Override
+    public synchronized Optional<TicketLease> getLease(String identifier) {
+        try {
+            long slot = readSlot(lookup(readHeader(), identifier));
+            if (slotState(slot) != TicketState.PROCESSING) {
+                return Optional.empty();
+            }
+            return Optional.of(readLease(slotEntry(slot)));
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public synchronized Optional<TicketState> getState(String identifier) {
+        try {
+            return Optional.of(slotState(readSlot(lookup(readHeader(), identifier))));
+        } catch (IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (openStores) {
+            if (--references > 0) {
+                return;
+            }
+            openStores.remove(normalize(ticketPath));
+        }
+        synchronized (this) {
+            ledger.close();
+            payloads.close();
+            journal.close();
+            stateTable.close();
+            if (index != null) {
+                index.close();
+            }
+        }
+    }
+
+    /**
+     * Updates the leases of processing tickets. The first call collects the leases of all processing tickets from
+     * the state table, later calls only apply the journal entries that have been counted in the header since.
+     *
+     * @param header The current header.
+     */
+    private void replayLeases(Header header) throws IOException {
+        if (!leasesReplayed) {
+            ByteBuffer slots = ByteBuffer.allocate(CHUNK_SIZE * SLOT_SIZE);
+            for (long recordNumber = 0; recordNumber < header.recordCount; recordNumber += CHUNK_SIZE) {
+                int chunkSlots = (int) Math.min(CHUNK_SIZE, header.recordCount - recordNumber);
+                readSlots(slots, recordNumber, chunkSlots);
+                for (int slot = 0; slot < chunkSlots; slot++) {
+                    long value = slots.getLong(slot * SLOT_SIZE);
+                    if (slotState(value) == TicketState.PROCESSING) {
+                        leases.put(recordNumber + slot, readLease(slotEntry(value)));
+                    }
+                }
+            }
+            // the state table already contains every counted entry
+            replayedEntries = header.journalEntries;
+            leasesReplayed = true;
+            return;
+        }
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE * ENTRY_SIZE);
+        while (replayedEntries < header.journalEntries) {
+            int entries = (int) Math.min(CHUNK_SIZE, header.journalEntries - replayedEntries);
+            read(journal, chunk, entries * ENTRY_SIZE, entryPosition(replayedEntries));
+            for (int index = 0; index < entries; index++, replayedEntries++) {
+                Entry entry = Entry.decode(chunk, index * ENTRY_SIZE);
+                if (entry == null) {
+                    throw new IOException("Corrupt journal entry " + replayedEntries + " in " + ticketPath + ".");
+                }
+                if (entry.state == TicketState.PROCESSING) {
+                    leases.put(entry.recordNumber, new TicketLease(entry.owner, entry.claimTime));
+                } else {
+                    leases.remove(entry.recordNumber);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adopts valid journal entries beyond the end counted in the header, that have been forced by a store that
+     * crashed before it could update the header. Adoption stops at the first incomplete or invalid entry, that is
+     * overwritten by the next transition.
+     *
+     * @param header The current header, that is updated by the adopted entries.
+     * @return True if any entry has been adopted.
+     */
+    private boolean adoptJournal(Header header) throws IOException {
+        long journalSize = journal.size();
+        long adopted = 0;
+        ByteBuffer buffer = ByteBuffer.allocate(ENTRY_SIZE);
+        while (entryPosition(header.journalEntries + 1) <= journalSize) {
+            read(journal, buffer, ENTRY_SIZE, entryPosition(header.journalEntries));
+            Entry entry = Entry.decode(buffer, 0);
+            if (entry == null || entry.recordNumber < 0 || entry.recordNumber >= header.recordCount) {
+                break;
+            }
+            header.decrement(entry.previousState);
+            header.increment(entry.state);
+            if (entry.state == TicketState.OPEN) {
+                header.claimCursor = Math.min(header.claimCursor, entry.recordNumber);
+            }
+            writeSlot(entry.recordNumber, entry.state, header.journalEntries);
+            header.journalEntries++;
+            adopted++;
+        }
+        if (adopted > 0) {
+            stateTable.force(false);
+            logger.warn("adopted {} ticket transitions that were not counted in the ledger in {}", adopted, ticketPath);
+        }
+        return adopted > 0;
+    }
+
+    /**
+     * Appends the given entries to the journal and forces them, before the state table is updated. Invalid entries
+     * of crashed transitions behind the new entries are cut off, such that they can never be adopted.
+     *
+     * @param header The current header.
+     * @param entries The encoded entries.
+     */
+    private void appendEntries(Header header, ByteBuffer entries) throws IOException {
+        entries.flip();
+        int appended = entries.remaining() / ENTRY_SIZE;
+        long end = entryPosition(header.journalEntries + appended);
+        writeFully(journal, entries, entryPosition(header.journalEntries));
+        if (journal.size() > end) {
+            journal.truncate(end);
+        }
+        journal.force(false);
+        for (int index = 0; index < appended; index++) {
+            Entry entry = Entry.decode(entries, index * ENTRY_SIZE);
+            writeSlot(entry.recordNumber, entry.state, header.journalEntries + index);
+        }
+        stateTable.force(false);
+        header.journalEntries += appended;
+    }
+
+    private TicketLease readLease(long entryNumber) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(ENTRY_SIZE);
+        readFully(journal, buffer, entryPosition(entryNumber));
+        Entry entry = Entry.decode(buffer, 0);
+        if (entry == null || entry.state != TicketState.PROCESSING) {
+            throw new IOException("Corrupt journal entry " + entryNumber + " in " + ticketPath + ".");
+        }
+        return new TicketLease(entry.owner, entry.claimTime);
+    }
+
+    /**
+     * Reads the slot of the given record from the state table. Records beyond the end of the table have never
+     * changed their state.
+     *
+     * @param recordNumber The record number.
+     * @return The slot, zero for open tickets without transition.
+     */
+    private long readSlot(long recordNumber) throws IOException {
+        long position = recordNumber * SLOT_SIZE;
+        if (position + SLOT_SIZE > stateTable.size()) {
+            return 0;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(SLOT_SIZE);
+        readFully(stateTable, buffer, position);
+        return buffer.getLong(0);
+    }
+
+    private void readSlots(ByteBuffer chunk, long recordNumber, int slots) throws IOException {
+        long position = recordNumber * SLOT_SIZE;
+        int available = (int) Math.max(0, Math.min(slots * SLOT_SIZE, stateTable.size() - position));
+        read(stateTable, chunk, available, position);
+        Arrays.fill(chunk.array(), available, slots * SLOT_SIZE, (byte) 0);
+        chunk.clear();
+    }
+
+    private void writeSlot(long recordNumber, TicketState state, long entryNumber) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SLOT_SIZE);
+        buffer.putLong(((long) state.getCode() << 56) | (entryNumber + 1));
+        buffer.flip();
+        writeFully(stateTable, buffer, recordNumber * SLOT_SIZE);
+    }
+
+    private static TicketState slotState(long slot) {
+        return slot == 0 ? TicketState.OPEN : TicketState.fromCode((byte) (slot >>> 56));
+    }
+
+    private static long slotEntry(long slot) {
+        return (slot & 0x00FFFFFFFFFFFFFFL) - 1;
+    }
+
+    /**
+     * Finds the record of a ticket in the index. Index entries are verified against the record, since entries of a
+     * crashed publication may point to records that have been overwritten by a later one.
+     *
+     * @param header The current header.
+     * @param identifier The identifier of the ticket.
+     * @return The record number or -1 if the ticket is not part of the ledger.
+     */
+    private long find(Header header, UUID identifier) throws IOException {
+        ensureIndex(header);
+        if (indexCapacity == 0) {
+            return -1;
+        }
+        ByteBuffer slot = ByteBuffer.allocate(INDEX_SLOT_SIZE);
+        long position = indexPosition(identifier, indexCapacity);
+        for (long probe = 0; probe < indexCapacity; probe++, position = (position + 1) & (indexCapacity - 1)) {
+            read(index, slot, INDEX_SLOT_SIZE, position * INDEX_SLOT_SIZE);
+            long recordNumber = slot.getLong(16) - 1;
+            if (recordNumber < 0) {
+                return -1;
+            }
+            if (slot.getLong(0) == identifier.getMostSignificantBits() && slot.getLong(8) == identifier.getLeastSignificantBits()) {
+                // inserting a ticket reuses the slot of its identifier, there is no second one
+                return recordNumber < header.recordCount && readRecord(recordNumber).identifier.equals(identifier) ? recordNumber : -1;
+            }
+        }
+        return -1;
+    }
+
+    private void insert(UUID identifier, long recordNumber) throws IOException {
+        ByteBuffer slot = ByteBuffer.allocate(INDEX_SLOT_SIZE);
+        long position = indexPosition(identifier, indexCapacity);
+        while (true) {
+            read(index, slot, INDEX_SLOT_SIZE, position * INDEX_SLOT_SIZE);
+            if (slot.getLong(16) == 0 || (slot.getLong(0) == identifier.getMostSignificantBits() && slot.getLong(8) == identifier.getLeastSignificantBits())) {
+                break;
+            }
+            position = (position + 1) & (indexCapacity - 1);
+        }
+        slot.clear();
+        slot.putLong(identifier.getMostSignificantBits());
+        slot.putLong(identifier.getLeastSignificantBits());
+        slot.putLong(recordNumber + 1);
+        slot.flip();
+        writeFully(index, slot, position * INDEX_SLOT_SIZE);
+    }
+
+    /**
+     * Opens the index that is referenced by the header, if it has been replaced by another store.
+     *
+     * @param header The current header.
+     */
+    private void ensureIndex(Header header) throws IOException {
+        if (header.indexCapacity == indexCapacity) {
+            return;
+        }
+        if (index != null) {
+            index.close();
+            index = null;
+        }
+        indexCapacity = 0;
+        if (header.indexCapacity > 0) {
+            index = FileChannel.open(indexPath(header.indexCapacity), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            indexCapacity = header.indexCapacity;
+        }
+    }
+
+    /**
+     * Replaces the index by a larger one, if the given number of records would fill more than half of it. The new
+     * index is built from the counted records and only becomes visible to other stores with the next header.
+     *
+     * @param header The current header, that references the new index afterwards.
+     * @param recordCount The number of records the index has to hold.
+     */
+    private void ensureIndexCapacity(Header header, long recordCount) throws IOException {
+        ensureIndex(header);
+        if (2 * recordCount <= indexCapacity) {
+            return;
+        }
+        long capacity = Math.max(MINIMAL_INDEX_CAPACITY, indexCapacity);
+        while (capacity < 2 * recordCount) {
+            capacity *= 2;
+        }
+        if (capacity * INDEX_SLOT_SIZE > Integer.MAX_VALUE) {
+            throw new IOException("The ticket ledger in " + ticketPath + " exceeds the maximal number of tickets.");
+        }
+        FileChannel rebuiltIndex = FileChannel.open(indexPath(capacity), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            MappedByteBuffer slots = rebuiltIndex.map(FileChannel.MapMode.READ_WRITE, 0, capacity * INDEX_SLOT_SIZE);
+            ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE * RECORD_SIZE);
+            long recordNumber = 0;
+            while (recordNumber < header.recordCount) {
+                int records = (int) Math.min(CHUNK_SIZE, header.recordCount - recordNumber);
+                read(ledger, chunk, records * RECORD_SIZE, recordPosition(recordNumber));
+                for (int record = 0; record < records; record++, recordNumber++) {
+                    UUID identifier = Record.decode(chunk, record * RECORD_SIZE).identifier;
+                    int position = (int) indexPosition(identifier, capacity);
+                    while (slots.getLong(position * INDEX_SLOT_SIZE + 16) != 0) {
+                        position = (int) ((position + 1) & (capacity - 1));
+                    }
+                    slots.putLong(position * INDEX_SLOT_SIZE, identifier.getMostSignificantBits());
+                    slots.putLong(position * INDEX_SLOT_SIZE + 8, identifier.getLeastSignificantBits());
+                    slots.putLong(position * INDEX_SLOT_SIZE + 16, recordNumber + 1);
+                }
+            }
+            slots.force();
+        } catch (IOException e) {
+            rebuiltIndex.close();
+            throw e;
+        }
+        // the replaced index is deleted once the header references the new one
+        if (index != null) {
+            index.close();
+        }
+        index = rebuiltIndex;
+        indexCapacity = capacity;
+        header.indexCapacity = capacity;
+    }
+
+    private Path indexPath(long capacity) {
+        return ticketPath.resolve(INDEX_FILE + "-" + capacity);
+    }
+
+    private static long indexPosition(UUID identifier, long capacity) {
+        long hash = identifier.getMostSignificantBits() * 0x9E3779B97F4A7C15L ^ identifier.getLeastSignificantBits();
+        hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+        return (hash ^ (hash >>> 31)) & (capacity - 1);
+    }
+
+    private Header readHeader() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(ledger, buffer, 0);
+        return Header.decode(buffer);
+    }
+
+    private void writeHeader(Header header) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+        header.encode(buffer);
+        buffer.clear();
+        writeFully(ledger, buffer, 0);
+    }
+
+    private Record readRecord(long recordNumber) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+        readFully(ledger, buffer, recordPosition(recordNumber));
+        return Record.decode(buffer, 0);
+    }
+
+    private static void read(FileChannel channel, ByteBuffer chunk, int length, long position) throws IOException {
+        chunk.clear();
+        chunk.limit(length);
+        readFully(channel, chunk, position);
+    }
+
+    private static long recordPosition(long recordNumber) {
+        return HEADER_SIZE + recordNumber * RECORD_SIZE;
+    }
+
+    private static long entryPosition(long entryNumber) {
+        return entryNumber * ENTRY_SIZE;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of ticket ledger.");
+            }
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void encodeEntry(ByteBuffer buffer, long recordNumber, TicketState state, TicketState previousState, TicketLease lease) {
+        int start = buffer.position();
+        buffer.putLong(recordNumber);
+        buffer.put(state.getCode());
+        buffer.put(previousState.getCode());
+        buffer.putShort((short) 0);
+        // checksum, filled in below
+        buffer.putInt(0);
+        if (lease != null) {
+            byte[] ownerBytes = lease.getOwner().getBytes(StandardCharsets.UTF_8);
+            if (ownerBytes.length > OWNER_SIZE) {
+                throw new IllegalArgumentException("The owner " + lease.getOwner() + " exceeds " + OWNER_SIZE + " bytes.");
+            }
+            buffer.putShort(start + 10, (short) ownerBytes.length);
+            buffer.putLong(lease.getClaimTime());
+            buffer.put(ownerBytes);
+        }
+        buffer.position(start + ENTRY_SIZE);
+        buffer.putInt(start + 12, Entry.checksum(buffer, start));
+    }
+
+    private static class Header {
+
+        private long recordCount;
+        private long openCount;
+        private long processingCount;
+        private long doneCount;
+        private long claimCursor;
+        private long failedCount;
+        private long journalEntries;
+        private long indexCapacity;
+
+        private static Header decode(ByteBuffer buffer) throws IOException {
+            buffer.flip();
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a ticket ledger.");
+            }
+            if (buffer.getInt(4) != VERSION) {
+                throw new IOException("Unsupported ticket ledger version " + buffer.getInt(4) + ".");
+            }
+            Header header = new Header();
+            header.recordCount = buffer.getLong(8);
+            header.openCount = buffer.getLong(16);
+            header.processingCount = buffer.getLong(24);
+            header.doneCount = buffer.getLong(32);
+            header.claimCursor = buffer.getLong(40);
+            header.failedCount = buffer.getLong(48);
+            header.journalEntries = buffer.getLong(56);
+            header.indexCapacity = buffer.getLong(64);
+            return header;
+        }
+
+        private void encode(ByteBuffer buffer) {
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putLong(recordCount);
+            buffer.putLong(openCount);
+            buffer.putLong(processingCount);
+            buffer.putLong(doneCount);
+            buffer.putLong(claimCursor);
+            buffer.putLong(failedCount);
+            buffer.putLong(journalEntries);
+            buffer.putLong(indexCapacity);
+        }
+
+        private long count(TicketState state) {
+            switch (state) {
+                case OPEN:
+                    return openCount;
+                case PROCESSING:
+                    return processingCount;
+                case FAILED:
+                    return failedCount;
+                case DONE:
+                default:
+                    return doneCount;
+            }
+        }
+
+        private void increment(TicketState state) {
+            add(state, 1);
+        }
+
+        private void decrement(TicketState state) {
+            add(state, -1);
+        }
+
+        private void add(TicketState state, long value) {
+            switch (state) {
+                case OPEN:
+                    openCount += value;
+                    break;
+                case PROCESSING:
+                    processingCount += value;
+                    break;
+                case DONE:
+                    doneCount += value;
+                    break;
+                case FAILED:
+                    failedCount += value;
+                    break;
+            }
+        }
+
+    }
+
+    /**
+     * The immutable part of a ticket, written once when the ticket is published.
+     */
+    private static class Record {
+
+        private int payloadLength;
+        private long payloadOffset;
+        private UUID identifier;
+
+        private static Record decode(ByteBuffer buffer, int offset) {
+            Record record = new Record();
+            record.identifier = new UUID(buffer.getLong(offset), buffer.getLong(offset + 8));
+            record.payloadOffset = buffer.getLong(offset + 16);
+            record.payloadLength = buffer.getInt(offset + 24);
+            return record;
+        }
+
+        private void encode(ByteBuffer buffer) {
+            int start = buffer.position();
+            buffer.putLong(identifier.getMostSignificantBits());
+            buffer.putLong(identifier.getLeastSignificantBits());
+            buffer.putLong(payloadOffset);
+            buffer.putInt(payloadLength);
+            buffer.position(start + RECORD_SIZE);
+        }
+
+    }
+
+    /**
+     * A state transition of a ticket, together with the state it replaced. Entries of claims hold the lease of the
+     * ticket, the owner is stored with its length.
+     */
+    private static class Entry {
+
+        private long recordNumber;
+        private TicketState state;
+        private TicketState previousState;
+        private long claimTime;
+        private String owner;
+
+        /**
+         * Decodes the entry at the given offset.
+         *
+         * @return The entry or null, if the checksum, the states or the owner are invalid.
+         */
+        private static Entry decode(ByteBuffer buffer, int offset) {
+            if (buffer.getInt(offset + 12) != checksum(buffer, offset)) {
+                return null;
+            }
+            Entry entry = new Entry();
+            entry.recordNumber = buffer.getLong(offset);
+            try {
+                entry.state = TicketState.fromCode(buffer.get(offset + 8));
+                entry.previousState = TicketState.fromCode(buffer.get(offset + 9));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+            int ownerLength = buffer.getShort(offset + 10);
+            if (ownerLength < 0 || ownerLength > OWNER_SIZE) {
+                return null;
+            }
+            entry.claimTime = buffer.getLong(offset + 16);
+            byte[] ownerBytes = new byte[ownerLength];
+            for (int index = 0; index < ownerLength; index++) {
+                ownerBytes[index] = buffer.get(offset + OWNER_OFFSET + index);
+            }
+            entry.owner = new String(ownerBytes, StandardCharsets.UTF_8);
+            return entry;
+        }
+
+        /**
+         * Computes the checksum of the entry at the given offset, without the checksum field itself.
+         */
+        private static int checksum(ByteBuffer buffer, int offset) {
+            CRC32 crc = new CRC32();
+            for (int index = 0; index < ENTRY_SIZE; index++) {
+                if (index < 12 || index >= 16) {
+                    crc.update(buffer.get(offset + index));
+                }
+            }
+            return (int) crc.getValue();
+        }
+
+    }
+
+}
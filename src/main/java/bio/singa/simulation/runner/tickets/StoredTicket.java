@@ -0,0 +1,26 @@
+package bio.singa.simulation.runner.tickets;
+
+/**
+ * A ticket as it is kept in a {@link TicketStore}, the identifier and the serialized ticket.
+ *
+ * @author cl
+ */
+public class StoredTicket {
+
+    private final String identifier;
+    private final byte[] payload;
+
+    public StoredTicket(String identifier, byte[] payload) {
+        this.identifier = identifier;
+        this.payload = payload;
+    }
+
+    public String getIdentifier() {
+        return identifier;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+}
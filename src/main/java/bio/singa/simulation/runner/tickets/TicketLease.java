@@ -0,0 +1,116 @@
+package bio.singa.simulation.runner.tickets;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * The lease record of a claimed ticket. A lease remembers which process claimed a ticket (in the form pid@host) and
+ * when the ticket was claimed. Owners are limited to {@value #MAXIMAL_OWNER_LENGTH} bytes, longer process names (e.g.
+ * with long host names) are shortened to a prefix followed by a hash of the full name, such that leases can be stored
+ * in fixed size fields and still be compared exactly.
+ *
+ * @author cl
+ */
+public class TicketLease {
+
+    public static final int MAXIMAL_OWNER_LENGTH = 64;
+    // length of the prefix that is kept from owners that exceed the maximal length
+    private static final int OWNER_PREFIX_LENGTH = MAXIMAL_OWNER_LENGTH - 17;
+
+    private static final String currentOwner = shorten(ManagementFactory.getRuntimeMXBean().getName());
+
+    private final String owner;
+    private final long claimTime;
+
+    public TicketLease(String owner, long claimTime) {
+        this.owner = owner;
+        this.claimTime = claimTime;
+    }
+
+    /**
+     * Creates a new lease for the current process, claimed now.
+     *
+     * @return The lease.
+     */
+    public static TicketLease claimedNow() {
+        return new TicketLease(currentOwner, System.currentTimeMillis());
+    }
+
+    /**
+     * Shortens the given owner to at most {@value #MAXIMAL_OWNER_LENGTH} bytes. Longer owners are replaced by a prefix,
+     * a hash separator and the 64 bit FNV-1a hash of the full owner.
+     *
+     * @param owner The owner.
+     * @return The owner as it is stored in leases.
+     */
+    static String shorten(String owner) {
+        byte[] ownerBytes = owner.getBytes(StandardCharsets.UTF_8);
+        if (ownerBytes.length <= MAXIMAL_OWNER_LENGTH) {
+            return owner;
+        }
+        long hash = 0xcbf29ce484222325L;
+        for (byte ownerByte : ownerBytes) {
+            hash ^= ownerByte & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        String prefix = owner.substring(0, Math.min(owner.length(), OWNER_PREFIX_LENGTH));
+        while (prefix.getBytes(StandardCharsets.UTF_8).length > OWNER_PREFIX_LENGTH) {
+            prefix = prefix.substring(0, prefix.length() - 1);
+        }
+        return prefix + "#" + String.format("%016x", hash);
+    }
+
+    public static TicketLease read(Path leaseFile) throws IOException {
+        List<String> lines = Files.readAllLines(leaseFile, StandardCharsets.UTF_8);
+        if (lines.size() < 2) {
+            throw new IOException("incomplete lease " + leaseFile);
+        }
+        try {
+            return new TicketLease(lines.get(0), Long.parseLong(lines.get(1)));
+        } catch (NumberFormatException e) {
+            throw new IOException("invalid claim time in lease " + leaseFile, e);
+        }
+    }
+
+    public void write(Path leaseFile) throws IOException {
+        Files.write(leaseFile, (owner + "\n" + claimTime + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Writes the lease to a new file.
+     *
+     * @param leaseFile The lease file.
+     * @throws FileAlreadyExistsException If the lease file exists.
+     * @throws IOException If the lease could not be written.
+     */
+    public void create(Path leaseFile) throws IOException {
+        Files.write(leaseFile, (owner + "\n" + claimTime + "\n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public long getClaimTime() {
+        return claimTime;
+    }
+
+    public boolean isOwnedByCurrentProcess() {
+        return owner.equals(currentOwner);
+    }
+
+    @Override
+    public String toString() {
+        return "TicketLease{" +
+                "owner='" + owner + '\'' +
+                ", claimTime=" + claimTime +
+                '}';
+    }
+
+}
@@ -0,0 +1,83 @@
+package bio.singa.simulation.runner.tickets;
+
+import java.io.Closeable;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps track of the number of tickets in every state of a ticket store, such that status updates do not need to
+ * query the whole store.
+ *
+ * @author cl
+ */
+public interface TicketMonitor extends Closeable {
+
+    // bounds of the delay between checks while waiting for open tickets
+    long MINIMAL_BACKOFF = TimeUnit.MILLISECONDS.toNanos(1);
+    long MAXIMAL_BACKOFF = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * Starts monitoring the given ticket store. Directory stores are monitored by file system events, or by polling
+     * the logged ticket transitions, if events are not available or polling is requested. Only the directories of the
+     * given states are monitored. The ledger keeps counts in its header and is queried directly.
+     *
+     * @param ticketStore The ticket store.
+     * @param monitoredStates The states that are counted repeatedly.
+     * @param polling True, if the directories should always be polled.
+     * @param pollingInterval The interval between polls.
+     * @param unit The unit of the polling interval.
+     * @return The monitor.
+     */
+    static TicketMonitor of(TicketStore ticketStore, Set<TicketState> monitoredStates, boolean polling, long pollingInterval, TimeUnit unit) {
+        if (ticketStore instanceof DirectoryTicketStore) {
+            return DirectoryTicketMonitor.start((DirectoryTicketStore) ticketStore, monitoredStates, polling, pollingInterval, unit);
+        }
+        return new TicketMonitor() {
+            @Override
+            public long count(TicketState state) {
+                return ticketStore.count(state);
+            }
+
+            @Override
+            public void close() {
+                // nothing to close
+            }
+        };
+    }
+
+    /**
+     * Returns the current number of tickets in the given state.
+     *
+     * @param state The state.
+     * @return The number of tickets.
+     */
+    long count(TicketState state);
+
+    /**
+     * Blocks until there are open tickets or the timeout elapsed. By default the count of open tickets is checked
+     * with exponentially increasing delays, such that new tickets are picked up within milliseconds after short
+     * breaks and idle stores are checked ten times per second.
+     *
+     * @param timeout The maximal time to wait.
+     * @param unit The unit of the timeout.
+     * @return True, if there are open tickets.
+     * @throws InterruptedException If the thread was interrupted while waiting.
+     */
+    default boolean awaitOpenTickets(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        long backoff = MINIMAL_BACKOFF;
+        while (count(TicketState.OPEN) == 0) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.sleep(Math.min(backoff, remaining));
+            backoff = Math.min(backoff * 2, MAXIMAL_BACKOFF);
+        }
+        return true;
+    }
+
+    @Override
+    void close();
+
+}
@@ -0,0 +1,21 @@
+package bio.singa.simulation.runner.tickets;
+
+/**
+ * The order in which runners claim tickets.
+ *
+ * @author cl
+ */
+public enum TicketOrder {
+
+    /**
+     * Tickets are claimed in the order the ticket store returns them.
+     */
+    ARBITRARY,
+
+    /**
+     * Tickets with the longest predicted duration are claimed first, such that expensive tickets do not delay the
+     * end of a sweep.
+     */
+    LONGEST_FIRST
+
+}
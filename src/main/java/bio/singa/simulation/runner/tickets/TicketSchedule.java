@@ -0,0 +1,353 @@
+package bio.singa.simulation.runner.tickets;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * The order in which tickets of a ticket store should be claimed. Every generator writes the schedule of its tickets
+ * to its own file in the ticket directory ({@value #SCHEDULE_FILE}-&lt;name&gt;, e.g. one per shard), one ticket per
+ * line with its identifier and its predicted cost, in the order tickets should be claimed. The schedule merges all
+ * schedule files by descending cost, such that the tickets of all shards are claimed longest first. Every store walks
+ * through the schedule once, tickets that are not open (anymore) are skipped. Tickets that are not part of the
+ * schedule or have been reopened are claimed afterwards.
+ * <p>
+ * Stores share their position in every schedule file through a cursor file next to it
+ * (.{@value #SCHEDULE_FILE}-&lt;name&gt;{@value #CURSOR_EXTENSION}), such that a store skips the tickets other stores
+ * have already taken instead of trying to claim all of them again. The cursor is only a hint, it is written without
+ * locking and a lost update merely lets a store try a few taken tickets again.
+ * <p>
+ * If schedule files are added, replaced or removed, only the changed files are read again, the position in all other
+ * files is kept.
+ *
+ * @author cl
+ */
+public class TicketSchedule {
+
+    private static final Logger logger = LoggerFactory.getLogger(TicketSchedule.class);
+
+    public static final String SCHEDULE_FILE = "schedule";
+    public static final String CURSOR_EXTENSION = ".cursor";
+
+    private static final String SCHEDULE_PATTERN = SCHEDULE_FILE + "{,-*}";
+
+    private final List<Segment> segments;
+    // the modification time of the ticket directory, when the schedule files were listed, -1 if they were not listed
+    private long directoryModificationTime;
+
+    private TicketSchedule(List<Segment> segments, long directoryModificationTime) {
+        this.segments = segments;
+        this.directoryModificationTime = directoryModificationTime;
+    }
+
+    public static TicketSchedule empty() {
+        return new TicketSchedule(Collections.emptyList(), -1);
+    }
+
+    /**
+     * Reads the schedule from the given ticket directory.
+     *
+     * @param ticketPath The ticket directory.
+     * @return The schedule or an empty schedule if the directory contains no schedule.
+     */
+    public static TicketSchedule read(Path ticketPath) {
+        return empty().update(ticketPath);
+    }
+
+    /**
+     * Lists the schedule files in the given ticket directory.
+     *
+     * @param ticketPath The ticket directory.
+     * @return The schedule files.
+     */
+    public static List<Path> scheduleFiles(Path ticketPath) {
+        List<Path> scheduleFiles = new ArrayList<>();
+        if (!Files.isDirectory(ticketPath)) {
+            return scheduleFiles;
+        }
+        try (DirectoryStream<Path> scheduleStream = Files.newDirectoryStream(ticketPath, SCHEDULE_PATTERN)) {
+            scheduleStream.forEach(scheduleFiles::add);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to list ticket schedules in " + ticketPath + ".", e);
+        }
+        Collections.sort(scheduleFiles);
+        return scheduleFiles;
+    }
+
+    private static long modificationTime(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the schedule with the current schedule files of the ticket directory. The schedule files are only listed
+     * if the ticket directory was modified, files that did not change keep their position.
+     *
+     * @param ticketPath The ticket directory.
+     * @return This schedule, if no schedule file changed, otherwise the updated schedule.
+     */
+    public synchronized TicketSchedule update(Path ticketPath) {
+        long currentModificationTime = modificationTime(ticketPath);
+        if (currentModificationTime == directoryModificationTime) {
+            return this;
+        }
+        Map<Path, Segment> currentSegments = new HashMap<>();
+        for (Segment segment : segments) {
+            currentSegments.put(segment.scheduleFile, segment);
+        }
+        List<Segment> updatedSegments = new ArrayList<>();
+        boolean changed = false;
+        for (Path scheduleFile : scheduleFiles(ticketPath)) {
+            long modificationTime = modificationTime(scheduleFile);
+            Segment segment = currentSegments.remove(scheduleFile);
+            if (segment == null || segment.modificationTime != modificationTime) {
+                segment = Segment.read(scheduleFile, modificationTime);
+                changed = true;
+            }
+            updatedSegments.add(segment);
+        }
+        if (!changed && currentSegments.isEmpty()) {
+            directoryModificationTime = currentModificationTime;
+            return this;
+        }
+        return new TicketSchedule(updatedSegments, currentModificationTime);
+    }
+
+    /**
+     * Writes the schedule for the given tickets to the ticket directory, ordered by descending cost. A schedule
+     * written with the same name before is replaced.
+     *
+     * @param ticketPath The ticket directory.
+     * @param name The name of the schedule, e.g. the shard of the generator.
+     * @param scheduledTickets The tickets and their predicted costs.
+     */
+    public static void write(Path ticketPath, String name, List<ScheduledTicket> scheduledTickets) {
+        scheduledTickets.sort(Comparator.comparingDouble(ScheduledTicket::getPredictedCost).reversed());
+        Path scheduleFile = ticketPath.resolve(SCHEDULE_FILE + "-" + name);
+        Path temporaryFile = ticketPath.resolve("." + SCHEDULE_FILE + "-" + name);
+        try {
+            // the position in a replaced schedule is meaningless
+            Files.deleteIfExists(Segment.cursorFile(scheduleFile));
+            try (BufferedWriter writer = Files.newBufferedWriter(temporaryFile, StandardCharsets.UTF_8)) {
+                for (ScheduledTicket scheduledTicket : scheduledTickets) {
+                    writer.write(scheduledTicket.getIdentifier());
+                    writer.write('\t');
+                    writer.write(String.valueOf(scheduledTicket.getPredictedCost()));
+                    writer.newLine();
+                }
+            }
+            Files.move(temporaryFile, scheduleFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write ticket schedule to " + scheduleFile + ".", e);
+        }
+    }
+
+    public synchronized int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    /**
+     * Returns the next ticket of the schedule, that is the ticket with the highest cost of all schedule files.
+     *
+     * @return The identifier of the ticket or an empty optional if the schedule has been walked through.
+     */
+    public synchronized Optional<String> next() {
+        Segment next = null;
+        for (Segment segment : segments) {
+            if (segment.cursor < segment.size && (next == null || segment.costs[segment.cursor] > next.costs[next.cursor])) {
+                next = segment;
+            }
+        }
+        if (next == null) {
+            return Optional.empty();
+        }
+        UUID identifier = new UUID(next.mostSignificantBits[next.cursor], next.leastSignificantBits[next.cursor]);
+        next.cursor++;
+        return Optional.of(identifier.toString());
+    }
+
+    /**
+     * Skips the tickets that other stores have already taken from the schedule, according to the shared cursors.
+     */
+    public synchronized void skipTakenTickets() {
+        for (Segment segment : segments) {
+            segment.readCursor();
+        }
+    }
+
+    /**
+     * Shares the position of this store in the schedule with other stores, if it advanced since the cursors were
+     * read.
+     */
+    public synchronized void shareProgress() {
+        for (Segment segment : segments) {
+            segment.writeCursor();
+        }
+    }
+
+    /**
+     * The tickets of one schedule file.
+     */
+    private static class Segment {
+
+        private final Path scheduleFile;
+        private final long modificationTime;
+        // identifiers in schedule order, split into most and least significant bits
+        private final long[] mostSignificantBits;
+        private final long[] leastSignificantBits;
+        private final double[] costs;
+        private final int size;
+        private int cursor;
+        // the cursor that was last read from or written to the cursor file
+        private int sharedCursor;
+
+        private Segment(Path scheduleFile, long modificationTime, long[] mostSignificantBits, long[] leastSignificantBits, double[] costs, int size) {
+            this.scheduleFile = scheduleFile;
+            this.modificationTime = modificationTime;
+            this.mostSignificantBits = mostSignificantBits;
+            this.leastSignificantBits = leastSignificantBits;
+            this.costs = costs;
+            this.size = size;
+        }
+
+        private static Segment read(Path scheduleFile, long modificationTime) {
+            long[] most = new long[1024];
+            long[] least = new long[1024];
+            double[] costs = new double[1024];
+            int size = 0;
+            try (BufferedReader reader = Files.newBufferedReader(scheduleFile, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int separator = line.indexOf('\t');
+                    String identifier = separator < 0 ? line : line.substring(0, separator);
+                    if (identifier.isEmpty()) {
+                        continue;
+                    }
+                    UUID uuid = UUID.fromString(identifier);
+                    if (size == most.length) {
+                        most = Arrays.copyOf(most, size * 2);
+                        least = Arrays.copyOf(least, size * 2);
+                        costs = Arrays.copyOf(costs, size * 2);
+                    }
+                    most[size] = uuid.getMostSignificantBits();
+                    least[size] = uuid.getLeastSignificantBits();
+                    // schedules without costs keep their order
+                    costs[size] = separator < 0 ? -size : parseCost(line.substring(separator + 1));
+                    size++;
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to read ticket schedule from " + scheduleFile + ".", e);
+            }
+            return new Segment(scheduleFile, modificationTime, most, least, costs, size);
+        }
+
+        private static Path cursorFile(Path scheduleFile) {
+            return scheduleFile.resolveSibling("." + scheduleFile.getFileName() + CURSOR_EXTENSION);
+        }
+
+        /**
+         * Advances the cursor to the shared cursor. The cursor file holds the modification time of the schedule file
+         * it belongs to and the cursor, cursors of replaced schedule files are ignored.
+         */
+        private void readCursor() {
+            ByteBuffer buffer = ByteBuffer.allocate(16);
+            try (FileChannel channel = FileChannel.open(cursorFile(scheduleFile), StandardOpenOption.READ)) {
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // read until the cursor is complete or the file ends
+                }
+            } catch (NoSuchFileException e) {
+                return;
+            } catch (IOException e) {
+                logger.debug("unable to read schedule cursor of {}", scheduleFile, e);
+                return;
+            }
+            if (buffer.position() == buffer.capacity() && buffer.getLong(0) == modificationTime) {
+                sharedCursor = (int) Math.min(size, Math.max(sharedCursor, buffer.getLong(8)));
+                cursor = Math.max(cursor, sharedCursor);
+            }
+        }
+
+        /**
+         * Writes the cursor in place, such that the modification time of the ticket directory is kept.
+         */
+        private void writeCursor() {
+            if (cursor <= sharedCursor) {
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(16);
+            buffer.putLong(modificationTime);
+            buffer.putLong(cursor);
+            buffer.flip();
+            try (FileChannel channel = FileChannel.open(cursorFile(scheduleFile), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer, buffer.position());
+                }
+                sharedCursor = cursor;
+            } catch (IOException e) {
+                logger.debug("unable to write schedule cursor of {}", scheduleFile, e);
+            }
+        }
+
+        private static double parseCost(String cost) throws IOException {
+            try {
+                return Double.parseDouble(cost);
+            } catch (NumberFormatException e) {
+                throw new IOException("invalid predicted cost " + cost, e);
+            }
+        }
+
+    }
+
+    /**
+     * A ticket and its predicted cost.
+     */
+    public static class ScheduledTicket {
+
+        private final String identifier;
+        private final double predictedCost;
+
+        public ScheduledTicket(String identifier, double predictedCost) {
+            this.identifier = identifier;
+            this.predictedCost = predictedCost;
+        }
+
+        public String getIdentifier() {
+            return identifier;
+        }
+
+        public double getPredictedCost() {
+            return predictedCost;
+        }
+
+    }
+
+}
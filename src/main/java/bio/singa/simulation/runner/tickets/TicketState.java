@@ -0,0 +1,41 @@
+package bio.singa.simulation.runner.tickets;
+
+/**
+ * The states a ticket passes through. Tickets are created open, claimed tickets are processing, and processed tickets
+ * are done. Tickets that cannot be read or decoded are failed, they are not claimed again unless they are reopened.
+ *
+ * @author cl
+ */
+public enum TicketState {
+
+    OPEN("open", (byte) 1),
+    PROCESSING("processing", (byte) 2),
+    DONE("done", (byte) 3),
+    FAILED("failed", (byte) 4);
+
+    private final String directoryName;
+    private final byte code;
+
+    TicketState(String directoryName, byte code) {
+        this.directoryName = directoryName;
+        this.code = code;
+    }
+
+    public String getDirectoryName() {
+        return directoryName;
+    }
+
+    public byte getCode() {
+        return code;
+    }
+
+    public static TicketState fromCode(byte code) {
+        for (TicketState state : values()) {
+            if (state.code == code) {
+                return state;
+            }
+        }
+        throw new IllegalArgumentException("unknown ticket state " + code);
+    }
+
+}
@@ -0,0 +1,158 @@
+package bio.singa.simulation.runner.tickets;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * A ticket store keeps tickets and their states. Tickets are published as open tickets, claimed by runners, and
+ * finally completed. The store is agnostic of the ticket format, tickets are handled as identifier and payload.
+ *
+ * @author cl
+ */
+public interface TicketStore extends Closeable {
+
+    /**
+     * Opens the ticket store in the given directory. If the directory contains a ticket ledger the ledger backend is
+     * used, otherwise the directory backend.
+     *
+     * @param ticketPath The ticket directory.
+     * @return The ticket store.
+     */
+    static TicketStore open(Path ticketPath) {
+        if (Files.exists(ticketPath.resolve(LedgerTicketStore.LEDGER_FILE))) {
+            return LedgerTicketStore.open(ticketPath);
+        }
+        return DirectoryTicketStore.open(ticketPath);
+    }
+
+    /**
+     * Creates a new ticket store with the given backend in the given directory.
+     *
+     * @param type The backend.
+     * @param ticketPath The ticket directory.
+     * @return The ticket store.
+     */
+    static TicketStore create(TicketStoreType type, Path ticketPath) {
+        switch (type) {
+            case LEDGER:
+                return LedgerTicketStore.create(ticketPath);
+            case DIRECTORY:
+            default:
+                return DirectoryTicketStore.create(ticketPath);
+        }
+    }
+
+    /**
+     * Adds an open ticket.
+     *
+     * @param identifier The identifier of the ticket.
+     * @param payload The serialized ticket.
+     * @throws IOException If the ticket could not be written.
+     */
+    void publish(String identifier, byte[] payload) throws IOException;
+
+    /**
+     * Adds multiple open tickets in one operation.
+     *
+     * @param tickets The tickets.
+     * @throws IOException If the tickets could not be written.
+     */
+    default void publish(List<StoredTicket> tickets) throws IOException {
+        for (StoredTicket ticket : tickets) {
+            publish(ticket.getIdentifier(), ticket.getPayload());
+        }
+    }
+
+    /**
+     * Claims an open ticket. Every ticket is claimed exactly once, even if multiple processes claim concurrently. The
+     * claimed ticket is processing afterwards and a {@link TicketLease} is recorded for it.
+     *
+     * @return The claimed ticket or an empty optional if no ticket could be claimed.
+     * @throws IOException If the store could not be accessed.
+     */
+    Optional<StoredTicket> claim() throws IOException;
+
+    /**
+     * Claims up to the given number of open tickets in one operation, such that the overhead of accessing the store is
+     * shared between the claimed tickets. Every claimed ticket is processing afterwards and has its own lease.
+     *
+     * @param count The maximal number of tickets.
+     * @return The claimed tickets, empty if no ticket could be claimed.
+     * @throws IOException If the store could not be accessed.
+     */
+    default List<StoredTicket> claim(int count) throws IOException {
+        List<StoredTicket> claimedTickets = new ArrayList<>(count);
+        while (claimedTickets.size() < count) {
+            Optional<StoredTicket> claimedTicket = claim();
+            if (!claimedTicket.isPresent()) {
+                break;
+            }
+            claimedTickets.add(claimedTicket.get());
+        }
+        return claimedTickets;
+    }
+
+    /**
+     * Moves a processing ticket back to the open tickets and drops its lease. Releasing, completing and failing
+     * tickets is only permitted to the process that holds the lease, tickets that have been recovered and claimed by
+     * another runner in the meantime are left untouched.
+     *
+     * @param identifier The identifier of the ticket.
+     * @throws IOException If the ticket could not be released or its lease is held by another process.
+     */
+    void release(String identifier) throws IOException;
+
+    /**
+     * Marks a processing ticket as done.
+     *
+     * @param identifier The identifier of the ticket.
+     * @throws IOException If the ticket could not be completed or its lease is held by another process.
+     */
+    void complete(String identifier) throws IOException;
+
+    /**
+     * Marks a processing ticket as failed, such that it is not claimed again. Tickets fail if they cannot be read or
+     * decoded, releasing them would let every runner claim and release them over and over.
+     *
+     * @param identifier The identifier of the ticket.
+     * @throws IOException If the ticket could not be marked as failed or its lease is held by another process.
+     */
+    void fail(String identifier) throws IOException;
+
+    /**
+     * Moves a processing, done or failed ticket back to the open tickets.
+     *
+     * @param identifier The identifier of the ticket.
+     * @throws IOException If the ticket could not be reopened.
+     */
+    void reopen(String identifier) throws IOException;
+
+    /**
+     * Returns the directory of the ticket store, that may also hold files shared by the tickets.
+     *
+     * @return The ticket directory.
+     */
+    Path getTicketPath();
+
+    boolean hasOpenTickets();
+
+    long count(TicketState state);
+
+    List<String> list(TicketState state) throws IOException;
+
+    Optional<TicketLease> getLease(String identifier);
+
+    /**
+     * Returns the current state of a ticket.
+     *
+     * @param identifier The identifier of the ticket.
+     * @return The state or an empty optional if the ticket is not part of the store (or currently moved).
+     */
+    Optional<TicketState> getState(String identifier);
+
+}
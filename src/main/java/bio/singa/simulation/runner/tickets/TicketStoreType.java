@@ -0,0 +1,21 @@
+package bio.singa.simulation.runner.tickets;
+
+/**
+ * The available {@link TicketStore} backends.
+ *
+ * @author cl
+ */
+public enum TicketStoreType {
+
+    /**
+     * One file per ticket, moved between the open, processing and done folders.
+     */
+    DIRECTORY,
+
+    /**
+     * A ledger of fixed size ticket records with an append only payload segment, a journal of state transitions,
+     * and a persistent state table and index, such that no store has to replay the journal.
+     */
+    LEDGER
+
+}
@@ -0,0 +1,232 @@
+package bio.singa.simulation.runner.tickets;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The transitions of the tickets of a {@link DirectoryTicketStore}, appended to a log of fixed size records by every
+ * process that moves tickets, readable from other nodes. Every record holds the time of the transition, the new state
+ * and the identifier of the ticket. Readers only read the tails of the logs, such that following all transitions
+ * costs one listing of the transition directory and a few reads per process, independent of the number of tickets.
+ *
+ * @author cl
+ */
+class TicketTransitionLog implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(TicketTransitionLog.class);
+
+    static final String TRANSITION_DIRECTORY = "transitions";
+    private static final String LOG_FILE_EXTENSION = ".transitions";
+
+    private static final int RECORD_SIZE = 48;
+    private static final int IDENTIFIER_LENGTH = 36;
+    private static final int CHUNK_RECORDS = 1024;
+
+    private final Path transitionPath;
+    private final Path logFile;
+    private final ByteBuffer record;
+    private FileChannel channel;
+    private long position;
+    private boolean failed;
+
+    TicketTransitionLog(Path ticketPath) {
+        transitionPath = ticketPath.resolve(TRANSITION_DIRECTORY);
+        logFile = transitionPath.resolve(ManagementFactory.getRuntimeMXBean().getName() + LOG_FILE_EXTENSION);
+        record = ByteBuffer.allocate(RECORD_SIZE);
+    }
+
+    /**
+     * Appends a transition to the log of the current process. The log is created with the first transition. If the
+     * log could not be written, no further transitions are appended and monitors only notice the transitions of this
+     * process once they scan the state directories again.
+     *
+     * @param identifier The identifier of the ticket.
+     * @param state The new state of the ticket.
+     */
+    synchronized void append(String identifier, TicketState state) {
+        if (failed || !DirectoryTicketStore.isTicketIdentifier(identifier)) {
+            return;
+        }
+        record.clear();
+        record.putLong(System.currentTimeMillis());
+        record.put(state.getCode());
+        record.put(identifier.getBytes(StandardCharsets.US_ASCII));
+        record.position(RECORD_SIZE);
+        record.flip();
+        try {
+            if (channel == null) {
+                Files.createDirectories(transitionPath);
+                channel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                // a record torn by a crashed process with the same name is overwritten
+                position = channel.size() - channel.size() % RECORD_SIZE;
+            }
+            while (record.hasRemaining()) {
+                position += channel.write(record, position);
+            }
+        } catch (IOException e) {
+            logger.warn("unable to write ticket transition to {}, no further transitions are logged", logFile, e);
+            failed = true;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.warn("unable to close ticket transition log {}", logFile, e);
+        }
+    }
+
+    /**
+     * Follows the transition logs of all processes in a ticket directory.
+     */
+    static class Reader {
+
+        private final Path transitionPath;
+        // read position by log file
+        private final Map<Path, Long> positions;
+
+        Reader(Path ticketPath) {
+            transitionPath = ticketPath.resolve(TRANSITION_DIRECTORY);
+            positions = new HashMap<>();
+        }
+
+        /**
+         * Skips the transitions that have been logged so far.
+         *
+         * @throws IOException If the transition directory could not be listed.
+         */
+        void skip() throws IOException {
+            for (Path logFile : listLogs()) {
+                long size = Files.size(logFile);
+                positions.put(logFile, size - size % RECORD_SIZE);
+            }
+        }
+
+        /**
+         * Reads the transitions that have been logged since the last call, ordered by their time. Records that are
+         * not completely written yet are read by the next call.
+         *
+         * @return The new transitions.
+         * @throws IOException If the logs could not be read.
+         */
+        List<Transition> read() throws IOException {
+            List<Transition> transitions = new ArrayList<>();
+            for (Path logFile : listLogs()) {
+                long position = positions.getOrDefault(logFile, 0L);
+                long records = (Files.size(logFile) - position) / RECORD_SIZE;
+                if (records == 0) {
+                    continue;
+                }
+                try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.READ)) {
+                    ByteBuffer chunk = ByteBuffer.allocate((int) Math.min(records, CHUNK_RECORDS) * RECORD_SIZE);
+                    while (records > 0) {
+                        chunk.clear();
+                        chunk.limit((int) Math.min(records, CHUNK_RECORDS) * RECORD_SIZE);
+                        while (chunk.hasRemaining()) {
+                            if (channel.read(chunk, position + chunk.position()) < 0) {
+                                break;
+                            }
+                        }
+                        int readRecords = chunk.position() / RECORD_SIZE;
+                        int validRecords = 0;
+                        while (validRecords < readRecords) {
+                            Transition transition = Transition.decode(chunk, validRecords * RECORD_SIZE);
+                            if (transition == null) {
+                                break;
+                            }
+                            transitions.add(transition);
+                            validRecords++;
+                        }
+                        position += (long) validRecords * RECORD_SIZE;
+                        if (validRecords < chunk.limit() / RECORD_SIZE) {
+                            // the remaining records are still being written
+                            break;
+                        }
+                        records -= validRecords;
+                    }
+                }
+                positions.put(logFile, position);
+            }
+            transitions.sort(Comparator.comparingLong(Transition::getTime));
+            return transitions;
+        }
+
+        private List<Path> listLogs() throws IOException {
+            List<Path> logFiles = new ArrayList<>();
+            if (!Files.isDirectory(transitionPath)) {
+                return logFiles;
+            }
+            try (DirectoryStream<Path> logStream = Files.newDirectoryStream(transitionPath, "*" + LOG_FILE_EXTENSION)) {
+                logStream.forEach(logFiles::add);
+            }
+            return logFiles;
+        }
+
+    }
+
+    static class Transition {
+
+        private final long time;
+        private final String identifier;
+        private final TicketState state;
+
+        private Transition(long time, String identifier, TicketState state) {
+            this.time = time;
+            this.identifier = identifier;
+            this.state = state;
+        }
+
+        private static Transition decode(ByteBuffer buffer, int offset) {
+            byte code = buffer.get(offset + 8);
+            byte[] identifierBytes = new byte[IDENTIFIER_LENGTH];
+            for (int index = 0; index < IDENTIFIER_LENGTH; index++) {
+                identifierBytes[index] = buffer.get(offset + 9 + index);
+            }
+            String identifier = new String(identifierBytes, StandardCharsets.US_ASCII);
+            if (code == 0 || !DirectoryTicketStore.isTicketIdentifier(identifier)) {
+                // not written yet
+                return null;
+            }
+            try {
+                return new Transition(buffer.getLong(offset), identifier, TicketState.fromCode(code));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        long getTime() {
+            return time;
+        }
+
+        String getIdentifier() {
+            return identifier;
+        }
+
+        TicketState getState() {
+            return state;
+        }
+
+    }
+
+}
@@ -0,0 +1,37 @@
+package bio.singa.simulation.runner.trajectories;
+
+/**
+ * Constants of the binary trajectory format.
+ * <pre>
+ * header   magic (int), version (short), flags (byte), time unit (utf), concentration unit (utf)
+ * chunks   chunk magic (int), observations (int), series (int), series added in this chunk (node, subsection, entity
+ *          as utf), crc32 of the blocks (int), block lengths (int), followed by the blocks; columns of doubles,
+ *          optionally deflated, one block for the time axis and one block per series; the time axis stores the bits
+ *          ({@link Double#doubleToLongBits(double)}) of the first time of the chunk followed by the differences
+ *          between the bits of successive times, as longs
+ * footer   series (node, subsection, entity as utf), chunks (observations, time block, series blocks), where every
+ *          block is referenced by its offset and length
+ * trailer  footer offset (long), magic (int)
+ * </pre>
+ * Series that are not observed in a chunk are stored with a negative length and are read as {@link Double#NaN}.
+ * Footer and trailer are written when the trajectory is finished. Trajectories of simulations that did not finish
+ * are recovered from the chunk headers, up to the last complete chunk.
+ *
+ * @author cl
+ */
+final class BinaryTrajectoryFormat {
+
+    static final int MAGIC = 0x53475442;
+    static final short VERSION = 1;
+
+    static final int CHUNK_MAGIC = 0x53475443;
+
+    static final byte FLAG_DEFLATE = 1;
+
+    static final int TRAILER_SIZE = Long.BYTES + Integer.BYTES;
+
+    private BinaryTrajectoryFormat() {
+        // constants
+    }
+
+}
@@ -0,0 +1,381 @@
+package bio.singa.simulation.runner.trajectories;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static bio.singa.simulation.runner.trajectories.BinaryTrajectoryFormat.*;
+
+/**
+ * Reads trajectories written by the {@link BinaryTrajectorySink}. The file is memory mapped and only the footer index
+ * is decoded when the reader is opened, single series are decoded on request without touching the blocks of other
+ * series. Trajectories without footer, whose simulation did not finish, are recovered by scanning the chunk headers
+ * up to the last complete chunk.
+ * <pre>
+ *     try (BinaryTrajectoryReader reader = BinaryTrajectoryReader.open(path)) {
+ *         double[] times = reader.readTimes();
+ *         double[] concentrations = reader.readSeries("n(0,0)", "cytoplasm", "ATP");
+ *     }
+ * </pre>
+ *
+ * @author cl
+ */
+public class BinaryTrajectoryReader implements Closeable {
+
+    private final Path trajectoryFile;
+    private final FileChannel channel;
+    private final long fileSize;
+    // the whole file, if it fits into a single mapping
+    private final MappedByteBuffer mapping;
+
+    private long headerLength;
+    private boolean compressed;
+    private boolean recovered;
+    private String timeUnit;
+    private String concentrationUnit;
+
+    private final Map<TrajectorySeries, Integer> seriesIndices;
+    private int[] chunkObservations;
+    // offset and length of the time block followed by offset and length of every series block, by chunk
+    private long[][] chunkBlocks;
+    private int numberOfObservations;
+
+    private BinaryTrajectoryReader(Path trajectoryFile) throws IOException {
+        this.trajectoryFile = trajectoryFile;
+        channel = FileChannel.open(trajectoryFile, StandardOpenOption.READ);
+        fileSize = channel.size();
+        mapping = fileSize <= Integer.MAX_VALUE ? channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize) : null;
+        seriesIndices = new LinkedHashMap<>();
+    }
+
+    public static BinaryTrajectoryReader open(Path trajectoryFile) throws IOException {
+        BinaryTrajectoryReader reader = new BinaryTrajectoryReader(trajectoryFile);
+        try {
+            reader.readHeader();
+            if (!reader.readFooter()) {
+                reader.recoverChunks();
+            }
+        } catch (IOException | RuntimeException e) {
+            reader.close();
+            throw e;
+        }
+        return reader;
+    }
+
+    private void readHeader() throws IOException {
+        ByteBuffer headerRegion = region(0, Math.min(fileSize, 64 * 1024));
+        DataInputStream header = new DataInputStream(new BufferInputStream(headerRegion));
+        if (header.readInt() != MAGIC) {
+            throw new IOException(trajectoryFile + " is no binary trajectory file.");
+        }
+        short version = header.readShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported binary trajectory version " + version + " in " + trajectoryFile + ".");
+        }
+        compressed = (header.readByte() & FLAG_DEFLATE) != 0;
+        timeUnit = header.readUTF();
+        concentrationUnit = header.readUTF();
+        headerLength = headerRegion.position();
+    }
+
+    /**
+     * Reads the index from the footer.
+     *
+     * @return False if the trajectory has no (complete) trailer.
+     * @throws IOException if the footer could not be read.
+     */
+    private boolean readFooter() throws IOException {
+        if (fileSize < headerLength + TRAILER_SIZE) {
+            return false;
+        }
+        ByteBuffer trailer = region(fileSize - TRAILER_SIZE, TRAILER_SIZE);
+        long footerOffset = trailer.getLong();
+        if (trailer.getInt() != MAGIC || footerOffset < headerLength || footerOffset > fileSize - TRAILER_SIZE) {
+            return false;
+        }
+        DataInputStream footer = new DataInputStream(new BufferInputStream(region(footerOffset, fileSize - TRAILER_SIZE - footerOffset)));
+        int numberOfSeries = footer.readInt();
+        for (int seriesIndex = 0; seriesIndex < numberOfSeries; seriesIndex++) {
+            seriesIndices.put(new TrajectorySeries(footer.readUTF(), footer.readUTF(), footer.readUTF()), seriesIndex);
+        }
+        int numberOfChunks = footer.readInt();
+        chunkObservations = new int[numberOfChunks];
+        chunkBlocks = new long[numberOfChunks][2 + 2 * numberOfSeries];
+        for (int chunk = 0; chunk < numberOfChunks; chunk++) {
+            chunkObservations[chunk] = footer.readInt();
+            numberOfObservations += chunkObservations[chunk];
+            for (int block = 0; block < chunkBlocks[chunk].length; block++) {
+                chunkBlocks[chunk][block] = footer.readLong();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Recovers the index from the chunk headers, the chunks are read up to the first chunk that is incomplete or
+     * whose blocks do not match their checksum.
+     *
+     * @throws IOException if the chunk headers could not be read.
+     */
+    private void recoverChunks() throws IOException {
+        List<TrajectorySeries> series = new ArrayList<>();
+        List<Integer> observations = new ArrayList<>();
+        List<long[]> blocks = new ArrayList<>();
+        CRC32 checksum = new CRC32();
+        long offset = headerLength;
+        while (true) {
+            ByteBuffer headerRegion = region(offset, fileSize - offset);
+            DataInputStream header = new DataInputStream(new BufferInputStream(headerRegion));
+            int chunkObservations;
+            List<TrajectorySeries> addedSeries = new ArrayList<>();
+            int expectedChecksum;
+            long[] chunkBlocks;
+            try {
+                if (header.readInt() != CHUNK_MAGIC) {
+                    break;
+                }
+                chunkObservations = header.readInt();
+                int numberOfSeries = header.readInt();
+                if (chunkObservations < 0 || numberOfSeries < series.size()) {
+                    break;
+                }
+                while (series.size() + addedSeries.size() < numberOfSeries) {
+                    addedSeries.add(new TrajectorySeries(header.readUTF(), header.readUTF(), header.readUTF()));
+                }
+                expectedChecksum = header.readInt();
+                chunkBlocks = new long[2 + 2 * numberOfSeries];
+                for (int block = 1; block < chunkBlocks.length; block += 2) {
+                    chunkBlocks[block] = header.readInt();
+                }
+            } catch (IOException e) {
+                // the header was not written completely
+                break;
+            }
+            long blocksOffset = offset + headerRegion.position();
+            long blockOffset = blocksOffset;
+            for (int block = 0; block < chunkBlocks.length; block += 2) {
+                chunkBlocks[block] = blockOffset;
+                blockOffset += Math.max(chunkBlocks[block + 1], 0);
+            }
+            if (blockOffset > fileSize) {
+                break;
+            }
+            checksum.reset();
+            checksum.update(region(blocksOffset, blockOffset - blocksOffset));
+            if ((int) checksum.getValue() != expectedChecksum) {
+                break;
+            }
+            series.addAll(addedSeries);
+            observations.add(chunkObservations);
+            blocks.add(chunkBlocks);
+            offset = blockOffset;
+        }
+        for (int seriesIndex = 0; seriesIndex < series.size(); seriesIndex++) {
+            seriesIndices.put(series.get(seriesIndex), seriesIndex);
+        }
+        chunkObservations = new int[blocks.size()];
+        chunkBlocks = new long[blocks.size()][];
+        for (int chunk = 0; chunk < blocks.size(); chunk++) {
+            chunkObservations[chunk] = observations.get(chunk);
+            numberOfObservations += chunkObservations[chunk];
+            // series that were first observed in later chunks are missing
+            chunkBlocks[chunk] = Arrays.copyOf(blocks.get(chunk), 2 + 2 * series.size());
+            Arrays.fill(chunkBlocks[chunk], blocks.get(chunk).length, chunkBlocks[chunk].length, -1);
+        }
+        recovered = true;
+    }
+
+    public Path getTrajectoryFile() {
+        return trajectoryFile;
+    }
+
+    /**
+     * Returns true, if the trajectory had no footer and its chunks were recovered from the chunk headers.
+     *
+     * @return True, if the trajectory was recovered.
+     */
+    public boolean isRecovered() {
+        return recovered;
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    public String getTimeUnit() {
+        return timeUnit;
+    }
+
+    public String getConcentrationUnit() {
+        return concentrationUnit;
+    }
+
+    public int getNumberOfObservations() {
+        return numberOfObservations;
+    }
+
+    public List<TrajectorySeries> getSeries() {
+        return Collections.unmodifiableList(new ArrayList<>(seriesIndices.keySet()));
+    }
+
+    /**
+     * Reads the times of all observations.
+     *
+     * @return The times.
+     * @throws IOException if the time axis could not be read.
+     */
+    public double[] readTimes() throws IOException {
+        double[] times = new double[numberOfObservations];
+        long[] timeDeltas = new long[BinaryTrajectorySink.DEFAULT_CHUNK_SIZE];
+        int observation = 0;
+        for (int chunk = 0; chunk < chunkBlocks.length; chunk++) {
+            int observations = chunkObservations[chunk];
+            if (timeDeltas.length < observations) {
+                timeDeltas = new long[observations];
+            }
+            readBlock(chunk, 0).asLongBuffer().get(timeDeltas, 0, observations);
+            // undo delta encoding of the time bits
+            long bits = 0;
+            for (int index = 0; index < observations; index++) {
+                bits += timeDeltas[index];
+                times[observation++] = Double.longBitsToDouble(bits);
+            }
+        }
+        return times;
+    }
+
+    /**
+     * Reads the concentrations of a single series for all observations. Observations where the series was not
+     * observed are {@link Double#NaN}.
+     *
+     * @param node The identifier of the node.
+     * @param subsection The identifier of the subsection.
+     * @param entity The identifier of the entity.
+     * @return The concentrations.
+     * @throws IOException if the series could not be read.
+     */
+    public double[] readSeries(String node, String subsection, String entity) throws IOException {
+        return readSeries(new TrajectorySeries(node, subsection, entity));
+    }
+
+    public double[] readSeries(TrajectorySeries series) throws IOException {
+        Integer seriesIndex = seriesIndices.get(series);
+        if (seriesIndex == null) {
+            throw new IllegalArgumentException("The series " + series + " is not part of " + trajectoryFile + ".");
+        }
+        return readColumn(2 + 2 * seriesIndex);
+    }
+
+    private double[] readColumn(int blockIndex) throws IOException {
+        double[] values = new double[numberOfObservations];
+        int observation = 0;
+        for (int chunk = 0; chunk < chunkBlocks.length; chunk++) {
+            int observations = chunkObservations[chunk];
+            if (chunkBlocks[chunk][blockIndex + 1] < 0) {
+                for (int index = 0; index < observations; index++) {
+                    values[observation++] = Double.NaN;
+                }
+                continue;
+            }
+            readBlock(chunk, blockIndex).asDoubleBuffer().get(values, observation, observations);
+            observation += observations;
+        }
+        return values;
+    }
+
+    private ByteBuffer readBlock(int chunk, int blockIndex) throws IOException {
+        ByteBuffer block = region(chunkBlocks[chunk][blockIndex], chunkBlocks[chunk][blockIndex + 1]);
+        if (compressed) {
+            block = inflate(block, chunkObservations[chunk] * Double.BYTES);
+        }
+        return block;
+    }
+
+    private ByteBuffer inflate(ByteBuffer block, int length) throws IOException {
+        byte[] input = new byte[block.remaining()];
+        block.get(input);
+        byte[] output = new byte[length];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(input);
+            int inflated = 0;
+            while (inflated < length && !inflater.finished()) {
+                int bytes = inflater.inflate(output, inflated, length - inflated);
+                if (bytes == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += bytes;
+            }
+            if (inflated != length) {
+                throw new IOException("Corrupt block in " + trajectoryFile + ".");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt block in " + trajectoryFile + ".", e);
+        } finally {
+            inflater.end();
+        }
+        return ByteBuffer.wrap(output);
+    }
+
+    private ByteBuffer region(long offset, long length) throws IOException {
+        if (offset < 0 || length < 0 || offset + length > fileSize) {
+            throw new IOException("Invalid block reference in " + trajectoryFile + ".");
+        }
+        if (mapping != null) {
+            ByteBuffer region = mapping.duplicate();
+            region.position((int) offset);
+            region.limit((int) (offset + length));
+            return region.slice();
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Reads from a byte buffer.
+     */
+    private static class BufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int read = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, read);
+            return read;
+        }
+
+    }
+
+}
@@ -0,0 +1,444 @@
+package bio.singa.simulation.runner.trajectories;
+
+import bio.singa.features.quantities.MolarConcentration;
+import bio.singa.simulation.events.GraphUpdatedEvent;
+import bio.singa.simulation.model.simulation.Simulation;
+import bio.singa.simulation.trajectories.nested.TrajectoryData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.measure.Quantity;
+import javax.measure.Unit;
+import javax.measure.quantity.Time;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import static bio.singa.simulation.runner.trajectories.BinaryTrajectoryFormat.*;
+
+/**
+ * Writes observations in the binary columnar trajectory format (see {@link BinaryTrajectoryFormat}). Observations are
+ * collected in chunks of primitive doubles, every completed chunk is written as one block per column, such that
+ * memory use is bounded by the chunk size. The index of all blocks is written as footer when the sink is closed and
+ * allows {@link BinaryTrajectoryReader} to read single series without decoding the rest of the file. Every chunk is
+ * preceded by a header with the lengths and the checksum of its blocks, that is completed after the blocks are
+ * written, such that the chunks of a trajectory without footer (e.g. of a runner that died) can be recovered. A checkpoint
+ * writes the current chunk, its state is the length of the written blocks and the index, from which a resumed sink
+ * continues to append chunks.
+ *
+ * @author cl
+ */
+public class BinaryTrajectorySink implements TrajectorySink {
+
+    private static final Logger logger = LoggerFactory.getLogger(BinaryTrajectorySink.class);
+
+    public static final int DEFAULT_CHUNK_SIZE = 1024;
+
+    private final Simulation simulation;
+    private final Unit<Time> timeUnit;
+    private final Unit<MolarConcentration> concentrationUnit;
+    private final Path trajectoryFile;
+    private final boolean compressed;
+    private final int chunkSize;
+    // the elapsed time of the checkpoint the simulation was resumed from
+    private final double timeOffset;
+
+    private final FileChannel channel;
+    private final Deflater deflater;
+    private final CRC32 checksum;
+    private byte[] deflateBuffer;
+    private ByteBuffer columnBuffer;
+
+    // the index of every series by series
+    private final Map<TrajectorySeries, Integer> seriesIndices;
+    // the values of the current chunk by series index
+    private final List<double[]> seriesValues;
+    private final double[] times;
+    // the delta encoded bits of the times of the current chunk
+    private final long[] timeDeltas;
+    private int observations;
+    // the block offsets and lengths of every written chunk
+    private final List<long[]> chunkIndex;
+    private final List<Integer> chunkObservations;
+    // the number of series, that were part of a chunk header
+    private int writtenSeries;
+
+    private long position;
+    private long writeTime;
+    private IOException failure;
+
+    public BinaryTrajectorySink(Simulation simulation, Unit<Time> timeUnit, Unit<MolarConcentration> concentrationUnit, Path trajectoryFile, boolean compressed) throws IOException {
+        this(simulation, timeUnit, concentrationUnit, trajectoryFile, compressed, DEFAULT_CHUNK_SIZE);
+    }
+
+    public BinaryTrajectorySink(Simulation simulation, Unit<Time> timeUnit, Unit<MolarConcentration> concentrationUnit, Path trajectoryFile, boolean compressed, int chunkSize) throws IOException {
+        this(simulation, timeUnit, concentrationUnit, trajectoryFile, compressed, chunkSize, 0,
+                FileChannel.open(trajectoryFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+        writeHeader();
+    }
+
+    private BinaryTrajectorySink(Simulation simulation, Unit<Time> timeUnit, Unit<MolarConcentration> concentrationUnit, Path trajectoryFile, boolean compressed, int chunkSize, double timeOffset, FileChannel channel) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("The chunk size has to be positive.");
+        }
+        this.simulation = simulation;
+        this.timeUnit = timeUnit;
+        this.concentrationUnit = concentrationUnit;
+        this.trajectoryFile = trajectoryFile;
+        this.compressed = compressed;
+        this.chunkSize = chunkSize;
+        this.timeOffset = timeOffset;
+        this.channel = channel;
+        deflater = compressed ? new Deflater(Deflater.BEST_SPEED) : null;
+        checksum = new CRC32();
+        seriesIndices = new LinkedHashMap<>();
+        seriesValues = new ArrayList<>();
+        times = new double[chunkSize];
+        timeDeltas = new long[chunkSize];
+        chunkIndex = new ArrayList<>();
+        chunkObservations = new ArrayList<>();
+        columnBuffer = ByteBuffer.allocate(chunkSize * Double.BYTES);
+    }
+
+    /**
+     * Continues a trajectory from the state returned by {@link #checkpoint()}. Blocks that were written after the
+     * checkpoint are removed, the times of further observations are offset by the elapsed time of the checkpoint.
+     *
+     * @param simulation The resumed simulation.
+     * @param timeUnit The time unit.
+     * @param concentrationUnit The concentration unit.
+     * @param trajectoryFile The trajectory file.
+     * @param state The state of the sink at the checkpoint.
+     * @param timeOffset The elapsed time of the checkpoint.
+     * @return The resumed sink.
+     * @throws IOException if the trajectory is missing or shorter than at the checkpoint.
+     */
+    public static BinaryTrajectorySink resume(Simulation simulation, Unit<Time> timeUnit, Unit<MolarConcentration> concentrationUnit, Path trajectoryFile, byte[] state, Quantity<Time> timeOffset) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(state));
+        boolean compressed = (input.readByte() & FLAG_DEFLATE) != 0;
+        long position = input.readLong();
+        FileChannel channel = FileChannel.open(trajectoryFile, StandardOpenOption.WRITE);
+        BinaryTrajectorySink sink;
+        try {
+            if (channel.size() < position) {
+                throw new IOException("The trajectory " + trajectoryFile + " is shorter than at its checkpoint.");
+            }
+            channel.truncate(position);
+            channel.position(position);
+            sink = new BinaryTrajectorySink(simulation, timeUnit, concentrationUnit, trajectoryFile, compressed, DEFAULT_CHUNK_SIZE,
+                    timeOffset.to(timeUnit).getValue().doubleValue(), channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        sink.position = position;
+        sink.readIndex(input);
+        return sink;
+    }
+
+    private void writeHeader() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(bytes);
+        header.writeInt(MAGIC);
+        header.writeShort(VERSION);
+        header.writeByte(compressed ? FLAG_DEFLATE : 0);
+        header.writeUTF(String.valueOf(timeUnit));
+        header.writeUTF(String.valueOf(concentrationUnit));
+        header.flush();
+        write(ByteBuffer.wrap(bytes.toByteArray()));
+    }
+
+    @Override
+    public void onEventReceived(GraphUpdatedEvent event) {
+        if (failure != null) {
+            return;
+        }
+        long start = System.nanoTime();
+        beginObservation(event.getElapsedTime().to(timeUnit).getValue().doubleValue());
+        TrajectoryData.of(simulation.getUpdatables(), concentrationUnit).getConcentrationData().forEach((updatable, dataPoint) -> {
+            String node = updatable.getStringIdentifier();
+            dataPoint.getConcentrations().forEach((subsection, concentrations) -> {
+                String subsectionIdentifier = subsection.getIdentifier();
+                concentrations.forEach((entity, concentration) ->
+                        record(new TrajectorySeries(node, subsectionIdentifier, String.valueOf(entity.getIdentifier())), concentration.doubleValue()));
+            });
+        });
+        completeObservation();
+        writeTime += System.nanoTime() - start;
+    }
+
+    /**
+     * Starts a new observation.
+     *
+     * @param elapsedTime The elapsed time of the observation in the time unit of the trajectory.
+     */
+    void beginObservation(double elapsedTime) {
+        times[observations] = timeOffset + elapsedTime;
+    }
+
+    /**
+     * Records the concentration of a series for the current observation.
+     *
+     * @param series The series.
+     * @param concentration The concentration in the concentration unit of the trajectory.
+     */
+    void record(TrajectorySeries series, double concentration) {
+        getValues(series)[observations] = concentration;
+    }
+
+    /**
+     * Completes the current observation and writes the chunk once it is full.
+     */
+    void completeObservation() {
+        observations++;
+        if (observations == chunkSize) {
+            try {
+                writeChunk();
+            } catch (IOException e) {
+                logger.error("unable to write observations to {}", trajectoryFile, e);
+                failure = e;
+            }
+        }
+    }
+
+    private double[] getValues(TrajectorySeries series) {
+        Integer seriesIndex = seriesIndices.get(series);
+        if (seriesIndex == null) {
+            // series that appear later on are missing in earlier observations
+            seriesIndex = seriesValues.size();
+            seriesIndices.put(series, seriesIndex);
+            double[] values = new double[chunkSize];
+            Arrays.fill(values, Double.NaN);
+            seriesValues.add(values);
+        }
+        return seriesValues.get(seriesIndex);
+    }
+
+    private void writeChunk() throws IOException {
+        // offset and length of the time block, followed by offset and length of every series block
+        long[] blocks = new long[2 + 2 * seriesValues.size()];
+        // the header is written without chunk magic and completed once the blocks are written
+        long chunkOffset = position;
+        write(chunkHeader(0, blocks));
+        checksum.reset();
+        // delta encode the bits of the time axis, differences of the times themselves would not be exact
+        long previousBits = 0;
+        for (int observation = 0; observation < observations; observation++) {
+            long bits = Double.doubleToLongBits(times[observation]);
+            timeDeltas[observation] = bits - previousBits;
+            previousBits = bits;
+        }
+        writeTimeColumn(blocks);
+        for (int seriesIndex = 0; seriesIndex < seriesValues.size(); seriesIndex++) {
+            double[] values = seriesValues.get(seriesIndex);
+            writeColumn(values, blocks, 2 + 2 * seriesIndex);
+            Arrays.fill(values, Double.NaN);
+        }
+        ByteBuffer chunkHeader = chunkHeader(CHUNK_MAGIC, blocks);
+        while (chunkHeader.hasRemaining()) {
+            chunkOffset += channel.write(chunkHeader, chunkOffset);
+        }
+        writtenSeries = seriesValues.size();
+        chunkIndex.add(blocks);
+        chunkObservations.add(observations);
+        observations = 0;
+    }
+
+    private ByteBuffer chunkHeader(int chunkMagic, long[] blocks) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(bytes);
+        header.writeInt(chunkMagic);
+        header.writeInt(observations);
+        header.writeInt(seriesValues.size());
+        // series that were added since the previous chunk
+        int seriesIndex = 0;
+        for (TrajectorySeries series : seriesIndices.keySet()) {
+            if (seriesIndex++ >= writtenSeries) {
+                header.writeUTF(series.getNode());
+                header.writeUTF(series.getSubsection());
+                header.writeUTF(series.getEntity());
+            }
+        }
+        header.writeInt((int) checksum.getValue());
+        for (int blockIndex = 1; blockIndex < blocks.length; blockIndex += 2) {
+            header.writeInt((int) blocks[blockIndex]);
+        }
+        header.flush();
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    private void writeTimeColumn(long[] blocks) throws IOException {
+        columnBuffer.clear();
+        for (int observation = 0; observation < observations; observation++) {
+            columnBuffer.putLong(timeDeltas[observation]);
+        }
+        writeBlock(blocks, 0);
+    }
+
+    private void writeColumn(double[] values, long[] blocks, int blockIndex) throws IOException {
+        columnBuffer.clear();
+        for (int observation = 0; observation < observations; observation++) {
+            columnBuffer.putDouble(values[observation]);
+        }
+        writeBlock(blocks, blockIndex);
+    }
+
+    private void writeBlock(long[] blocks, int blockIndex) throws IOException {
+        columnBuffer.flip();
+        ByteBuffer block = compressed ? deflate(columnBuffer) : columnBuffer;
+        checksum.update(block.duplicate());
+        blocks[blockIndex] = position;
+        blocks[blockIndex + 1] = write(block);
+    }
+
+    private ByteBuffer deflate(ByteBuffer column) {
+        int length = column.remaining();
+        if (deflateBuffer == null || deflateBuffer.length < length + 64) {
+            deflateBuffer = new byte[length + length / 2 + 64];
+        }
+        deflater.reset();
+        deflater.setInput(column.array(), column.position(), length);
+        deflater.finish();
+        int deflatedLength = 0;
+        while (!deflater.finished()) {
+            if (deflatedLength == deflateBuffer.length) {
+                deflateBuffer = Arrays.copyOf(deflateBuffer, deflateBuffer.length * 2);
+            }
+            deflatedLength += deflater.deflate(deflateBuffer, deflatedLength, deflateBuffer.length - deflatedLength);
+        }
+        return ByteBuffer.wrap(deflateBuffer, 0, deflatedLength);
+    }
+
+    private long write(ByteBuffer buffer) throws IOException {
+        long length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer);
+        }
+        return length;
+    }
+
+    private void writeFooter() throws IOException {
+        long footerOffset = position;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream footer = new DataOutputStream(bytes);
+        writeIndex(footer);
+        footer.writeLong(footerOffset);
+        footer.writeInt(MAGIC);
+        footer.flush();
+        write(ByteBuffer.wrap(bytes.toByteArray()));
+    }
+
+    private void writeIndex(DataOutputStream footer) throws IOException {
+        footer.writeInt(seriesIndices.size());
+        for (TrajectorySeries series : seriesIndices.keySet()) {
+            footer.writeUTF(series.getNode());
+            footer.writeUTF(series.getSubsection());
+            footer.writeUTF(series.getEntity());
+        }
+        footer.writeInt(chunkIndex.size());
+        for (int chunk = 0; chunk < chunkIndex.size(); chunk++) {
+            long[] blocks = chunkIndex.get(chunk);
+            footer.writeInt(chunkObservations.get(chunk));
+            footer.writeLong(blocks[0]);
+            footer.writeLong(blocks[1]);
+            // series that were first observed in later chunks are missing
+            for (int seriesIndex = 0; seriesIndex < seriesIndices.size(); seriesIndex++) {
+                int blockIndex = 2 + 2 * seriesIndex;
+                if (blockIndex < blocks.length) {
+                    footer.writeLong(blocks[blockIndex]);
+                    footer.writeLong(blocks[blockIndex + 1]);
+                } else {
+                    footer.writeLong(-1);
+                    footer.writeLong(-1);
+                }
+            }
+        }
+    }
+
+    private void readIndex(DataInputStream index) throws IOException {
+        int seriesCount = index.readInt();
+        for (int seriesIndex = 0; seriesIndex < seriesCount; seriesIndex++) {
+            getValues(new TrajectorySeries(index.readUTF(), index.readUTF(), index.readUTF()));
+        }
+        int chunkCount = index.readInt();
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            chunkObservations.add(index.readInt());
+            long[] blocks = new long[2 + 2 * seriesCount];
+            for (int blockIndex = 0; blockIndex < blocks.length; blockIndex++) {
+                blocks[blockIndex] = index.readLong();
+            }
+            chunkIndex.add(blocks);
+        }
+        writtenSeries = seriesCount;
+    }
+
+    @Override
+    public byte[] checkpoint() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (observations > 0) {
+            writeChunk();
+        }
+        channel.force(false);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream state = new DataOutputStream(bytes);
+        state.writeByte(compressed ? FLAG_DEFLATE : 0);
+        state.writeLong(position);
+        writeIndex(state);
+        state.flush();
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public void close() throws IOException {
+        long start = System.nanoTime();
+        try {
+            if (failure == null) {
+                if (observations > 0) {
+                    writeChunk();
+                }
+                writeFooter();
+                channel.force(false);
+            }
+        } finally {
+            channel.close();
+            if (deflater != null) {
+                deflater.end();
+            }
+            writeTime += System.nanoTime() - start;
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public Path getTrajectoryFile() {
+        return trajectoryFile;
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return position;
+    }
+
+    @Override
+    public long getWriteTime() {
+        return writeTime / 1_000_000;
+    }
+
+}
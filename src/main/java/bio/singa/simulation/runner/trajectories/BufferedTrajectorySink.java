@@ -0,0 +1,71 @@
+package bio.singa.simulation.runner.trajectories;
+
+import bio.singa.exchange.trajectories.TrajectoryDataset;
+import bio.singa.features.quantities.MolarConcentration;
+import bio.singa.simulation.events.GraphUpdatedEvent;
+import bio.singa.simulation.model.simulation.Simulation;
+import bio.singa.simulation.trajectories.Recorders;
+import bio.singa.simulation.trajectories.nested.NestedUpdateRecorder;
+
+import javax.measure.Unit;
+import javax.measure.quantity.Time;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Keeps all observations in memory and writes them as a single trajectory dataset, once the simulation is finished. If
+ * the result folder is no longer available at that time, the trajectory is written to the backup folder.
+ *
+ * @author cl
+ */
+public class BufferedTrajectorySink implements TrajectorySink {
+
+    private final NestedUpdateRecorder recorder;
+    private final Path resultFolder;
+    private final Path backupFolder;
+    private Path trajectoryFile;
+    private long writeTime;
+
+    public BufferedTrajectorySink(Simulation simulation, Unit<Time> timeUnit, Unit<MolarConcentration> concentrationUnit, Path resultFolder, Path backupFolder) {
+        recorder = new NestedUpdateRecorder(simulation, timeUnit, concentrationUnit);
+        this.resultFolder = resultFolder;
+        this.backupFolder = backupFolder;
+        trajectoryFile = resultFolder.resolve(OutputFormat.JSON.getFileName());
+    }
+
+    @Override
+    public void onEventReceived(GraphUpdatedEvent event) {
+        recorder.onEventReceived(event);
+    }
+
+    @Override
+    public void close() throws IOException {
+        long start = System.nanoTime();
+        TrajectoryDataset trajectoryDataset = TrajectoryDataset.of(recorder.getTrajectories());
+        if (!Files.exists(resultFolder)) {
+            // try to write to backup
+            Recorders.createDirectories(backupFolder);
+            System.out.println("unable to write file, trying to backup results in " + backupFolder);
+            trajectoryFile = backupFolder.resolve(OutputFormat.JSON.getFileName());
+        }
+        trajectoryDataset.write(trajectoryFile.toFile());
+        writeTime = (System.nanoTime() - start) / 1_000_000;
+    }
+
+    @Override
+    public Path getTrajectoryFile() {
+        return trajectoryFile;
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return trajectoryFile.toFile().length();
+    }
+
+    @Override
+    public long getWriteTime() {
+        return writeTime;
+    }
+
+}
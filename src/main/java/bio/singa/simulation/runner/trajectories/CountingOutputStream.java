@@ -0,0 +1,41 @@
+package bio.singa.simulation.runner.trajectories;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream that counts the bytes written to the underlying stream.
+ *
+ * @author cl
+ */
+class CountingOutputStream extends FilterOutputStream {
+
+    private long count;
+
+    CountingOutputStream(OutputStream outputStream) {
+        this(outputStream, 0);
+    }
+
+    CountingOutputStream(OutputStream outputStream, long count) {
+        super(outputStream);
+        this.count = count;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        count++;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        out.write(bytes, offset, length);
+        count += length;
+    }
+
+    long getCount() {
+        return count;
+    }
+
+}
@@ -0,0 +1,199 @@
+package bio.singa.simulation.runner.trajectories;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Reads the concentrations of the last observation of a trajectory, that summarize the outcome of a simulation. Only
+ * the end of the trajectory is read: the last line of streamed trajectories and the last value of every series of
+ * binary trajectories.
+ *
+ * @author cl
+ */
+public class FinalObservation {
+
+    private static final int TAIL_CAPACITY = 64 * 1024;
+
+    private FinalObservation() {
+        // static reader
+    }
+
+    /**
+     * Reads the last observation from the trajectory in the result folder.
+     *
+     * @param resultFolder The result folder of a ticket.
+     * @return The concentrations by series or an empty optional, if there is no stream or binary trajectory.
+     * @throws IOException if the trajectory could not be read.
+     */
+    public static Optional<Map<TrajectorySeries, Double>> read(Path resultFolder) throws IOException {
+        Path binaryFile = resultFolder.resolve(OutputFormat.BINARY.getFileName());
+        if (Files.exists(binaryFile)) {
+            return Optional.of(readBinary(binaryFile));
+        }
+        Path streamFile = resultFolder.resolve(OutputFormat.STREAM.getFileName());
+        if (Files.exists(streamFile)) {
+            return Optional.of(readStream(streamFile));
+        }
+        return Optional.empty();
+    }
+
+    private static Map<TrajectorySeries, Double> readBinary(Path trajectoryFile) throws IOException {
+        Map<TrajectorySeries, Double> concentrations = new LinkedHashMap<>();
+        try (BinaryTrajectoryReader reader = BinaryTrajectoryReader.open(trajectoryFile)) {
+            for (TrajectorySeries series : reader.getSeries()) {
+                double[] values = reader.readSeries(series);
+                // series that disappeared are missing in later observations
+                for (int observation = values.length - 1; observation >= 0; observation--) {
+                    if (!Double.isNaN(values[observation])) {
+                        concentrations.put(series, values[observation]);
+                        break;
+                    }
+                }
+            }
+        }
+        return concentrations;
+    }
+
+    private static Map<TrajectorySeries, Double> readStream(Path trajectoryFile) throws IOException {
+        String line = readLastLine(trajectoryFile);
+        Map<TrajectorySeries, Double> concentrations = new LinkedHashMap<>();
+        int nodesStart = line.indexOf("\"nodes\":");
+        if (nodesStart < 0) {
+            // only the units have been written
+            return concentrations;
+        }
+        new ObservationParser(line, nodesStart + "\"nodes\":".length()).parseNodes(concentrations);
+        return concentrations;
+    }
+
+    private static String readLastLine(Path trajectoryFile) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(trajectoryFile.toFile(), "r")) {
+            long length = file.length();
+            // ignore the line break of the last line
+            long end = length;
+            if (end > 0) {
+                file.seek(end - 1);
+                if (file.read() == '\n') {
+                    end--;
+                }
+            }
+            int capacity = TAIL_CAPACITY;
+            while (true) {
+                long start = Math.max(0, end - capacity);
+                byte[] tail = new byte[(int) (end - start)];
+                file.seek(start);
+                file.readFully(tail);
+                for (int index = tail.length - 1; index >= 0; index--) {
+                    if (tail[index] == '\n') {
+                        return new String(tail, index + 1, tail.length - index - 1, StandardCharsets.UTF_8);
+                    }
+                }
+                if (start == 0) {
+                    return new String(tail, StandardCharsets.UTF_8);
+                }
+                capacity *= 2;
+            }
+        }
+    }
+
+    /**
+     * Parses the concentrations of one observation, that are nested by node, subsection and entity.
+     */
+    private static class ObservationParser {
+
+        private final String line;
+        private int position;
+
+        ObservationParser(String line, int position) {
+            this.line = line;
+            this.position = position;
+        }
+
+        void parseNodes(Map<TrajectorySeries, Double> concentrations) throws IOException {
+            expect('{');
+            while (!consume('}')) {
+                String node = parseString();
+                expect(':');
+                expect('{');
+                while (!consume('}')) {
+                    String subsection = parseString();
+                    expect(':');
+                    expect('{');
+                    while (!consume('}')) {
+                        String entity = parseString();
+                        expect(':');
+                        concentrations.put(new TrajectorySeries(node, subsection, entity), parseNumber());
+                        consume(',');
+                    }
+                    consume(',');
+                }
+                consume(',');
+            }
+        }
+
+        private boolean consume(char character) {
+            if (position < line.length() && line.charAt(position) == character) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char character) throws IOException {
+            if (!consume(character)) {
+                throw new IOException("Expected '" + character + "' at position " + position + " of the last observation.");
+            }
+        }
+
+        private String parseString() throws IOException {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (position < line.length()) {
+                char character = line.charAt(position++);
+                if (character == '"') {
+                    return value.toString();
+                }
+                if (character != '\\') {
+                    value.append(character);
+                    continue;
+                }
+                char escaped = line.charAt(position++);
+                switch (escaped) {
+                    case 'n':
+                        value.append('\n');
+                        break;
+                    case 't':
+                        value.append('\t');
+                        break;
+                    case 'u':
+                        value.append((char) Integer.parseInt(line.substring(position, position + 4), 16));
+                        position += 4;
+                        break;
+                    default:
+                        value.append(escaped);
+                }
+            }
+            throw new IOException("Unterminated string in the last observation.");
+        }
+
+        private double parseNumber() throws IOException {
+            int start = position;
+            while (position < line.length() && line.charAt(position) != ',' && line.charAt(position) != '}') {
+                position++;
+            }
+            try {
+                return Double.parseDouble(line.substring(start, position));
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid concentration at position " + start + " of the last observation.", e);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,35 @@
+package bio.singa.simulation.runner.trajectories;
+
+/**
+ * The formats trajectories can be written in.
+ *
+ * @author cl
+ */
+public enum OutputFormat {
+
+    /**
+     * A single trajectory dataset, written once the simulation is finished.
+     */
+    JSON("trajectory.json"),
+
+    /**
+     * JSON lines, one observation per line, written as soon as observations are emitted.
+     */
+    STREAM("trajectory.jsonl"),
+
+    /**
+     * Columns of doubles in the binary trajectory format, written in chunks while observations are emitted.
+     */
+    BINARY("trajectory.bin");
+
+    private final String fileName;
+
+    OutputFormat(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+}
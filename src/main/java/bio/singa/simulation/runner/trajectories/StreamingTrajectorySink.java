@@ -0,0 +1,205 @@
+package bio.singa.simulation.runner.trajectories;
+
+import bio.singa.features.quantities.MolarConcentration;
+import bio.singa.simulation.events.GraphUpdatedEvent;
+import bio.singa.simulation.model.simulation.Simulation;
+import bio.singa.simulation.trajectories.nested.TrajectoryData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.measure.Quantity;
+import javax.measure.Unit;
+import javax.measure.quantity.Time;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes every observation to disk as soon as it is emitted, instead of keeping the whole trajectory in memory. The
+ * trajectory is written as JSON lines: the first line holds the units, every following line holds one observation
+ * with the time and the concentrations by node, subsection and entity. Each observation is flushed after it has been
+ * written, such that only the current observation is buffered and all completed observations survive a crash. The
+ * state of a checkpoint is the length of the completed lines, a resumed sink truncates everything after it.
+ *
+ * @author cl
+ */
+public class StreamingTrajectorySink implements TrajectorySink {
+
+    private static final Logger logger = LoggerFactory.getLogger(StreamingTrajectorySink.class);
+
+    private static final int LINE_CAPACITY = 64 * 1024;
+
+    private final Simulation simulation;
+    private final Unit<Time> timeUnit;
+    private final Unit<MolarConcentration> concentrationUnit;
+    private final Path trajectoryFile;
+    // the elapsed time of the checkpoint the simulation was resumed from
+    private final double timeOffset;
+
+    private final CountingOutputStream outputStream;
+    private final Writer writer;
+    private final StringBuilder line;
+    private long writeTime;
+    private IOException failure;
+
+    public StreamingTrajectorySink(Simulation simulation, Unit<Time> timeUnit, Unit<MolarConcentration> concentrationUnit, Path trajectoryFile) throws IOException {
+        this(simulation, timeUnit, concentrationUnit, trajectoryFile, new CountingOutputStream(Files.newOutputStream(trajectoryFile)), 0);
+        line.append("{\"time-unit\":");
+        appendString(String.valueOf(timeUnit));
+        line.append(",\"concentration-unit\":");
+        appendString(String.valueOf(concentrationUnit));
+        line.append('}');
+        writeLine();
+    }
+
+    private StreamingTrajectorySink(Simulation simulation, Unit<Time> timeUnit, Unit<MolarConcentration> concentrationUnit, Path trajectoryFile, CountingOutputStream outputStream, double timeOffset) {
+        this.simulation = simulation;
+        this.timeUnit = timeUnit;
+        this.concentrationUnit = concentrationUnit;
+        this.trajectoryFile = trajectoryFile;
+        this.timeOffset = timeOffset;
+        this.outputStream = outputStream;
+        writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8);
+        line = new StringBuilder(LINE_CAPACITY);
+    }
+
+    /**
+     * Continues a trajectory from the state returned by {@link #checkpoint()}. Observations that were written after the
+     * checkpoint are removed, the times of further observations are offset by the elapsed time of the checkpoint.
+     *
+     * @param simulation The resumed simulation.
+     * @param timeUnit The time unit.
+     * @param concentrationUnit The concentration unit.
+     * @param trajectoryFile The trajectory file.
+     * @param state The state of the sink at the checkpoint.
+     * @param timeOffset The elapsed time of the checkpoint.
+     * @return The resumed sink.
+     * @throws IOException if the trajectory is missing or shorter than at the checkpoint.
+     */
+    public static StreamingTrajectorySink resume(Simulation simulation, Unit<Time> timeUnit, Unit<MolarConcentration> concentrationUnit, Path trajectoryFile, byte[] state, Quantity<Time> timeOffset) throws IOException {
+        long length = ByteBuffer.wrap(state).getLong();
+        try (FileChannel channel = FileChannel.open(trajectoryFile, StandardOpenOption.WRITE)) {
+            if (channel.size() < length) {
+                throw new IOException("The trajectory " + trajectoryFile + " is shorter than at its checkpoint.");
+            }
+            channel.truncate(length);
+        }
+        CountingOutputStream outputStream = new CountingOutputStream(Files.newOutputStream(trajectoryFile, StandardOpenOption.APPEND), length);
+        return new StreamingTrajectorySink(simulation, timeUnit, concentrationUnit, trajectoryFile, outputStream, timeOffset.to(timeUnit).getValue().doubleValue());
+    }
+
+    @Override
+    public void onEventReceived(GraphUpdatedEvent event) {
+        if (failure != null) {
+            return;
+        }
+        long start = System.nanoTime();
+        double time = timeOffset + event.getElapsedTime().to(timeUnit).getValue().doubleValue();
+        line.append("{\"time\":").append(time).append(",\"nodes\":{");
+        TrajectoryData.of(simulation.getUpdatables(), concentrationUnit).getConcentrationData().forEach((updatable, dataPoint) -> {
+            separate();
+            appendString(updatable.getStringIdentifier());
+            line.append(":{");
+            dataPoint.getConcentrations().forEach((subsection, concentrations) -> {
+                separate();
+                appendString(subsection.getIdentifier());
+                line.append(":{");
+                concentrations.forEach((entity, concentration) -> {
+                    separate();
+                    appendString(String.valueOf(entity.getIdentifier()));
+                    line.append(':').append(concentration.doubleValue());
+                });
+                line.append('}');
+            });
+            line.append('}');
+        });
+        line.append("}}");
+        try {
+            writeLine();
+        } catch (IOException e) {
+            logger.error("unable to write observation to {}", trajectoryFile, e);
+            failure = e;
+        }
+        writeTime += System.nanoTime() - start;
+    }
+
+    private void separate() {
+        if (line.charAt(line.length() - 1) != '{') {
+            line.append(',');
+        }
+    }
+
+    private void writeLine() throws IOException {
+        line.append('\n');
+        writer.append(line);
+        writer.flush();
+        line.setLength(0);
+    }
+
+    private void appendString(String value) {
+        line.append('"');
+        for (int index = 0; index < value.length(); index++) {
+            char character = value.charAt(index);
+            switch (character) {
+                case '"':
+                    line.append("\\\"");
+                    break;
+                case '\\':
+                    line.append("\\\\");
+                    break;
+                case '\n':
+                    line.append("\\n");
+                    break;
+                case '\t':
+                    line.append("\\t");
+                    break;
+                default:
+                    if (character < 0x20) {
+                        line.append(String.format("\\u%04x", (int) character));
+                    } else {
+                        line.append(character);
+                    }
+            }
+        }
+        line.append('"');
+    }
+
+    @Override
+    public byte[] checkpoint() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        // every completed line has already been flushed
+        return ByteBuffer.allocate(Long.BYTES).putLong(outputStream.getCount()).array();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public Path getTrajectoryFile() {
+        return trajectoryFile;
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return outputStream.getCount();
+    }
+
+    @Override
+    public long getWriteTime() {
+        return writeTime / 1_000_000;
+    }
+
+}
@@ -0,0 +1,54 @@
+package bio.singa.simulation.runner.trajectories;
+
+import java.util.Objects;
+
+/**
+ * Identifies the concentrations of a single entity in a single subsection of a single node over time.
+ *
+ * @author cl
+ */
+public class TrajectorySeries {
+
+    private final String node;
+    private final String subsection;
+    private final String entity;
+
+    public TrajectorySeries(String node, String subsection, String entity) {
+        this.node = node;
+        this.subsection = subsection;
+        this.entity = entity;
+    }
+
+    public String getNode() {
+        return node;
+    }
+
+    public String getSubsection() {
+        return subsection;
+    }
+
+    public String getEntity() {
+        return entity;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        TrajectorySeries that = (TrajectorySeries) o;
+        return Objects.equals(node, that.node) &&
+                Objects.equals(subsection, that.subsection) &&
+                Objects.equals(entity, that.entity);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(node, subsection, entity);
+    }
+
+    @Override
+    public String toString() {
+        return node + "/" + subsection + "/" + entity;
+    }
+
+}
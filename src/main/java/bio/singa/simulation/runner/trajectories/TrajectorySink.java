@@ -0,0 +1,59 @@
+package bio.singa.simulation.runner.trajectories;
+
+import bio.singa.core.events.UpdateEventListener;
+import bio.singa.simulation.events.GraphUpdatedEvent;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Receives the observations emitted during a simulation and persists them as trajectory. The trajectory is complete
+ * once the sink has been closed.
+ *
+ * @author cl
+ */
+public interface TrajectorySink extends UpdateEventListener<GraphUpdatedEvent>, Closeable {
+
+    /**
+     * Completes the trajectory.
+     *
+     * @throws IOException if the trajectory could not be written.
+     */
+    @Override
+    void close() throws IOException;
+
+    /**
+     * Makes all observations received so far durable and returns the state that is required to append further
+     * observations to the trajectory, after the simulation has been resumed from a checkpoint.
+     *
+     * @return The state of the sink.
+     * @throws IOException if the observations could not be written.
+     * @throws UnsupportedOperationException if the trajectory can not be resumed.
+     */
+    default byte[] checkpoint() throws IOException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support checkpoints.");
+    }
+
+    /**
+     * Returns the file the trajectory has been written to.
+     *
+     * @return The trajectory file.
+     */
+    Path getTrajectoryFile();
+
+    /**
+     * Returns the number of bytes written so far.
+     *
+     * @return The number of bytes.
+     */
+    long getBytesWritten();
+
+    /**
+     * Returns the time spent on serializing and writing the trajectory so far.
+     *
+     * @return The time in milliseconds.
+     */
+    long getWriteTime();
+
+}
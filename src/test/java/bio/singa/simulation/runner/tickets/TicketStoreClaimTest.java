@@ -0,0 +1,261 @@
+package bio.singa.simulation.runner.tickets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Claims the tickets of a store from multiple runner processes at once and checks that every ticket is claimed exactly
+ * once. The claimers are separate JVMs started with the {@link #main(String[])} method of this test, since stores
+ * opened twice in the same JVM share their locks. The claim throughput with 1, 8 and 64 claimers is measured by the
+ * TicketClaimBenchmark instead, since wall clock times of a few JVMs are no reliable test criterion.
+ *
+ * @author cl
+ */
+public class TicketStoreClaimTest {
+
+    private static final int TICKETS = 2000;
+    private static final int CLAIMERS = 4;
+    private static final int MAXIMAL_BATCH_SIZE = 4;
+
+    private static final String READY_FILE = "claimer-%d.ready";
+    private static final String CLAIMS_FILE = "claimer-%d.claims";
+    private static final String START_FILE = "claimers.start";
+
+    private Path ticketPath;
+
+    @Before
+    public void createTicketDirectory() throws IOException {
+        ticketPath = Files.createTempDirectory("ticket-store-test");
+    }
+
+    @After
+    public void deleteTicketDirectory() throws IOException {
+        Files.walkFileTree(ticketPath, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path directory, IOException e) throws IOException {
+                Files.delete(directory);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @Test
+    public void shouldClaimDirectoryTicketsExactlyOnce() throws Exception {
+        try (TicketStore ticketStore = DirectoryTicketStore.create(ticketPath)) {
+            publishTickets(ticketStore);
+        }
+        assertClaimedExactlyOnce(claimInProcesses(ticketPath, CLAIMERS));
+    }
+
+    @Test
+    public void shouldClaimLedgerTicketsExactlyOnce() throws Exception {
+        try (TicketStore ticketStore = LedgerTicketStore.create(ticketPath)) {
+            publishTickets(ticketStore);
+        }
+        assertClaimedExactlyOnce(claimInProcesses(ticketPath, CLAIMERS));
+    }
+
+    @Test
+    public void shouldReplayLedgerJournal() throws Exception {
+        List<String> processingTickets = new ArrayList<>();
+        try (TicketStore ticketStore = LedgerTicketStore.create(ticketPath)) {
+            publishTickets(ticketStore);
+            for (StoredTicket ticket : ticketStore.claim(10)) {
+                processingTickets.add(ticket.getIdentifier());
+            }
+            ticketStore.complete(processingTickets.remove(0));
+            ticketStore.fail(processingTickets.remove(0));
+            ticketStore.release(processingTickets.remove(0));
+        }
+        try (TicketStore ticketStore = LedgerTicketStore.open(ticketPath)) {
+            assertEquals(TICKETS - 9, ticketStore.count(TicketState.OPEN));
+            assertEquals(7, ticketStore.count(TicketState.PROCESSING));
+            assertEquals(1, ticketStore.count(TicketState.DONE));
+            assertEquals(1, ticketStore.count(TicketState.FAILED));
+            assertEquals(processingTickets, ticketStore.list(TicketState.PROCESSING));
+            for (String processingTicket : processingTickets) {
+                assertTrue(ticketStore.getLease(processingTicket).get().isOwnedByCurrentProcess());
+            }
+        }
+    }
+
+    @Test
+    public void shouldNotClaimFailedTickets() throws Exception {
+        try (TicketStore ticketStore = DirectoryTicketStore.create(ticketPath)) {
+            publishTickets(ticketStore);
+            String failedTicket = ticketStore.claim().get().getIdentifier();
+            ticketStore.fail(failedTicket);
+            int claimedTickets = 0;
+            while (ticketStore.claim().isPresent()) {
+                claimedTickets++;
+            }
+            assertEquals(TICKETS - 1, claimedTickets);
+            assertEquals(1, ticketStore.count(TicketState.FAILED));
+            assertTrue(ticketStore.list(TicketState.FAILED).contains(failedTicket));
+        }
+    }
+
+    @Test
+    public void shouldRejectDuplicateTickets() throws Exception {
+        for (TicketStoreType type : TicketStoreType.values()) {
+            Path storePath = Files.createDirectory(ticketPath.resolve(type.name().toLowerCase()));
+            try (TicketStore ticketStore = TicketStore.create(type, storePath)) {
+                String identifier = UUID.randomUUID().toString();
+                ticketStore.publish(identifier, "first".getBytes(StandardCharsets.UTF_8));
+                try {
+                    ticketStore.publish(identifier, "second".getBytes(StandardCharsets.UTF_8));
+                    fail("duplicate ticket has been published to the " + type + " store");
+                } catch (IOException e) {
+                    // expected
+                }
+                assertEquals(1, ticketStore.count(TicketState.OPEN));
+                assertEquals("first", new String(ticketStore.claim().get().getPayload(), StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    @Test
+    public void shouldTakeOverAbandonedDirectoryLeases() throws Exception {
+        try (TicketStore ticketStore = DirectoryTicketStore.create(ticketPath)) {
+            String abandonedTicket = UUID.randomUUID().toString();
+            String leasedTicket = UUID.randomUUID().toString();
+            ticketStore.publish(abandonedTicket, new byte[0]);
+            ticketStore.publish(leasedTicket, new byte[0]);
+            // claimers that died before their rename and that are about to rename
+            new TicketLease("dead@host", System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(10)).write(ticketPath.resolve("leases").resolve(abandonedTicket));
+            new TicketLease("alive@host", System.currentTimeMillis()).write(ticketPath.resolve("leases").resolve(leasedTicket));
+            List<StoredTicket> claimedTickets = ticketStore.claim(2);
+            assertEquals(1, claimedTickets.size());
+            assertEquals(abandonedTicket, claimedTickets.get(0).getIdentifier());
+            assertTrue(ticketStore.getLease(abandonedTicket).get().isOwnedByCurrentProcess());
+            assertEquals("alive@host", ticketStore.getLease(leasedTicket).get().getOwner());
+            assertEquals(1, ticketStore.count(TicketState.OPEN));
+        }
+    }
+
+    private void publishTickets(TicketStore ticketStore) throws IOException {
+        List<StoredTicket> tickets = new ArrayList<>();
+        for (int ticket = 0; ticket < TICKETS; ticket++) {
+            String identifier = UUID.randomUUID().toString();
+            tickets.add(new StoredTicket(identifier, identifier.getBytes(StandardCharsets.UTF_8)));
+        }
+        ticketStore.publish(tickets);
+    }
+
+    /**
+     * Claims all tickets of the store at the given path with the given number of claimer processes. The claimers open
+     * the store, signal that they are ready and wait for the start file, such that the returned claims only depend on
+     * the claims themselves and not on the startup of the JVMs.
+     *
+     * @param storePath The ticket directory.
+     * @param claimers The number of claimer processes.
+     * @return The number of times every ticket has been claimed.
+     */
+    private Map<String, Integer> claimInProcesses(Path storePath, int claimers) throws Exception {
+        String javaExecutable = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        List<Process> processes = new ArrayList<>();
+        for (int claimer = 0; claimer < claimers; claimer++) {
+            processes.add(new ProcessBuilder(javaExecutable, "-cp", System.getProperty("java.class.path"),
+                    TicketStoreClaimTest.class.getName(), storePath.toString(), String.valueOf(claimer))
+                    .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start());
+        }
+        // wait until every claimer opened the store
+        long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1);
+        for (int claimer = 0; claimer < claimers; claimer++) {
+            while (!Files.exists(storePath.resolve(String.format(READY_FILE, claimer)))) {
+                assertTrue("claimer " + claimer + " did not start", System.currentTimeMillis() < deadline && processes.get(claimer).isAlive());
+                Thread.sleep(10);
+            }
+        }
+        Files.createFile(storePath.resolve(START_FILE));
+        for (Process process : processes) {
+            assertTrue(process.waitFor(1, TimeUnit.MINUTES));
+            assertEquals(0, process.exitValue());
+        }
+        Map<String, Integer> claims = new HashMap<>();
+        for (int claimer = 0; claimer < claimers; claimer++) {
+            for (String ticketId : Files.readAllLines(storePath.resolve(String.format(CLAIMS_FILE, claimer)), StandardCharsets.UTF_8)) {
+                claims.merge(ticketId, 1, Integer::sum);
+            }
+        }
+        return claims;
+    }
+
+    private void assertClaimedExactlyOnce(Map<String, Integer> claims) throws IOException {
+        assertEquals(TICKETS, claims.size());
+        for (Map.Entry<String, Integer> entry : claims.entrySet()) {
+            assertEquals("claims of " + entry.getKey(), 1, entry.getValue().intValue());
+        }
+        try (TicketStore ticketStore = TicketStore.open(ticketPath)) {
+            assertEquals(0, ticketStore.count(TicketState.OPEN));
+            assertEquals(0, ticketStore.count(TicketState.PROCESSING));
+            assertEquals(TICKETS, ticketStore.count(TicketState.DONE));
+        }
+    }
+
+    /**
+     * Runs a claimer process. The claimer claims random batches of tickets until the store has no open tickets, and
+     * writes the identifiers of its claimed tickets to its claims file.
+     *
+     * @param args The ticket path and the number of the claimer.
+     */
+    public static void main(String[] args) throws Exception {
+        Path ticketPath = Paths.get(args[0]);
+        int claimer = Integer.parseInt(args[1]);
+        Random random = new Random(claimer);
+        List<String> claimedTickets = new ArrayList<>();
+        try (TicketStore ticketStore = TicketStore.open(ticketPath)) {
+            Files.createFile(ticketPath.resolve(String.format(READY_FILE, claimer)));
+            while (!Files.exists(ticketPath.resolve(START_FILE))) {
+                Thread.sleep(1);
+            }
+            while (true) {
+                List<StoredTicket> batch = ticketStore.claim(1 + random.nextInt(MAXIMAL_BATCH_SIZE));
+                if (batch.isEmpty()) {
+                    if (!ticketStore.hasOpenTickets()) {
+                        break;
+                    }
+                    continue;
+                }
+                for (StoredTicket ticket : batch) {
+                    if (!ticket.getIdentifier().equals(new String(ticket.getPayload(), StandardCharsets.UTF_8))) {
+                        throw new IllegalStateException("payload of ticket " + ticket.getIdentifier() + " does not match");
+                    }
+                    ticketStore.complete(ticket.getIdentifier());
+                    claimedTickets.add(ticket.getIdentifier());
+                }
+            }
+        }
+        Files.write(ticketPath.resolve(String.format(CLAIMS_FILE, claimer)), claimedTickets, StandardCharsets.UTF_8);
+    }
+
+}
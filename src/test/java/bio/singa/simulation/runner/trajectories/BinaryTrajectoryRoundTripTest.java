@@ -0,0 +1,222 @@
+package bio.singa.simulation.runner.trajectories;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Writes trajectories with the {@link BinaryTrajectorySink} and reads them with the {@link BinaryTrajectoryReader},
+ * both for finished trajectories and for trajectories without footer, that are recovered from their chunk headers.
+ *
+ * @author cl
+ */
+public class BinaryTrajectoryRoundTripTest {
+
+    private static final int CHUNK_SIZE = 4;
+    private static final int OBSERVATIONS = 10;
+    // the observation at which the second series is observed for the first time
+    private static final int LATE_SERIES_START = 6;
+
+    private static final TrajectorySeries EARLY_SERIES = new TrajectorySeries("n(0,0)", "cytoplasm", "ATP");
+    private static final TrajectorySeries LATE_SERIES = new TrajectorySeries("n(0,1)", "membrane", "ADP");
+
+    private Path trajectoryPath;
+
+    @Before
+    public void createTrajectoryDirectory() throws IOException {
+        trajectoryPath = Files.createTempDirectory("trajectory-test");
+    }
+
+    @After
+    public void deleteTrajectoryDirectory() throws IOException {
+        Files.walkFileTree(trajectoryPath, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path directory, IOException e) throws IOException {
+                Files.delete(directory);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @Test
+    public void shouldReadFinishedTrajectory() throws IOException {
+        for (boolean compressed : new boolean[]{false, true}) {
+            Path trajectoryFile = trajectoryPath.resolve("finished-" + compressed + ".bin");
+            BinaryTrajectorySink sink = new BinaryTrajectorySink(null, null, null, trajectoryFile, compressed, CHUNK_SIZE);
+            writeObservations(sink, 0, OBSERVATIONS);
+            sink.close();
+            try (BinaryTrajectoryReader reader = BinaryTrajectoryReader.open(trajectoryFile)) {
+                assertFalse(reader.isRecovered());
+                assertEquals(compressed, reader.isCompressed());
+                assertEquals(Arrays.asList(EARLY_SERIES, LATE_SERIES), reader.getSeries());
+                assertObservations(reader, OBSERVATIONS);
+            }
+        }
+    }
+
+    @Test
+    public void shouldRecoverTrajectoryWithoutFooter() throws IOException {
+        for (boolean compressed : new boolean[]{false, true}) {
+            Path trajectoryFile = trajectoryPath.resolve("unfinished-" + compressed + ".bin");
+            Path recoveredFile = trajectoryPath.resolve("recovered-" + compressed + ".bin");
+            try (BinaryTrajectorySink sink = new BinaryTrajectorySink(null, null, null, trajectoryFile, compressed, CHUNK_SIZE)) {
+                writeObservations(sink, 0, OBSERVATIONS);
+                // the checkpoint writes the incomplete chunk, the footer is only written when the sink is closed
+                sink.checkpoint();
+                Files.copy(trajectoryFile, recoveredFile);
+            }
+            try (BinaryTrajectoryReader reader = BinaryTrajectoryReader.open(recoveredFile)) {
+                assertTrue(reader.isRecovered());
+                assertEquals(Arrays.asList(EARLY_SERIES, LATE_SERIES), reader.getSeries());
+                assertObservations(reader, OBSERVATIONS);
+            }
+        }
+    }
+
+    @Test
+    public void shouldRecoverCompleteChunksOfTruncatedTrajectory() throws IOException {
+        for (boolean compressed : new boolean[]{false, true}) {
+            Path trajectoryFile = trajectoryPath.resolve("truncated-" + compressed + ".bin");
+            long[] chunkEnds = new long[3];
+            try (BinaryTrajectorySink sink = new BinaryTrajectorySink(null, null, null, trajectoryFile, compressed, CHUNK_SIZE)) {
+                for (int chunk = 0; chunk < chunkEnds.length; chunk++) {
+                    writeObservations(sink, chunk * CHUNK_SIZE, (chunk + 1) * CHUNK_SIZE);
+                    chunkEnds[chunk] = sink.getBytesWritten();
+                }
+            }
+            // the trailer is incomplete, all chunks remain readable
+            assertRecovered(truncatedCopy(trajectoryFile, Files.size(trajectoryFile) - 1), 3 * CHUNK_SIZE);
+            // the third chunk is incomplete
+            assertRecovered(truncatedCopy(trajectoryFile, chunkEnds[2] - 1), 2 * CHUNK_SIZE);
+            // the late series is only part of the incomplete second chunk
+            Path firstChunk = truncatedCopy(trajectoryFile, chunkEnds[1] - 1);
+            assertRecovered(firstChunk, CHUNK_SIZE);
+            try (BinaryTrajectoryReader reader = BinaryTrajectoryReader.open(firstChunk)) {
+                assertEquals(Arrays.asList(EARLY_SERIES), reader.getSeries());
+            }
+            // only the header remains
+            Path header = truncatedCopy(trajectoryFile, chunkEnds[0] - 1);
+            assertRecovered(header, 0);
+            try (BinaryTrajectoryReader reader = BinaryTrajectoryReader.open(header)) {
+                assertTrue(reader.getSeries().isEmpty());
+            }
+        }
+    }
+
+    @Test
+    public void shouldStopRecoveryAtCorruptChunk() throws IOException {
+        Path trajectoryFile = trajectoryPath.resolve("corrupt.bin");
+        long[] chunkEnds = new long[2];
+        try (BinaryTrajectorySink sink = new BinaryTrajectorySink(null, null, null, trajectoryFile, false, CHUNK_SIZE)) {
+            for (int chunk = 0; chunk < chunkEnds.length; chunk++) {
+                writeObservations(sink, chunk * CHUNK_SIZE, (chunk + 1) * CHUNK_SIZE);
+                chunkEnds[chunk] = sink.getBytesWritten();
+            }
+        }
+        Path corruptFile = truncatedCopy(trajectoryFile, chunkEnds[1]);
+        try (FileChannel channel = FileChannel.open(corruptFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // flip the last byte of the last block of the second chunk
+            ByteBuffer lastByte = ByteBuffer.allocate(1);
+            channel.read(lastByte, chunkEnds[1] - 1);
+            lastByte.put(0, (byte) ~lastByte.get(0));
+            lastByte.rewind();
+            channel.write(lastByte, chunkEnds[1] - 1);
+        }
+        assertRecovered(corruptFile, CHUNK_SIZE);
+    }
+
+    @Test
+    public void shouldRejectForeignFiles() throws IOException {
+        Path foreignFile = trajectoryPath.resolve("foreign.bin");
+        Files.write(foreignFile, "time,concentration\n0.0,1.0\n".getBytes(StandardCharsets.UTF_8));
+        try (BinaryTrajectoryReader reader = BinaryTrajectoryReader.open(foreignFile)) {
+            fail("opened " + foreignFile + " as trajectory");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static void writeObservations(BinaryTrajectorySink sink, int firstObservation, int lastObservation) {
+        for (int observation = firstObservation; observation < lastObservation; observation++) {
+            sink.beginObservation(timeOf(observation));
+            sink.record(EARLY_SERIES, earlyConcentrationOf(observation));
+            if (observation >= LATE_SERIES_START) {
+                sink.record(LATE_SERIES, lateConcentrationOf(observation));
+            }
+            sink.completeObservation();
+        }
+    }
+
+    private static double timeOf(int observation) {
+        // irregular steps of times that are no dyadic fractions, a round trip of their differences would not be exact
+        return 0.1 * observation + 0.01 * observation * observation;
+    }
+
+    private static double earlyConcentrationOf(int observation) {
+        return 1.0 / (observation + 1);
+    }
+
+    private static double lateConcentrationOf(int observation) {
+        return Math.sqrt(observation);
+    }
+
+    private static void assertObservations(BinaryTrajectoryReader reader, int observations) throws IOException {
+        double[] times = new double[observations];
+        double[] earlyConcentrations = new double[observations];
+        double[] lateConcentrations = new double[observations];
+        for (int observation = 0; observation < observations; observation++) {
+            times[observation] = timeOf(observation);
+            earlyConcentrations[observation] = earlyConcentrationOf(observation);
+            lateConcentrations[observation] = observation < LATE_SERIES_START ? Double.NaN : lateConcentrationOf(observation);
+        }
+        assertEquals(observations, reader.getNumberOfObservations());
+        assertArrayEquals(times, reader.readTimes(), 0.0);
+        if (reader.getSeries().contains(EARLY_SERIES)) {
+            assertArrayEquals(earlyConcentrations, reader.readSeries(EARLY_SERIES), 0.0);
+        }
+        if (reader.getSeries().contains(LATE_SERIES)) {
+            assertArrayEquals(lateConcentrations, reader.readSeries(LATE_SERIES), 0.0);
+        }
+    }
+
+    private static void assertRecovered(Path trajectoryFile, int observations) throws IOException {
+        try (BinaryTrajectoryReader reader = BinaryTrajectoryReader.open(trajectoryFile)) {
+            assertTrue(reader.isRecovered());
+            assertObservations(reader, observations);
+        }
+    }
+
+    private Path truncatedCopy(Path trajectoryFile, long size) throws IOException {
+        Path truncatedFile = trajectoryPath.resolve(trajectoryFile.getFileName() + "-" + size);
+        Files.copy(trajectoryFile, truncatedFile);
+        try (FileChannel channel = FileChannel.open(truncatedFile, StandardOpenOption.WRITE)) {
+            channel.truncate(size);
+        }
+        return truncatedFile;
+    }
+
+}